@@ -30,6 +30,7 @@ import org.red5.server.net.rtmp.event.Notify;
 import org.red5.server.net.rtmp.event.VideoData;
 import org.slf4j.Logger;
 
+import com.xuggle.ferry.JNIMemoryBudget;
 import com.xuggle.xuggler.IAudioResampler;
 import com.xuggle.xuggler.IAudioSamples;
 import com.xuggle.xuggler.ICodec;
@@ -412,6 +413,9 @@ public class Transcoder implements Runnable
   
       EtmPoint fullLoop = profiler.createPoint(this.getClass().getName()+"#transcode_loop");
       try {
+        // pause demuxing while we're over our native memory budget so
+        // the encoders and listeners can catch up
+        JNIMemoryBudget.getCurrent().awaitCapacity();
         EtmPoint point= profiler.createPoint(this.getClass().getName()+"#readNextPacket");
         try {
           retval = mInContainer.readNextPacket(iPacket);
@@ -114,6 +114,7 @@ static jmethodID sByteBufferAllocateDirectMethod = 0;
 static jclass sJNIMemoryAllocatorClass = 0;
 static jmethodID sJNIMemoryAllocatorMallocMethod = 0;
 static jmethodID sJNIMemoryAllocatorFreeMethod = 0;
+static jmethodID sJNIMemoryAllocatorReleasedMethod = 0;
 #endif // VSJNI_USE_JVM_FOR_MEMMANAGEMENT
 /*
  * This method is called by the JNIHelper when it loads up and
@@ -172,6 +173,11 @@ VSJNI_MemoryManagerInit(JavaVM* aJVM)
     if (!sJNIMemoryAllocatorFreeMethod)
       throw std::runtime_error(
           "could not find free(byte[]) method in com.xuggle.ferry.JNIMemoryAllocator");
+    sJNIMemoryAllocatorReleasedMethod = env->GetMethodID(cls, "released",
+        "([B)V");
+    if (!sJNIMemoryAllocatorReleasedMethod)
+      throw std::runtime_error(
+          "could not find released(byte[]) method in com.xuggle.ferry.JNIMemoryAllocator");
   }
   catch (std::exception e)
   {
@@ -554,19 +560,19 @@ VSJNI_free(void * mem)
         if (env->ExceptionCheck())
           throw std::runtime_error("got java exception");
 
-        if (header->mAllocator)
+        // the header lives in the array, so copy this out before we
+        // release it
+        jobject allocator = header->mAllocator;
+        if (allocator)
         {
           // Tell the allocator we're done
           // We're relying on the fact that the WeakReference passed in
           // is always outlived
           // by the allocator object (knock on wood)
-          env->CallVoidMethod(header->mAllocator,
+          env->CallVoidMethod(allocator,
               sJNIMemoryAllocatorFreeMethod, header->mRef);
           if (env->ExceptionCheck())
             throw std::runtime_error("got java exception");
-          env->DeleteGlobalRef(header->mAllocator);
-          if (env->ExceptionCheck())
-            throw std::runtime_error("got java exception");
         }
 
         // Get a local copy so that when we delete the global
@@ -592,6 +598,16 @@ VSJNI_free(void * mem)
           if (env->ExceptionCheck())
             throw std::runtime_error("got java exception");
 
+          // only now is it safe for the allocator to hand the array out
+          // again
+          if (allocator)
+          {
+            env->CallVoidMethod(allocator,
+                sJNIMemoryAllocatorReleasedMethod, array);
+            if (env->ExceptionCheck())
+              throw std::runtime_error("got java exception");
+          }
+
           // and we should be careful to delete our local ref because
           // we don't know how deep we are in native calls, or when
           // we'll actually return to the jvm
@@ -599,6 +615,12 @@ VSJNI_free(void * mem)
           if (env->ExceptionCheck())
             throw std::runtime_error("got java exception");
         }
+        if (allocator)
+        {
+          env->DeleteGlobalRef(allocator);
+          if (env->ExceptionCheck())
+            throw std::runtime_error("got java exception");
+        }
       }
         break;
       case JAVA_DIRECT_BUFFERS:
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Frees every Ferry object a thread creates between opening and closing
+ * the scope, without waiting for the Java garbage collector.
+ * <p>
+ * Normally you either call <code>delete()</code> on every {@link RefCounted}
+ * object in a finally block, or let Ferry release native memory once Java
+ * collects the object.  A {@link FerryScope} gives you the first without
+ * the bookkeeping:
+ * </p>
+ * <pre>
+ * FerryScope scope = FerryScope.open();
+ * try
+ * {
+ *   IVideoPicture picture = ...;
+ *   ...
+ *   result = scope.escape(someObjectToKeep);
+ * }
+ * finally
+ * {
+ *   scope.close();
+ * }
+ * </pre>
+ * <p>
+ * While a scope is open, every {@link RefCounted} object (and every
+ * {@link JNIReference}, such as those backing
+ * {@link IBuffer#getByteBuffer(int, int)}) created on the opening thread
+ * is recorded.  {@link #close()} deletes every recorded object that was
+ * not passed to {@link #escape(Object)}.  Objects created on other threads
+ * are not recorded.
+ * </p>
+ * <p>
+ * Do not use an object created inside a scope after the scope closes
+ * unless you escaped it; it's the same as using an object after calling
+ * <code>delete()</code> on it.  Escaped objects go back to normal Ferry
+ * memory management.
+ * </p>
+ * <p>
+ * Scopes nest.  An object is recorded by the innermost open scope only,
+ * and scopes must be closed in the reverse order they were opened.
+ * </p>
+ */
+public final class FerryScope
+{
+  /**
+   * The innermost open scope for each thread.
+   */
+  private static final ThreadLocal<FerryScope> mCurrentScope =
+    new ThreadLocal<FerryScope>();
+
+  /**
+   * How many scopes are open on any thread.  Lets allocation skip the
+   * thread local lookup when no one is using scopes.
+   */
+  private static final AtomicInteger mNumOpenScopes = new AtomicInteger(0);
+
+  private final FerryScope mParent;
+  private final Thread mThread;
+  private final ArrayList<Entry> mEntries;
+  private int mCompactThreshold;
+  private boolean mClosed;
+
+  private FerryScope(FerryScope parent)
+  {
+    mParent = parent;
+    mThread = Thread.currentThread();
+    mEntries = new ArrayList<Entry>();
+    mCompactThreshold = 64;
+    mClosed = false;
+  }
+
+  /**
+   * Open a new scope on the calling thread.  Until it is closed,
+   * Ferry objects this thread creates are recorded in it.
+   * 
+   * @return the new scope.
+   */
+  public static FerryScope open()
+  {
+    final FerryScope scope = new FerryScope(mCurrentScope.get());
+    mCurrentScope.set(scope);
+    mNumOpenScopes.incrementAndGet();
+    return scope;
+  }
+
+  /**
+   * Get the innermost scope open on the calling thread.
+   * 
+   * @return the scope, or null if none is open.
+   */
+  public static FerryScope getCurrentScope()
+  {
+    if (mNumOpenScopes.get() == 0)
+      return null;
+    return mCurrentScope.get();
+  }
+
+  /**
+   * Called by {@link JNIReference} every time a reference is created.
+   * 
+   * @param proxy the Java object the reference was made for.
+   * @param ref the reference.
+   */
+  static void record(Object proxy, JNIReference ref)
+  {
+    if (mNumOpenScopes.get() == 0)
+      // the common case
+      return;
+    final FerryScope scope = mCurrentScope.get();
+    if (scope != null)
+      scope.add(proxy, ref);
+  }
+
+  private void add(Object proxy, JNIReference ref)
+  {
+    if (mEntries.size() >= mCompactThreshold)
+    {
+      // drop anything deleted already so long scopes stay small
+      int numLive = 0;
+      for(int i = 0; i < mEntries.size(); i++)
+      {
+        final Entry entry = mEntries.get(i);
+        if (!entry.mRef.isDeleted())
+          mEntries.set(numLive++, entry);
+      }
+      while (mEntries.size() > numLive)
+        mEntries.remove(mEntries.size() - 1);
+      mCompactThreshold = Math.max(64, numLive * 2);
+    }
+    mEntries.add(new Entry(proxy, ref));
+  }
+
+  /**
+   * Keep an object alive past the end of this scope.
+   * <p>
+   * Every reference recorded for object is forgotten by this scope, and
+   * so will not be deleted when the scope closes.  This includes
+   * {@link java.nio.ByteBuffer}s created from object if object is an
+   * {@link IBuffer}.  Escaping an object this scope didn't record does
+   * nothing.
+   * </p>
+   * 
+   * @param <T> the type of object.
+   * @param object the object to keep.
+   * @return object, for convenience.
+   * @throws IllegalStateException if the scope is already closed.
+   */
+  public <T> T escape(T object)
+  {
+    if (mClosed)
+      throw new IllegalStateException("scope already closed");
+    if (object == null)
+      return null;
+    for(int i = mEntries.size() - 1; i >= 0; i--)
+    {
+      final Entry entry = mEntries.get(i);
+      if (entry.mProxy.get() == object || entry.mRef.get() == object)
+        mEntries.remove(i);
+    }
+    return object;
+  }
+
+  /**
+   * Get the number of references this scope will delete if closed now.
+   * 
+   * @return the number of live, unescaped references.
+   */
+  public int getNumReferences()
+  {
+    int numLive = 0;
+    for(Entry entry : mEntries)
+      if (!entry.mRef.isDeleted())
+        ++numLive;
+    return numLive;
+  }
+
+  /**
+   * Is this scope closed?
+   * 
+   * @return true if {@link #close()} has been called.
+   */
+  public boolean isClosed()
+  {
+    return mClosed;
+  }
+
+  /**
+   * Delete every object created in this scope that wasn't escaped, most
+   * recently created first, and make the enclosing scope (if any) current
+   * again.  Calling close more than once does nothing.
+   * 
+   * @throws IllegalStateException if called from a thread other than the
+   *   one that opened the scope, or if a scope opened inside this one is
+   *   still open.
+   */
+  public void close()
+  {
+    if (mClosed)
+      return;
+    if (Thread.currentThread() != mThread)
+      throw new IllegalStateException("scope must be closed by the thread that opened it");
+    if (mCurrentScope.get() != this)
+      throw new IllegalStateException("a scope opened inside this one is still open");
+
+    mClosed = true;
+    if (mParent == null)
+      mCurrentScope.remove();
+    else
+      mCurrentScope.set(mParent);
+    mNumOpenScopes.decrementAndGet();
+
+    for(int i = mEntries.size() - 1; i >= 0; i--)
+    {
+      final Entry entry = mEntries.get(i);
+      // delete through the proxy so it forgets its pointer too; using it
+      // after this fails just as it would after delete()
+      final Object proxy = entry.mProxy.get();
+      if (proxy instanceof RefCounted)
+        ((RefCounted) proxy).delete();
+      entry.mRef.delete();
+    }
+    mEntries.clear();
+  }
+
+  /**
+   * A recorded reference, and a weak pointer back to the object it was
+   * created for so that {@link FerryScope#escape(Object)} can find it.
+   */
+  private static final class Entry
+  {
+    private final WeakReference<Object> mProxy;
+    private final JNIReference mRef;
+
+    Entry(Object proxy, JNIReference ref)
+    {
+      mProxy = new WeakReference<Object>(proxy);
+      mRef = ref;
+    }
+  }
+}
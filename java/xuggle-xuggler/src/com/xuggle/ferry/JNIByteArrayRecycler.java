@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Internal Only.
+ * <p>
+ * Recycles the large byte arrays {@link JNIMemoryAllocator} hands to native
+ * code so that decoding a stream of same-sized frames stops allocating a
+ * new multi-megabyte array for every frame.
+ * </p>
+ * <p>
+ * New arrays are exactly the size asked for.  Freed arrays are grouped
+ * into size classes, four per power of two, and an allocation only reuses
+ * an array from its own class that is big enough, so a recycled array is
+ * never more than 25% larger than what was asked for.  Freed arrays are
+ * held strongly until {@link #getMaxRetainedBytes()} is reached, which by
+ * default is 0; after that a few per size class are held through
+ * {@link SoftReference}s so the Java garbage collector can still reclaim
+ * them under heap pressure.  Arrays smaller than {@link #MIN_RECYCLED_SIZE}
+ * or larger than {@link #MAX_RECYCLED_SIZE} are never recycled.
+ * </p>
+ */
+final class JNIByteArrayRecycler
+{
+  /**
+   * Below this size allocation is cheap enough that we don't bother.
+   */
+  static final int MIN_RECYCLED_SIZE = 1 << 14;
+
+  /**
+   * Above this size we'd rather give the memory back.
+   */
+  static final int MAX_RECYCLED_SIZE = 1 << 28;
+
+  private static final int MIN_SHIFT = 14;
+  private static final int STEPS_PER_SHIFT = 4;
+
+  /**
+   * How many arrays per size class we'll hold through soft references.
+   */
+  private static final int MAX_SOFT_PER_CLASS = 8;
+
+  private final SizeClass mClasses[];
+  private final AtomicLong mRetainedBytes = new AtomicLong();
+  private volatile long mMaxRetainedBytes;
+
+  private final AtomicLong mNumHits = new AtomicLong();
+  private final AtomicLong mNumMisses = new AtomicLong();
+  private final AtomicLong mNumRecycled = new AtomicLong();
+  private final AtomicLong mNumDropped = new AtomicLong();
+  private final AtomicLong mNumSoftReclaimed = new AtomicLong();
+
+  JNIByteArrayRecycler()
+  {
+    final int numShifts = 31 - MIN_SHIFT;
+    mClasses = new SizeClass[numShifts * STEPS_PER_SHIFT];
+    for(int i = 0; i < mClasses.length; i++)
+      mClasses[i] = new SizeClass();
+    // by default only hold arrays the collector can take back
+    mMaxRetainedBytes = 0;
+  }
+
+  /**
+   * Get an array of at least size bytes, reusing a freed one if we can.
+   * 
+   * @param size the number of bytes required.
+   * @return an array of size or more bytes.
+   * @throws OutOfMemoryError if a new array is needed and can't be
+   *   allocated.
+   */
+  byte[] allocate(int size)
+  {
+    if (size < MIN_RECYCLED_SIZE || size > MAX_RECYCLED_SIZE)
+      return new byte[size];
+    final byte[] recycled = mClasses[getClassIndex(size)].take(size);
+    if (recycled != null)
+    {
+      mNumHits.incrementAndGet();
+      return recycled;
+    }
+    mNumMisses.incrementAndGet();
+    return new byte[size];
+  }
+
+  /**
+   * Give an array back for reuse.  The caller must not touch it again.
+   * 
+   * @param mem the array.
+   */
+  void recycle(byte[] mem)
+  {
+    final int size = mem.length;
+    if (size < MIN_RECYCLED_SIZE || size > MAX_RECYCLED_SIZE)
+      return;
+    if (mClasses[getClassIndex(size)].put(mem))
+      mNumRecycled.incrementAndGet();
+    else
+      mNumDropped.incrementAndGet();
+  }
+
+  /**
+   * Let go of every array we're holding, strongly or softly.  Called when
+   * the heap is about to run out.
+   */
+  void clear()
+  {
+    for(SizeClass sizeClass : mClasses)
+      sizeClass.clear();
+  }
+
+  long getMaxRetainedBytes()
+  {
+    return mMaxRetainedBytes;
+  }
+
+  void setMaxRetainedBytes(long maxRetainedBytes)
+  {
+    if (maxRetainedBytes < 0)
+      throw new IllegalArgumentException("must pass in a non-negative value");
+    mMaxRetainedBytes = maxRetainedBytes;
+  }
+
+  long getRetainedBytes()
+  {
+    return mRetainedBytes.get();
+  }
+
+  long getNumHits()
+  {
+    return mNumHits.get();
+  }
+
+  long getNumMisses()
+  {
+    return mNumMisses.get();
+  }
+
+  long getNumRecycled()
+  {
+    return mNumRecycled.get();
+  }
+
+  long getNumDropped()
+  {
+    return mNumDropped.get();
+  }
+
+  long getNumSoftReclaimed()
+  {
+    return mNumSoftReclaimed.get();
+  }
+
+  void resetStatistics()
+  {
+    mNumHits.set(0);
+    mNumMisses.set(0);
+    mNumRecycled.set(0);
+    mNumDropped.set(0);
+    mNumSoftReclaimed.set(0);
+  }
+
+  /**
+   * Find the smallest size class that holds size bytes.
+   * @param size a size between {@link #MIN_RECYCLED_SIZE} and
+   *   {@link #MAX_RECYCLED_SIZE}.
+   * @return the index of the class.
+   */
+  static int getClassIndex(int size)
+  {
+    int shift = 31 - Integer.numberOfLeadingZeros(size);
+    final int base = 1 << shift;
+    final int step = base / STEPS_PER_SHIFT;
+    int steps = (size - base + step - 1) / step;
+    if (steps == STEPS_PER_SHIFT)
+    {
+      ++shift;
+      steps = 0;
+    }
+    return (shift - MIN_SHIFT) * STEPS_PER_SHIFT + steps;
+  }
+
+  /**
+   * @param index a size class index.
+   * @return the array length for that class.
+   */
+  static int getClassSize(int index)
+  {
+    final int base = 1 << (index / STEPS_PER_SHIFT + MIN_SHIFT);
+    return base + (index % STEPS_PER_SHIFT) * (base / STEPS_PER_SHIFT);
+  }
+
+  /**
+   * The free arrays of one size.
+   */
+  private final class SizeClass
+  {
+    private final ArrayList<byte[]> mStrong = new ArrayList<byte[]>();
+    private final LinkedList<SoftReference<byte[]>> mSoft =
+      new LinkedList<SoftReference<byte[]>>();
+
+    /**
+     * Take the most recently freed array of at least size bytes.
+     */
+    synchronized byte[] take(int size)
+    {
+      for(int i = mStrong.size() - 1; i >= 0; i--)
+      {
+        if (mStrong.get(i).length >= size)
+        {
+          final byte[] mem = mStrong.remove(i);
+          mRetainedBytes.addAndGet(-mem.length);
+          return mem;
+        }
+      }
+      final Iterator<SoftReference<byte[]>> iter = mSoft.iterator();
+      while (iter.hasNext())
+      {
+        final byte[] mem = iter.next().get();
+        if (mem == null)
+        {
+          iter.remove();
+          mNumSoftReclaimed.incrementAndGet();
+        }
+        else if (mem.length >= size)
+        {
+          iter.remove();
+          return mem;
+        }
+      }
+      return null;
+    }
+
+    synchronized boolean put(byte[] mem)
+    {
+      if (mRetainedBytes.get() + mem.length <= mMaxRetainedBytes)
+      {
+        mStrong.add(mem);
+        mRetainedBytes.addAndGet(mem.length);
+        return true;
+      }
+      // over budget; keep a few that the collector can take back
+      if (mSoft.size() >= MAX_SOFT_PER_CLASS)
+      {
+        // make room if the collector already took some
+        final int numSoft = mSoft.size();
+        for(int i = 0; i < numSoft; i++)
+        {
+          final SoftReference<byte[]> ref = mSoft.removeFirst();
+          if (ref.get() != null)
+            mSoft.addLast(ref);
+          else
+            mNumSoftReclaimed.incrementAndGet();
+        }
+        if (mSoft.size() >= MAX_SOFT_PER_CLASS)
+          return false;
+      }
+      mSoft.addLast(new SoftReference<byte[]>(mem));
+      return true;
+    }
+
+    synchronized void clear()
+    {
+      for(byte[] mem : mStrong)
+        mRetainedBytes.addAndGet(-mem.length);
+      mStrong.clear();
+      mSoft.clear();
+    }
+  }
+}
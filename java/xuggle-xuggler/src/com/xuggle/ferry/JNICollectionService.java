@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of background threads that release Ferry objects as soon as Java
+ * collects them, and keep the {@link JNIReference} heap swept so
+ * allocating threads don't have to.
+ * <p>
+ * Ferry already releases collected objects whenever a new Ferry object
+ * is allocated.  If your application caches Ferry objects and so
+ * allocates rarely, or allocates so much from many threads that sweeping
+ * the reference heap shows up in profiles, start this service:
+ * </p>
+ * <pre>
+ * JNICollectionService service = JNIMemoryManager.getMgr().getCollectionService();
+ * service.setNumWorkers(2);
+ * service.start();
+ * </pre>
+ * <p>
+ * Each worker blocks until a collected reference is available and then
+ * deletes up to {@link #getBatchSize()} references at once.  A separate
+ * sweeper thread wakes every {@link #getSweepInterval()} milliseconds and
+ * sweeps any slab of the reference heap more than
+ * {@link #getSweepThreshold()} full, so that
+ * {@link JNIMemoryManager} rarely has to sweep inline while adding a
+ * reference.
+ * </p>
+ * <p>
+ * All threads are daemon threads.  Settings take effect the next time the
+ * service is started.
+ * </p>
+ */
+public final class JNICollectionService
+{
+  /**
+   * Default number of references a worker deletes per batch.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  /**
+   * Default time, in milliseconds, between background sweeps.
+   */
+  public static final long DEFAULT_SWEEP_INTERVAL = 100;
+
+  /**
+   * Default fraction of a reference heap slab that must be in use before
+   * the background sweeper sweeps it.  This matches the point, with the
+   * default {@link JNIMemoryManager#getMinFreeRatio()}, at which a sweep
+   * grows the slab.
+   */
+  public static final double DEFAULT_SWEEP_THRESHOLD = 0.70;
+
+  private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  private final JNIMemoryManager mMgr;
+
+  private int mNumWorkers;
+  private int mBatchSize;
+  private long mSweepInterval;
+  private double mSweepThreshold;
+
+  private Thread mWorkers[];
+  private Thread mSweeper;
+
+  private final AtomicLong mNumCollected = new AtomicLong();
+  private final AtomicLong mNumBatches = new AtomicLong();
+  private final AtomicLong mNumBackgroundSweeps = new AtomicLong();
+  private volatile long mStartTime;
+
+  /**
+   * Package level so only the {@link JNIMemoryManager} creates us.
+   * @param mgr the manager we collect for.
+   */
+  JNICollectionService(JNIMemoryManager mgr)
+  {
+    mMgr = mgr;
+    mNumWorkers = 1;
+    mBatchSize = DEFAULT_BATCH_SIZE;
+    mSweepInterval = DEFAULT_SWEEP_INTERVAL;
+    mSweepThreshold = DEFAULT_SWEEP_THRESHOLD;
+    mWorkers = null;
+    mSweeper = null;
+  }
+
+  /**
+   * Set how many worker threads delete collected references.
+   * @param numWorkers the number of workers; must be at least 1.
+   * @throws IllegalArgumentException if numWorkers &lt; 1.
+   */
+  public synchronized void setNumWorkers(int numWorkers)
+  {
+    if (numWorkers < 1)
+      throw new IllegalArgumentException("must have at least one worker");
+    mNumWorkers = numWorkers;
+  }
+
+  /**
+   * @return the number of workers started by {@link #start()}.
+   */
+  public synchronized int getNumWorkers()
+  {
+    return mNumWorkers;
+  }
+
+  /**
+   * Set the most references a worker deletes before recording statistics
+   * and going back to the queue.
+   * @param batchSize the batch size; must be at least 1.
+   * @throws IllegalArgumentException if batchSize &lt; 1.
+   */
+  public synchronized void setBatchSize(int batchSize)
+  {
+    if (batchSize < 1)
+      throw new IllegalArgumentException("batch size must be at least 1");
+    mBatchSize = batchSize;
+  }
+
+  /**
+   * @return the most references a worker deletes in a batch.
+   */
+  public synchronized int getBatchSize()
+  {
+    return mBatchSize;
+  }
+
+  /**
+   * Set how often, in milliseconds, the background sweeper looks at the
+   * reference heap.  0 means don't sweep in the background.
+   * @param sweepInterval the interval in milliseconds.
+   * @throws IllegalArgumentException if sweepInterval &lt; 0.
+   */
+  public synchronized void setSweepInterval(long sweepInterval)
+  {
+    if (sweepInterval < 0)
+      throw new IllegalArgumentException("sweep interval must be >= 0");
+    mSweepInterval = sweepInterval;
+  }
+
+  /**
+   * @return milliseconds between background sweeps, or 0 if background
+   *   sweeping is off.
+   */
+  public synchronized long getSweepInterval()
+  {
+    return mSweepInterval;
+  }
+
+  /**
+   * Set how full, as a fraction, a reference heap slab must be before the
+   * background sweeper sweeps it.  Values below one minus
+   * {@link JNIMemoryManager#getMinFreeRatio()} act as that value, and
+   * slabs nothing was added to since their last sweep are skipped.
+   * @param sweepThreshold a value between 0 and 1.
+   * @throws IllegalArgumentException if sweepThreshold is out of range.
+   */
+  public synchronized void setSweepThreshold(double sweepThreshold)
+  {
+    if (sweepThreshold < 0 || sweepThreshold > 1)
+      throw new IllegalArgumentException("sweep threshold must be between 0 and 1");
+    mSweepThreshold = sweepThreshold;
+  }
+
+  /**
+   * @return how full a slab must be before it is swept in the background.
+   */
+  public synchronized double getSweepThreshold()
+  {
+    return mSweepThreshold;
+  }
+
+  /**
+   * Start the workers, and the sweeper if {@link #getSweepInterval()} is
+   * not 0.  Does nothing if already running.
+   */
+  public synchronized void start()
+  {
+    if (mWorkers != null)
+      return;
+    mStartTime = System.nanoTime();
+    mWorkers = new Thread[mNumWorkers];
+    for(int i = 0; i < mWorkers.length; i++)
+    {
+      mWorkers[i] = new Thread(new Worker(mBatchSize),
+          "Xuggle Ferry Collection Thread " + i);
+      mWorkers[i].setDaemon(true);
+      mWorkers[i].start();
+    }
+    if (mSweepInterval > 0)
+    {
+      mSweeper = new Thread(new Sweeper(mSweepInterval, mSweepThreshold),
+          "Xuggle Ferry Sweeper Thread");
+      mSweeper.setDaemon(true);
+      mSweeper.start();
+    }
+    log.debug("started {} collection workers", mWorkers.length);
+  }
+
+  /**
+   * Interrupt all service threads.  Does nothing if not running.  Threads
+   * may still be finishing their current batch when this returns.
+   */
+  public synchronized void stop()
+  {
+    if (mWorkers == null)
+      return;
+    for(Thread worker : mWorkers)
+      worker.interrupt();
+    if (mSweeper != null)
+      mSweeper.interrupt();
+    mWorkers = null;
+    mSweeper = null;
+  }
+
+  /**
+   * @return true if the service has been started and not stopped.
+   */
+  public synchronized boolean isRunning()
+  {
+    return mWorkers != null;
+  }
+
+  /**
+   * @return references deleted by workers since this service was created.
+   */
+  public long getNumCollected()
+  {
+    return mNumCollected.get();
+  }
+
+  /**
+   * @return batches deleted by workers since this service was created.
+   */
+  public long getNumBatches()
+  {
+    return mNumBatches.get();
+  }
+
+  /**
+   * @return slabs swept by the background sweeper since this service was
+   *   created.
+   */
+  public long getNumBackgroundSweeps()
+  {
+    return mNumBackgroundSweeps.get();
+  }
+
+  /**
+   * Get the average number of references deleted per second since the
+   * service was last started.
+   * @return references per second, or 0 if never started.
+   */
+  public double getThroughput()
+  {
+    final long startTime = mStartTime;
+    if (startTime == 0)
+      return 0;
+    final long elapsed = System.nanoTime() - startTime;
+    if (elapsed <= 0)
+      return 0;
+    return mNumCollected.get() * 1e9 / elapsed;
+  }
+
+  /**
+   * Estimate how many references Java has collected but Ferry has not yet
+   * deleted.
+   * <p>
+   * This walks the reference heap without locking it, so it costs time
+   * proportional to the heap size and the answer is approximate.
+   * </p>
+   * @return the estimated backlog.
+   */
+  public long getBacklog()
+  {
+    return mMgr.getCollectionBacklog();
+  }
+
+  /**
+   * Deletes collected references, a batch at a time.
+   */
+  private final class Worker implements Runnable
+  {
+    private final JNIReference mBatch[];
+
+    Worker(int batchSize)
+    {
+      mBatch = new JNIReference[batchSize];
+    }
+
+    public void run()
+    {
+      final ReferenceQueue<Object> queue = mMgr.getQueue();
+      try
+      {
+        while (!Thread.currentThread().isInterrupted())
+        {
+          // block for the first one, then take what else is waiting
+          Reference<? extends Object> ref = queue.remove();
+          int numRefs = 0;
+          do
+          {
+            mBatch[numRefs++] = (JNIReference) ref;
+          } while (numRefs < mBatch.length && (ref = queue.poll()) != null);
+
+          final long start = System.nanoTime();
+          for(int i = 0; i < numRefs; i++)
+          {
+            mBatch[i].delete();
+            mBatch[i] = null;
+          }
+          mMgr.getStatistics().queueDrained(numRefs, System.nanoTime() - start);
+          mNumCollected.addAndGet(numRefs);
+          mNumBatches.incrementAndGet();
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        // reset the interruption
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Sweeps reference heap slabs before they fill up.
+   */
+  private final class Sweeper implements Runnable
+  {
+    private final long mInterval;
+    private final double mThreshold;
+
+    Sweeper(long interval, double threshold)
+    {
+      mInterval = interval;
+      mThreshold = threshold;
+    }
+
+    public void run()
+    {
+      try
+      {
+        while (!Thread.currentThread().isInterrupted())
+        {
+          Thread.sleep(mInterval);
+          mNumBackgroundSweeps.addAndGet(mMgr.sweepSlabs(mThreshold));
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        // reset the interruption
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
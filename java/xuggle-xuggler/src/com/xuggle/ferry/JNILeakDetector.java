@@ -0,0 +1,527 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds leaked Ferry objects cheaply enough to leave on in production.
+ * <p>
+ * {@link JNIMemoryManager#setMemoryDebugging(boolean)} remembers something
+ * about every object allocated, which is too slow for a long running
+ * server.  Instead this detector remembers the allocation stack of one in
+ * every {@link #getSamplingInterval()} Ferry objects.  Any sampled object
+ * still not released after {@link #getMinimumAge()} milliseconds is
+ * considered pinned, and pinned objects are grouped by where they were
+ * allocated:
+ * </p>
+ * <pre>
+ * JNILeakDetector detector = JNIMemoryManager.getMgr().getLeakDetector();
+ * detector.setSamplingInterval(1000);
+ * detector.setMinimumAge(60 * 1000);
+ * detector.startReporting(5 * 60 * 1000);
+ * </pre>
+ * <p>
+ * Sites are available from {@link #getPinnedSites()}, and
+ * {@link #startReporting(long)} logs them periodically at warn level.
+ * Sampling is off by default.
+ * </p>
+ */
+public final class JNILeakDetector
+{
+  /**
+   * Default number of stack frames remembered per sample.
+   */
+  public static final int DEFAULT_STACK_DEPTH = 8;
+
+  /**
+   * Default maximum number of samples we'll remember at once.
+   */
+  public static final int DEFAULT_MAX_SAMPLES = 10000;
+
+  /**
+   * Default age, in milliseconds, after which a sampled object still in
+   * use counts as pinned.
+   */
+  public static final long DEFAULT_MINIMUM_AGE = 60 * 1000;
+
+  private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  private volatile int mSamplingInterval;
+  private volatile int mStackDepth;
+  private volatile int mMaxSamples;
+  private volatile long mMinimumAge;
+
+  /**
+   * Bumped whenever the sampling interval changes, so each thread
+   * restarts its countdown.
+   */
+  private volatile int mGeneration;
+
+  /**
+   * Counts allocations between samples.  Kept per thread so allocating
+   * threads never write to shared memory unless they take a sample.
+   */
+  private final ThreadLocal<Countdown> mCountdown =
+    new ThreadLocal<Countdown>()
+  {
+    protected Countdown initialValue()
+    {
+      return new Countdown();
+    }
+  };
+
+  private final LinkedList<Sample> mSamples;
+  private int mNumSamplesDropped;
+
+  private Thread mReporter;
+
+  /**
+   * Package level so only the {@link JNIMemoryManager} creates us.
+   */
+  JNILeakDetector()
+  {
+    mSamplingInterval = 0;
+    mStackDepth = DEFAULT_STACK_DEPTH;
+    mMaxSamples = DEFAULT_MAX_SAMPLES;
+    mMinimumAge = DEFAULT_MINIMUM_AGE;
+    mGeneration = 0;
+    mSamples = new LinkedList<Sample>();
+    mNumSamplesDropped = 0;
+    mReporter = null;
+  }
+
+  /**
+   * Sample one in every samplingInterval Ferry allocations made by each
+   * thread.  0 turns sampling off; 1 samples every allocation.
+   * <p>
+   * Turning sampling off forgets all current samples.
+   * </p>
+   * @param samplingInterval the interval.
+   * @throws IllegalArgumentException if samplingInterval &lt; 0.
+   */
+  public void setSamplingInterval(int samplingInterval)
+  {
+    if (samplingInterval < 0)
+      throw new IllegalArgumentException("sampling interval must be >= 0");
+    mSamplingInterval = samplingInterval;
+    ++mGeneration;
+    if (samplingInterval == 0)
+      clear();
+  }
+
+  /**
+   * @return one in how many allocations are sampled, or 0 if off.
+   */
+  public int getSamplingInterval()
+  {
+    return mSamplingInterval;
+  }
+
+  /**
+   * Set how long, in milliseconds, a sampled object must stay in use
+   * before it counts as pinned.
+   * @param minimumAge the age in milliseconds.
+   * @throws IllegalArgumentException if minimumAge &lt; 0.
+   */
+  public void setMinimumAge(long minimumAge)
+  {
+    if (minimumAge < 0)
+      throw new IllegalArgumentException("minimum age must be >= 0");
+    mMinimumAge = minimumAge;
+  }
+
+  /**
+   * @return how old, in milliseconds, a sampled object must be to count
+   *   as pinned.
+   */
+  public long getMinimumAge()
+  {
+    return mMinimumAge;
+  }
+
+  /**
+   * Set how many stack frames to remember per sample.  Affects new
+   * samples only.
+   * @param stackDepth the number of frames.
+   * @throws IllegalArgumentException if stackDepth &lt; 1.
+   */
+  public void setStackDepth(int stackDepth)
+  {
+    if (stackDepth < 1)
+      throw new IllegalArgumentException("stack depth must be >= 1");
+    mStackDepth = stackDepth;
+  }
+
+  /**
+   * @return how many stack frames are remembered per sample.
+   */
+  public int getStackDepth()
+  {
+    return mStackDepth;
+  }
+
+  /**
+   * Set the most samples to remember at once.  Once full, new
+   * allocations are not sampled until old samples are released.
+   * @param maxSamples the maximum.
+   * @throws IllegalArgumentException if maxSamples &lt; 1.
+   */
+  public void setMaxSamples(int maxSamples)
+  {
+    if (maxSamples < 1)
+      throw new IllegalArgumentException("max samples must be >= 1");
+    mMaxSamples = maxSamples;
+  }
+
+  /**
+   * @return the most samples remembered at once.
+   */
+  public int getMaxSamples()
+  {
+    return mMaxSamples;
+  }
+
+  /**
+   * @return the number of sampled objects not yet released.
+   */
+  public synchronized int getNumSamples()
+  {
+    prune();
+    return mSamples.size();
+  }
+
+  /**
+   * @return the number of allocations we would have sampled but didn't
+   *   because we were already holding {@link #getMaxSamples()} samples.
+   */
+  public synchronized int getNumSamplesDropped()
+  {
+    return mNumSamplesDropped;
+  }
+
+  /**
+   * Forget all samples.
+   */
+  public synchronized void clear()
+  {
+    mSamples.clear();
+    mNumSamplesDropped = 0;
+  }
+
+  /**
+   * Called by {@link JNIReference} for every reference created.
+   * 
+   * @param proxy the object the reference was created for.
+   * @param ref the reference.
+   */
+  void sample(Object proxy, JNIReference ref)
+  {
+    final int interval = mSamplingInterval;
+    if (interval == 0)
+      // the common case
+      return;
+    final Countdown countdown = mCountdown.get();
+    final int generation = mGeneration;
+    if (countdown.mGeneration != generation)
+    {
+      countdown.mGeneration = generation;
+      countdown.mRemaining = interval;
+    }
+    if (--countdown.mRemaining > 0)
+      return;
+    countdown.mRemaining = interval;
+
+    final Sample sample = new Sample(ref,
+        proxy == null ? "null" : proxy.getClass().getName(),
+        getCallerStack(mStackDepth));
+    synchronized(this)
+    {
+      if (mSamples.size() >= mMaxSamples)
+      {
+        prune();
+        if (mSamples.size() >= mMaxSamples)
+        {
+          ++mNumSamplesDropped;
+          return;
+        }
+      }
+      mSamples.add(sample);
+    }
+  }
+
+  /**
+   * Get every place that allocated a sampled object that is still in use
+   * after {@link #getMinimumAge()}, most pinned objects first.
+   * 
+   * @return the sites; empty if none.
+   */
+  public List<AllocationSite> getPinnedSites()
+  {
+    final long now = System.currentTimeMillis();
+    final long minimumAge = mMinimumAge;
+    final Map<AllocationSite, AllocationSite> sites =
+      new HashMap<AllocationSite, AllocationSite>();
+    synchronized(this)
+    {
+      prune();
+      for(Sample sample : mSamples)
+      {
+        final long age = now - sample.mCreated;
+        if (age < minimumAge)
+          continue;
+        final AllocationSite key = new AllocationSite(sample.mClassName,
+            sample.mStack);
+        AllocationSite site = sites.get(key);
+        if (site == null)
+        {
+          site = key;
+          sites.put(key, site);
+        }
+        site.add(age);
+      }
+    }
+    final List<AllocationSite> retval =
+      new ArrayList<AllocationSite>(sites.values());
+    Collections.sort(retval, new Comparator<AllocationSite>(){
+      public int compare(AllocationSite a, AllocationSite b)
+      {
+        return b.mNumPinned - a.mNumPinned;
+      }
+    });
+    return retval;
+  }
+
+  /**
+   * Log every pinned site at warn level.
+   */
+  public void logPinnedSites()
+  {
+    final List<AllocationSite> sites = getPinnedSites();
+    if (sites.isEmpty())
+      return;
+    log.warn("{} sites have sampled Ferry objects pinned for more than {} ms",
+        sites.size(), mMinimumAge);
+    for(AllocationSite site : sites)
+      log.warn("{}", site);
+  }
+
+  /**
+   * Start a daemon thread that calls {@link #logPinnedSites()} every
+   * interval milliseconds.  Restarts the thread if already running.
+   * 
+   * @param interval milliseconds between reports.
+   * @throws IllegalArgumentException if interval &lt;= 0.
+   */
+  public synchronized void startReporting(final long interval)
+  {
+    if (interval <= 0)
+      throw new IllegalArgumentException("interval must be > 0");
+    stopReporting();
+    mReporter = new Thread(new Runnable(){
+      public void run()
+      {
+        try
+        {
+          while (!Thread.currentThread().isInterrupted())
+          {
+            Thread.sleep(interval);
+            logPinnedSites();
+          }
+        }
+        catch (InterruptedException e)
+        {
+          // reset the interruption
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, "Xuggle Ferry Leak Reporter");
+    mReporter.setDaemon(true);
+    mReporter.start();
+  }
+
+  /**
+   * Stop the reporting thread if running.
+   */
+  public synchronized void stopReporting()
+  {
+    if (mReporter != null)
+      mReporter.interrupt();
+    mReporter = null;
+  }
+
+  /**
+   * Drop samples whose objects have been released.  Callers must hold
+   * our lock.
+   */
+  private void prune()
+  {
+    final Iterator<Sample> iter = mSamples.iterator();
+    while (iter.hasNext())
+      if (iter.next().mRef.isDeleted())
+        iter.remove();
+  }
+
+  /**
+   * Get the stack of whoever allocated the Ferry object, skipping frames
+   * inside Ferry itself and the object's constructors.
+   */
+  private static StackTraceElement[] getCallerStack(int depth)
+  {
+    final StackTraceElement[] stack = new Throwable().getStackTrace();
+    int first = 0;
+    while (first < stack.length &&
+        (stack[first].getClassName().startsWith("com.xuggle.ferry.JNI") ||
+            stack[first].getMethodName().equals("<init>")))
+      ++first;
+    final int last = Math.min(first + depth, stack.length);
+    final StackTraceElement[] retval = new StackTraceElement[last - first];
+    System.arraycopy(stack, first, retval, 0, retval.length);
+    return retval;
+  }
+
+  /**
+   * How many more allocations a thread makes before it samples one.  It
+   * restarts at the interval when the sampling interval changes.
+   */
+  private static final class Countdown
+  {
+    int mRemaining;
+    int mGeneration = -1;
+  }
+
+  /**
+   * One sampled allocation.  Holding the {@link JNIReference} doesn't keep
+   * the object itself alive.
+   */
+  private static final class Sample
+  {
+    private final JNIReference mRef;
+    private final String mClassName;
+    private final StackTraceElement[] mStack;
+    private final long mCreated;
+
+    Sample(JNIReference ref, String className, StackTraceElement[] stack)
+    {
+      mRef = ref;
+      mClassName = className;
+      mStack = stack;
+      mCreated = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * A place in the code that allocated sampled Ferry objects that are
+   * still in use.
+   */
+  public static final class AllocationSite
+  {
+    private final String mClassName;
+    private final StackTraceElement[] mStack;
+    private int mNumPinned;
+    private long mOldestAge;
+
+    AllocationSite(String className, StackTraceElement[] stack)
+    {
+      mClassName = className;
+      mStack = stack;
+      mNumPinned = 0;
+      mOldestAge = 0;
+    }
+
+    void add(long age)
+    {
+      ++mNumPinned;
+      mOldestAge = Math.max(mOldestAge, age);
+    }
+
+    /**
+     * @return the class name of the objects allocated here.
+     */
+    public String getClassName()
+    {
+      return mClassName;
+    }
+
+    /**
+     * @return the stack, innermost frame first, that allocated the objects.
+     */
+    public StackTraceElement[] getStackTrace()
+    {
+      return mStack.clone();
+    }
+
+    /**
+     * @return the number of sampled objects from this site still in use.
+     *   Multiply by the sampling interval to estimate the real number.
+     */
+    public int getNumPinned()
+    {
+      return mNumPinned;
+    }
+
+    /**
+     * @return the age in milliseconds of the oldest sampled object from
+     *   this site still in use.
+     */
+    public long getOldestAge()
+    {
+      return mOldestAge;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof AllocationSite))
+        return false;
+      final AllocationSite other = (AllocationSite) obj;
+      return mClassName.equals(other.mClassName) &&
+        Arrays.equals(mStack, other.mStack);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return mClassName.hashCode() * 31 + Arrays.hashCode(mStack);
+    }
+
+    @Override
+    public String toString()
+    {
+      final StringBuilder builder = new StringBuilder();
+      builder.append(mNumPinned).append(" x ").append(mClassName);
+      builder.append(" (oldest ").append(mOldestAge).append(" ms)");
+      for(StackTraceElement frame : mStack)
+        builder.append("\n\tat ").append(frame);
+      return builder.toString();
+    }
+  }
+}
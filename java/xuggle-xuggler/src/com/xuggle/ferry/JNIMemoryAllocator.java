@@ -92,6 +92,18 @@ public final class JNIMemoryAllocator
     }
   }
   
+  /**
+   * Get a new array, recycling a freed one if the memory model
+   * keeps its data on the Java heap.
+   */
+  private byte[] allocate(int size)
+  {
+    if (JNIMemoryManager.getMemoryModel() ==
+      JNIMemoryManager.MemoryModel.JAVA_STANDARD_HEAP)
+      return JNIMemoryManager.getMgr().getByteArrayRecycler().allocate(size);
+    return new byte[size];
+  }
+
   /**
    * Not for use outside the package
    */
@@ -131,7 +143,7 @@ public final class JNIMemoryAllocator
           try
           {
             // log.debug("attempting malloc of size: {}", size);
-            retval = new byte[size];
+            retval = allocate(size);
             // log.debug("malloced block of size: {}", size);
             // we succeed, so break out
             break;
@@ -147,8 +159,10 @@ public final class JNIMemoryAllocator
             ++allocationAttempts;
             if (allocationAttempts >= MAX_ALLOCATION_ATTEMPTS)
             {
+              JNIMemoryManager.getMgr().getStatistics().allocationFailed();
               // try pulling our rip cord
               JNIMemoryParachute.getParachute().pullCord();
+              JNIMemoryManager.getMgr().getByteArrayRecycler().clear();
               // do one last "hope gc" to free our own memory
               JNIReference.getMgr().gcInternal();
               // and throw the error back to the native code
@@ -157,6 +171,9 @@ public final class JNIMemoryAllocator
 
             log.debug("retrying ({}) allocation of {} bytes",
                 allocationAttempts, size);
+            // recycled arrays are the cheapest memory to give back
+            JNIMemoryManager.getMgr().getByteArrayRecycler().clear();
+            JNIMemoryManager.getMgr().getStatistics().allocationRetried();
             try
             {
               // give the finalizer a chance
@@ -187,9 +204,10 @@ public final class JNIMemoryAllocator
       }
       else
       {
-        retval = new byte[size];
+        retval = allocate(size);
       }
       addToBuffer(retval);
+      JNIMemoryManager.getMgr().getStatistics().bytesAllocated(retval.length);
       retval[retval.length - 1] = 0;
       
 //      log.debug("malloc: {}({}:{})", new Object[]
@@ -217,9 +235,30 @@ public final class JNIMemoryAllocator
   public void free(byte[] mem)
   {
     removeFromBuffer(mem);
+    JNIMemoryManager.getMgr().getStatistics().bytesAllocated(-mem.length);
 //      log.debug("free:   {}({})", mem.hashCode(), mem.length);
   }
 
+  /**
+   * Internal Only.  Called from native code once it has released its
+   * pin on memory passed to {@link #free(byte[])}.
+   * <p>
+   * Native code may still be reading or copying back the array when it
+   * calls {@link #free(byte[])}, so arrays are only given back for reuse
+   * here.
+   * </p>
+   * 
+   * @param mem
+   *          the bytes native code no longer uses.
+   */
+
+  public void released(byte[] mem)
+  {
+    if (JNIMemoryManager.getMemoryModel() ==
+      JNIMemoryManager.MemoryModel.JAVA_STANDARD_HEAP)
+      JNIMemoryManager.getMgr().getByteArrayRecycler().recycle(mem);
+  }
+
   /**
    * Internal Only.  Native method that tells a native objects (represented by the nativeObj
    * long pointer val) that this JNIMemoryAllocator is being used to allocate
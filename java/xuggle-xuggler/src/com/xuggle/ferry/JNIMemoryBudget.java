@@ -0,0 +1,489 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on how many bytes of large media buffers may be in use at once,
+ * so that producers slow down before the process runs out of memory.
+ * <p>
+ * Every {@link com.xuggle.xuggler.IVideoPicture} and
+ * {@link com.xuggle.xuggler.IAudioSamples} a
+ * {@link com.xuggle.xuggler.MediaDataPool} makes is charged to the
+ * leasing thread's budget, and credited back when the pool deletes it.
+ * This works the same under every {@link JNIMemoryManager.MemoryModel}.
+ * When a charge would take a budget over {@link #getMaxBytes()}, the
+ * {@link Policy} decides what happens:
+ * </p>
+ * <ul>
+ * <li>{@link Policy#BLOCK}: {@link #reserve(long)} waits, up to
+ * {@link #getMaxBlockTime()} milliseconds, for other threads to release
+ * memory; if they don't, it fails.</li>
+ * <li>{@link Policy#FAIL_FAST}: {@link #reserve(long)} fails
+ * immediately.</li>
+ * </ul>
+ * <p>
+ * A refused lease throws {@link OutOfMemoryError}.  Under
+ * {@link Policy#BLOCK} a producer leasing from a pool therefore waits for
+ * its consumers to return frames.  Readers such as
+ * {@link com.xuggle.mediatool.MediaReader} call {@link #awaitCapacity()}
+ * before demuxing each packet, so they pause while usage is above
+ * {@link #getPauseThreshold()} of the limit instead of piling up more
+ * frames.
+ * </p>
+ * <p>
+ * The global budget, from {@link JNIMemoryManager#getMemoryBudget()}, has
+ * no limit by default.  To budget a group of threads separately, create
+ * a {@link JNIMemoryBudget} and call {@link #setThreadBudget(JNIMemoryBudget)}
+ * on each thread in the group.
+ * </p>
+ * <p>
+ * Objects made outside a pool are not charged; to count them, call
+ * {@link #reserve(long)} and {@link #release(long)} yourself.
+ * </p>
+ */
+public final class JNIMemoryBudget
+{
+  /**
+   * What to do when an allocation would exceed the budget.
+   */
+  public enum Policy
+  {
+    /**
+     * Wait for memory to be released, up to
+     * {@link JNIMemoryBudget#getMaxBlockTime()}.
+     */
+    BLOCK,
+    /**
+     * Fail the allocation right away.
+     */
+    FAIL_FAST,
+  }
+
+  /**
+   * Default longest time, in milliseconds, {@link #reserve(long)} blocks.
+   */
+  public static final long DEFAULT_MAX_BLOCK_TIME = 5000;
+
+  /**
+   * Default longest time, in milliseconds, {@link #awaitCapacity()} pauses.
+   */
+  public static final long DEFAULT_MAX_PAUSE_TIME = 1000;
+
+  /**
+   * Default fraction of the budget above which readers pause.
+   */
+  public static final double DEFAULT_PAUSE_THRESHOLD = 0.90;
+
+  /**
+   * How long we wait between checks for released memory, in case the
+   * memory was released without telling us.
+   */
+  private static final long POLL_INTERVAL = 10;
+
+  private static final ThreadLocal<JNIMemoryBudget> mThreadBudget =
+    new ThreadLocal<JNIMemoryBudget>();
+
+  private final String mName;
+  private final AtomicLong mBytesInUse = new AtomicLong();
+  private volatile long mMaxBytes;
+  private volatile Policy mPolicy;
+  private volatile long mMaxBlockTime;
+  private volatile long mMaxPauseTime;
+  private volatile double mPauseThreshold;
+  private volatile int mNumWaiters;
+
+  private final AtomicLong mPeakBytesInUse = new AtomicLong();
+  private final AtomicLong mNumBlocked = new AtomicLong();
+  private final AtomicLong mTotalBlockTime = new AtomicLong();
+  private final AtomicLong mNumRejected = new AtomicLong();
+  private final AtomicLong mNumPauses = new AtomicLong();
+
+  /**
+   * Create a new budget.
+   * 
+   * @param name a name for logging.
+   * @param maxBytes the most bytes that may be in use at once.
+   * @param policy what to do when over budget.
+   * @throws IllegalArgumentException if maxBytes &lt; 0 or policy is null.
+   */
+  public JNIMemoryBudget(String name, long maxBytes, Policy policy)
+  {
+    mName = name;
+    setMaxBytes(maxBytes);
+    setPolicy(policy);
+    mMaxBlockTime = DEFAULT_MAX_BLOCK_TIME;
+    mMaxPauseTime = DEFAULT_MAX_PAUSE_TIME;
+    mPauseThreshold = DEFAULT_PAUSE_THRESHOLD;
+    mNumWaiters = 0;
+  }
+
+  /**
+   * Get the budget allocations on the calling thread are charged to.
+   * 
+   * @return the thread's budget if one was set, otherwise the global
+   *   budget.
+   */
+  public static JNIMemoryBudget getCurrent()
+  {
+    final JNIMemoryBudget budget = mThreadBudget.get();
+    if (budget != null)
+      return budget;
+    return JNIMemoryManager.getMgr().getMemoryBudget();
+  }
+
+  /**
+   * Charge allocations on the calling thread to budget instead of the
+   * global budget.
+   * 
+   * @param budget the budget, or null to go back to the global budget.
+   */
+  public static void setThreadBudget(JNIMemoryBudget budget)
+  {
+    if (budget == null)
+      mThreadBudget.remove();
+    else
+      mThreadBudget.set(budget);
+  }
+
+  /**
+   * @return the name of this budget.
+   */
+  public String getName()
+  {
+    return mName;
+  }
+
+  /**
+   * Set the most bytes that may be in use at once.  Lowering it below what
+   * is in use doesn't free anything; it makes new allocations wait or fail.
+   * @param maxBytes the limit; {@link Long#MAX_VALUE} for no limit.
+   * @throws IllegalArgumentException if maxBytes &lt; 0.
+   */
+  public void setMaxBytes(long maxBytes)
+  {
+    if (maxBytes < 0)
+      throw new IllegalArgumentException("max bytes must be >= 0");
+    mMaxBytes = maxBytes;
+    wakeWaiters();
+  }
+
+  /**
+   * @return the most bytes that may be in use at once.
+   */
+  public long getMaxBytes()
+  {
+    return mMaxBytes;
+  }
+
+  /**
+   * Set what happens when an allocation would go over budget.
+   * @param policy the policy.
+   * @throws IllegalArgumentException if policy is null.
+   */
+  public void setPolicy(Policy policy)
+  {
+    if (policy == null)
+      throw new IllegalArgumentException("must pass in a policy");
+    mPolicy = policy;
+  }
+
+  /**
+   * @return what happens when an allocation would go over budget.
+   */
+  public Policy getPolicy()
+  {
+    return mPolicy;
+  }
+
+  /**
+   * Set how long, in milliseconds, {@link #reserve(long)} under
+   * {@link Policy#BLOCK} waits before failing.
+   * @param maxBlockTime the time in milliseconds.
+   * @throws IllegalArgumentException if maxBlockTime &lt; 0.
+   */
+  public void setMaxBlockTime(long maxBlockTime)
+  {
+    if (maxBlockTime < 0)
+      throw new IllegalArgumentException("max block time must be >= 0");
+    mMaxBlockTime = maxBlockTime;
+  }
+
+  /**
+   * @return how long {@link #reserve(long)} waits before failing.
+   */
+  public long getMaxBlockTime()
+  {
+    return mMaxBlockTime;
+  }
+
+  /**
+   * Set the longest time, in milliseconds, {@link #awaitCapacity()}
+   * pauses.  Readers go on after this even if still over the threshold,
+   * so a reader that itself holds the memory can't stall forever.
+   * @param maxPauseTime the time in milliseconds.
+   * @throws IllegalArgumentException if maxPauseTime &lt; 0.
+   */
+  public void setMaxPauseTime(long maxPauseTime)
+  {
+    if (maxPauseTime < 0)
+      throw new IllegalArgumentException("max pause time must be >= 0");
+    mMaxPauseTime = maxPauseTime;
+  }
+
+  /**
+   * @return the longest time {@link #awaitCapacity()} pauses.
+   */
+  public long getMaxPauseTime()
+  {
+    return mMaxPauseTime;
+  }
+
+  /**
+   * Set the fraction of {@link #getMaxBytes()} above which
+   * {@link #awaitCapacity()} pauses.
+   * @param pauseThreshold a value between 0 and 1.
+   * @throws IllegalArgumentException if out of range.
+   */
+  public void setPauseThreshold(double pauseThreshold)
+  {
+    if (pauseThreshold < 0 || pauseThreshold > 1)
+      throw new IllegalArgumentException("pause threshold must be between 0 and 1");
+    mPauseThreshold = pauseThreshold;
+  }
+
+  /**
+   * @return the fraction of the budget above which readers pause.
+   */
+  public double getPauseThreshold()
+  {
+    return mPauseThreshold;
+  }
+
+  /**
+   * @return bytes currently charged to this budget.
+   */
+  public long getBytesInUse()
+  {
+    return mBytesInUse.get();
+  }
+
+  /**
+   * @return the most bytes ever charged to this budget at once.
+   */
+  public long getPeakBytesInUse()
+  {
+    return mPeakBytesInUse.get();
+  }
+
+  /**
+   * @return the number of allocations that had to wait.
+   */
+  public long getNumBlocked()
+  {
+    return mNumBlocked.get();
+  }
+
+  /**
+   * @return total milliseconds allocations spent waiting.
+   */
+  public long getTotalBlockTime()
+  {
+    return mTotalBlockTime.get();
+  }
+
+  /**
+   * @return the number of allocations that failed for lack of budget.
+   */
+  public long getNumRejected()
+  {
+    return mNumRejected.get();
+  }
+
+  /**
+   * @return the number of times {@link #awaitCapacity()} paused.
+   */
+  public long getNumPauses()
+  {
+    return mNumPauses.get();
+  }
+
+  /**
+   * @return true if readers should pause right now.
+   */
+  public boolean isAbovePauseThreshold()
+  {
+    final long max = mMaxBytes;
+    return max != Long.MAX_VALUE &&
+      mBytesInUse.get() >= max * mPauseThreshold;
+  }
+
+  /**
+   * Charge bytes to this budget, waiting or failing according to
+   * {@link #getPolicy()} if that would go over {@link #getMaxBytes()}.
+   * 
+   * @param bytes the number of bytes.
+   * @return true if charged; false if the budget had no room.  Call
+   *   {@link #release(long)} later only if true.
+   */
+  public boolean reserve(long bytes)
+  {
+    if (tryReserve(bytes))
+      return true;
+    if (mPolicy == Policy.FAIL_FAST || mMaxBlockTime == 0)
+    {
+      mNumRejected.incrementAndGet();
+      return false;
+    }
+    mNumBlocked.incrementAndGet();
+    final long start = System.currentTimeMillis();
+    final long deadline = start + mMaxBlockTime;
+    try
+    {
+      while (true)
+      {
+        // collected objects may be holding what we need
+        JNIMemoryManager.getMgr().gcInternal();
+        if (tryReserve(bytes))
+          return true;
+        final long now = System.currentTimeMillis();
+        if (now >= deadline)
+        {
+          mNumRejected.incrementAndGet();
+          return false;
+        }
+        if (!waitForRelease(Math.min(deadline - now, POLL_INTERVAL)))
+        {
+          mNumRejected.incrementAndGet();
+          return false;
+        }
+      }
+    }
+    finally
+    {
+      mTotalBlockTime.addAndGet(System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Give bytes back to this budget.
+   * @param bytes the number of bytes previously reserved.
+   */
+  public void release(long bytes)
+  {
+    mBytesInUse.addAndGet(-bytes);
+    wakeWaiters();
+  }
+
+  /**
+   * Pause while this budget is above {@link #getPauseThreshold()}, up to
+   * {@link #getMaxPauseTime()} milliseconds.  Call before producing more
+   * data, such as demuxing another packet.  Returns right away if the
+   * budget has no limit.
+   * 
+   * @return true if under the threshold on return; false if we gave up
+   *   waiting or were interrupted.
+   */
+  public boolean awaitCapacity()
+  {
+    if (!isAbovePauseThreshold())
+      return true;
+    mNumPauses.incrementAndGet();
+    final long deadline = System.currentTimeMillis() + mMaxPauseTime;
+    while (true)
+    {
+      JNIMemoryManager.getMgr().gcInternal();
+      if (!isAbovePauseThreshold())
+        return true;
+      final long now = System.currentTimeMillis();
+      if (now >= deadline)
+        return false;
+      if (!waitForRelease(Math.min(deadline - now, POLL_INTERVAL)))
+        return false;
+    }
+  }
+
+  private boolean tryReserve(long bytes)
+  {
+    while (true)
+    {
+      final long inUse = mBytesInUse.get();
+      final long max = mMaxBytes;
+      if (inUse + bytes > max && inUse > 0)
+        // always let one allocation through so nothing can be too big to
+        // ever fit
+        return false;
+      if (mBytesInUse.compareAndSet(inUse, inUse + bytes))
+      {
+        setPeak(inUse + bytes);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Wait until someone releases bytes or the timeout passes.
+   * @return false if interrupted.
+   */
+  private synchronized boolean waitForRelease(long timeout)
+  {
+    ++mNumWaiters;
+    try
+    {
+      wait(timeout);
+      return true;
+    }
+    catch (InterruptedException e)
+    {
+      // reset the interruption so underlying code can also interrupt
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    finally
+    {
+      --mNumWaiters;
+    }
+  }
+
+  private void wakeWaiters()
+  {
+    if (mNumWaiters > 0)
+      synchronized(this)
+      {
+        notifyAll();
+      }
+  }
+
+  private void setPeak(long value)
+  {
+    long current;
+    while (value > (current = mPeakBytesInUse.get()))
+      if (mPeakBytesInUse.compareAndSet(current, value))
+        break;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getName() + "[name=" + mName + ";inUse=" +
+    mBytesInUse.get() + ";max=" + mMaxBytes + ";policy=" + mPolicy + "]";
+  }
+}
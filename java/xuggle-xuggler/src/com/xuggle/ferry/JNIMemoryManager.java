@@ -23,6 +23,7 @@ package com.xuggle.ferry;
 import java.lang.ref.ReferenceQueue;
 import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -905,17 +906,41 @@ public final class JNIMemoryManager
 
   /**
    * Used for managing our collect-and-sweep JNIReference heap.
+   * <p>
+   * The heap is split into a power-of-two number of independent
+   * slabs, and each allocating thread is assigned to one slab based
+   * on its thread id. That way allocating threads rarely contend on
+   * the same lock, and each slab can be swept without stopping the
+   * others.
+   * </p>
    */
-  private final AtomicBoolean mSpinLock;
-  private final Lock mLock;
-  private JNIReference mValidReferences[];
-  private volatile int mNextAvailableReferenceSlot;
-  private volatile int mMaxValidReference;
-  private int mMinimumReferencesToCache;
+  private final ReferenceSlab mSlabs[];
+  private final int mSlabMask;
+  private volatile int mMinimumReferencesToCache;
   private double mExpandIncrement;
   private double mShrinkScaleFactor;
   private double mMaxFreeRatio;
   private double mMinFreeRatio;
+
+  /**
+   * The maximum number of slabs we'll split our reference heap into.
+   */
+  private static final int MAX_REFERENCE_SLABS = 64;
+
+  /**
+   * The smallest number of references a single slab will cache.
+   */
+  private static final int MIN_REFERENCES_PER_SLAB = 64;
+
+  /**
+   * Counters other parts of Ferry update, and that we publish over JMX.
+   */
+  private final JNIMemoryStatistics mStatistics;
+
+  /**
+   * Where {@link JNIMemoryAllocator} recycles freed byte arrays.
+   */
+  private final JNIByteArrayRecycler mByteArrayRecycler;
   
   /**
    * The constructor is package level so others can't create it.
@@ -923,31 +948,175 @@ public final class JNIMemoryManager
   JNIMemoryManager()
   {
     mRefQueue = new ReferenceQueue<Object>();
-    mCollectionThread = null;
-    mLock = new ReentrantLock();
-    mSpinLock = new AtomicBoolean(false);
     final int minReferences=1024*4;
     mMinimumReferencesToCache = minReferences;
     mExpandIncrement = 0.20; // expand by 20% at a time
     mShrinkScaleFactor = 0.25; // shrink by 25% of mExpandIncrement
-    mValidReferences = new JNIReference[minReferences]; 
-    mMaxValidReference = minReferences;
-    mNextAvailableReferenceSlot = 0;
     mMaxFreeRatio = 0.70;
     mMinFreeRatio = 0.30;
+
+    // one slab per processor, rounded up to a power of two so we
+    // can pick a slab with a mask instead of a divide.
+    final int processors = Runtime.getRuntime().availableProcessors();
+    int numSlabs = 1;
+    while (numSlabs < processors && numSlabs < MAX_REFERENCE_SLABS)
+      numSlabs <<= 1;
+    mSlabMask = numSlabs - 1;
+    mSlabs = new ReferenceSlab[numSlabs];
+    for(int i = 0; i < numSlabs; i++)
+      mSlabs[i] = new ReferenceSlab(getMinimumReferencesPerSlab());
+    mByteArrayRecycler = new JNIByteArrayRecycler();
+    mStatistics = new JNIMemoryStatistics(this);
+    mCollectionService = new JNICollectionService(this);
+    mLeakDetector = new JNILeakDetector();
+    mMemoryBudget = new JNIMemoryBudget("global", Long.MAX_VALUE,
+        JNIMemoryBudget.Policy.BLOCK);
   }
   
-  private void blockingLock()
+  /**
+   * Get the slab the calling thread should add references to.
+   * @return the slab.
+   */
+  private ReferenceSlab getSlab()
+  {
+    return mSlabs[getSlabIndex()];
+  }
+
+  /**
+   * Get the index of the slab the calling thread adds references to.
+   * Other per-thread counters are striped the same way.
+   * @return the index, from 0 to {@link #getNumReferenceSlabs()} - 1.
+   */
+  int getSlabIndex()
+  {
+    return (int) (Thread.currentThread().getId() & mSlabMask);
+  }
+
+  /**
+   * Get the minimum number of references each slab will cache.
+   * @return the per-slab minimum.
+   */
+  private int getMinimumReferencesPerSlab()
+  {
+    final int perSlab = (mMinimumReferencesToCache + mSlabMask) / (mSlabMask + 1);
+    return Math.max(perSlab, MIN_REFERENCES_PER_SLAB);
+  }
+
+  /**
+   * Get the number of independent slabs the reference heap is split into.
+   * <p>
+   * This is fixed at construction time based on the number of processors
+   * available to the Java virtual machine.
+   * </p>
+   * @return the number of slabs.
+   */
+  public int getNumReferenceSlabs()
+  {
+    return mSlabs.length;
+  }
+
+  /**
+   * Get the statistics Ferry keeps about the native memory it manages.
+   * <p>
+   * The statistics are cheap to read, and can be published to JMX with
+   * {@link JNIMemoryStatistics#register()}.
+   * </p>
+   * @return the statistics.
+   */
+  public JNIMemoryStatistics getStatistics()
+  {
+    return mStatistics;
+  }
+
+  /**
+   * Get the recycler {@link JNIMemoryAllocator} uses.
+   * @return the recycler.
+   */
+  JNIByteArrayRecycler getByteArrayRecycler()
+  {
+    return mByteArrayRecycler;
+  }
+
+  /**
+   * Sets the maximum number of bytes of freed byte arrays to hold on to
+   * for reuse.
+   * <p>
+   * In the {@link MemoryModel#JAVA_STANDARD_HEAP} model, large buffers
+   * freed by native code are kept and handed back out for the next
+   * allocation of a similar size, so decoding a stream of same-sized
+   * frames doesn't allocate a new array per frame.  Up to this many bytes
+   * are held strongly; beyond that a few arrays are held softly so the
+   * Java garbage collector can reclaim them.
+   * </p>
+   * <p>
+   * Defaults to 0, so only softly held arrays are reused.  Setting this
+   * pins that much freed memory on the heap whether or not it is ever
+   * reused; 1/16th of the maximum heap is a reasonable ceiling.
+   * </p>
+   * 
+   * @param maxRecycledBytes the maximum bytes to hold.
+   * @throws IllegalArgumentException if maxRecycledBytes &lt; 0.
+   */
+  public void setMaxRecycledBytes(long maxRecycledBytes)
+  {
+    mByteArrayRecycler.setMaxRetainedBytes(maxRecycledBytes);
+    if (mByteArrayRecycler.getRetainedBytes() > maxRecycledBytes)
+      mByteArrayRecycler.clear();
+  }
+
+  /**
+   * Get the maximum number of bytes of freed byte arrays held for reuse.
+   * @return the maximum.
+   * @see #setMaxRecycledBytes(long)
+   */
+  public long getMaxRecycledBytes()
+  {
+    return mByteArrayRecycler.getMaxRetainedBytes();
+  }
+
+  /**
+   * Get the number of references created but not yet deleted.  Does not
+   * lock the heap.
+   * @return the number of live references.
+   */
+  long getNumLiveReferences()
+  {
+    long numAdded = 0;
+    long numDeleted = 0;
+    for(ReferenceSlab slab : mSlabs)
+    {
+      // read deletes first so we never report a negative number
+      numDeleted += slab.mNumDeleted.get();
+      numAdded += slab.mNumAdded;
+    }
+    return Math.max(numAdded - numDeleted, 0);
+  }
+
+  /**
+   * Get the number of references the heap can hold before it has to
+   * sweep.  Does not lock the heap.
+   * @return the capacity.
+   */
+  long getReferenceCapacity()
   {
-    mLock.lock();
-    while(!mSpinLock.compareAndSet(false, true))
-      ; // grab the spin lock
+    long capacity = 0;
+    for(ReferenceSlab slab : mSlabs)
+      capacity += slab.mMaxValidReference;
+    return capacity;
   }
-  private void blockingUnlock()
+
+  /**
+   * Get the number of heap slots in use, including deleted references
+   * not yet swept.  Does not lock the heap.
+   * @return the number of slots in use.
+   */
+  long getNumReferenceSlotsInUse()
   {
-    final boolean result = mSpinLock.compareAndSet(true, false);
-    assert result : "Should never ever be unlocked here";
-    mLock.unlock();
+    long inUse = 0;
+    for(ReferenceSlab slab : mSlabs)
+      inUse += Math.min(slab.mNextAvailableReferenceSlot,
+          slab.mMaxValidReference);
+    return inUse;
   }
 
   /**
@@ -1076,53 +1245,20 @@ public final class JNIMemoryManager
     return mMinFreeRatio*100;
   }
 
-  private int sweepAndCollect()
-  {
-    // time to sweep, collect, and possibly grow.
-    JNIReference[] survivors = new JNIReference[mMaxValidReference];
-    int numSurvivors=0;
-    final int numValid = mMaxValidReference;
-    for(int i = 0; i < numValid; i++)
-    {
-      JNIReference victim = mValidReferences[i];
-      if (victim != null && !victim.isDeleted())
-      {
-        survivors[numSurvivors] = victim;
-        ++numSurvivors;
-      }
-    }
-    final int survivorLength = survivors.length;
-    int freeSpace = survivorLength - numSurvivors;
-    if (freeSpace > survivorLength * mMaxFreeRatio)
-    {
-      // time to shrink
-      int newSize = (int) (survivorLength*(1.0 - mExpandIncrement*mShrinkScaleFactor));
-      // never shrink smaller than the minimum
-      if (newSize >= mMinimumReferencesToCache) {
-        JNIReference[] shrunk = new JNIReference[newSize];
-        System.arraycopy(survivors, 0, shrunk, 0, newSize);
-        survivors = shrunk;
-      }
-    } else if (freeSpace <= survivorLength*mMinFreeRatio)
-    {
-      // time to expand
-      int newSize = (int) (survivorLength*(1.0 + mExpandIncrement));
-      JNIReference[] expanded = new JNIReference[newSize];
-      System.arraycopy(survivors, 0, expanded, 0, survivorLength);
-      survivors = expanded;
-    }
-    // and swap in our new array
-    // ORDER REALLY MATTERS HERE.  See #addReference
-    mValidReferences = survivors;
-    mMaxValidReference = survivors.length;
-    mNextAvailableReferenceSlot = numSurvivors;
-    return numSurvivors;
-  }
+  /**
+   * Our background collection threads, if started.
+   */
+  private final JNICollectionService mCollectionService;
 
   /**
-   * The collection thread if running.
+   * Samples allocations to find leaks; off by default.
    */
-  private volatile Thread mCollectionThread;
+  private final JNILeakDetector mLeakDetector;
+
+  /**
+   * The budget allocations are charged to unless a thread has its own.
+   */
+  private final JNIMemoryBudget mMemoryBudget;
 
   /**
    * Get the underlying queue we track references with.
@@ -1150,43 +1286,22 @@ public final class JNIMemoryManager
   public long getNumPinnedObjects()
   {
     long numPinnedObjects = 0;
-    blockingLock();
-    try {
-      int numItems = mNextAvailableReferenceSlot;
-      for(int i = 0; i < numItems; i++)
-      {
-        JNIReference ref = mValidReferences[i];
-        if (ref != null && !ref.isDeleted())
-          ++numPinnedObjects;
-      }
-    } finally {
-      blockingUnlock();
-    }
+    for(ReferenceSlab slab : mSlabs)
+      numPinnedObjects += slab.getNumPinnedObjects();
     return numPinnedObjects;
   }
 
   /**
    * Dump the contents of our memory cache to the log.
    * <p>
-   * This method requires a global lock in order to run so only
-   * use for debugging.  
+   * This method locks each slab of our reference heap in turn in order
+   * to run so only use for debugging.  
    * </p>
    */
   public void dumpMemoryLog()
   {
-    blockingLock();
-    try {
-      int numItems = mNextAvailableReferenceSlot;
-      log.debug("Memory slots in use: {}", numItems);
-      for(int i = 0; i < numItems; i++)
-      {
-        JNIReference ref = mValidReferences[i];
-        if (ref != null)
-          log.debug("Slot: {}; Ref: {}", i, ref);
-      }
-    } finally {
-      blockingUnlock();
-    }
+    for(int i = 0; i < mSlabs.length; i++)
+      mSlabs[i].dumpMemoryLog(i);
     return;
   }
   
@@ -1199,6 +1314,36 @@ public final class JNIMemoryManager
     return JNIReference.isMemoryDebugging();
   }
 
+  /**
+   * Get the global native memory budget.
+   * <p>
+   * Pictures and samples made by a
+   * {@link com.xuggle.xuggler.MediaDataPool} are charged to this budget
+   * unless the leasing thread has its own (see
+   * {@link JNIMemoryBudget#setThreadBudget(JNIMemoryBudget)}).  It has no
+   * limit until you call {@link JNIMemoryBudget#setMaxBytes(long)}.
+   * </p>
+   * @return the global budget.
+   */
+  public JNIMemoryBudget getMemoryBudget()
+  {
+    return mMemoryBudget;
+  }
+
+  /**
+   * Get the sampling leak detector.
+   * <p>
+   * Unlike {@link #setMemoryDebugging(boolean)}, the detector only looks
+   * at a sample of allocations and so is cheap enough to leave on in
+   * production.
+   * </p>
+   * @return the leak detector.
+   */
+  public JNILeakDetector getLeakDetector()
+  {
+    return mLeakDetector;
+  }
+
   /**
    * Set whether the {@link JNIMemoryManager} should cause objects
    * to be allocated with debugging information.  This is false
@@ -1240,56 +1385,15 @@ public final class JNIMemoryManager
    */
   final boolean addReference(final JNIReference ref)
   {
-    /* Implementation note: This method is extremely
-     * hot, and so I've unrolled the lock and unlock
-     * methods from above.  Take care if you change
-     * them to change the unrolled versions here.
-     * 
-     */
-    // First try to grab the non blocking lock
-    boolean gotNonblockingLock = false;
-    gotNonblockingLock = mSpinLock.compareAndSet(false, true);
-    if (gotNonblockingLock)
-    {
-      final int slot = mNextAvailableReferenceSlot++;
-      if (slot < mMaxValidReference)
-      {
-        mValidReferences[slot] = ref;
-        // unlock the non-blocking lock, and progress to a full lock.
-        final boolean result = mSpinLock.compareAndSet(true, false);
-        assert result : "Should never be unlocked here";
-        return true;
-      }
-      // try the big lock without blocking
-      if (!mLock.tryLock()) {
-        // we couldn't get the big lock, so release the spin lock
-        // and try getting the bit lock while blocking
-        gotNonblockingLock = false;
-        mSpinLock.compareAndSet(true, false);
-      }
-    }
-    // The above code needs to make sure that we never
-    // have gotNonblockingLock set, unless we have both
-    // the spin lock and the big lock.
-    if (!gotNonblockingLock){
-      mLock.lock();
-      while(!mSpinLock.compareAndSet(false, true))
-        ; // grab the spin lock
-    }
-    try {
-      int slot = mNextAvailableReferenceSlot++;
-      if (slot >= mMaxValidReference)
-      {
-        sweepAndCollect();
-        slot = mNextAvailableReferenceSlot++;
-      }
-      mValidReferences[slot] = ref;
-    } finally {
-      final boolean result = mSpinLock.compareAndSet(true, false);
-      assert result : "Should never ever be unlocked here";
-      mLock.unlock();
-    }
-    return true;
+    return getSlab().addReference(ref);
+  }
+
+  /**
+   * Note that a reference has released its native object.
+   */
+  final void referenceDeleted()
+  {
+    getSlab().mNumDeleted.incrementAndGet();
   }
 
   /**
@@ -1315,19 +1419,15 @@ public final class JNIMemoryManager
    * Does a Ferry Garbage Collection, and also sweeps our internal
    * {@link JNIReference} heap to remove any lightweight references we may
    * have left around.
-   * @param doSweep if true, we sweep the heap.  This involves a global lock
-   *   and so should be used sparingly.
+   * @param doSweep if true, we sweep the heap.  This locks each slab of
+   *   the heap in turn and so should be used sparingly.
    */
   public void gc(boolean doSweep)
   {
     gcInternal();
     if (doSweep) {
-      blockingLock();
-      try {
-        sweepAndCollect();
-      } finally {
-        blockingUnlock();
-      }
+      for(ReferenceSlab slab : mSlabs)
+        slab.sweep();
     }
   }
   /**
@@ -1335,11 +1435,18 @@ public final class JNIMemoryManager
    */
   void gcInternal()
   {
-    JNIReference ref = null;
-    while ((ref = (JNIReference) mRefQueue.poll()) != null)
+    JNIReference ref = (JNIReference) mRefQueue.poll();
+    if (ref == null)
+      // the common case; don't pay for timing
+      return;
+    final long start = System.nanoTime();
+    long numDrained = 0;
+    do
     {
       ref.delete();
-    }
+      ++numDrained;
+    } while ((ref = (JNIReference) mRefQueue.poll()) != null);
+    mStatistics.queueDrained(numDrained, System.nanoTime() - start);
   }
 
   /**
@@ -1355,61 +1462,95 @@ public final class JNIMemoryManager
    * This call is ignored if the collection thread is already running.
    * </p>
    * <p>
+   * This starts {@link #getCollectionService()} with whatever settings it
+   * has, which by default is a single thread.
+   * </p>
+   * <p>
    * The thread can be stopped by calling {@link #stopCollectionThread()}, and
    * will also exit if interrupted by Java.
    * </p>
    */
   public void startCollectionThread()
   {
-    synchronized (this)
-    {
-      if (mCollectionThread != null)
-        throw new RuntimeException("Thread already running");
+    mCollectionService.start();
+  }
 
-      mCollectionThread = new Thread(new Runnable()
-      {
+  /**
+   * Stops the Ferry collection thread if running. This does nothing if no
+   * collection thread is running.
+   */
+  public void stopCollectionThread()
+  {
+    mCollectionService.stop();
+  }
 
-        public void run()
-        {
-          JNIReference ref = null;
-          try
-          {
-            while (true)
-            {
-              ref = (JNIReference) mRefQueue.remove();
-              if (ref != null)
-                ref.delete();
-            }
-          }
-          catch (InterruptedException ex)
-          {
-            synchronized (JNIMemoryManager.this)
-            {
-              mCollectionThread = null;
-              // reset the interruption
-              Thread.currentThread().interrupt();
-            }
-            return;
-          }
+  /**
+   * Get the service that runs Ferry's background collection threads.
+   * <p>
+   * Use this instead of {@link #startCollectionThread()} to run more than
+   * one collection thread, to batch collection, or to sweep the reference
+   * heap in the background.
+   * </p>
+   * @return the collection service.
+   */
+  public JNICollectionService getCollectionService()
+  {
+    return mCollectionService;
+  }
 
-        }
-      }, "Xuggle Ferry Collection Thread");
-      mCollectionThread.setDaemon(true);
-      mCollectionThread.start();
+  /**
+   * Sweep every slab of the reference heap that is at least threshold
+   * full and has had references added since it was last swept.
+   * <p>
+   * A threshold below one minus {@link #getMinFreeRatio()} is raised to
+   * that; otherwise a slab whose survivors fill it past the threshold, but
+   * not enough to make it grow, would be copied on every call without
+   * ever changing.
+   * </p>
+   * @param threshold a fraction between 0 and 1.
+   * @return the number of slabs swept.
+   */
+  int sweepSlabs(double threshold)
+  {
+    threshold = Math.max(threshold, 1.0 - mMinFreeRatio);
+    int numSwept = 0;
+    for(ReferenceSlab slab : mSlabs)
+    {
+      if (slab.mNumAdded == slab.mNumAddedAtLastSweep)
+        // nothing new to collect
+        continue;
+      final int max = slab.mMaxValidReference;
+      final int inUse = Math.min(slab.mNextAvailableReferenceSlot, max);
+      if (inUse >= max * threshold)
+      {
+        slab.sweep();
+        ++numSwept;
+      }
     }
+    return numSwept;
   }
 
   /**
-   * Stops the Ferry collection thread if running. This does nothing if no
-   * collection thread is running.
+   * Estimate how many references Java has collected that we have not yet
+   * deleted.  Walks the heap without locking it.
+   * @return the estimated number.
    */
-  public void stopCollectionThread()
+  long getCollectionBacklog()
   {
-    synchronized (this)
+    long backlog = 0;
+    for(ReferenceSlab slab : mSlabs)
     {
-      if (mCollectionThread != null)
-        mCollectionThread.interrupt();
+      final JNIReference refs[] = slab.mValidReferences;
+      final int numItems = Math.min(slab.mNextAvailableReferenceSlot,
+          refs.length);
+      for(int i = 0; i < numItems; i++)
+      {
+        final JNIReference ref = refs[i];
+        if (ref != null && ref.get() == null && !ref.isDeleted())
+          ++backlog;
+      }
     }
+    return backlog;
   }
 
   /**
@@ -1451,22 +1592,255 @@ public final class JNIMemoryManager
    */
   final public void flush()
   {
-    blockingLock();
-    try {
-      int numSurvivors = sweepAndCollect();
-      for(int i = 0; i < numSurvivors; i++)
+    final int minimum = getMinimumReferencesPerSlab();
+    for(ReferenceSlab slab : mSlabs)
+      slab.flush(minimum);
+  }
+
+  /**
+   * One independently locked portion of our collect-and-sweep
+   * {@link JNIReference} heap.
+   * <p>
+   * Each slab has its own spin lock and big lock, so threads adding
+   * to different slabs never contend with each other, and sweeping one
+   * slab leaves the others free for allocation.
+   * </p>
+   */
+  private final class ReferenceSlab
+  {
+    private final AtomicBoolean mSpinLock;
+    private final Lock mLock;
+    private JNIReference mValidReferences[];
+    private volatile int mNextAvailableReferenceSlot;
+    private volatile int mMaxValidReference;
+    /** Only written while holding the spin lock. */
+    private volatile long mNumAdded;
+    /** The value of mNumAdded when this slab was last swept. */
+    private volatile long mNumAddedAtLastSweep;
+    private final AtomicLong mNumDeleted;
+
+    ReferenceSlab(int size)
+    {
+      mLock = new ReentrantLock();
+      mSpinLock = new AtomicBoolean(false);
+      mValidReferences = new JNIReference[size];
+      mMaxValidReference = size;
+      mNextAvailableReferenceSlot = 0;
+      mNumAdded = 0;
+      mNumDeleted = new AtomicLong(0);
+    }
+
+    private void blockingLock()
+    {
+      mLock.lock();
+      while(!mSpinLock.compareAndSet(false, true))
+        ; // grab the spin lock
+    }
+    private void blockingUnlock()
+    {
+      final boolean result = mSpinLock.compareAndSet(true, false);
+      assert result : "Should never ever be unlocked here";
+      mLock.unlock();
+    }
+
+    /**
+     * Add a reference to this slab.
+     * 
+     * @param ref The reference to collect.
+     * @return true if already in list; false otherwise.
+     */
+    boolean addReference(final JNIReference ref)
+    {
+      /* Implementation note: This method is extremely
+       * hot, and so I've unrolled the lock and unlock
+       * methods from above.  Take care if you change
+       * them to change the unrolled versions here.
+       * 
+       */
+      // First try to grab the non blocking lock
+      boolean gotNonblockingLock = false;
+      gotNonblockingLock = mSpinLock.compareAndSet(false, true);
+      if (gotNonblockingLock)
       {
-        final JNIReference ref = mValidReferences[i];
-        if (ref != null)
-          ref.delete();
+        final int slot = mNextAvailableReferenceSlot++;
+        if (slot < mMaxValidReference)
+        {
+          mValidReferences[slot] = ref;
+          ++mNumAdded;
+          // unlock the non-blocking lock, and progress to a full lock.
+          final boolean result = mSpinLock.compareAndSet(true, false);
+          assert result : "Should never be unlocked here";
+          return true;
+        }
+        // try the big lock without blocking
+        if (!mLock.tryLock()) {
+          // we couldn't get the big lock, so release the spin lock
+          // and try getting the bit lock while blocking
+          gotNonblockingLock = false;
+          mSpinLock.compareAndSet(true, false);
+        }
+      }
+      // The above code needs to make sure that we never
+      // have gotNonblockingLock set, unless we have both
+      // the spin lock and the big lock.
+      if (!gotNonblockingLock){
+        mLock.lock();
+        while(!mSpinLock.compareAndSet(false, true))
+          ; // grab the spin lock
+      }
+      try {
+        int slot = mNextAvailableReferenceSlot++;
+        if (slot >= mMaxValidReference)
+        {
+          mStatistics.inlineSweepCompleted();
+          sweepAndCollect();
+          slot = mNextAvailableReferenceSlot++;
+        }
+        mValidReferences[slot] = ref;
+        ++mNumAdded;
+      } finally {
+        final boolean result = mSpinLock.compareAndSet(true, false);
+        assert result : "Should never ever be unlocked here";
+        mLock.unlock();
+      }
+      return true;
+    }
+
+    /**
+     * Sweeps this slab, taking only this slab's lock.
+     */
+    void sweep()
+    {
+      blockingLock();
+      try {
+        sweepAndCollect();
+      } finally {
+        blockingUnlock();
+      }
+    }
+
+    /**
+     * Collect any deleted references in this slab and grow or shrink
+     * it as needed.  Callers must hold this slab's lock.
+     * @return the number of references that survived.
+     */
+    private int sweepAndCollect()
+    {
+      // time to sweep, collect, and possibly grow.
+      final long start = System.nanoTime();
+      JNIReference[] survivors = new JNIReference[mMaxValidReference];
+      int numSurvivors=0;
+      final int numValid = mMaxValidReference;
+      for(int i = 0; i < numValid; i++)
+      {
+        JNIReference victim = mValidReferences[i];
+        if (victim != null && !victim.isDeleted())
+        {
+          survivors[numSurvivors] = victim;
+          ++numSurvivors;
+        }
+      }
+      final int survivorLength = survivors.length;
+      int freeSpace = survivorLength - numSurvivors;
+      if (freeSpace > survivorLength * mMaxFreeRatio)
+      {
+        // time to shrink
+        int newSize = (int) (survivorLength*(1.0 - mExpandIncrement*mShrinkScaleFactor));
+        // never shrink smaller than the minimum
+        if (newSize >= getMinimumReferencesPerSlab()) {
+          JNIReference[] shrunk = new JNIReference[newSize];
+          System.arraycopy(survivors, 0, shrunk, 0, newSize);
+          survivors = shrunk;
+        }
+      } else if (freeSpace <= survivorLength*mMinFreeRatio)
+      {
+        // time to expand
+        int newSize = (int) (survivorLength*(1.0 + mExpandIncrement));
+        JNIReference[] expanded = new JNIReference[newSize];
+        System.arraycopy(survivors, 0, expanded, 0, survivorLength);
+        survivors = expanded;
+      }
+      // and swap in our new array
+      // ORDER REALLY MATTERS HERE.  See #addReference
+      mValidReferences = survivors;
+      mMaxValidReference = survivors.length;
+      mNextAvailableReferenceSlot = numSurvivors;
+      mNumAddedAtLastSweep = mNumAdded;
+      mStatistics.sweepCompleted(System.nanoTime() - start);
+      return numSurvivors;
+    }
+
+    /**
+     * Get the number of Ferry objects in this slab we believe are
+     * still in use.
+     * @return number of ferry objects in use.
+     */
+    long getNumPinnedObjects()
+    {
+      long numPinnedObjects = 0;
+      blockingLock();
+      try {
+        int numItems = Math.min(mNextAvailableReferenceSlot,
+            mMaxValidReference);
+        for(int i = 0; i < numItems; i++)
+        {
+          JNIReference ref = mValidReferences[i];
+          if (ref != null && !ref.isDeleted())
+            ++numPinnedObjects;
+        }
+      } finally {
+        blockingUnlock();
+      }
+      return numPinnedObjects;
+    }
+
+    /**
+     * Dump the contents of this slab to the log.
+     * @param slabIndex The index of this slab, for logging.
+     */
+    void dumpMemoryLog(int slabIndex)
+    {
+      blockingLock();
+      try {
+        int numItems = Math.min(mNextAvailableReferenceSlot,
+            mMaxValidReference);
+        log.debug("Memory slots in use in slab {}: {}", slabIndex, numItems);
+        for(int i = 0; i < numItems; i++)
+        {
+          JNIReference ref = mValidReferences[i];
+          if (ref != null)
+            log.debug("Slab: {}; Slot: {}; Ref: {}",
+                new Object[]{slabIndex, i, ref});
+        }
+      } finally {
+        blockingUnlock();
+      }
+    }
+
+    /**
+     * Immediately frees all active objects in this slab and resets
+     * it to the given size.
+     * @param minimum The number of references to reset to.
+     */
+    void flush(int minimum)
+    {
+      blockingLock();
+      try {
+        int numSurvivors = sweepAndCollect();
+        for(int i = 0; i < numSurvivors; i++)
+        {
+          final JNIReference ref = mValidReferences[i];
+          if (ref != null)
+            ref.delete();
+        }
+        sweepAndCollect();
+        // finally, reset the valid references to the minimum
+        mValidReferences = new JNIReference[minimum];
+        mNextAvailableReferenceSlot = 0;
+        mMaxValidReference = minimum;
+      } finally {
+        blockingUnlock();
       }
-      sweepAndCollect();
-      // finally, reset the valid references to the minimum
-      mValidReferences = new JNIReference[mMinimumReferencesToCache];
-      mNextAvailableReferenceSlot = 0;
-      mMaxValidReference = mMinimumReferencesToCache;
-    } finally {
-      blockingUnlock();
     }
   }
 
@@ -145,6 +145,7 @@ final class JNIMemoryParachute
       // and do a quick allocation to suggest to Java to do
       // a GC if needed
       mPayload = null;
+      JNIMemoryManager.getMgr().getStatistics().parachutePulled();
       try {
         byte[] discardBytes = new byte[4];
         discardBytes[1]=2;
@@ -0,0 +1,450 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Cheap, always-on statistics about the native memory Ferry manages.
+ * <p>
+ * Unlike {@link JNIMemoryManager#getNumPinnedObjects()} nothing here
+ * walks the reference heap or takes its locks, so it is safe to poll from
+ * a monitoring thread while the application runs.  Values are updated
+ * without synchronization and so may be slightly stale.
+ * </p>
+ * <p>
+ * Get the statistics with {@link JNIMemoryManager#getStatistics()}, and
+ * call {@link #register()} to publish them to the platform MBean server.
+ * </p>
+ */
+public final class JNIMemoryStatistics implements JNIMemoryStatisticsMBean
+{
+  /**
+   * The name we register under with the platform MBean server.
+   */
+  public static final String OBJECT_NAME =
+    "com.xuggle.ferry:type=JNIMemoryManager";
+
+  private final JNIMemoryManager mMgr;
+
+  private final AtomicLong mNumSweeps = new AtomicLong();
+  private final AtomicLong mTotalSweepTime = new AtomicLong();
+  private final AtomicLong mMaxSweepTime = new AtomicLong();
+  private final AtomicLong mNumInlineSweeps = new AtomicLong();
+
+  private final AtomicLong mNumQueueDrains = new AtomicLong();
+  private final AtomicLong mNumDrainedReferences = new AtomicLong();
+  private final AtomicLong mTotalQueueDrainTime = new AtomicLong();
+  private final AtomicLong mMaxQueueDrainTime = new AtomicLong();
+
+  /**
+   * Longs between stripes of {@link #mBytesAllocated}, so no two
+   * stripes share a cache line.
+   */
+  private static final int STRIPE_PADDING = 16;
+
+  /**
+   * Bytes allocated per memory model, striped the same way as the
+   * reference slabs so threads don't contend on one counter.
+   */
+  private final AtomicLongArray mBytesAllocated;
+  private final int mNumStripes;
+  private final AtomicLong mNumAllocationRetries = new AtomicLong();
+  private final AtomicLong mNumAllocationFailures = new AtomicLong();
+  private final AtomicLong mNumParachutePulls = new AtomicLong();
+
+  /**
+   * Package level so only the {@link JNIMemoryManager} creates us.
+   * @param mgr the manager we report on.
+   */
+  JNIMemoryStatistics(JNIMemoryManager mgr)
+  {
+    mMgr = mgr;
+    final int numModels = JNIMemoryManager.MemoryModel.values().length;
+    mNumStripes = mgr.getNumReferenceSlabs();
+    mBytesAllocated = new AtomicLongArray(
+        numModels * mNumStripes * STRIPE_PADDING);
+  }
+
+  /**
+   * Register these statistics with the platform MBean server under
+   * {@link #OBJECT_NAME}.  Does nothing if already registered.
+   * 
+   * @throws RuntimeException if registration fails.
+   */
+  public synchronized void register()
+  {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try
+    {
+      final ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name))
+        server.registerMBean(this, name);
+    }
+    catch (JMException e)
+    {
+      throw new RuntimeException("could not register " + OBJECT_NAME, e);
+    }
+  }
+
+  /**
+   * Remove these statistics from the platform MBean server.  Does nothing
+   * if not registered.
+   * 
+   * @throws RuntimeException if unregistration fails.
+   */
+  public synchronized void unregister()
+  {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try
+    {
+      final ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name))
+        server.unregisterMBean(name);
+    }
+    catch (JMException e)
+    {
+      throw new RuntimeException("could not unregister " + OBJECT_NAME, e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getMemoryModel()
+  {
+    return JNIMemoryManager.getMemoryModel().name();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int getNumReferenceSlabs()
+  {
+    return mMgr.getNumReferenceSlabs();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumLiveReferences()
+  {
+    return mMgr.getNumLiveReferences();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getReferenceCapacity()
+  {
+    return mMgr.getReferenceCapacity();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumReferenceSlotsInUse()
+  {
+    return mMgr.getNumReferenceSlotsInUse();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumSweeps()
+  {
+    return mNumSweeps.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getTotalSweepTime()
+  {
+    return mTotalSweepTime.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getMaxSweepTime()
+  {
+    return mMaxSweepTime.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumInlineSweeps()
+  {
+    return mNumInlineSweeps.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumQueueDrains()
+  {
+    return mNumQueueDrains.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumDrainedReferences()
+  {
+    return mNumDrainedReferences.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getTotalQueueDrainTime()
+  {
+    return mTotalQueueDrainTime.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getMaxQueueDrainTime()
+  {
+    return mMaxQueueDrainTime.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumBytesAllocated()
+  {
+    long total = 0;
+    for(JNIMemoryManager.MemoryModel model :
+      JNIMemoryManager.MemoryModel.values())
+      total += getNumBytesAllocated(model);
+    return total;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumBytesAllocated(String memoryModel)
+  {
+    return getNumBytesAllocated(
+        JNIMemoryManager.MemoryModel.valueOf(memoryModel));
+  }
+
+  /**
+   * Get the bytes currently held by {@link JNIMemoryAllocator} for the
+   * given memory model.
+   * <p>
+   * Only the Java heap models, and the models that notify the Java heap,
+   * allocate through {@link JNIMemoryAllocator}; the others always
+   * return 0 here.
+   * </p>
+   * 
+   * @param model the memory model.
+   * @return the bytes held.
+   */
+  public long getNumBytesAllocated(JNIMemoryManager.MemoryModel model)
+  {
+    long total = 0;
+    for(int i = 0; i < mNumStripes; i++)
+      total += mBytesAllocated.get(
+          (model.ordinal() * mNumStripes + i) * STRIPE_PADDING);
+    return total;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumAllocationRetries()
+  {
+    return mNumAllocationRetries.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumAllocationFailures()
+  {
+    return mNumAllocationFailures.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumParachutePulls()
+  {
+    return mNumParachutePulls.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumRecycledBytes()
+  {
+    return mMgr.getByteArrayRecycler().getRetainedBytes();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumRecycledArrayHits()
+  {
+    return mMgr.getByteArrayRecycler().getNumHits();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumRecycledArrayMisses()
+  {
+    return mMgr.getByteArrayRecycler().getNumMisses();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumArraysRecycled()
+  {
+    return mMgr.getByteArrayRecycler().getNumRecycled();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumArraysDropped()
+  {
+    return mMgr.getByteArrayRecycler().getNumDropped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getNumArraysSoftReclaimed()
+  {
+    return mMgr.getByteArrayRecycler().getNumSoftReclaimed();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void reset()
+  {
+    mMgr.getByteArrayRecycler().resetStatistics();
+    mNumSweeps.set(0);
+    mTotalSweepTime.set(0);
+    mMaxSweepTime.set(0);
+    mNumInlineSweeps.set(0);
+    mNumQueueDrains.set(0);
+    mNumDrainedReferences.set(0);
+    mTotalQueueDrainTime.set(0);
+    mMaxQueueDrainTime.set(0);
+    mNumAllocationRetries.set(0);
+    mNumAllocationFailures.set(0);
+    mNumParachutePulls.set(0);
+  }
+
+  /**
+   * Record a sweep of one reference heap slab.
+   * @param time how long the sweep took.
+   */
+  void sweepCompleted(long time)
+  {
+    mNumSweeps.incrementAndGet();
+    mTotalSweepTime.addAndGet(time);
+    setMax(mMaxSweepTime, time);
+  }
+
+  /**
+   * Record that a thread adding a reference had to sweep its slab.
+   */
+  void inlineSweepCompleted()
+  {
+    mNumInlineSweeps.incrementAndGet();
+  }
+
+  /**
+   * Record a drain of the reference queue that found work to do.
+   * @param numReferences how many references were deleted.
+   * @param time how long the drain took.
+   */
+  void queueDrained(long numReferences, long time)
+  {
+    mNumQueueDrains.incrementAndGet();
+    mNumDrainedReferences.addAndGet(numReferences);
+    mTotalQueueDrainTime.addAndGet(time);
+    setMax(mMaxQueueDrainTime, time);
+  }
+
+  /**
+   * Record bytes handed out, or given back if negative, by
+   * {@link JNIMemoryAllocator}.
+   * <p>
+   * Bytes are charged to the memory model in use at the time; the model
+   * is meant to be set only once per process.
+   * </p>
+   * @param bytes the number of bytes.
+   */
+  void bytesAllocated(long bytes)
+  {
+    final int stripe = JNIMemoryManager.getMemoryModel().ordinal()
+        * mNumStripes + mMgr.getSlabIndex();
+    mBytesAllocated.addAndGet(stripe * STRIPE_PADDING, bytes);
+  }
+
+  /**
+   * Record a retried allocation.
+   */
+  void allocationRetried()
+  {
+    mNumAllocationRetries.incrementAndGet();
+  }
+
+  /**
+   * Record a failed allocation.
+   */
+  void allocationFailed()
+  {
+    mNumAllocationFailures.incrementAndGet();
+  }
+
+  /**
+   * Record a pull of the memory parachute.
+   */
+  void parachutePulled()
+  {
+    mNumParachutePulls.incrementAndGet();
+  }
+
+  private static void setMax(AtomicLong max, long value)
+  {
+    long current;
+    while (value > (current = max.get()))
+      if (max.compareAndSet(current, value))
+        break;
+  }
+}
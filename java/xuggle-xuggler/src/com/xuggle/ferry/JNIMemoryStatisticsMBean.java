@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+/**
+ * The management interface for {@link JNIMemoryStatistics}.
+ * <p>
+ * Register the statistics with {@link JNIMemoryStatistics#register()} and
+ * this interface shows up under {@link JNIMemoryStatistics#OBJECT_NAME} in
+ * any JMX console.
+ * </p>
+ * <p>
+ * All times are in nanoseconds.
+ * </p>
+ */
+public interface JNIMemoryStatisticsMBean
+{
+  /**
+   * @return the name of the {@link JNIMemoryManager.MemoryModel} in use.
+   */
+  String getMemoryModel();
+
+  /**
+   * @return the number of slabs the reference heap is split into.
+   */
+  int getNumReferenceSlabs();
+
+  /**
+   * @return the number of {@link JNIReference} objects created but not yet
+   *   deleted.
+   */
+  long getNumLiveReferences();
+
+  /**
+   * @return the number of references the reference heap can hold before
+   *   it has to sweep.
+   */
+  long getReferenceCapacity();
+
+  /**
+   * @return the number of reference heap slots in use, including slots
+   *   holding deleted references not yet swept.
+   */
+  long getNumReferenceSlotsInUse();
+
+  /**
+   * @return the number of times a reference heap slab has been swept.
+   */
+  long getNumSweeps();
+
+  /**
+   * @return total time spent sweeping the reference heap.
+   */
+  long getTotalSweepTime();
+
+  /**
+   * @return the longest single sweep of a reference heap slab.
+   */
+  long getMaxSweepTime();
+
+  /**
+   * @return the number of sweeps done by a thread adding a reference
+   *   because its slab was full, rather than in the background.
+   */
+  long getNumInlineSweeps();
+
+  /**
+   * @return the number of times pending references were drained from the
+   *   reference queue.
+   */
+  long getNumQueueDrains();
+
+  /**
+   * @return the number of references deleted by queue drains.
+   */
+  long getNumDrainedReferences();
+
+  /**
+   * @return total time spent draining the reference queue.
+   */
+  long getTotalQueueDrainTime();
+
+  /**
+   * @return the longest single drain of the reference queue.
+   */
+  long getMaxQueueDrainTime();
+
+  /**
+   * @return bytes currently held by {@link JNIMemoryAllocator} on the Java
+   *   heap, across all memory models.
+   */
+  long getNumBytesAllocated();
+
+  /**
+   * Get the bytes currently held by {@link JNIMemoryAllocator} for the given
+   * memory model.
+   * 
+   * @param memoryModel the name of a {@link JNIMemoryManager.MemoryModel}.
+   * @return the bytes held.
+   * @throws IllegalArgumentException if memoryModel is not a valid name.
+   */
+  long getNumBytesAllocated(String memoryModel);
+
+  /**
+   * @return the number of times {@link JNIMemoryAllocator} retried an
+   *   allocation after an {@link OutOfMemoryError}.
+   */
+  long getNumAllocationRetries();
+
+  /**
+   * @return the number of allocations {@link JNIMemoryAllocator} gave up on.
+   */
+  long getNumAllocationFailures();
+
+  /**
+   * @return the number of times {@link JNIMemoryAllocator} pulled its
+   *   memory parachute.
+   */
+  long getNumParachutePulls();
+
+  /**
+   * @return bytes of freed byte arrays currently held strongly for reuse.
+   */
+  long getNumRecycledBytes();
+
+  /**
+   * @return the number of allocations satisfied by a recycled byte array.
+   */
+  long getNumRecycledArrayHits();
+
+  /**
+   * @return the number of recyclable allocations that needed a new array.
+   */
+  long getNumRecycledArrayMisses();
+
+  /**
+   * @return the number of freed byte arrays kept for reuse.
+   */
+  long getNumArraysRecycled();
+
+  /**
+   * @return the number of freed byte arrays let go because we were
+   *   already holding enough.
+   */
+  long getNumArraysDropped();
+
+  /**
+   * @return the number of softly held byte arrays the Java garbage
+   *   collector took back.
+   */
+  long getNumArraysSoftReclaimed();
+
+  /**
+   * Reset all cumulative counters and times to zero.  Live values such as
+   * {@link #getNumLiveReferences()} are not affected.
+   */
+  void reset();
+}
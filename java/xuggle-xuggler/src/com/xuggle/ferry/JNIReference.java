@@ -159,6 +159,8 @@ public final class JNIReference extends WeakReference<Object>
         proxy, aReferent,
         swigCPtr, isFerry, javaRefCount);
     JNIMemoryManager.getMgr().addReference(ref);
+    FerryScope.record(proxy, ref);
+    JNIMemoryManager.getMgr().getLeakDetector().sample(proxy, ref);
     //System.err.println("added  : "+ref+"; "+swigCPtr+" ("+isFerry+")");
     return ref;
   }
@@ -196,6 +198,7 @@ public final class JNIReference extends WeakReference<Object>
       }
       // Free the memory manager we use
       mMemAllocator = null;
+      JNIMemoryManager.getMgr().referenceDeleted();
     }
 
   }
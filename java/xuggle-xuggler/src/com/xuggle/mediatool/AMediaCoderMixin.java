@@ -22,6 +22,7 @@ package com.xuggle.mediatool;
 
 
 import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.MediaDataPool;
 
 /**
  * An abstract implementation of all
@@ -53,6 +54,14 @@ public abstract class AMediaCoderMixin extends AMediaToolMixin
 
   private final String mUrl;
 
+  // the pool this coder created for itself, which nothing else uses
+
+  private final MediaDataPool mOwnMediaDataPool = new MediaDataPool();
+
+  // the pool packets, pictures and samples are leased from
+
+  private volatile MediaDataPool mMediaDataPool = mOwnMediaDataPool;
+
   // all the media reader listeners
 
   /**
@@ -108,6 +117,46 @@ public abstract class AMediaCoderMixin extends AMediaToolMixin
     return mContainer.isOpened();
   }
 
+  /**
+   * Get the {@link MediaDataPool} this {@link IMediaCoder} leases the
+   * packets, pictures and samples it allocates from.
+   * 
+   * @return the pool.
+   */
+
+  public MediaDataPool getMediaDataPool()
+  {
+    return mMediaDataPool;
+  }
+
+  /**
+   * Set the {@link MediaDataPool} this {@link IMediaCoder} leases the
+   * packets, pictures and samples it allocates from.
+   * 
+   * @param pool the pool to use.
+   * 
+   * @throws IllegalArgumentException if pool is null.
+   */
+
+  public void setMediaDataPool(MediaDataPool pool)
+  {
+    if (pool == null)
+      throw new IllegalArgumentException("must pass in a pool");
+    mMediaDataPool = pool;
+  }
+
+  /**
+   * Delete the idle packets, pictures and samples in the pool this
+   * {@link IMediaCoder} created for itself.  A pool passed to {@link
+   * #setMediaDataPool(MediaDataPool)} may be shared with other coders,
+   * so it is left alone.
+   */
+
+  protected void clearOwnMediaDataPool()
+  {
+    mOwnMediaDataPool.clear();
+  }
+
   /**
    * Should this {@link IMediaCoder} call {@link IContainer#close()}
    * when {@link IMediaCoder#close()} is called.
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool;
+
+import java.awt.image.BufferedImage;
+
+import com.xuggle.mediatool.event.IVideoPictureEvent;
+
+/**
+ * A marker for {@link IMediaListener} objects that always need the
+ * {@link BufferedImage} of an {@link IVideoPictureEvent}.
+ * 
+ * <p>
+ * 
+ * By default an {@link IMediaReader} that has been asked to generate
+ * {@link BufferedImage} objects (see
+ * {@link IMediaReader#setBufferedImageTypeToGenerate(int)}) only converts a
+ * picture when a listener first calls {@link IVideoPictureEvent#getImage()}.
+ * If a listener attached to the reader implements this interface, the reader
+ * instead converts every picture before dispatching it, so the image is
+ * already in place when the first listener is called.
+ * 
+ * </p>
+ */
+
+public interface IBufferedImageListener extends IMediaListener
+{
+}
@@ -21,6 +21,7 @@ package com.xuggle.mediatool;
 
 import com.xuggle.xuggler.IContainer;
 import com.xuggle.xuggler.IStreamCoder;
+import com.xuggle.xuggler.MediaDataPool;
 
 /**
  * An {@link IMediaGenerator} that manages reading or writing to an {@link
@@ -65,6 +66,29 @@ public interface IMediaCoder extends IMediaGenerator
    */
 
   public abstract boolean isOpen();
+
+  /**
+   * Get the {@link MediaDataPool} this {@link IMediaCoder} leases the
+   * packets, pictures and samples it allocates from.
+   * 
+   * @return the pool.
+   */
+
+  public abstract MediaDataPool getMediaDataPool();
+
+  /**
+   * Set the {@link MediaDataPool} this {@link IMediaCoder} leases the
+   * packets, pictures and samples it allocates from.  By default each
+   * {@link IMediaCoder} has its own pool, whose idle objects are deleted
+   * on {@link #close()}.  A pool set here may be shared, so closing
+   * leaves it alone.
+   * 
+   * @param pool the pool to use.
+   * 
+   * @throws IllegalArgumentException if pool is null.
+   */
+
+  public abstract void setMediaDataPool(MediaDataPool pool);
     
   /** 
    * Close this {@link IMediaCoder}.  This will close all {@link IStreamCoder}s
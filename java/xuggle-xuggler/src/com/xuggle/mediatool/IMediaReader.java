@@ -222,7 +222,10 @@ public interface IMediaReader extends IMediaCoder
    * .
    * 
    * <p>
-   * NOTE: Only {@link BufferedImage#TYPE_3BYTE_BGR} is supported today.
+   * NOTE: Only {@link BufferedImage#TYPE_3BYTE_BGR} and
+   * {@link BufferedImage#TYPE_BYTE_GRAY} are supported today.  Gray images
+   * hold just the luma of the decoded pictures; see
+   * {@link com.xuggle.xuggler.video.GrayConverter}.
    * </p>
    * 
    * <p>
@@ -234,7 +237,19 @@ public interface IMediaReader extends IMediaCoder
    * }
    * call.
    * </p>
-   * 
+   *
+   * <p>
+   * The conversion is done lazily, the first time a listener calls
+   * {@link IVideoPictureEvent#getImage()}, so pictures no listener looks at
+   * are never converted. Listeners that implement
+   * {@link IBufferedImageListener} ask the {@link IMediaReader} to convert
+   * every picture before dispatching it instead. Either way the image must be
+   * fetched during the
+   * {@link IMediaListener#onVideoPicture(IVideoPictureEvent)} call; once the
+   * call returns, events that were never asked for their image will return
+   * null.
+   * </p>
+   *
    * @param bufferedImageType The buffered image type (e.g.
    *        {@link BufferedImage#TYPE_3BYTE_BGR}) you want {@link IMediaReader}
    *        to generate. Set to -1 to disable this feature.
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool;
+
+import com.xuggle.mediatool.event.ISceneChangeEvent;
+
+/**
+ * An {@link IMediaListener} that wants to know where scenes change.
+ * 
+ * <p>
+ * 
+ * Attach it to a {@link SceneChangeDetector} with
+ * {@link IMediaGenerator#addListener(IMediaListener)}, like any other
+ * listener. Listeners that don't implement this interface still get every
+ * other event the detector forwards.
+ * 
+ * </p>
+ */
+
+public interface ISceneChangeListener extends IMediaListener
+{
+  /**
+   * Called when a {@link SceneChangeDetector} finds the first picture of
+   * a new scene, before that picture is passed on with
+   * {@link IMediaListener#onVideoPicture(com.xuggle.mediatool.event.IVideoPictureEvent)}.
+   * 
+   * @param event the scene change
+   */
+
+  public void onSceneChange(ISceneChangeEvent event);
+}
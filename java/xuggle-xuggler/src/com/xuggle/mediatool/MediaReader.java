@@ -39,6 +39,7 @@ import com.xuggle.mediatool.event.OpenCoderEvent;
 import com.xuggle.mediatool.event.OpenEvent;
 import com.xuggle.mediatool.event.ReadPacketEvent;
 import com.xuggle.mediatool.event.VideoPictureEvent;
+import com.xuggle.ferry.JNIMemoryBudget;
 import com.xuggle.xuggler.ICodec;
 import com.xuggle.xuggler.IError;
 import com.xuggle.xuggler.IPacket;
@@ -48,6 +49,7 @@ import com.xuggle.xuggler.IStreamCoder;
 import com.xuggle.xuggler.IAudioSamples;
 import com.xuggle.xuggler.IVideoPicture;
 import com.xuggle.xuggler.IContainerFormat;
+import com.xuggle.xuggler.MediaDataPool;
 import com.xuggle.xuggler.video.IConverter;
 import com.xuggle.xuggler.video.ConverterFactory;
 
@@ -266,10 +268,18 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
   public void setBufferedImageTypeToGenerate(int bufferedImageType)
   {
     if (bufferedImageType >= 0 &&
-        bufferedImageType != BufferedImage.TYPE_3BYTE_BGR)
+        bufferedImageType != BufferedImage.TYPE_3BYTE_BGR &&
+        bufferedImageType != BufferedImage.TYPE_BYTE_GRAY)
       // can remove this once the any converter is created
-      throw new RuntimeException("Only BufferedImage.TYPE_3BYTE_BGR supported: "+
-          bufferedImageType);
+      throw new RuntimeException("Only BufferedImage.TYPE_3BYTE_BGR and " +
+          "BufferedImage.TYPE_BYTE_GRAY supported: " + bufferedImageType);
+    if (bufferedImageType != mBufferedImageType)
+    {
+      // the next picture needs a converter for the new type
+
+      mConverterType = null;
+      recycleVideoConverter();
+    }
     mBufferedImageType = bufferedImageType;
   }
   
@@ -436,7 +446,20 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
     // if there is an off-nominal result from read packet, return the
     // correct error
 
-    IPacket packet = IPacket.make();
+    // if we're over our native memory budget, first delete our idle
+    // packets, pictures and samples, which are charged to the budget but
+    // which nobody else will ever free, then give whoever is holding our
+    // frames a chance to let go of them before we demux more
+
+    final JNIMemoryBudget budget = JNIMemoryBudget.getCurrent();
+    if (budget.isAbovePauseThreshold())
+    {
+      getMediaDataPool().clear();
+      budget.awaitCapacity();
+    }
+
+    final MediaDataPool pool = getMediaDataPool();
+    IPacket packet = pool.leasePacket();
     try
     {
       int rv = getContainer().readNextPacket(packet);
@@ -484,8 +507,7 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
     }
     finally
     {
-      if (packet != null)
-        packet.delete();
+      pool.recycle(packet);
     }
 
     // return true more packets to be read
@@ -501,9 +523,10 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
 
   private void decodeVideo(IStreamCoder videoCoder, IPacket packet)
   {
-    // create a blank video picture
+    // lease a blank video picture
     
-    IVideoPicture picture = IVideoPicture.make(videoCoder.getPixelType(),
+    final MediaDataPool pool = getMediaDataPool();
+    IVideoPicture picture = pool.leaseVideoPicture(videoCoder.getPixelType(),
         videoCoder.getWidth(), videoCoder.getHeight());
     try {
       // decode the packet into the video picture
@@ -518,7 +541,7 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
       if (picture.isComplete())
         dispatchVideoPicture(packet.getStreamIndex(), picture);
     } finally {
-      if (picture != null) picture.delete();
+      pool.recycle(picture);
     }
   }
 
@@ -533,29 +556,30 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
     // packet may contain multiple audio frames, decode audio until
     // all audio frames are extracted from the packet 
     
+    final MediaDataPool pool = getMediaDataPool();
     int offset = 0;
     while (offset < packet.getSize())
     {
-      // allocate a set of samples with the correct number of channels
+      // lease a set of samples with the correct number of channels
       // and a stock size of 1024 (currently the buffer size will be
       // expanded to 32k to conform to ffmpeg requirements)
           
-      IAudioSamples samples = IAudioSamples.make(1024, audioCoder.getChannels());
+      IAudioSamples samples = pool.leaseAudioSamples(1024,
+          audioCoder.getChannels());
+      try {
+        // decode audio
 
-      // decode audio
+        int bytesDecoded = audioCoder.decodeAudio(samples, packet, offset);
+        if (bytesDecoded < 0)
+          throw new RuntimeException("error " + bytesDecoded + " decoding audio");
+        offset += bytesDecoded;
 
-      int bytesDecoded = audioCoder.decodeAudio(samples, packet, offset);
-      if (bytesDecoded < 0)
-        throw new RuntimeException("error " + bytesDecoded + " decoding audio");
-      offset += bytesDecoded;
+        // if samples are a compelete audio frame, dispatch that frame
 
-      // if samples are a compelete audio frame, dispatch that frame
-      try {
         if (samples.isComplete())
           dispatchAudioSamples(packet.getStreamIndex(), samples);
       } finally {
-        if (samples != null)
-          samples.delete();
+        pool.recycle(samples);
       }
     }
   }
@@ -583,25 +607,46 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
     if (mBufferedImageType >= 0)
     {
       if (mConverterType == null) {
+        final String descriptor =
+          mBufferedImageType == BufferedImage.TYPE_BYTE_GRAY
+          ? ConverterFactory.XUGGLER_GRAY_8
+          : ConverterFactory.XUGGLER_BGR_24;
         mConverterType = ConverterFactory 
-        .findRegisteredConverter(ConverterFactory.XUGGLER_BGR_24);
+        .findRegisteredConverter(descriptor);
       if (mConverterType == null)
         throw new UnsupportedOperationException(
-          "No converter \"" + ConverterFactory.XUGGLER_BGR_24 + "\" found.");
+          "No converter \"" + descriptor + "\" found.");
       }
         // if the converter is not created, create one
 
       if (mVideoConverter == null)
-        mVideoConverter = ConverterFactory.createConverter(mConverterType
-            .getDescriptor(), picture);
+        mVideoConverter = ConverterFactory.getConverterCache().lease(
+            mConverterType.getDescriptor(), picture);
 
-      // create the buffered image
+      // create the buffered image now only if a listener asked for it up
+      // front, otherwise leave it to the first getImage() call
 
-      image = mVideoConverter.toImage(picture);
+      if (hasBufferedImageListener())
+        image = mVideoConverter.toImage(picture);
+      else
+      {
+        VideoPictureEvent event = new VideoPictureEvent(this, picture,
+            mVideoConverter, streamIndex);
+        try
+        {
+          super.onVideoPicture(event);
+        }
+        finally
+        {
+          // the picture is only valid during dispatch
+          event.detachConverter();
+        }
+        return;
+      }
     } else {
       // reset it for next time someone calls.
       mConverterType = null;
-      mVideoConverter = null;
+      recycleVideoConverter();
     }
     
     // dispatch picture here
@@ -611,6 +656,19 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
         picture.getTimeStamp(), TimeUnit.MICROSECONDS, streamIndex));
   }
 
+  /**
+   * Reports whether any attached listener has declared that it always wants
+   * the {@link BufferedImage} for a picture.
+   */
+
+  private boolean hasBufferedImageListener()
+  {
+    for (IMediaListener listener : getListeners())
+      if (listener instanceof IBufferedImageListener)
+        return true;
+    return false;
+  }
+
   /**
    * Dispatch {@link IAudioSamples} to attached listeners. This is called when a
    * complete set of {@link IAudioSamples} has been decoded from the packet
@@ -675,6 +733,15 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
     mCoders.clear();
     mOpenedStreams.clear();
 
+    // give the video converter back for the next reader to use
+
+    recycleVideoConverter();
+
+    // and release any idle packets, pictures and samples, unless the
+    // pool was passed in and may be shared
+
+    clearOwnMediaDataPool();
+
     // if we're supposed to, close the container
 
     if (getShouldCloseContainer())
@@ -691,6 +758,13 @@ class MediaReader extends AMediaCoderMixin implements IMediaReader
     super.onClose(new CloseEvent(this));
   }
 
+  private void recycleVideoConverter()
+  {
+    if (mVideoConverter != null)
+      ConverterFactory.getConverterCache().recycle(mVideoConverter);
+    mVideoConverter = null;
+  }
+
   private static String getErrorMessage(int rv)
   {
     String errorString = "";
@@ -67,6 +67,7 @@ import com.xuggle.xuggler.IStreamCoder;
 import com.xuggle.xuggler.IVideoPicture;
 import com.xuggle.xuggler.IAudioSamples;
 import com.xuggle.xuggler.IContainerFormat;
+import com.xuggle.xuggler.MediaDataPool;
 import com.xuggle.xuggler.video.IConverter;
 import com.xuggle.xuggler.video.ConverterFactory;
 
@@ -765,7 +766,8 @@ implements IMediaWriter
 
     // encode the video packet
     
-    IPacket packet = IPacket.make();
+    final MediaDataPool pool = getMediaDataPool();
+    IPacket packet = pool.leasePacket();
     try {
       if (stream.getStreamCoder().encodeVideo(packet, picture, 0) < 0)
         throw new RuntimeException("failed to encode video");
@@ -773,8 +775,7 @@ implements IMediaWriter
       if (packet.isComplete())
         writePacket(packet);
     } finally {
-      if (packet != null)
-        packet.delete();
+      pool.recycle(packet);
     }
   
     // inform listeners
@@ -818,8 +819,7 @@ implements IMediaWriter
     } 
     finally 
     {
-      if (picture != null)
-        picture.delete();
+      getMediaDataPool().recycle(picture);
     }
   }
 
@@ -851,11 +851,12 @@ implements IMediaWriter
 
       // convert the samples into a packet
 
+      final MediaDataPool pool = getMediaDataPool();
       for (int consumed = 0; consumed < samples.getNumSamples(); /* in loop */)
       {
         // encode audio
 
-        IPacket packet = IPacket.make();
+        IPacket packet = pool.leasePacket();
         try {
           int result = coder.encodeAudio(packet, samples, consumed); 
           if (result < 0)
@@ -870,8 +871,7 @@ implements IMediaWriter
           if (packet.isComplete())
             writePacket(packet);
         } finally {
-          if (packet != null)
-            packet.delete();
+          pool.recycle(packet);
         }
       }      // inform listeners
 
@@ -909,29 +909,36 @@ implements IMediaWriter
 
       long sampleCount = samples.length / coder.getChannels();
 
-      // create the audio samples object and extract the internal buffer
+      // lease the audio samples object and extract the internal buffer
       // as an array
 
-      IAudioSamples audioFrame = IAudioSamples.make(sampleCount, coder
+      final MediaDataPool pool = getMediaDataPool();
+      IAudioSamples audioFrame = pool.leaseAudioSamples(sampleCount, coder
           .getChannels());
+      try
+      {
+        /**
+         * We allow people to pass in a null timeUnit for audio as
+         * a signal that time stamps are unknown.  This is a common
+         * case for audio data, and Xuggler should handle it if
+         * we set a invalid time stamp on the audio.
+         */
+        final long timeStampMicro;
+        if (timeUnit == null)
+          timeStampMicro = Global.NO_PTS;
+        else
+          timeStampMicro = MICROSECONDS.convert(timeStamp, timeUnit);
 
-      /**
-       * We allow people to pass in a null timeUnit for audio as
-       * a signal that time stamps are unknown.  This is a common
-       * case for audio data, and Xuggler should handle it if
-       * we set a invalid time stamp on the audio.
-       */
-      final long timeStampMicro;
-      if (timeUnit == null)
-        timeStampMicro = Global.NO_PTS;
-      else
-        timeStampMicro = MICROSECONDS.convert(timeStamp, timeUnit);
-
-      audioFrame.setComplete(true, sampleCount, coder.getSampleRate(), coder
-          .getChannels(), coder.getSampleFormat(), timeStampMicro);
+        audioFrame.setComplete(true, sampleCount, coder.getSampleRate(), coder
+            .getChannels(), coder.getSampleFormat(), timeStampMicro);
 
-      audioFrame.put(samples, 0, 0, samples.length);
-      encodeAudio(streamIndex, audioFrame);
+        audioFrame.put(samples, 0, 0, samples.length);
+        encodeAudio(streamIndex, audioFrame);
+      }
+      finally
+      {
+        pool.recycle(audioFrame);
+      }
     }
     finally
     {
@@ -957,14 +964,13 @@ implements IMediaWriter
     // lookup the converter
 
     IConverter videoConverter = mVideoConverters.get(streamIndex);
+    IStreamCoder coder = mStreams.get(streamIndex).getStreamCoder();
 
     // if not found create one
 
     if (videoConverter == null)
     {
-      IStream stream = mStreams.get(streamIndex);
-      IStreamCoder coder = stream.getStreamCoder();
-      videoConverter = ConverterFactory.createConverter(
+      videoConverter = ConverterFactory.getConverterCache().lease(
         ConverterFactory.findDescriptor(image),
         coder.getPixelType(),
         coder.getWidth(), coder.getHeight(),
@@ -972,9 +978,21 @@ implements IMediaWriter
       mVideoConverters.put(streamIndex, videoConverter);
     }
 
-    // return the converter
-    
-    return videoConverter.toPicture(image, timeStamp);
+    // convert into a picture leased from the pool; the caller recycles
+    // it once the picture is encoded
+
+    final MediaDataPool pool = getMediaDataPool();
+    IVideoPicture picture = pool.leaseVideoPicture(coder.getPixelType(),
+      coder.getWidth(), coder.getHeight());
+    try
+    {
+      return videoConverter.toPicture(image, timeStamp, picture);
+    }
+    catch (RuntimeException e)
+    {
+      pool.recycle(picture);
+      throw e;
+    }
   }
   
   /** 
@@ -1244,28 +1262,34 @@ implements IMediaWriter
 
       if (CODEC_TYPE_AUDIO == coder.getCodecType())
       {
-        IPacket packet = IPacket.make();
-        while (coder.encodeAudio(packet, null, 0) >= 0 && packet.isComplete())
+        final MediaDataPool pool = getMediaDataPool();
+        IPacket packet = pool.leasePacket();
+        try
         {
-          writePacket(packet);
-          packet.delete();
-          packet = IPacket.make();
+          while (coder.encodeAudio(packet, null, 0) >= 0 && packet.isComplete())
+            writePacket(packet);
+        }
+        finally
+        {
+          pool.recycle(packet);
         }
-        packet.delete();
       }
       
       // else flush video coder
 
       else if (CODEC_TYPE_VIDEO == coder.getCodecType())
       {
-        IPacket packet = IPacket.make();
-        while (coder.encodeVideo(packet, null, 0) >= 0 && packet.isComplete())
+        final MediaDataPool pool = getMediaDataPool();
+        IPacket packet = pool.leasePacket();
+        try
         {
-          writePacket(packet);
-          packet.delete();
-          packet = IPacket.make();
+          while (coder.encodeVideo(packet, null, 0) >= 0 && packet.isComplete())
+            writePacket(packet);
+        }
+        finally
+        {
+          pool.recycle(packet);
         }
-        packet.delete();
       }
     }
 
@@ -1343,8 +1367,18 @@ implements IMediaWriter
     
     mStreams.clear();
     mOpenedStreams.clear();
+
+    // give the video converters back for the next writer to use
+
+    for(IConverter converter : mVideoConverters.values())
+      ConverterFactory.getConverterCache().recycle(converter);
     mVideoConverters.clear();
 
+    // and release any idle packets, pictures and samples, unless the
+    // pool was passed in and may be shared
+
+    clearOwnMediaDataPool();
+
     // if we're supposed to, close the container
 
     if (getShouldCloseContainer())
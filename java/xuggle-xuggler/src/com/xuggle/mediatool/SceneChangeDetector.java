@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.xuggle.mediatool.event.ICloseEvent;
+import com.xuggle.mediatool.event.ISceneChangeEvent;
+import com.xuggle.mediatool.event.IVideoPictureEvent;
+import com.xuggle.mediatool.event.SceneChangeEvent;
+import com.xuggle.xuggler.Global;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.video.VideoPlanes;
+
+/**
+ * An {@link IMediaTool} that finds where scenes change in the video it
+ * is passed, and tells any attached {@link ISceneChangeListener}.
+ * 
+ * <p>
+ * 
+ * Every event is forwarded to the attached listeners unchanged, so a
+ * detector can sit between a {@link IMediaReader} and a
+ * {@link IMediaWriter} in the same pass that transcodes the media:
+ * 
+ * </p>
+ * <pre>
+ * IMediaReader reader = ToolFactory.makeReader("input.mov");
+ * SceneChangeDetector detector = new SceneChangeDetector();
+ * reader.addListener(detector);
+ * detector.addListener(ToolFactory.makeWriter("output.flv", reader));
+ * detector.addListener(new MyCutListener());
+ * while (reader.readPacket() == null)
+ *   ;
+ * </pre>
+ * <p>
+ * 
+ * Each picture is compared with the one before it on the same stream, using
+ * only the luma plane of the {@link IVideoPicture}, read straight from the
+ * picture with no {@link java.awt.image.BufferedImage} conversion. Two
+ * measures are taken on a grid of at most {@link #getMaxSamples()} luma
+ * samples: the distance between the two pictures' luma histograms, and the
+ * mean absolute difference of the samples. A picture starts a new scene
+ * when both are at or above their thresholds; requiring both ignores fast
+ * motion within a shot, which changes samples but not the histogram, and
+ * gradual lighting changes, which move the histogram a little at a time.
+ * 
+ * </p>
+ * <p>
+ * 
+ * Only planar YUV and {@link com.xuggle.xuggler.IPixelFormat.Type#GRAY8}
+ * pictures are examined; events for other pictures are just forwarded.
+ * The first picture of each stream is never reported as a scene change.
+ * Once a stream's first picture has been seen, examining pictures allocates
+ * no memory; only scene changes create events.
+ * 
+ * </p>
+ */
+
+public class SceneChangeDetector extends MediaToolAdapter
+{
+  /**
+   * The default histogram distance threshold ({@value}).
+   */
+  public static final double DEFAULT_HISTOGRAM_THRESHOLD = 0.35;
+
+  /**
+   * The default mean absolute difference threshold ({@value}).
+   */
+  public static final double DEFAULT_DIFFERENCE_THRESHOLD = 0.1;
+
+  /**
+   * The default maximum number of luma samples compared per picture
+   * ({@value}).
+   */
+  public static final int DEFAULT_MAX_SAMPLES = 16384;
+
+  // the number of histogram bins
+
+  private static final int BINS = 64;
+
+  private final Map<Integer, StreamState> mStates =
+    new HashMap<Integer, StreamState>();
+
+  private double mHistogramThreshold = DEFAULT_HISTOGRAM_THRESHOLD;
+  private double mDifferenceThreshold = DEFAULT_DIFFERENCE_THRESHOLD;
+  private int mMaxSamples = DEFAULT_MAX_SAMPLES;
+  private long mMinSceneDuration = 0;
+
+  /**
+   * Create a detector with the default thresholds.
+   */
+  public SceneChangeDetector()
+  {
+    super();
+  }
+
+  /**
+   * Set the thresholds a picture must reach to start a new scene.
+   * 
+   * @param histogramThreshold the histogram distance, from 0 to 1
+   * @param differenceThreshold the mean absolute difference, from 0 to 1
+   * 
+   * @throws IllegalArgumentException if either is outside 0 to 1
+   */
+  public void setThresholds(double histogramThreshold,
+      double differenceThreshold)
+  {
+    if (histogramThreshold < 0 || histogramThreshold > 1)
+      throw new IllegalArgumentException("histogram threshold out of range: "
+          + histogramThreshold);
+    if (differenceThreshold < 0 || differenceThreshold > 1)
+      throw new IllegalArgumentException("difference threshold out of range: "
+          + differenceThreshold);
+    mHistogramThreshold = histogramThreshold;
+    mDifferenceThreshold = differenceThreshold;
+  }
+
+  /**
+   * Get the histogram distance a picture must reach to start a new scene.
+   * 
+   * @return the threshold
+   */
+  public double getHistogramThreshold()
+  {
+    return mHistogramThreshold;
+  }
+
+  /**
+   * Get the mean absolute difference a picture must reach to start a new
+   * scene.
+   * 
+   * @return the threshold
+   */
+  public double getDifferenceThreshold()
+  {
+    return mDifferenceThreshold;
+  }
+
+  /**
+   * Set the maximum number of luma samples compared per picture. Larger
+   * pictures are sampled on an evenly spaced grid.
+   * 
+   * @param maxSamples the number of samples
+   * 
+   * @throws IllegalArgumentException if maxSamples is not positive
+   */
+  public void setMaxSamples(int maxSamples)
+  {
+    if (maxSamples <= 0)
+      throw new IllegalArgumentException("maxSamples must be positive: "
+          + maxSamples);
+    mMaxSamples = maxSamples;
+  }
+
+  /**
+   * Get the maximum number of luma samples compared per picture.
+   * 
+   * @return the number of samples
+   */
+  public int getMaxSamples()
+  {
+    return mMaxSamples;
+  }
+
+  /**
+   * Set the shortest scene that will be reported. A picture within this
+   * time of the start of the current scene never starts another one, which
+   * keeps flashes and strobes from being reported as several cuts.
+   * 
+   * @param duration the duration, or 0 for no minimum
+   * @param unit the unit of duration
+   * 
+   * @throws IllegalArgumentException if duration is negative or unit is
+   *         null
+   */
+  public void setMinSceneDuration(long duration, TimeUnit unit)
+  {
+    if (duration < 0 || unit == null)
+      throw new IllegalArgumentException();
+    mMinSceneDuration = unit.toMicros(duration);
+  }
+
+  /**
+   * Get the shortest scene that will be reported.
+   * 
+   * @param unit the unit to return the duration in
+   * @return the duration
+   */
+  public long getMinSceneDuration(TimeUnit unit)
+  {
+    return unit.convert(mMinSceneDuration, TimeUnit.MICROSECONDS);
+  }
+
+  /**
+   * Compare the picture with the one before it, report a scene change if
+   * it starts a new scene, and then forward the event.
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public void onVideoPicture(IVideoPictureEvent event)
+  {
+    final IVideoPicture picture = event.getPicture();
+    if (picture != null && picture.isComplete()
+        && VideoPlanes.isSupported(picture.getPixelType()))
+    {
+      final Integer streamIndex = event.getStreamIndex();
+      StreamState state = mStates.get(streamIndex);
+      if (state == null)
+      {
+        state = new StreamState();
+        mStates.put(streamIndex, state);
+      }
+      if (state.examine(picture, mMaxSamples))
+      {
+        final long timeStamp = picture.getTimeStamp();
+        final double histogramDistance = state.getHistogramDistance();
+        final double difference = state.getDifference();
+        if (histogramDistance >= mHistogramThreshold
+            && difference >= mDifferenceThreshold
+            && (mMinSceneDuration == 0
+                || timeStamp == Global.NO_PTS
+                || state.mSceneStart == Global.NO_PTS
+                || timeStamp - state.mSceneStart >= mMinSceneDuration))
+        {
+          state.mSceneStart = timeStamp;
+          onSceneChange(new SceneChangeEvent(this, picture,
+              histogramDistance, difference, streamIndex));
+        }
+      }
+      else
+        state.mSceneStart = picture.getTimeStamp();
+    }
+    super.onVideoPicture(event);
+  }
+
+  /**
+   * Calls {@link ISceneChangeListener#onSceneChange(ISceneChangeEvent)} on
+   * every attached listener that implements {@link ISceneChangeListener}.
+   * Override to act on scene changes in a subclass.
+   * 
+   * @param event the scene change
+   */
+  protected void onSceneChange(ISceneChangeEvent event)
+  {
+    for (IMediaListener listener : getListeners())
+      if (listener instanceof ISceneChangeListener)
+        ((ISceneChangeListener) listener).onSceneChange(event);
+  }
+
+  /**
+   * Forget the pictures seen so far, then forward the event.
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public void onClose(ICloseEvent event)
+  {
+    mStates.clear();
+    super.onClose(event);
+  }
+
+  /**
+   * The last picture seen on a stream, reduced to what it's compared by.
+   */
+
+  private static final class StreamState
+  {
+    // the sampled luma and histograms of the current and previous
+    // pictures, swapped after each picture
+
+    private byte[] mSamples = new byte[0];
+    private byte[] mPrevSamples = new byte[0];
+    private int[] mHistogram = new int[BINS];
+    private int[] mPrevHistogram = new int[BINS];
+    private byte[] mRow = new byte[0];
+
+    // the size and grid of the previous picture
+
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int mMaxSamples;
+    private int mStep;
+    private int mNumSamples;
+
+    private long mSumDifference;
+    private int mHistogramDifference;
+    private long mSceneStart = Global.NO_PTS;
+
+    /**
+     * Sample a picture, and compare it with the previous one.
+     * 
+     * @return true if there was a previous picture of the same size,
+     *         sampled the same way, to compare with
+     */
+
+    boolean examine(IVideoPicture picture, int maxSamples)
+    {
+      final int w = picture.getWidth();
+      final int h = picture.getHeight();
+      final boolean comparable = w == mWidth && h == mHeight
+        && maxSamples == mMaxSamples;
+      if (!comparable)
+        resize(w, h, maxSamples);
+
+      // swap current and previous
+
+      byte[] samples = mPrevSamples;
+      mPrevSamples = mSamples;
+      mSamples = samples;
+      int[] histogram = mPrevHistogram;
+      mPrevHistogram = mHistogram;
+      mHistogram = histogram;
+      for (int i = 0; i < BINS; i++)
+        histogram[i] = 0;
+
+      // read each sampled row of the luma plane, which is always first
+
+      final int lineSize = picture.getDataLineSize(0);
+      final int step = mStep;
+      final byte[] prev = mPrevSamples;
+      long sum = 0;
+      int n = 0;
+      for (int y = 0; y < h; y += step)
+      {
+        picture.get(y * lineSize, mRow, 0, w);
+        for (int x = 0; x < w; x += step)
+        {
+          final byte b = mRow[x];
+          final int luma = b & 0xff;
+          samples[n] = b;
+          histogram[luma >> 2]++;
+          sum += Math.abs(luma - (prev[n] & 0xff));
+          n++;
+        }
+      }
+      if (!comparable)
+        return false;
+
+      int histogramDifference = 0;
+      for (int i = 0; i < BINS; i++)
+        histogramDifference += Math.abs(histogram[i] - mPrevHistogram[i]);
+      mSumDifference = sum;
+      mHistogramDifference = histogramDifference;
+      return true;
+    }
+
+    double getHistogramDistance()
+    {
+      return mHistogramDifference / (2.0 * mNumSamples);
+    }
+
+    double getDifference()
+    {
+      return mSumDifference / (255.0 * mNumSamples);
+    }
+
+    private void resize(int w, int h, int maxSamples)
+    {
+      int step = 1;
+      while (((long) (w + step - 1) / step) * ((h + step - 1) / step)
+          > maxSamples)
+        step++;
+      mStep = step;
+      mNumSamples = ((w + step - 1) / step) * ((h + step - 1) / step);
+      mSamples = new byte[mNumSamples];
+      mPrevSamples = new byte[mNumSamples];
+      if (mRow.length < w)
+        mRow = new byte[w];
+      mWidth = w;
+      mHeight = h;
+      mMaxSamples = maxSamples;
+    }
+  }
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import javax.imageio.ImageIO;
+
+import com.xuggle.xuggler.Global;
+
+/**
+ * A grid of evenly spaced thumbnails of a video in a single image, for
+ * scrubbing previews, as made by a {@link SpriteSheetMaker}.
+ * <p>
+ * Tile <code>i</code> is in column <code>i % getColumns()</code> and row
+ * <code>i / getColumns()</code>, and stands for the video from {@link
+ * #getStartTime(int)} up to {@link #getEndTime(int)}.  The image can be
+ * encoded with {@link #write(File)}, and the tiles indexed for players
+ * with {@link #writeIndex(Writer, String)}.
+ * </p>
+ */
+
+public class SpriteSheet
+{
+  private final BufferedImage mImage;
+  private final int mColumns;
+  private final int mRows;
+  private final int mTileWidth;
+  private final int mTileHeight;
+  private final long[] mStartTimes;
+  private final long mDuration;
+  private final long[] mTimeStamps;
+
+  /**
+   * Create a sprite sheet.
+   * 
+   * @param image the image holding the tiles
+   * @param columns the number of columns of tiles
+   * @param rows the number of rows of tiles
+   * @param tileWidth the width of a tile
+   * @param tileHeight the height of a tile
+   * @param startTimes the time in microseconds from the start of the video
+   *        each tile stands for, in order
+   * @param duration the duration of the video in microseconds
+   * @param timeStamps the time stamp in microseconds of the picture drawn
+   *        in each tile, or {@link Global#NO_PTS} if none was
+   */
+
+  SpriteSheet(BufferedImage image, int columns, int rows, int tileWidth,
+    int tileHeight, long[] startTimes, long duration, long[] timeStamps)
+  {
+    mImage = image;
+    mColumns = columns;
+    mRows = rows;
+    mTileWidth = tileWidth;
+    mTileHeight = tileHeight;
+    mStartTimes = startTimes;
+    mDuration = duration;
+    mTimeStamps = timeStamps;
+  }
+
+  /** Get the image holding all the tiles. */
+
+  public BufferedImage getImage()
+  {
+    return mImage;
+  }
+
+  /** Get the number of columns of tiles. */
+
+  public int getColumns()
+  {
+    return mColumns;
+  }
+
+  /** Get the number of rows of tiles. */
+
+  public int getRows()
+  {
+    return mRows;
+  }
+
+  /** Get the number of tiles. */
+
+  public int getNumTiles()
+  {
+    return mStartTimes.length;
+  }
+
+  /** Get the width of a tile. */
+
+  public int getTileWidth()
+  {
+    return mTileWidth;
+  }
+
+  /** Get the height of a tile. */
+
+  public int getTileHeight()
+  {
+    return mTileHeight;
+  }
+
+  /** Get the duration of the video in microseconds. */
+
+  public long getDuration()
+  {
+    return mDuration;
+  }
+
+  /**
+   * Get the time from the start of the video a tile stands for.
+   * 
+   * @param tile the tile
+   * 
+   * @return the time in microseconds
+   */
+
+  public long getStartTime(int tile)
+  {
+    return mStartTimes[tile];
+  }
+
+  /**
+   * Get the time from the start of the video the next tile stands for,
+   * or the duration for the last tile.
+   * 
+   * @param tile the tile
+   * 
+   * @return the time in microseconds
+   */
+
+  public long getEndTime(int tile)
+  {
+    return tile + 1 < mStartTimes.length ? mStartTimes[tile + 1] : mDuration;
+  }
+
+  /**
+   * Get the time stamp of the key frame drawn in a tile, which is at or
+   * before its start time unless the video has no earlier key frame.
+   * 
+   * @param tile the tile
+   * 
+   * @return the time stamp in microseconds, or {@link Global#NO_PTS} if no
+   *         picture could be decoded for the tile, which is left black
+   */
+
+  public long getTimeStamp(int tile)
+  {
+    return mTimeStamps[tile];
+  }
+
+  /** Record the time stamp of the picture drawn in a tile. */
+
+  void setTimeStamp(int tile, long timeStamp)
+  {
+    mTimeStamps[tile] = timeStamp;
+  }
+
+  /** Get the column of the image the left of a tile is in. */
+
+  public int getX(int tile)
+  {
+    return (tile % mColumns) * mTileWidth;
+  }
+
+  /** Get the row of the image the top of a tile is in. */
+
+  public int getY(int tile)
+  {
+    return (tile / mColumns) * mTileHeight;
+  }
+
+  /**
+   * Encode the image into a file, in the format its extension names,
+   * such as <code>.jpg</code> or <code>.png</code>.
+   * 
+   * @param file the file
+   * 
+   * @throws IOException if the file can not be written, or there is no
+   *         encoder for its format
+   */
+
+  public void write(File file) throws IOException
+  {
+    final String name = file.getName();
+    final int dot = name.lastIndexOf('.');
+    if (dot < 0)
+      throw new IOException("no image format extension: " + file);
+    if (!ImageIO.write(mImage, name.substring(dot + 1), file))
+      throw new IOException("no encoder for: " + file);
+  }
+
+  /**
+   * Encode the image into a stream.
+   * 
+   * @param stream the stream, which is not closed
+   * @param formatName an informal format name understood by {@link
+   *        ImageIO}, such as <code>"jpg"</code> or <code>"png"</code>
+   * 
+   * @throws IOException if the stream can not be written, or there is no
+   *         encoder for the format
+   */
+
+  public void write(OutputStream stream, String formatName)
+    throws IOException
+  {
+    if (!ImageIO.write(mImage, formatName, stream))
+      throw new IOException("no encoder for: " + formatName);
+  }
+
+  /**
+   * Write a WebVTT index of the tiles, with a cue for each tile that
+   * points into the image with a media fragment:
+   * 
+   * <pre>
+   * WEBVTT
+   * 
+   * 00:00:00.000 --&gt; 00:00:10.000
+   * sprites.jpg#xywh=0,0,160,90
+   * </pre>
+   * 
+   * @param writer where to write the index, which is not closed
+   * @param imageUrl the url of the encoded image, relative to the index
+   * 
+   * @throws IOException if the index can not be written
+   */
+
+  public void writeIndex(Writer writer, String imageUrl) throws IOException
+  {
+    final StringBuilder index = new StringBuilder("WEBVTT\n");
+    for (int i = 0; i < getNumTiles(); i++)
+    {
+      index.append('\n');
+      appendTime(index, getStartTime(i));
+      index.append(" --> ");
+      appendTime(index, getEndTime(i));
+      index.append('\n').append(imageUrl).append("#xywh=").append(getX(i))
+        .append(',').append(getY(i)).append(',').append(mTileWidth)
+        .append(',').append(mTileHeight).append('\n');
+    }
+    writer.write(index.toString());
+    writer.flush();
+  }
+
+  private static void appendTime(StringBuilder builder, long micros)
+  {
+    final long millis = micros / 1000;
+    pad(builder, millis / 3600000, 2).append(':');
+    pad(builder, millis / 60000 % 60, 2).append(':');
+    pad(builder, millis / 1000 % 60, 2).append('.');
+    pad(builder, millis % 1000, 3);
+  }
+
+  private static StringBuilder pad(StringBuilder builder, long value,
+    int digits)
+  {
+    final String string = Long.toString(value);
+    for (int i = string.length(); i < digits; i++)
+      builder.append('0');
+    return builder.append(string);
+  }
+
+  /** {@inheritDoc} */
+
+  public String toString()
+  {
+    return getClass().getName() + "[" + mColumns + "x" + mRows + " tiles of "
+      + mTileWidth + "x" + mTileHeight + "]";
+  }
+}
@@ -0,0 +1,414 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.xuggle.xuggler.Global;
+import com.xuggle.xuggler.ICodec;
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IRational;
+import com.xuggle.xuggler.IStream;
+import com.xuggle.xuggler.IStreamCoder;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.video.ThumbnailMaker;
+
+/**
+ * Makes a {@link SpriteSheet} of evenly spaced thumbnails of a video, for
+ * scrubbing previews.
+ * <p>
+ * Rather than seeking, decoding, converting and drawing one tile after
+ * another, a {@link SpriteSheetMaker} plans a key frame seek for each tile
+ * up front and splits the tiles between a pool of workers.  Each worker
+ * opens its own {@link IContainer} and decoder, seeks only forwards
+ * through its share of the tiles, and decodes just the key frame it
+ * lands on.  Each worker has its own {@link ThumbnailMaker}, which scales
+ * and converts the picture straight into that tile of one shared image,
+ * allocated once.
+ * </p>
+ * <p>
+ * For example:
+ * </p>
+ * <pre>
+ * SpriteSheet sheet = new SpriteSheetMaker("movie.mp4", 10, 10, 160, 90)
+ *   .make();
+ * sheet.write(new File("movie-sprites.jpg"));
+ * Writer index = new FileWriter("movie-sprites.vtt");
+ * try {
+ *   sheet.writeIndex(index, "movie-sprites.jpg");
+ * } finally {
+ *   index.close();
+ * }
+ * </pre>
+ */
+
+public class SpriteSheetMaker
+{
+  private final String mUrl;
+  private final int mColumns;
+  private final int mRows;
+  private final int mTileWidth;
+  private final int mTileHeight;
+  private int mNumThreads = Runtime.getRuntime().availableProcessors();
+  private ThumbnailMaker.Filter mFilter = ThumbnailMaker.Filter.BOX;
+
+  /**
+   * Create a sprite sheet maker.
+   * 
+   * @param url the file or url of the video
+   * @param columns the number of columns of tiles
+   * @param rows the number of rows of tiles
+   * @param tileWidth the width of a tile
+   * @param tileHeight the height of a tile
+   * 
+   * @throws IllegalArgumentException if the url is null or a count or size
+   *         is not positive
+   */
+
+  public SpriteSheetMaker(String url, int columns, int rows, int tileWidth,
+    int tileHeight)
+  {
+    if (url == null)
+      throw new IllegalArgumentException("must pass in a url");
+    if (columns <= 0 || rows <= 0)
+      throw new IllegalArgumentException("invalid grid: " + columns + "x"
+        + rows);
+    if (tileWidth <= 0 || tileHeight <= 0)
+      throw new IllegalArgumentException("invalid tile size: " + tileWidth
+        + "x" + tileHeight);
+    mUrl = url;
+    mColumns = columns;
+    mRows = rows;
+    mTileWidth = tileWidth;
+    mTileHeight = tileHeight;
+  }
+
+  /**
+   * Set the number of workers, each with its own container, to seek and
+   * decode with.  The default is the number of processors.  No more
+   * workers than tiles are used.
+   * 
+   * @param numThreads the number of workers
+   * 
+   * @throws IllegalArgumentException if numThreads is not positive
+   */
+
+  public void setNumThreads(int numThreads)
+  {
+    if (numThreads <= 0)
+      throw new IllegalArgumentException("invalid number of threads: "
+        + numThreads);
+    mNumThreads = numThreads;
+  }
+
+  /** Get the number of workers to seek and decode with. */
+
+  public int getNumThreads()
+  {
+    return mNumThreads;
+  }
+
+  /**
+   * Set how pictures are scaled to tiles.  The default is {@link
+   * ThumbnailMaker.Filter#BOX}.
+   * 
+   * @param filter the filter
+   * 
+   * @throws IllegalArgumentException if filter is null
+   */
+
+  public void setFilter(ThumbnailMaker.Filter filter)
+  {
+    if (filter == null)
+      throw new IllegalArgumentException("must pass in a filter");
+    mFilter = filter;
+  }
+
+  /** Get how pictures are scaled to tiles. */
+
+  public ThumbnailMaker.Filter getFilter()
+  {
+    return mFilter;
+  }
+
+  /**
+   * Make the sprite sheet.  Tile <code>i</code> of <code>n</code> shows
+   * the key frame at or before <code>i / n</code> of the way into the
+   * video.
+   * 
+   * @return a new sprite sheet, with a {@link
+   *         BufferedImage#TYPE_3BYTE_BGR} image
+   * 
+   * @throws IllegalArgumentException if the video can not be opened, has
+   *         no video stream, or has no known duration
+   * @throws RuntimeException if the video can not be decoded
+   */
+
+  public SpriteSheet make()
+  {
+    // the first worker also finds out how long the video is
+
+    final Worker first = new Worker();
+    first.open();
+    final long duration;
+    final long startTime;
+    try
+    {
+      duration = first.mContainer.getDuration();
+      if (duration == Global.NO_PTS || duration <= 0)
+        throw new IllegalArgumentException("unknown duration: " + mUrl);
+      startTime = first.mContainer.getStartTime() == Global.NO_PTS
+        ? 0 : first.mContainer.getStartTime();
+    }
+    catch (RuntimeException e)
+    {
+      first.close();
+      throw e;
+    }
+
+    // plan the seeks, and split the tiles into runs of forward seeks
+
+    final int numTiles = mColumns * mRows;
+    final long[] startTimes = new long[numTiles];
+    for (int i = 0; i < numTiles; i++)
+      startTimes[i] = (long) ((double) duration * i / numTiles);
+    final long[] timeStamps = new long[numTiles];
+    Arrays.fill(timeStamps, Global.NO_PTS);
+    final BufferedImage image = new BufferedImage(mColumns * mTileWidth,
+      mRows * mTileHeight, BufferedImage.TYPE_3BYTE_BGR);
+    final SpriteSheet sheet = new SpriteSheet(image, mColumns, mRows,
+      mTileWidth, mTileHeight, startTimes, duration, timeStamps);
+
+    final int numThreads = Math.max(1, Math.min(mNumThreads, numTiles));
+    final List<Worker> workers = new ArrayList<Worker>(numThreads);
+    workers.add(first);
+    for (int i = 1; i < numThreads; i++)
+      workers.add(new Worker());
+    for (int i = 0; i < numThreads; i++)
+      workers.get(i).plan(sheet, startTime, i * numTiles / numThreads,
+        (i + 1) * numTiles / numThreads);
+
+    // the calling thread runs the first worker itself
+
+    final ExecutorService executor = numThreads > 1
+      ? Executors.newFixedThreadPool(numThreads - 1) : null;
+    try
+    {
+      final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+      for (int i = 1; i < numThreads; i++)
+        futures.add(executor.submit(workers.get(i)));
+      first.call();
+      for (Future<Object> future : futures)
+        future.get();
+    }
+    catch (ExecutionException e)
+    {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new RuntimeException(cause);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted making sprite sheet", e);
+    }
+    finally
+    {
+      if (executor != null)
+        executor.shutdownNow();
+    }
+    return sheet;
+  }
+
+  /** {@inheritDoc} */
+
+  public String toString()
+  {
+    return getClass().getName() + "[url=" + mUrl + ";" + mColumns + "x"
+      + mRows + " tiles of " + mTileWidth + "x" + mTileHeight + "]";
+  }
+
+  /**
+   * Seeks to, decodes and draws a run of tiles with its own container.
+   */
+
+  private class Worker implements Callable<Object>
+  {
+    private IContainer mContainer;
+    private IStreamCoder mCoder;
+    private int mStreamIndex = -1;
+    private double mTimeBase;
+    private IVideoPicture mPicture;
+    private IPacket mPacket;
+    private ThumbnailMaker mMaker;
+
+    private SpriteSheet mSheet;
+    private long mStartTime;
+    private int mFrom;
+    private int mTo;
+
+    void plan(SpriteSheet sheet, long startTime, int from, int to)
+    {
+      mSheet = sheet;
+      mStartTime = startTime;
+      mFrom = from;
+      mTo = to;
+    }
+
+    public Object call()
+    {
+      try
+      {
+        if (mContainer == null)
+          open();
+        mMaker = new ThumbnailMaker(mTileWidth, mTileHeight,
+          BufferedImage.TYPE_3BYTE_BGR, mFilter);
+        mPicture = IVideoPicture.make(mCoder.getPixelType(),
+          mCoder.getWidth(), mCoder.getHeight());
+        mPacket = IPacket.make();
+        for (int tile = mFrom; tile < mTo; tile++)
+          draw(tile);
+        return null;
+      }
+      finally
+      {
+        close();
+      }
+    }
+
+    void open()
+    {
+      mContainer = IContainer.make();
+      try
+      {
+        if (mContainer.open(mUrl, IContainer.Type.READ, null) < 0)
+          throw new IllegalArgumentException("could not open: " + mUrl);
+        for (int i = 0; i < mContainer.getNumStreams() && mCoder == null;
+             i++)
+        {
+          final IStream stream = mContainer.getStream(i);
+          final IStreamCoder coder = stream.getStreamCoder();
+          if (coder.getCodecType() == ICodec.Type.CODEC_TYPE_VIDEO)
+          {
+            final IRational timeBase = stream.getTimeBase();
+            mTimeBase = timeBase.getDouble();
+            timeBase.delete();
+            mCoder = coder;
+            mStreamIndex = i;
+          }
+          else
+            coder.delete();
+          stream.delete();
+        }
+        if (mCoder == null)
+          throw new IllegalArgumentException("no video stream in: " + mUrl);
+        if (mCoder.open() < 0)
+          throw new RuntimeException("could not open video decoder for: "
+            + mUrl);
+      }
+      catch (RuntimeException e)
+      {
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * Seek to the key frame at or before a tile's time, and draw the
+     * first picture decoded from it.
+     */
+
+    private void draw(int tile)
+    {
+      final long target = mStartTime + mSheet.getStartTime(tile);
+      if (mContainer.seekKeyFrame(-1, mStartTime, target, target, 0) < 0
+        && mContainer.seekKeyFrame(-1, mStartTime, target, Long.MAX_VALUE,
+          0) < 0)
+        return;
+
+      // skip any pictures the decoder held on to from before the seek
+
+      long keyTime = Global.NO_PTS;
+      while (mContainer.readNextPacket(mPacket) >= 0)
+      {
+        if (mPacket.getStreamIndex() != mStreamIndex)
+          continue;
+        if (keyTime == Global.NO_PTS && mPacket.getDts() != Global.NO_PTS)
+          keyTime = (long) (mPacket.getDts() * mTimeBase * 1000000);
+        int offset = 0;
+        while (offset < mPacket.getSize())
+        {
+          final int rv = mCoder.decodeVideo(mPicture, mPacket, offset);
+          if (rv < 0)
+            throw new RuntimeException("error " + rv + " decoding video in: "
+              + mUrl);
+          offset += rv;
+          if (mPicture.isComplete()
+            && (keyTime == Global.NO_PTS
+              || mPicture.getTimeStamp() == Global.NO_PTS
+              || mPicture.getTimeStamp() >= keyTime))
+          {
+            mMaker.drawThumbnail(mPicture, mSheet.getImage(),
+              mSheet.getX(tile), mSheet.getY(tile));
+            mSheet.setTimeStamp(tile, mPicture.getTimeStamp());
+            return;
+          }
+        }
+      }
+    }
+
+    void close()
+    {
+      if (mMaker != null)
+        mMaker.close();
+      if (mPacket != null)
+        mPacket.delete();
+      if (mPicture != null)
+        mPicture.delete();
+      if (mCoder != null)
+      {
+        mCoder.close();
+        mCoder.delete();
+      }
+      if (mContainer != null)
+      {
+        mContainer.close();
+        mContainer.delete();
+      }
+      mMaker = null;
+      mPacket = null;
+      mPicture = null;
+      mCoder = null;
+      mContainer = null;
+    }
+  }
+}
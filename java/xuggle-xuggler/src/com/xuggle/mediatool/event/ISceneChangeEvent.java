@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool.event;
+
+import java.util.concurrent.TimeUnit;
+
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * Dispatched by {@link com.xuggle.mediatool.ISceneChangeListener#onSceneChange(ISceneChangeEvent)}
+ * when a {@link com.xuggle.mediatool.SceneChangeDetector} finds the first
+ * picture of a new scene.
+ * 
+ */
+
+public interface ISceneChangeEvent extends IStreamEvent
+{
+
+  /**
+   * The first picture of the new scene.
+   * <p>
+   * The returned {@link IVideoPicture} will only be valid for the duration
+   * of the call it was dispatched on, exactly like
+   * {@link IVideoPictureEvent#getPicture()}.
+   * </p>
+   * 
+   * @return the picture
+   */
+  public abstract IVideoPicture getPicture();
+
+  /**
+   * The time stamp of the first picture of the new scene, in
+   * {@link TimeUnit#MICROSECONDS}.
+   * 
+   * @return the time stamp, or null if the picture has none
+   */
+  public abstract Long getTimeStamp();
+
+  /**
+   * The time stamp of the first picture of the new scene.
+   * 
+   * @param unit the time unit to return the time stamp in
+   * @return the time stamp, or null if the picture has none
+   */
+  public abstract Long getTimeStamp(TimeUnit unit);
+
+  /**
+   * How different the luma histograms of this picture and the one before
+   * it are, from 0 for identical to 1 for no overlap at all.
+   * 
+   * @return the histogram distance
+   */
+  public abstract double getHistogramDistance();
+
+  /**
+   * The mean absolute difference between the luma samples of this picture
+   * and the one before it, from 0 for identical to 1 for black to white.
+   * 
+   * @return the difference
+   */
+  public abstract double getDifference();
+}
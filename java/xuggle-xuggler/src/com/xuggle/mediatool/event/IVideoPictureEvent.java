@@ -44,7 +44,9 @@ public interface IVideoPictureEvent extends IRawMediaEvent
 
   /**
    * The buffered image, if available.  If null,
-   * you must use {@link #getPicture()}
+   * you must use {@link #getPicture()}.  Images generated by an
+   * {@link com.xuggle.mediatool.IMediaReader} may be converted on the
+   * first call, so call this during dispatch.
    * @return the bufferedImage, or null if not available
    */
   public abstract BufferedImage getImage();
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool.event;
+
+import java.util.concurrent.TimeUnit;
+
+import com.xuggle.mediatool.IMediaGenerator;
+import com.xuggle.xuggler.Global;
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * An implementation of {@link ISceneChangeEvent}.
+ * 
+ */
+public class SceneChangeEvent extends AStreamMixin implements
+    ISceneChangeEvent
+{
+  private final IVideoPicture mPicture;
+  private final double mHistogramDistance;
+  private final double mDifference;
+
+  /**
+   * Create a {@link SceneChangeEvent}.
+   * 
+   * @param source the source of this event
+   * @param picture the first picture of the new scene
+   * @param histogramDistance how different the luma histograms are
+   * @param difference the mean absolute luma difference
+   * @param streamIndex the stream this event occurred on, or null if
+   *        unknown
+   * @throws IllegalArgumentException if picture is null
+   */
+  public SceneChangeEvent(IMediaGenerator source, IVideoPicture picture,
+      double histogramDistance, double difference, Integer streamIndex)
+  {
+    super(source, streamIndex);
+    if (picture == null)
+      throw new IllegalArgumentException();
+    mPicture = picture;
+    mHistogramDistance = histogramDistance;
+    mDifference = difference;
+  }
+
+  /**
+   * Implementation of {@link ISceneChangeEvent#getPicture()}.
+   * @see ISceneChangeEvent#getPicture()
+   */
+  public IVideoPicture getPicture()
+  {
+    return mPicture;
+  }
+
+  /**
+   * Implementation of {@link ISceneChangeEvent#getTimeStamp()}.
+   * @see ISceneChangeEvent#getTimeStamp()
+   */
+  public Long getTimeStamp()
+  {
+    return getTimeStamp(TimeUnit.MICROSECONDS);
+  }
+
+  /**
+   * Implementation of {@link ISceneChangeEvent#getTimeStamp(TimeUnit)}.
+   * @see ISceneChangeEvent#getTimeStamp(TimeUnit)
+   */
+  public Long getTimeStamp(TimeUnit unit)
+  {
+    if (unit == null)
+      throw new IllegalArgumentException();
+    long timeStamp = mPicture.getTimeStamp();
+    if (timeStamp == Global.NO_PTS)
+      return null;
+    return unit.convert(timeStamp, TimeUnit.MICROSECONDS);
+  }
+
+  /**
+   * Implementation of {@link ISceneChangeEvent#getHistogramDistance()}.
+   * @see ISceneChangeEvent#getHistogramDistance()
+   */
+  public double getHistogramDistance()
+  {
+    return mHistogramDistance;
+  }
+
+  /**
+   * Implementation of {@link ISceneChangeEvent#getDifference()}.
+   * @see ISceneChangeEvent#getDifference()
+   */
+  public double getDifference()
+  {
+    return mDifference;
+  }
+}
@@ -24,6 +24,7 @@ import java.util.concurrent.TimeUnit;
 
 import com.xuggle.mediatool.IMediaGenerator;
 import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.video.IConverter;
 
 /**
  * An implementation of {@link IVideoPictureEvent}.
@@ -34,6 +35,8 @@ import com.xuggle.xuggler.IVideoPicture;
 public class VideoPictureEvent extends ARawMediaMixin implements
     IVideoPictureEvent
 {
+  private IConverter mConverter;
+  private BufferedImage mImage;
 
   /**
    * Creates a {@link VideoPictureEvent}. If <code>image</code> is not null and
@@ -73,6 +76,36 @@ public class VideoPictureEvent extends ARawMediaMixin implements
     this(source, picture, null, 0, null, streamIndex);
   }
 
+  /**
+   * Creates a {@link VideoPictureEvent} that converts <code>picture</code>
+   * to a {@link BufferedImage} the first time {@link #getImage()} or
+   * {@link #getJavaData()} is called, and returns that same image on every
+   * later call.
+   * 
+   * <p>
+   * The conversion reads <code>picture</code>, so it only works while the
+   * picture is still valid, which for pictures from an
+   * {@link com.xuggle.mediatool.IMediaReader} means during the
+   * {@link com.xuggle.mediatool.IMediaListener#onVideoPicture(IVideoPictureEvent)}
+   * call. The source calls {@link #detachConverter()} once it is done
+   * dispatching.
+   * </p>
+   * 
+   * @param source the source of this event.
+   * @param picture the raw {@link IVideoPicture} for this event.
+   * @param converter the converter used to make the image.
+   * @param streamIndex the stream this event occurred on, or null if unknown.
+   * @throws IllegalArgumentException if picture or converter is null.
+   */
+  public VideoPictureEvent(IMediaGenerator source, IVideoPicture picture,
+      IConverter converter, Integer streamIndex)
+  {
+    this(source, picture, null, 0, null, streamIndex);
+    if (converter == null)
+      throw new IllegalArgumentException("no converter");
+    mConverter = converter;
+  }
+
   /**
    * Creates a {@link VideoPictureEvent}.
    * 
@@ -127,6 +160,38 @@ public class VideoPictureEvent extends ARawMediaMixin implements
    */
   public BufferedImage getJavaData()
   {
+    if (mImage != null)
+      return mImage;
+    if (mConverter != null)
+    {
+      // convert on first use only; later calls get the same image
+
+      mImage = mConverter.toImage(getPicture());
+      mConverter = null;
+      return mImage;
+    }
     return (BufferedImage) super.getJavaData();
   }
+
+  /**
+   * Stops this event from converting its picture. If the image has already
+   * been converted it is kept; otherwise {@link #getImage()} will return null
+   * from now on. Called by the source of the event once the picture it was
+   * made from is no longer valid, or the converter is about to be reused.
+   */
+  public void detachConverter()
+  {
+    mConverter = null;
+  }
+
+  /**
+   * Reports whether this event still has a conversion it has not done yet.
+   * 
+   * @return true if the next {@link #getImage()} call will convert the
+   *         picture.
+   */
+  public boolean isImagePending()
+  {
+    return mConverter != null;
+  }
 }
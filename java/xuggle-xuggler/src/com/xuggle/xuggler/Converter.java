@@ -212,6 +212,12 @@ public class Converter
    */
   private IVideoResampler[] mVSamplers = null;
 
+  /**
+   * The pool we lease our packets, pictures and samples from, so that
+   * running more than one conversion in a process reuses them.
+   */
+  private MediaDataPool mMediaDataPool = new MediaDataPool();
+
   /**
    * Should we convert audio
    */
@@ -854,8 +860,8 @@ public class Converter
          * 
          * We'll use these repeated during the #run(CommandLine) method.
          */
-        mISamples[i] = IAudioSamples.make(1024, ic.getChannels());
-        mOSamples[i] = IAudioSamples.make(1024, oc.getChannels());
+        mISamples[i] = mMediaDataPool.leaseAudioSamples(1024, ic.getChannels());
+        mOSamples[i] = mMediaDataPool.leaseAudioSamples(1024, oc.getChannels());
       }
       else if (cType == ICodec.Type.CODEC_TYPE_VIDEO && mHasVideo
           && (vstream == -1 || vstream == i))
@@ -978,10 +984,10 @@ public class Converter
          * And allocate buffers for us to store decoded and resample video
          * pictures.
          */
-        mIVideoPictures[i] = IVideoPicture.make(ic.getPixelType(), ic
-            .getWidth(), ic.getHeight());
-        mOVideoPictures[i] = IVideoPicture.make(oc.getPixelType(), oc
-            .getWidth(), oc.getHeight());
+        mIVideoPictures[i] = mMediaDataPool.leaseVideoPicture(ic.getPixelType(),
+            ic.getWidth(), ic.getHeight());
+        mOVideoPictures[i] = mMediaDataPool.leaseVideoPicture(oc.getPixelType(),
+            oc.getWidth(), oc.getHeight());
       }
       else
       {
@@ -1048,7 +1054,7 @@ public class Converter
     {
       if (mOCoders[i] != null)
       {
-        IPacket oPacket = IPacket.make();
+        IPacket oPacket = mMediaDataPool.leasePacket();
         do {
           if (mOCoders[i].getCodecType() == ICodec.Type.CODEC_TYPE_AUDIO)
             mOCoders[i].encodeAudio(oPacket, null, 0);
@@ -1057,6 +1063,7 @@ public class Converter
           if (oPacket.isComplete())
             mOContainer.writePacket(oPacket, mForceInterleave);
         } while (oPacket.isComplete());
+        mMediaDataPool.recycle(oPacket);
       }
     }
     /**
@@ -1102,6 +1109,15 @@ public class Converter
          */
         mICoders[i].close();
       mICoders[i] = null;
+
+      /**
+       * Return our buffers to the pool so the next conversion can reuse
+       * them.
+       */
+      mMediaDataPool.recycle(mISamples[i]);
+      mMediaDataPool.recycle(mOSamples[i]);
+      mMediaDataPool.recycle(mIVideoPictures[i]);
+      mMediaDataPool.recycle(mOVideoPictures[i]);
     }
 
     /**
@@ -1186,8 +1202,8 @@ public class Converter
      * Create packet buffers for reading data from and writing data to the
      * conatiners.
      */
-    IPacket iPacket = IPacket.make();
-    IPacket oPacket = IPacket.make();
+    IPacket iPacket = mMediaDataPool.leasePacket();
+    IPacket oPacket = mMediaDataPool.leasePacket();
 
     /**
      * Keep some "pointers' we'll use for the audio we're working with.
@@ -1416,9 +1432,36 @@ public class Converter
     }
 
     // and cleanup.
+    mMediaDataPool.recycle(iPacket);
+    mMediaDataPool.recycle(oPacket);
     closeStreams();
   }
 
+  /**
+   * Get the {@link MediaDataPool} this converter leases its packets,
+   * pictures and samples from.
+   * 
+   * @return the pool.
+   */
+  public MediaDataPool getMediaDataPool()
+  {
+    return mMediaDataPool;
+  }
+
+  /**
+   * Set the {@link MediaDataPool} this converter leases its packets,
+   * pictures and samples from.  Must be called before {@link #run(CommandLine)}.
+   * 
+   * @param pool the pool.
+   * @throws IllegalArgumentException if pool is null.
+   */
+  public void setMediaDataPool(MediaDataPool pool)
+  {
+    if (pool == null)
+      throw new IllegalArgumentException("must pass in a pool");
+    mMediaDataPool = pool;
+  }
+
   private void writePacket(IPacket oPacket)
   {
     int retval;
@@ -0,0 +1,562 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.xuggle.ferry.FerryScope;
+import com.xuggle.ferry.JNIMemoryBudget;
+
+/**
+ * A bounded pool of {@link IPacket}, {@link IVideoPicture} and
+ * {@link IAudioSamples} objects that can be leased, used, and returned
+ * for reuse instead of being allocated for every packet or frame.
+ * <p>
+ * Every call to <code>make()</code> on a Xuggler object allocates native
+ * memory and a new {@link com.xuggle.ferry.JNIReference}.  When decoding
+ * a stream those objects are nearly always the same format and size, so
+ * a {@link MediaDataPool} keeps objects that are returned to it keyed by
+ * format and dimensions, and hands them back out on the next lease for
+ * the same key.  Once a stream reaches steady-state, leasing allocates
+ * nothing.
+ * </p>
+ * <p>
+ * To use:
+ * </p>
+ * <pre>
+ * MediaDataPool pool = new MediaDataPool();
+ * IPacket packet = pool.leasePacket();
+ * try {
+ *   container.readNextPacket(packet);
+ *   ...
+ * } finally {
+ *   pool.recycle(packet);
+ * }
+ * </pre>
+ * <p>
+ * Objects you lease may contain data, time stamps and complete flags left
+ * over from their last use; decoding or reading into them resets those
+ * values as usual.
+ * </p>
+ * <p>
+ * The pool will only keep up to {@link #getMaxPooled()} idle objects.  If
+ * returning an object would exceed that bound, the least recently used
+ * key gives up its oldest idle object, which is deleted.  If an object is
+ * still referenced elsewhere when it is returned (for example someone called
+ * {@link IMediaData#copyReference()} on it), the pool will not reuse it
+ * and instead just deletes its own reference.
+ * </p>
+ * <p>
+ * This class is thread safe, but for best results give each decoding or
+ * encoding thread its own pool.
+ * </p>
+ * <p>
+ * New pictures and samples are charged to the leasing thread's
+ * {@link JNIMemoryBudget}, and credited back when the pool deletes them.
+ * When the budget has no room, a lease first deletes this pool's idle
+ * objects and then waits or fails according to the budget's
+ * {@link JNIMemoryBudget.Policy}, so a producer leasing from a pool slows
+ * down under {@link JNIMemoryBudget.Policy#BLOCK} until consumers return
+ * what they hold.  Objects returned while their budget is above its
+ * {@link JNIMemoryBudget#getPauseThreshold()} are deleted instead of
+ * kept idle.  Packets are not charged, since their size isn't known until
+ * data is read into them.
+ * </p>
+ * <p>
+ * A pool may outlive the {@link FerryScope} its objects were made in:
+ * returning an object escapes it from the calling thread's current scope.
+ * Return objects on the thread that leased them.
+ * </p>
+ */
+public class MediaDataPool
+{
+  /**
+   * The default maximum number of idle objects a pool keeps ({@value}).
+   */
+  public static final int DEFAULT_MAX_POOLED = 32;
+
+  // the kinds of objects we pool
+
+  private static final int KIND_PACKET = 0;
+  private static final int KIND_VIDEO_PICTURE = 1;
+  private static final int KIND_AUDIO_SAMPLES = 2;
+
+  private final int mMaxPooled;
+
+  // idle objects, by key, in least-recently-used order
+
+  private final LinkedHashMap<Key, IdleList> mIdle =
+    new LinkedHashMap<Key, IdleList>(16, 0.75f, true);
+
+  // the keys objects we've leased out were leased under
+
+  private final Map<IMediaData, Key> mLeased = 
+    new IdentityHashMap<IMediaData, Key>();
+
+  // what each object we made, leased or idle, is charged to its budget
+
+  private final Map<IMediaData, Charge> mCharges =
+    new IdentityHashMap<IMediaData, Charge>();
+
+  // reused for lookups so that a lease does not allocate a key
+
+  private final Key mProbe = new Key();
+  
+  private int mNumIdle = 0;
+  private long mNumHits = 0;
+  private long mNumMisses = 0;
+  private long mNumEvictions = 0;
+  private long mNumDiscards = 0;
+
+  /**
+   * Create a pool that keeps up to {@link #DEFAULT_MAX_POOLED} idle
+   * objects.
+   */
+  public MediaDataPool()
+  {
+    this(DEFAULT_MAX_POOLED);
+  }
+
+  /**
+   * Create a pool that keeps up to maxPooled idle objects.
+   * 
+   * @param maxPooled the maximum number of idle objects to keep.
+   * 
+   * @throws IllegalArgumentException if maxPooled < 0
+   */
+  public MediaDataPool(int maxPooled)
+  {
+    if (maxPooled < 0)
+      throw new IllegalArgumentException("maxPooled must be >= 0");
+    mMaxPooled = maxPooled;
+  }
+
+  /**
+   * Lease a packet.
+   * 
+   * @return a packet; return it with {@link #recycle(IMediaData)}.
+   * 
+   * @throws OutOfMemoryError if a new packet cannot be allocated.
+   */
+  public synchronized IPacket leasePacket()
+  {
+    IPacket packet = (IPacket) lease(KIND_PACKET, 0, 0, 0);
+    if (packet == null)
+    {
+      packet = IPacket.make();
+      if (packet == null)
+        throw new OutOfMemoryError("could not allocate packet");
+      leased(packet, KIND_PACKET, 0, 0, 0);
+    }
+    return packet;
+  }
+
+  /**
+   * Lease a video picture of the given type and size.
+   * 
+   * @param type the pixel type.
+   * @param width the width of the picture.
+   * @param height the height of the picture.
+   * @return a picture; return it with {@link #recycle(IMediaData)}.
+   * 
+   * @throws IllegalArgumentException if type is null.
+   * @throws OutOfMemoryError if a new picture cannot be allocated, or
+   *         does not fit in the thread's {@link JNIMemoryBudget}.
+   */
+  public IVideoPicture leaseVideoPicture(IPixelFormat.Type type,
+      int width, int height)
+  {
+    if (type == null)
+      throw new IllegalArgumentException("must pass pixel type");
+    synchronized(this)
+    {
+      IVideoPicture picture = (IVideoPicture) lease(KIND_VIDEO_PICTURE,
+          type.swigValue(), width, height);
+      if (picture != null)
+        return picture;
+    }
+    // pictures don't allocate their buffer until first used, so we can
+    // charge for it before any memory is taken
+    IVideoPicture picture = IVideoPicture.make(type, width, height);
+    if (picture == null)
+      throw new OutOfMemoryError("could not allocate picture");
+    charge(picture, Math.max(0, picture.getSize()));
+    leased(picture, KIND_VIDEO_PICTURE, type.swigValue(), width, height);
+    return picture;
+  }
+
+  /**
+   * Lease a set of {@link IAudioSamples.Format#FMT_S16} audio samples.
+   * 
+   * @param numSamples the minimum number of samples.
+   * @param numChannels the number of channels.
+   * @return the samples; return them with {@link #recycle(IMediaData)}.
+   * 
+   * @throws OutOfMemoryError if new samples cannot be allocated.
+   */
+  public IAudioSamples leaseAudioSamples(long numSamples, long numChannels)
+  {
+    return leaseAudioSamples(numSamples, numChannels,
+        IAudioSamples.Format.FMT_S16);
+  }
+
+  /**
+   * Lease a set of audio samples.
+   * 
+   * @param numSamples the minimum number of samples.
+   * @param numChannels the number of channels.
+   * @param format the sample format.
+   * @return the samples; return them with {@link #recycle(IMediaData)}.
+   * 
+   * @throws IllegalArgumentException if format is null.
+   * @throws OutOfMemoryError if new samples cannot be allocated, or
+   *         do not fit in the thread's {@link JNIMemoryBudget}.
+   */
+  public IAudioSamples leaseAudioSamples(long numSamples,
+      long numChannels, IAudioSamples.Format format)
+  {
+    if (format == null)
+      throw new IllegalArgumentException("must pass sample format");
+    synchronized(this)
+    {
+      IAudioSamples samples = (IAudioSamples) lease(KIND_AUDIO_SAMPLES,
+          format.swigValue(), numSamples, numChannels);
+      if (samples != null)
+        return samples;
+    }
+    // samples don't allocate their buffer until first used either
+    IAudioSamples samples = IAudioSamples.make(numSamples, numChannels,
+        format);
+    if (samples == null)
+      throw new OutOfMemoryError("could not allocate samples");
+    charge(samples, numSamples * numChannels *
+        IAudioSamples.findSampleBitDepth(format) / 8);
+    leased(samples, KIND_AUDIO_SAMPLES, format.swigValue(), numSamples,
+        numChannels);
+    return samples;
+  }
+
+  /**
+   * Return an object to the pool.
+   * <p>
+   * The caller must not use the object after returning it.  Objects
+   * that were not leased from this pool, that are still referenced
+   * elsewhere, or whose {@link JNIMemoryBudget} is above its pause
+   * threshold, are deleted rather than pooled.
+   * </p>
+   * 
+   * @param data the object to return; null is ignored.
+   */
+  public synchronized void recycle(IMediaData data)
+  {
+    if (data == null)
+      return;
+    final Key key = mLeased.remove(data);
+    if (key == null)
+    {
+      data.delete();
+      return;
+    }
+    if (mMaxPooled == 0 || data.getCurrentRefCount() != 1)
+    {
+      ++mNumDiscards;
+      delete(data);
+      return;
+    }
+    final Charge charge = mCharges.get(data);
+    if (charge != null && charge.mBudget.isAbovePauseThreshold())
+    {
+      // free it now rather than hold memory someone may be waiting for
+      delete(data);
+      return;
+    }
+    // the pool owns idle objects now, so a scope that was open when they
+    // were made must not delete them when it closes
+
+    final FerryScope scope = FerryScope.getCurrentScope();
+    if (scope != null)
+      scope.escape(data);
+    if (mNumIdle >= mMaxPooled)
+      evictEldest();
+    IdleList idle = mIdle.get(key);
+    if (idle == null)
+    {
+      idle = new IdleList(key);
+      mIdle.put(key, idle);
+    }
+    idle.mItems.add(data);
+    ++mNumIdle;
+  }
+
+  /**
+   * Delete all idle objects in this pool.  Objects currently leased out
+   * are unaffected.
+   */
+  public synchronized void clear()
+  {
+    for(IdleList idle : mIdle.values())
+      for(IMediaData data : idle.mItems)
+        delete(data);
+    mIdle.clear();
+    mNumIdle = 0;
+  }
+
+  /**
+   * Get the maximum number of idle objects this pool will keep.
+   * 
+   * @return the maximum.
+   */
+  public int getMaxPooled()
+  {
+    return mMaxPooled;
+  }
+
+  /**
+   * Get the number of idle objects currently in this pool.
+   * 
+   * @return the number of idle objects.
+   */
+  public synchronized int getNumPooled()
+  {
+    return mNumIdle;
+  }
+
+  /**
+   * Get the number of objects currently leased out of this pool.
+   * 
+   * @return the number of leased objects.
+   */
+  public synchronized int getNumLeased()
+  {
+    return mLeased.size();
+  }
+
+  /**
+   * Get the number of leases that were satisfied by an idle object.
+   * 
+   * @return the number of hits.
+   */
+  public synchronized long getNumHits()
+  {
+    return mNumHits;
+  }
+
+  /**
+   * Get the number of leases that required a new allocation.
+   * 
+   * @return the number of misses.
+   */
+  public synchronized long getNumMisses()
+  {
+    return mNumMisses;
+  }
+
+  /**
+   * Get the number of idle objects deleted to keep the pool within
+   * {@link #getMaxPooled()}.
+   * 
+   * @return the number of evictions.
+   */
+  public synchronized long getNumEvictions()
+  {
+    return mNumEvictions;
+  }
+
+  /**
+   * Get the number of leased objects that could not be reused because
+   * they were still referenced elsewhere when returned.
+   * 
+   * @return the number of discards.
+   */
+  public synchronized long getNumDiscards()
+  {
+    return mNumDiscards;
+  }
+
+  /**
+   * Find an idle object for the given key, and record it as leased.
+   * Caller must hold the lock.
+   * 
+   * @return the idle object, or null if none.
+   */
+  private IMediaData lease(int kind, int format, long a, long b)
+  {
+    mProbe.set(kind, format, a, b);
+    final IdleList idle = mIdle.get(mProbe);
+    if (idle == null || idle.mItems.isEmpty())
+    {
+      ++mNumMisses;
+      return null;
+    }
+    final IMediaData data = idle.mItems.remove(idle.mItems.size()-1);
+    --mNumIdle;
+    ++mNumHits;
+    mLeased.put(data, idle.mKey);
+    return data;
+  }
+
+  /**
+   * Record a newly allocated object as leased under the given key.
+   */
+  private synchronized void leased(IMediaData data, int kind, int format,
+      long a, long b)
+  {
+    final Key key = new Key();
+    key.set(kind, format, a, b);
+    mLeased.put(data, key);
+  }
+
+  /**
+   * Charge a newly allocated object to the calling thread's budget.  If
+   * the budget has no room, first deletes our idle objects, then waits
+   * or fails according to its policy.  Caller must not hold the lock,
+   * so other threads can return objects while we wait.
+   * 
+   * @throws OutOfMemoryError, after deleting data, if the budget refuses.
+   */
+  private void charge(IMediaData data, long bytes)
+  {
+    final JNIMemoryBudget budget = JNIMemoryBudget.getCurrent();
+    synchronized(this)
+    {
+      while (mNumIdle > 0 &&
+          budget.getBytesInUse() > budget.getMaxBytes() - bytes)
+        evictEldest();
+    }
+    if (!budget.reserve(bytes))
+    {
+      data.delete();
+      throw new OutOfMemoryError("no room for " + bytes +
+          " bytes in " + budget);
+    }
+    synchronized(this)
+    {
+      mCharges.put(data, new Charge(budget, bytes));
+    }
+  }
+
+  /**
+   * Delete an object we made, crediting its budget.  Caller must hold
+   * the lock.
+   */
+  private void delete(IMediaData data)
+  {
+    final Charge charge = mCharges.remove(data);
+    data.delete();
+    if (charge != null)
+      charge.mBudget.release(charge.mBytes);
+  }
+
+  /**
+   * Delete the oldest idle object of the least recently used key.  Caller
+   * must hold the lock.
+   */
+  private void evictEldest()
+  {
+    final Iterator<IdleList> it = mIdle.values().iterator();
+    while (it.hasNext())
+    {
+      final IdleList idle = it.next();
+      if (idle.mItems.isEmpty())
+      {
+        it.remove();
+        continue;
+      }
+      delete(idle.mItems.remove(0));
+      --mNumIdle;
+      ++mNumEvictions;
+      if (idle.mItems.isEmpty())
+        it.remove();
+      return;
+    }
+  }
+
+  /**
+   * The idle objects for one key.
+   */
+  private static final class IdleList
+  {
+    private final Key mKey;
+    private final ArrayList<IMediaData> mItems = new ArrayList<IMediaData>();
+
+    IdleList(Key key)
+    {
+      mKey = key;
+    }
+  }
+
+  /**
+   * The bytes an object is charged to a budget.
+   */
+  private static final class Charge
+  {
+    private final JNIMemoryBudget mBudget;
+    private final long mBytes;
+
+    Charge(JNIMemoryBudget budget, long bytes)
+    {
+      mBudget = budget;
+      mBytes = bytes;
+    }
+  }
+
+  /**
+   * The format and dimensions an object was leased with.
+   */
+  private static final class Key
+  {
+    private int mKind;
+    private int mFormat;
+    private long mA;
+    private long mB;
+
+    void set(int kind, int format, long a, long b)
+    {
+      mKind = kind;
+      mFormat = format;
+      mA = a;
+      mB = b;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof Key))
+        return false;
+      final Key other = (Key) obj;
+      return mKind == other.mKind && mFormat == other.mFormat
+        && mA == other.mA && mB == other.mB;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int result = mKind;
+      result = 31 * result + mFormat;
+      result = 31 * result + (int) (mA ^ (mA >>> 32));
+      result = 31 * result + (int) (mB ^ (mB >>> 32));
+      return result;
+    }
+  }
+}
@@ -180,7 +180,7 @@ public class FileProtocolHandler implements IURLProtocolHandler
       }
 
       stream.seek(seek);
-      log.debug("seeking to \"{}\" in: {}", seek, file);
+      log.trace("seeking to \"{}\" in: {}", seek, file);
       return seek;
     }
     catch (IOException e)
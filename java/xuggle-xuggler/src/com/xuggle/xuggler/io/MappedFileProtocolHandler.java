@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of URLProtocolHandler that reads files through memory
+ * mapped windows.
+ * 
+ * <p>
+ * 
+ * A {@link FileProtocolHandler} makes a system call for every read and
+ * seek FFMPEG asks for.  This handler instead maps the file in windows of
+ * {@link #getWindowSize()} bytes and copies reads straight out of them, so
+ * seeking is just arithmetic and reads that hit a mapped window never
+ * leave the JVM.  The {@link #getMaxWindows()} most recently used windows
+ * stay mapped, so demuxers that jump between an index and the media data,
+ * such as MP4 and MOV, don't remap on every jump.
+ * 
+ * </p>
+ * <p>
+ * 
+ * Only {@link IURLProtocolHandler#URL_RDONLY_MODE} is supported.  By
+ * default Xuggler IO registers a {@link MappedFileProtocolHandlerFactory}
+ * under the protocol name "xugglermmap", so for example
+ * "xugglermmap:/videos/big.mp4" reads that file this way.
+ * 
+ * </p>
+ * <p>
+ * 
+ * Windows are unmapped when the garbage collector reclaims them, not on
+ * {@link #close()}; on 32 bit JVMs keep the window size small enough that
+ * a few of them fit in the address space.
+ * 
+ * </p>
+ */
+public class MappedFileProtocolHandler implements IURLProtocolHandler
+{
+  private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  /**
+   * The default size of a mapped window: 64 megabytes.
+   */
+  public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * The default number of windows kept mapped.
+   */
+  public static final int DEFAULT_MAX_WINDOWS = 4;
+
+  private final int mWindowSize;
+  private final int mMaxWindows;
+  private File mFile;
+
+  private RandomAccessFile mStream = null;
+  private FileChannel mChannel = null;
+  private long mSize;
+  private long mPosition;
+
+  // mapped windows, by index, in least-recently-used order, and the one
+  // the last read used
+
+  private final LinkedHashMap<Long, MappedByteBuffer> mWindows;
+  private long mWindowIndex = -1;
+  private MappedByteBuffer mWindow = null;
+
+  /**
+   * Create a handler that will open the file named in the url passed to
+   * {@link #open(String, int)}.
+   */
+  public MappedFileProtocolHandler()
+  {
+    this((File) null, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_WINDOWS);
+  }
+
+  /**
+   * Create a handler for a url or file name.
+   * @param url the url, with or without a protocol prefix
+   */
+  public MappedFileProtocolHandler(String url)
+  {
+    this(url, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_WINDOWS);
+  }
+
+  /**
+   * Create a handler for a url or file name.
+   * @param url the url, with or without a protocol prefix, or null to use
+   *   the one passed to {@link #open(String, int)}
+   * @param windowSize the number of bytes to map at a time
+   * @param maxWindows the number of windows to keep mapped
+   * @throws IllegalArgumentException if windowSize or maxWindows is not
+   *   positive
+   */
+  public MappedFileProtocolHandler(String url, int windowSize,
+      int maxWindows)
+  {
+    this(url == null ? null : new File(getFilename(url)), windowSize,
+        maxWindows);
+  }
+
+  /**
+   * Create a handler for a file.
+   * @param file the file, or null to use the url passed to
+   *   {@link #open(String, int)}
+   * @param windowSize the number of bytes to map at a time
+   * @param maxWindows the number of windows to keep mapped
+   * @throws IllegalArgumentException if windowSize or maxWindows is not
+   *   positive
+   */
+  public MappedFileProtocolHandler(File file, int windowSize, int maxWindows)
+  {
+    if (windowSize <= 0)
+      throw new IllegalArgumentException("invalid window size: "
+          + windowSize);
+    if (maxWindows <= 0)
+      throw new IllegalArgumentException("invalid number of windows: "
+          + maxWindows);
+    mFile = file;
+    mWindowSize = windowSize;
+    mMaxWindows = maxWindows;
+    mWindows = new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(
+          Map.Entry<Long, MappedByteBuffer> eldest)
+      {
+        return size() > mMaxWindows;
+      }
+    };
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int open(String url, int flags)
+  {
+    if (mStream != null)
+      close();
+    if (flags != URL_RDONLY_MODE)
+    {
+      log.error("only read only mode is supported for mapped file: {}",
+          url == null ? mFile : url);
+      return -1;
+    }
+    if (mFile == null)
+    {
+      if (url == null)
+      {
+        log.error("no file to open");
+        return -1;
+      }
+      mFile = new File(getFilename(url));
+    }
+
+    try
+    {
+      mStream = new RandomAccessFile(mFile, "r");
+      mChannel = mStream.getChannel();
+      mSize = mChannel.size();
+    }
+    catch (IOException e)
+    {
+      log.error("Could not open file: {}; ex: {}", mFile, e);
+      close();
+      return -1;
+    }
+    mPosition = 0;
+    return 0;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int read(byte[] buf, int size)
+  {
+    if (mChannel == null)
+      return -1;
+    try
+    {
+      // the file may have grown since we last looked
+
+      if (mPosition >= mSize)
+        mSize = mChannel.size();
+      if (mPosition >= mSize)
+        return -1;
+
+      int read = 0;
+      while (read < size && mPosition < mSize)
+      {
+        final MappedByteBuffer window = getWindow(mPosition / mWindowSize);
+        final int offset = (int) (mPosition % mWindowSize);
+        final int length = Math.min(size - read, window.limit() - offset);
+        if (length <= 0)
+          break;
+        window.position(offset);
+        window.get(buf, read, length);
+        read += length;
+        mPosition += length;
+      }
+      return read;
+    }
+    catch (IOException e)
+    {
+      log.error("Got IO exception mapping file: {}; {}", mFile, e);
+      return -1;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long seek(long offset, int whence)
+  {
+    if (mChannel == null)
+      return -1;
+    final long seek;
+    if (whence == SEEK_SET)
+      seek = offset;
+    else if (whence == SEEK_CUR)
+      seek = mPosition + offset;
+    else if (whence == SEEK_END)
+      seek = mSize + offset;
+    else if (whence == SEEK_SIZE)
+      return mSize;
+    else
+    {
+      log.error("invalid seek value \"{}\" for file: {}", whence, mFile);
+      return -1;
+    }
+    if (seek < 0)
+      return -1;
+    mPosition = seek;
+    return seek;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * Writing is not supported and always returns -1.
+   */
+  public int write(byte[] buf, int size)
+  {
+    return -1;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int close()
+  {
+    int retval = 0;
+    mWindows.clear();
+    mWindow = null;
+    mWindowIndex = -1;
+    mChannel = null;
+    if (mStream != null)
+    {
+      try
+      {
+        mStream.close();
+      }
+      catch (IOException e)
+      {
+        log.error("Error closing file: {}; {}", mFile, e);
+        retval = -1;
+      }
+      mStream = null;
+    }
+    return retval;
+  }
+
+  /**
+   * {@inheritDoc}
+   * Always false for this class.
+   */
+  public boolean isStreamed(String url, int flags)
+  {
+    return false;
+  }
+
+  /**
+   * Get the number of bytes mapped at a time.
+   * @return the window size
+   */
+  public int getWindowSize()
+  {
+    return mWindowSize;
+  }
+
+  /**
+   * Get the number of windows kept mapped.
+   * @return the maximum number of windows
+   */
+  public int getMaxWindows()
+  {
+    return mMaxWindows;
+  }
+
+  /**
+   * Get the number of windows currently mapped.
+   * @return the number of windows
+   */
+  public int getNumWindows()
+  {
+    return mWindows.size();
+  }
+
+  /**
+   * Get the file this handler reads.
+   * @return the file, or null if not known until opened
+   */
+  public File getFile()
+  {
+    return mFile;
+  }
+
+  /**
+   * Get a mapped window, mapping it if need be.  A window at the end of a
+   * file that has since grown is mapped again.
+   */
+  private MappedByteBuffer getWindow(long index) throws IOException
+  {
+    final long start = index * mWindowSize;
+    final long length = Math.min(mWindowSize, mSize - start);
+    if (index == mWindowIndex && mWindow.limit() >= length)
+      return mWindow;
+    MappedByteBuffer window = mWindows.get(index);
+    if (window == null || window.limit() < length)
+    {
+      window = mChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+      mWindows.put(index, window);
+    }
+    mWindowIndex = index;
+    mWindow = window;
+    return window;
+  }
+
+  /**
+   * Strip any protocol prefix from a url.
+   */
+  private static String getFilename(String url)
+  {
+    final int colonIndex = url.indexOf(':');
+    // a single letter before the colon is a windows drive, not a protocol
+    if (colonIndex > 1)
+      return url.substring(colonIndex + 1);
+    return url;
+  }
+}
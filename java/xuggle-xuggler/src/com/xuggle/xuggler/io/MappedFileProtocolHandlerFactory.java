@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+/**
+ * Returns a new {@link MappedFileProtocolHandler} for each url.  By default
+ * Xuggler IO registers a factory under the protocol name "xugglermmap";
+ * see {@link URLProtocolManager#MAPPED_FILE_PROTOCOL}.
+ * 
+ * <p>
+ * For example, "xugglermmap:/videos/big.mp4"
+ * </p>
+ */
+public class MappedFileProtocolHandlerFactory implements
+    IURLProtocolHandlerFactory
+{
+  private final int mWindowSize;
+  private final int mMaxWindows;
+
+  /**
+   * Create a factory whose handlers use
+   * {@link MappedFileProtocolHandler#DEFAULT_WINDOW_SIZE} and
+   * {@link MappedFileProtocolHandler#DEFAULT_MAX_WINDOWS}.
+   */
+  public MappedFileProtocolHandlerFactory()
+  {
+    this(MappedFileProtocolHandler.DEFAULT_WINDOW_SIZE,
+        MappedFileProtocolHandler.DEFAULT_MAX_WINDOWS);
+  }
+
+  /**
+   * Create a factory.
+   * @param windowSize the number of bytes handlers map at a time
+   * @param maxWindows the number of windows handlers keep mapped
+   * @throws IllegalArgumentException if windowSize or maxWindows is not
+   *   positive
+   */
+  public MappedFileProtocolHandlerFactory(int windowSize, int maxWindows)
+  {
+    if (windowSize <= 0)
+      throw new IllegalArgumentException("invalid window size: "
+          + windowSize);
+    if (maxWindows <= 0)
+      throw new IllegalArgumentException("invalid number of windows: "
+          + maxWindows);
+    mWindowSize = windowSize;
+    mMaxWindows = maxWindows;
+  }
+
+  public IURLProtocolHandler getHandler(String protocol, String url,
+      int flags)
+  {
+    return new MappedFileProtocolHandler(url, mWindowSize, mMaxWindows);
+  }
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of byte blocks with one writing thread and one reading
+ * thread.
+ * 
+ * <p>
+ * 
+ * The writer appends to the block at the tail until it is full and then
+ * moves on to the next, and the reader follows behind it.  Each side
+ * counts the bytes it has moved and publishes the count after every copy,
+ * so bytes are readable as soon as a write returns, even from a block
+ * that isn't full yet.  Each count is only ever moved by one thread, so
+ * neither side takes a lock.  A side only parks when the ring is full or
+ * empty, and the other side unparks it after its next move.  Blocks are
+ * allocated as first needed and then reused, and the pipe holds up to
+ * <code>blockSize * numBlocks</code> bytes however large each write is.
+ * 
+ * </p>
+ */
+final class PipeBuffer
+{
+  // how long to park before checking again, in case a wake up is missed
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final int mBlockSize;
+  private final byte[][] mBlocks;
+  private final long mCapacity;
+
+  // bytes ever read; only moved by the reader
+  private volatile long mHead;
+  // bytes ever written; only moved by the writer
+  private volatile long mTail;
+
+  private volatile boolean mWriterOpen;
+  private volatile boolean mReaderOpen;
+  private volatile boolean mWriterClosed;
+  private volatile boolean mReaderClosed;
+
+  private volatile Thread mParkedReader;
+  private volatile Thread mParkedWriter;
+
+  PipeBuffer(int blockSize, int numBlocks)
+  {
+    mBlockSize = blockSize;
+    mBlocks = new byte[numBlocks][];
+    mCapacity = (long) blockSize * numBlocks;
+  }
+
+  /**
+   * Claim one end of the pipe.
+   * @param writer true for the writing end, false for the reading end
+   * @return false if that end is already taken
+   */
+  synchronized boolean attach(boolean writer)
+  {
+    if (writer ? mWriterOpen || mWriterClosed
+        : mReaderOpen || mReaderClosed)
+      return false;
+    if (writer)
+      mWriterOpen = true;
+    else
+      mReaderOpen = true;
+    return true;
+  }
+
+  /**
+   * Close one end of the pipe.  Closing the writing end lets the reader
+   * read what is left and then see the end of the stream; closing the
+   * reading end makes all further writes fail.
+   * @param writer true for the writing end, false for the reading end
+   */
+  void close(boolean writer)
+  {
+    if (writer)
+    {
+      mWriterClosed = true;
+      LockSupport.unpark(mParkedReader);
+    }
+    else
+    {
+      mReaderClosed = true;
+      LockSupport.unpark(mParkedWriter);
+    }
+  }
+
+  /**
+   * Is the reading end closed?
+   */
+  boolean isReaderClosed()
+  {
+    return mReaderClosed;
+  }
+
+  /**
+   * Write all of a buffer, waiting for the reader to make room as needed.
+   * Only the writing thread may call this.
+   * @return size, or -1 if the reader closed the pipe
+   */
+  int write(byte[] buf, int size)
+  {
+    int written = 0;
+    while (written < size)
+    {
+      final long tail = mTail;
+      while (tail - mHead == mCapacity)
+      {
+        if (mReaderClosed)
+          return -1;
+        mParkedWriter = Thread.currentThread();
+        if (tail - mHead == mCapacity && !mReaderClosed)
+          LockSupport.parkNanos(PARK_NANOS);
+        mParkedWriter = null;
+      }
+      if (mReaderClosed)
+        return -1;
+
+      // append to the tail block, up to its end or the free space
+      final int index = (int) (tail / mBlockSize % mBlocks.length);
+      final int offset = (int) (tail % mBlockSize);
+      if (mBlocks[index] == null)
+        mBlocks[index] = new byte[mBlockSize];
+      final int length = (int) Math.min(size - written,
+          Math.min(mBlockSize - offset, mCapacity - (tail - mHead)));
+      System.arraycopy(buf, written, mBlocks[index], offset, length);
+      mTail = tail + length;
+      LockSupport.unpark(mParkedReader);
+      written += length;
+    }
+    return size;
+  }
+
+  /**
+   * Read what is available, up to size bytes, waiting until there is
+   * something to read.  Only the reading thread may call this.
+   * @return the number of bytes read, or -1 at the end of the stream
+   */
+  int read(byte[] buf, int size)
+  {
+    long head = mHead;
+    while (head == mTail)
+    {
+      // the writer publishes its last bytes before saying it closed
+      if (mWriterClosed && head == mTail)
+        return -1;
+      if (mReaderClosed)
+        return -1;
+      mParkedReader = Thread.currentThread();
+      if (head == mTail && !mWriterClosed)
+        LockSupport.parkNanos(PARK_NANOS);
+      mParkedReader = null;
+    }
+
+    final long tail = mTail;
+    int read = 0;
+    while (read < size && head != tail)
+    {
+      final int index = (int) (head / mBlockSize % mBlocks.length);
+      final int offset = (int) (head % mBlockSize);
+      final int length = (int) Math.min(size - read,
+          Math.min(mBlockSize - offset, tail - head));
+      System.arraycopy(mBlocks[index], offset, buf, read, length);
+      read += length;
+      head += length;
+    }
+    mHead = head;
+    LockSupport.unpark(mParkedWriter);
+    return read;
+  }
+}
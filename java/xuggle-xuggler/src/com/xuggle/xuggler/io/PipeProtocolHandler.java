@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One end of an in-process pipe: an {@link IURLProtocolHandler} that
+ * lets one container write media that another container reads, without
+ * going through the disk.
+ * 
+ * <p>
+ * 
+ * Pipes are named by the url: the handler opened with
+ * {@link IURLProtocolHandler#URL_WRONLY_MODE} writes into the pipe, and
+ * the handler opened for the same url with
+ * {@link IURLProtocolHandler#URL_RDONLY_MODE} reads from it.  Either end
+ * may be opened first.  Each pipe holds at most a fixed number of bytes;
+ * writes wait while the pipe is full, and reads wait while it is empty,
+ * so the two ends must be used from different threads.  Neither side
+ * takes a lock to pass data.
+ * 
+ * </p>
+ * <p>
+ * 
+ * Closing the writing end lets the reader finish what's left and then see
+ * the end of the stream.  Closing the reading end makes further writes
+ * fail.  Pipes can't seek, so only formats that can be written and read
+ * as a stream work through them.
+ * 
+ * </p>
+ * <p>
+ * 
+ * By default Xuggler IO registers a {@link PipeProtocolHandlerFactory}
+ * under the protocol name "xugglerpipe"; see
+ * {@link URLProtocolManager#PIPE_PROTOCOL}.  For example, to remux from
+ * one thread to another:
+ * 
+ * </p>
+ * 
+ * <pre>
+ * // on one thread
+ * IContainerFormat flv = IContainerFormat.make();
+ * flv.setOutputFormat(&quot;flv&quot;, null, null);
+ * IContainer out = IContainer.make();
+ * out.open(&quot;xugglerpipe:job1&quot;, IContainer.Type.WRITE, flv);
+ * // on another
+ * IContainer in = IContainer.make();
+ * in.open(&quot;xugglerpipe:job1&quot;, IContainer.Type.READ, null);
+ * </pre>
+ */
+public class PipeProtocolHandler implements IURLProtocolHandler
+{
+  private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  private final PipeProtocolHandlerFactory mFactory;
+  private String mName;
+  private PipeBuffer mPipe;
+  private boolean mWriter;
+
+  /**
+   * Create a handler that finds its pipe in the given factory.
+   * @param factory the factory that owns the pipes
+   */
+  public PipeProtocolHandler(PipeProtocolHandlerFactory factory)
+  {
+    if (factory == null)
+      throw new IllegalArgumentException("must pass in a factory");
+    mFactory = factory;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int open(String url, int flags)
+  {
+    if (mPipe != null)
+      close();
+
+    final boolean writer;
+    switch (flags)
+    {
+      case URL_RDONLY_MODE:
+        writer = false;
+        break;
+      case URL_WRONLY_MODE:
+        writer = true;
+        break;
+      default:
+        log.error("pipes can only be opened for reading or writing: {}",
+            url);
+        return -1;
+    }
+    final String name = URLProtocolManager.getResourceFromURL(url);
+    final PipeBuffer pipe = mFactory.attach(name, writer);
+    if (pipe == null)
+    {
+      log.error("pipe already has a {}: {}", writer ? "writer" : "reader",
+          url);
+      return -1;
+    }
+    mName = name;
+    mPipe = pipe;
+    mWriter = writer;
+    return 0;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int read(byte[] buf, int size)
+  {
+    if (mPipe == null || mWriter)
+      return -1;
+    return mPipe.read(buf, size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int write(byte[] buf, int size)
+  {
+    if (mPipe == null || !mWriter)
+      return -1;
+    final int retval = mPipe.write(buf, size);
+    if (retval < 0)
+      log.debug("reader closed pipe: {}", mName);
+    return retval;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * Pipes cannot seek, so this always returns -1.
+   */
+  public long seek(long offset, int whence)
+  {
+    return -1;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * Always true.
+   */
+  public boolean isStreamed(String url, int flags)
+  {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int close()
+  {
+    if (mPipe == null)
+      return -1;
+    mFactory.detach(mName, mPipe, mWriter);
+    mPipe = null;
+    mName = null;
+    return 0;
+  }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Returns a new {@link PipeProtocolHandler} for each url, and keeps track
+ * of the pipes those handlers share.  By default Xuggler IO registers a
+ * factory under the protocol name "xugglerpipe"; see
+ * {@link URLProtocolManager#PIPE_PROTOCOL}.
+ * 
+ * <p>
+ * For example, "xugglerpipe:job1".  A pipe goes away once its reading end
+ * is closed, after which the name can be used again.
+ * </p>
+ */
+public class PipeProtocolHandlerFactory implements
+    IURLProtocolHandlerFactory
+{
+  /**
+   * The default size of a block: 64 kilobytes.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  /**
+   * The default number of blocks in a pipe.
+   */
+  public static final int DEFAULT_NUM_BLOCKS = 16;
+
+  private final int mBlockSize;
+  private final int mNumBlocks;
+  private final ConcurrentMap<String, PipeBuffer> mPipes =
+    new ConcurrentHashMap<String, PipeBuffer>();
+
+  /**
+   * Create a factory whose pipes hold {@link #DEFAULT_NUM_BLOCKS} blocks
+   * of {@link #DEFAULT_BLOCK_SIZE} bytes.
+   */
+  public PipeProtocolHandlerFactory()
+  {
+    this(DEFAULT_BLOCK_SIZE, DEFAULT_NUM_BLOCKS);
+  }
+
+  /**
+   * Create a factory.
+   * @param blockSize the size of each block in a pipe
+   * @param numBlocks the number of blocks in a pipe; a pipe holds at most
+   *   <code>blockSize * numBlocks</code> bytes
+   * @throws IllegalArgumentException if blockSize or numBlocks is not
+   *   positive
+   */
+  public PipeProtocolHandlerFactory(int blockSize, int numBlocks)
+  {
+    if (blockSize <= 0)
+      throw new IllegalArgumentException("invalid block size: "
+          + blockSize);
+    if (numBlocks <= 0)
+      throw new IllegalArgumentException("invalid number of blocks: "
+          + numBlocks);
+    mBlockSize = blockSize;
+    mNumBlocks = numBlocks;
+  }
+
+  public IURLProtocolHandler getHandler(String protocol, String url,
+      int flags)
+  {
+    return new PipeProtocolHandler(this);
+  }
+
+  /**
+   * Get the number of pipes that are open.
+   * @return the number of pipes
+   */
+  public int getNumPipes()
+  {
+    return mPipes.size();
+  }
+
+  /**
+   * Find or create the named pipe and claim one of its ends.
+   * @return the pipe, or null if that end is already taken
+   */
+  PipeBuffer attach(String name, boolean writer)
+  {
+    while (true)
+    {
+      PipeBuffer pipe = mPipes.get(name);
+      if (pipe == null)
+      {
+        final PipeBuffer newPipe = new PipeBuffer(mBlockSize, mNumBlocks);
+        pipe = mPipes.putIfAbsent(name, newPipe);
+        if (pipe == null)
+          pipe = newPipe;
+      }
+      if (pipe.attach(writer))
+        return pipe;
+      // a pipe whose reader has gone is just waiting to be removed
+      if (!pipe.isReaderClosed())
+        return null;
+      mPipes.remove(name, pipe);
+    }
+  }
+
+  /**
+   * Close one end of a pipe, forgetting the pipe once its reader is done.
+   */
+  void detach(String name, PipeBuffer pipe, boolean writer)
+  {
+    pipe.close(writer);
+    if (!writer)
+      mPipes.remove(name, pipe);
+  }
+}
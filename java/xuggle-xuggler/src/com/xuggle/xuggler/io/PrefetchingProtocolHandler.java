@@ -0,0 +1,647 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link IURLProtocolHandler} that reads ahead of Xuggler from another
+ * handler on a background thread.
+ * 
+ * <p>
+ * 
+ * Every read Xuggler makes normally blocks on the underlying stream or
+ * file, so decoding stalls whenever the disk or network does.  When opened
+ * with {@link IURLProtocolHandler#URL_RDONLY_MODE}, this handler starts a
+ * thread that reads sequential blocks of {@link #getBlockSize()} bytes from
+ * the wrapped handler into a ring of {@link #getNumBlocks()} buffers, which
+ * are allocated once and reused, and serves Xuggler's reads from them.
+ * 
+ * </p>
+ * <p>
+ * 
+ * Seeks to data that is already in the ring just move within it.  Other
+ * seeks wait for any read in progress, seek the wrapped handler and throw
+ * away what was prefetched.  In any other mode, all calls go straight to
+ * the wrapped handler.
+ * 
+ * </p>
+ * <p>
+ * 
+ * To see how well prefetching works, {@link #getHits()} counts reads that
+ * found data waiting, {@link #getStalls()} reads that had to wait for the
+ * wrapped handler, and {@link #getStallTime(TimeUnit)} how long they
+ * waited in total.
+ * 
+ * </p>
+ * <p>
+ * 
+ * Use {@link XugglerIO#map(IURLProtocolHandler, boolean)} to map a
+ * prefetching handler, for example:
+ * 
+ * </p>
+ * 
+ * <pre>
+ * IContainer container = IContainer.make();
+ * container.open(XugglerIO.map(
+ *   new InputOutputStreamHandler(slowInputStream), true),
+ *   IContainer.Type.READ, null);
+ * </pre>
+ */
+public class PrefetchingProtocolHandler implements IURLProtocolHandler
+{
+  private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  /**
+   * The default size of a prefetched block: 64 kilobytes.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  /**
+   * The default number of blocks to prefetch.
+   */
+  public static final int DEFAULT_NUM_BLOCKS = 8;
+
+  private final IURLProtocolHandler mHandler;
+  private final int mBlockSize;
+
+  // the ring; blocks from mHead for mCount blocks hold data, and the rest
+  // are free for the prefetch thread to fill
+
+  private final byte[][] mBlocks;
+  private final int[] mLengths;
+  private final long[] mPositions;
+  private int mHead;
+  private int mCount;
+  private int mHeadOffset;
+
+  // where the next byte Xuggler reads, and the next byte prefetched, come
+  // from in the wrapped handler
+
+  private long mPosition;
+  private long mFetchPosition;
+
+  // what the wrapped handler last returned when it had no more data
+
+  private int mEndOfData;
+  private boolean mAtEnd;
+
+  // bumped on every seek that throws the ring away, so the prefetch
+  // thread can tell a block it read before the seek
+
+  private volatile int mGeneration;
+  private volatile boolean mClosed = true;
+  private Thread mThread;
+
+  // guards everything above; mHandlerLock is held around every call to
+  // the wrapped handler while prefetching, and always taken first
+
+  private final ReentrantLock mLock = new ReentrantLock();
+  private final Condition mNotEmpty = mLock.newCondition();
+  private final Condition mNotFull = mLock.newCondition();
+  private final ReentrantLock mHandlerLock = new ReentrantLock();
+
+  // metrics
+
+  private long mHits;
+  private long mStalls;
+  private long mStallNanos;
+  private long mBytesPrefetched;
+  private long mSeeks;
+  private long mBufferedSeeks;
+
+  /**
+   * Create a handler that prefetches {@link #DEFAULT_NUM_BLOCKS} blocks of
+   * {@link #DEFAULT_BLOCK_SIZE} bytes.
+   * @param handler the handler to read from
+   */
+  public PrefetchingProtocolHandler(IURLProtocolHandler handler)
+  {
+    this(handler, DEFAULT_BLOCK_SIZE, DEFAULT_NUM_BLOCKS);
+  }
+
+  /**
+   * Create a handler.
+   * @param handler the handler to read from
+   * @param blockSize the most bytes to read from the handler at once
+   * @param numBlocks the number of blocks to read ahead
+   * @throws IllegalArgumentException if the handler is null, or the block
+   *   size or number of blocks is not positive
+   */
+  public PrefetchingProtocolHandler(IURLProtocolHandler handler,
+      int blockSize, int numBlocks)
+  {
+    if (handler == null)
+      throw new IllegalArgumentException("must pass in a handler");
+    if (blockSize <= 0)
+      throw new IllegalArgumentException("invalid block size: " + blockSize);
+    if (numBlocks <= 0)
+      throw new IllegalArgumentException("invalid number of blocks: "
+          + numBlocks);
+    mHandler = handler;
+    mBlockSize = blockSize;
+    mBlocks = new byte[numBlocks][];
+    mLengths = new int[numBlocks];
+    mPositions = new long[numBlocks];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int open(String url, int flags)
+  {
+    if (mThread != null)
+      close();
+    final int retval = mHandler.open(url, flags);
+    if (retval < 0 || flags != URL_RDONLY_MODE)
+      return retval;
+
+    mLock.lock();
+    try
+    {
+      for (int i = 0; i < mBlocks.length; i++)
+        if (mBlocks[i] == null)
+          mBlocks[i] = new byte[mBlockSize];
+      mHead = 0;
+      mCount = 0;
+      mHeadOffset = 0;
+      mPosition = 0;
+      mFetchPosition = 0;
+      mAtEnd = false;
+      mClosed = false;
+      mGeneration++;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+    mThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        prefetch();
+      }
+    }, getClass().getSimpleName() + "-" + url);
+    mThread.setDaemon(true);
+    mThread.start();
+    return retval;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int read(byte[] buf, int size)
+  {
+    if (mThread == null)
+      return mHandler.read(buf, size);
+
+    mLock.lock();
+    try
+    {
+      if (mCount == 0 && !mAtEnd && !mClosed)
+      {
+        final long start = System.nanoTime();
+        while (mCount == 0 && !mAtEnd && !mClosed)
+          mNotEmpty.awaitUninterruptibly();
+        mStallNanos += System.nanoTime() - start;
+        mStalls++;
+      }
+      else
+        mHits++;
+      if (mCount == 0)
+        return mClosed ? -1 : mEndOfData;
+
+      // copy out as many ready blocks as fit
+
+      int read = 0;
+      while (read < size && mCount > 0)
+      {
+        final int length = Math.min(size - read,
+            mLengths[mHead] - mHeadOffset);
+        System.arraycopy(mBlocks[mHead], mHeadOffset, buf, read, length);
+        read += length;
+        mHeadOffset += length;
+        if (mHeadOffset == mLengths[mHead])
+          advance();
+      }
+      mPosition += read;
+      return read;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long seek(long offset, int whence)
+  {
+    if (mThread == null)
+      return mHandler.seek(offset, whence);
+
+    mHandlerLock.lock();
+    try
+    {
+      mLock.lock();
+      try
+      {
+        if (whence == SEEK_SIZE)
+          return mHandler.seek(offset, whence);
+        mSeeks++;
+
+        // move within the ring if we can
+
+        final long target = whence == SEEK_SET ? offset
+            : whence == SEEK_CUR ? mPosition + offset : -1;
+        if (target >= 0 && seekInRing(target))
+        {
+          mBufferedSeeks++;
+          return target;
+        }
+
+        // otherwise throw it away, and start again from the new position
+
+        final long retval = mHandler.seek(whence == SEEK_CUR ? target
+            : offset, whence == SEEK_CUR ? SEEK_SET : whence);
+        if (retval >= 0)
+        {
+          mGeneration++;
+          mHead = 0;
+          mCount = 0;
+          mHeadOffset = 0;
+          mAtEnd = false;
+          mPosition = retval;
+          mFetchPosition = retval;
+          mNotFull.signalAll();
+        }
+        return retval;
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+    }
+    finally
+    {
+      mHandlerLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int write(byte[] buf, int size)
+  {
+    return mHandler.write(buf, size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean isStreamed(String url, int flags)
+  {
+    return mHandler.isStreamed(url, flags);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int close()
+  {
+    final Thread thread = mThread;
+    if (thread == null)
+      return mHandler.close();
+
+    mLock.lock();
+    try
+    {
+      mClosed = true;
+      mNotFull.signalAll();
+      mNotEmpty.signalAll();
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+
+    // wait for the prefetch thread to finish any read in progress and
+    // exit, so a later open() can't end up with two threads filling the
+    // ring, before closing what it reads from
+
+    boolean interrupted = false;
+    while (thread.isAlive())
+    {
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      // reset the interruption so our caller can see it
+      Thread.currentThread().interrupt();
+
+    mHandlerLock.lock();
+    try
+    {
+      mThread = null;
+      return mHandler.close();
+    }
+    finally
+    {
+      mHandlerLock.unlock();
+    }
+  }
+
+  /**
+   * Get the handler this handler reads from.
+   * @return the handler
+   */
+  public IURLProtocolHandler getHandler()
+  {
+    return mHandler;
+  }
+
+  /**
+   * Get the most bytes read from the wrapped handler at once.
+   * @return the block size
+   */
+  public int getBlockSize()
+  {
+    return mBlockSize;
+  }
+
+  /**
+   * Get the number of blocks read ahead.
+   * @return the number of blocks
+   */
+  public int getNumBlocks()
+  {
+    return mBlocks.length;
+  }
+
+  /**
+   * Get the number of reads that found data already prefetched.
+   * @return the number of hits
+   */
+  public long getHits()
+  {
+    mLock.lock();
+    try
+    {
+      return mHits;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of reads that had to wait for the wrapped handler.
+   * @return the number of stalls
+   */
+  public long getStalls()
+  {
+    mLock.lock();
+    try
+    {
+      return mStalls;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get the fraction of reads that found data already prefetched.
+   * @return the hit rate, from 0 to 1, or 0 if nothing has been read
+   */
+  public double getHitRate()
+  {
+    mLock.lock();
+    try
+    {
+      final long reads = mHits + mStalls;
+      return reads == 0 ? 0 : (double) mHits / reads;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get how long reads have waited for the wrapped handler in total.
+   * @param unit the unit to return the time in
+   * @return the time
+   */
+  public long getStallTime(TimeUnit unit)
+  {
+    mLock.lock();
+    try
+    {
+      return unit.convert(mStallNanos, TimeUnit.NANOSECONDS);
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of bytes read from the wrapped handler, including any
+   * thrown away by seeks.
+   * @return the number of bytes
+   */
+  public long getBytesPrefetched()
+  {
+    mLock.lock();
+    try
+    {
+      return mBytesPrefetched;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of seeks, not counting requests for the size.
+   * @return the number of seeks
+   */
+  public long getSeeks()
+  {
+    mLock.lock();
+    try
+    {
+      return mSeeks;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of seeks that moved within prefetched data.
+   * @return the number of seeks
+   */
+  public long getBufferedSeeks()
+  {
+    mLock.lock();
+    try
+    {
+      return mBufferedSeeks;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String toString()
+  {
+    return getClass().getName() + "[handler=" + mHandler + ";hits="
+        + getHits() + ";stalls=" + getStalls() + "]";
+  }
+
+  /**
+   * Move Xuggler's position within the prefetched blocks.  Called with
+   * mLock held.
+   * @return true if the target was in the ring
+   */
+  private boolean seekInRing(long target)
+  {
+    if (mCount == 0)
+      return target == mPosition;
+    final long first = mPositions[mHead];
+    final int last = (mHead + mCount - 1) % mBlocks.length;
+    final long end = mPositions[last] + mLengths[last];
+    if (target < first || target >= end)
+      return false;
+    while (target >= mPositions[mHead] + mLengths[mHead])
+      advance();
+    mHeadOffset = (int) (target - mPositions[mHead]);
+    mPosition = target;
+    return true;
+  }
+
+  /**
+   * Free the head block.  Called with mLock held.
+   */
+  private void advance()
+  {
+    mHead = (mHead + 1) % mBlocks.length;
+    mCount--;
+    mHeadOffset = 0;
+    mNotFull.signal();
+  }
+
+  /**
+   * The prefetch thread: fill free blocks until closed.
+   */
+  private void prefetch()
+  {
+    while (true)
+    {
+      // wait for a free block
+
+      final int slot;
+      final int generation;
+      mLock.lock();
+      try
+      {
+        while (!mClosed && (mCount == mBlocks.length || mAtEnd))
+          mNotFull.awaitUninterruptibly();
+        if (mClosed)
+          return;
+        slot = (mHead + mCount) % mBlocks.length;
+        generation = mGeneration;
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+
+      // fill it, unless a seek or close got in first
+
+      int read;
+      mHandlerLock.lock();
+      try
+      {
+        if (generation != mGeneration || mClosed)
+          continue;
+        read = mHandler.read(mBlocks[slot], mBlockSize);
+      }
+      catch (RuntimeException e)
+      {
+        log.error("error prefetching from: {}; {}", mHandler, e);
+        read = -1;
+      }
+      finally
+      {
+        mHandlerLock.unlock();
+      }
+
+      // and hand it over
+
+      mLock.lock();
+      try
+      {
+        if (generation != mGeneration)
+          continue;
+        if (read > 0)
+        {
+          mLengths[slot] = read;
+          mPositions[slot] = mFetchPosition;
+          mFetchPosition += read;
+          mBytesPrefetched += read;
+          mCount++;
+        }
+        else
+        {
+          mEndOfData = read;
+          mAtEnd = true;
+        }
+        mNotEmpty.signal();
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+    }
+  }
+}
@@ -20,8 +20,11 @@ package com.xuggle.xuggler.io;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
@@ -35,8 +38,23 @@ import org.slf4j.LoggerFactory;
  * 
  * <p>
  * 
- * The {@link IURLProtocolHandler#URL_RDWR} mode is not supported, and
- * {@link #isStreamed(String, int)} will always return true.
+ * The {@link IURLProtocolHandler#URL_RDWR} mode is not supported.
+ * 
+ * </p>
+ * <p>
+ * 
+ * If the channel is a {@link FileChannel}, or on Java 7 and later any
+ * <code>java.nio.channels.SeekableByteChannel</code>, the handler can
+ * {@link #seek(long, int)} and {@link #isStreamed(String, int)} returns
+ * false, so formats such as MP4 and MOV that need to jump around the
+ * file can be read and written.  Otherwise the channel is treated as a
+ * stream.
+ * 
+ * </p>
+ * <p>
+ * 
+ * Reads and writes go straight between the channel and the byte array
+ * Xuggler passes in, without copying through a temporary buffer.
  * 
  * </p>
  * 
@@ -60,6 +78,40 @@ public class ReadableWritableChannelHandler implements IURLProtocolHandler
   private final WritableByteChannel mWriteChannel;
   private final boolean mCloseStreamOnClose;
   private Channel mOpenStream = null;
+
+  /**
+   * java.nio.channels.SeekableByteChannel and its position(),
+   * position(long) and size() methods, or null before Java 7.
+   */
+
+  private static final Class<?> SEEKABLE_CHANNEL;
+  private static final Method GET_POSITION;
+  private static final Method SET_POSITION;
+  private static final Method SIZE;
+
+  static
+  {
+    Class<?> seekable = null;
+    Method getPosition = null;
+    Method setPosition = null;
+    Method size = null;
+    try
+    {
+      seekable = Class.forName("java.nio.channels.SeekableByteChannel");
+      getPosition = seekable.getMethod("position");
+      setPosition = seekable.getMethod("position", long.class);
+      size = seekable.getMethod("size");
+    }
+    catch (Exception e)
+    {
+      // not available on this Java; only FileChannels can seek
+      seekable = null;
+    }
+    SEEKABLE_CHANNEL = seekable;
+    GET_POSITION = getPosition;
+    SET_POSITION = setPosition;
+    SIZE = size;
+  }
   
   /**
    * Create a handler that can only be opened for reading.
@@ -184,12 +236,7 @@ public class ReadableWritableChannelHandler implements IURLProtocolHandler
     try
     {
       ReadableByteChannel channel = (ReadableByteChannel) mOpenStream;
-      ByteBuffer buffer = ByteBuffer.allocate(size);
-      ret = channel.read(buffer);
-      if (ret > 0) {
-        buffer.flip();
-        buffer.get(buf, 0, ret);
-      }
+      ret = channel.read(ByteBuffer.wrap(buf, 0, size));
       return ret;
     }
     catch (IOException e)
@@ -203,12 +250,44 @@ public class ReadableWritableChannelHandler implements IURLProtocolHandler
   /**
    * {@inheritDoc}
    * 
-   * This method is not supported on this class and always return -1;
+   * Only supported if the open channel can seek; otherwise returns -1.
    */
 
   public long seek(long offset, int whence)
   {
-    return -1;
+    if (mOpenStream == null || !isSeekable(mOpenStream))
+      return -1;
+
+    try
+    {
+      final long seek;
+      if (whence == SEEK_SET)
+        seek = offset;
+      else if (whence == SEEK_CUR)
+        seek = getPosition(mOpenStream) + offset;
+      else if (whence == SEEK_END)
+        seek = getSize(mOpenStream) + offset;
+      else if (whence == SEEK_SIZE)
+        // like FileProtocolHandler, just return the size without seeking
+        return getSize(mOpenStream);
+      else
+      {
+        log.error("invalid seek value \"{}\" for channel: {}", whence,
+            mOpenStream);
+        return -1;
+      }
+      if (seek < 0)
+        return -1;
+
+      setPosition(mOpenStream, seek);
+      return seek;
+    }
+    catch (IOException e)
+    {
+      log.error("Got IO exception seeking in channel: {}; {}",
+          mOpenStream, e);
+      return -1;
+    }
   }
 
   /**
@@ -224,10 +303,20 @@ public class ReadableWritableChannelHandler implements IURLProtocolHandler
     try
     {
       WritableByteChannel channel = (WritableByteChannel) mOpenStream;
-      ByteBuffer buffer = ByteBuffer.allocate(size);
-      buffer.put(buf, 0, size);
-      buffer.flip();
-      return channel.write(buffer);
+      final ByteBuffer buffer = ByteBuffer.wrap(buf, 0, size);
+
+      // blocking channels may still write less than asked; keep going
+      // until done, or until a non-blocking channel can take no more
+
+      int written = 0;
+      while (buffer.hasRemaining())
+      {
+        final int ret = channel.write(buffer);
+        if (ret <= 0)
+          break;
+        written += ret;
+      }
+      return written;
     }
     catch (IOException e)
     {
@@ -238,12 +327,14 @@ public class ReadableWritableChannelHandler implements IURLProtocolHandler
 
   /**
    * {@inheritDoc}
-   * Always true for this class. 
+   * True unless the channel for the given mode can seek.
    */
 
   public boolean isStreamed(String url, int flags)
   {
-    return true;
+    final Channel channel = mOpenStream != null ? mOpenStream
+        : flags == URL_WRONLY_MODE ? mWriteChannel : mReadChannel;
+    return channel == null || !isSeekable(channel);
   }
   /**
    * Returns the channel we'd input from if asked.
@@ -281,4 +372,61 @@ public class ReadableWritableChannelHandler implements IURLProtocolHandler
     return mCloseStreamOnClose;
   }
 
+  /**
+   * Can a channel seek?
+   * 
+   * @param channel the channel
+   * @return true if it is a {@link FileChannel} or a
+   *   <code>SeekableByteChannel</code>
+   */
+  static boolean isSeekable(Channel channel)
+  {
+    return channel instanceof FileChannel
+        || (SEEKABLE_CHANNEL != null && SEEKABLE_CHANNEL.isInstance(channel));
+  }
+
+  private static long getPosition(Channel channel) throws IOException
+  {
+    if (channel instanceof FileChannel)
+      return ((FileChannel) channel).position();
+    return (Long) invoke(GET_POSITION, channel);
+  }
+
+  private static void setPosition(Channel channel, long position)
+      throws IOException
+  {
+    if (channel instanceof FileChannel)
+      ((FileChannel) channel).position(position);
+    else
+      invoke(SET_POSITION, channel, position);
+  }
+
+  private static long getSize(Channel channel) throws IOException
+  {
+    if (channel instanceof FileChannel)
+      return ((FileChannel) channel).size();
+    return (Long) invoke(SIZE, channel);
+  }
+
+  private static Object invoke(Method method, Channel channel,
+      Object... args) throws IOException
+  {
+    try
+    {
+      return method.invoke(channel, args);
+    }
+    catch (InvocationTargetException e)
+    {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+    catch (IllegalAccessException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
 }
\ No newline at end of file
@@ -52,6 +52,8 @@ public class URLProtocolManager
 
   public static final String DEFAULT_PROTOCOL = "xugglerfile";
   public static final String NULL_PROTOCOL = "xugglernull";
+  public static final String MAPPED_FILE_PROTOCOL = "xugglermmap";
+  public static final String PIPE_PROTOCOL = "xugglerpipe";
   
   private static final URLProtocolManager sManager = new URLProtocolManager();
 
@@ -82,6 +84,11 @@ public class URLProtocolManager
     registerFactory(DEFAULT_PROTOCOL, new FileProtocolHandlerFactory());
     // And the NULL protocols
     registerFactory(NULL_PROTOCOL, new NullProtocolHandlerFactory());        
+    // And memory mapped files
+    registerFactory(MAPPED_FILE_PROTOCOL,
+        new MappedFileProtocolHandlerFactory());
+    // And in-process pipes
+    registerFactory(PIPE_PROTOCOL, new PipeProtocolHandlerFactory());
   }
 
   /**
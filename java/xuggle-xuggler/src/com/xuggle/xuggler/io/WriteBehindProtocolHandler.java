@@ -0,0 +1,563 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link IURLProtocolHandler} that writes to another handler on a
+ * background thread.
+ * 
+ * <p>
+ * 
+ * Every write a muxer makes normally blocks the encoding thread until the
+ * underlying file or stream has taken it.  When opened with
+ * {@link IURLProtocolHandler#URL_WRONLY_MODE}, this handler instead copies
+ * each write into a buffer of {@link #getBufferSize()} bytes and returns.
+ * Full buffers are written to the wrapped handler by a dedicated thread,
+ * so the muxer's many small writes reach it as a few large ones.  At most
+ * {@link #getMaxBuffers()} buffers are used, and reused; once they are
+ * all full, writes wait for the thread to catch up.
+ * 
+ * </p>
+ * <p>
+ * 
+ * Muxers that go back to rewrite headers, such as MP4's moov atom or
+ * FLV's duration, work as they should: any seek that moves waits until
+ * everything written so far has reached the wrapped handler, and then
+ * seeks it.  Asking for the current position doesn't wait.  Errors
+ * writing to the wrapped handler are reported by the next write, seek or
+ * close.
+ * 
+ * </p>
+ * <p>
+ * 
+ * In any other mode, all calls go straight to the wrapped handler.  For
+ * example, to write a file without blocking the encoder on the disk:
+ * 
+ * </p>
+ * 
+ * <pre>
+ * IMediaWriter writer = ToolFactory.makeWriter(XugglerIO.map(
+ *   &quot;out.mp4&quot;, new WriteBehindProtocolHandler(
+ *     new FileProtocolHandler(&quot;out.mp4&quot;))));
+ * </pre>
+ */
+public class WriteBehindProtocolHandler implements IURLProtocolHandler
+{
+  private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  /**
+   * The default size of a buffer: 256 kilobytes.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+  /**
+   * The default number of buffers.
+   */
+  public static final int DEFAULT_MAX_BUFFERS = 8;
+
+  private final IURLProtocolHandler mHandler;
+  private final int mBufferSize;
+
+  // full buffers waiting to be written, as a ring, and the one the I/O
+  // thread is writing
+
+  private final byte[][] mQueue;
+  private final int[] mQueueLengths;
+  private int mQueueHead;
+  private int mQueueCount;
+  private boolean mWriting;
+
+  // buffers not in use, and the number allocated so far
+
+  private final byte[][] mFree;
+  private int mNumFree;
+  private int mNumAllocated;
+
+  // the buffer writes are copied into
+
+  private byte[] mCurrent;
+  private int mCurrentLength;
+
+  // where the next write goes in the wrapped handler
+
+  private long mPosition;
+
+  private boolean mError;
+  private boolean mClosed = true;
+  private Thread mThread;
+
+  private final ReentrantLock mLock = new ReentrantLock();
+  private final Condition mNotEmpty = mLock.newCondition();
+  private final Condition mDone = mLock.newCondition();
+
+  // metrics
+
+  private long mBytesWritten;
+  private long mWrites;
+  private long mStalls;
+  private long mStallNanos;
+
+  /**
+   * Create a handler that uses up to {@link #DEFAULT_MAX_BUFFERS} buffers
+   * of {@link #DEFAULT_BUFFER_SIZE} bytes.
+   * @param handler the handler to write to
+   */
+  public WriteBehindProtocolHandler(IURLProtocolHandler handler)
+  {
+    this(handler, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFERS);
+  }
+
+  /**
+   * Create a handler.
+   * @param handler the handler to write to
+   * @param bufferSize the size of each buffer, and so the largest write
+   *   made to the wrapped handler
+   * @param maxBuffers the most buffers to use; writes wait once
+   *   <code>bufferSize * maxBuffers</code> bytes are waiting to be written
+   * @throws IllegalArgumentException if the handler is null, or the buffer
+   *   size or number of buffers is not positive
+   */
+  public WriteBehindProtocolHandler(IURLProtocolHandler handler,
+      int bufferSize, int maxBuffers)
+  {
+    if (handler == null)
+      throw new IllegalArgumentException("must pass in a handler");
+    if (bufferSize <= 0)
+      throw new IllegalArgumentException("invalid buffer size: "
+          + bufferSize);
+    if (maxBuffers <= 0)
+      throw new IllegalArgumentException("invalid number of buffers: "
+          + maxBuffers);
+    mHandler = handler;
+    mBufferSize = bufferSize;
+    mQueue = new byte[maxBuffers][];
+    mQueueLengths = new int[maxBuffers];
+    mFree = new byte[maxBuffers][];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int open(String url, int flags)
+  {
+    if (mThread != null)
+      close();
+    final int retval = mHandler.open(url, flags);
+    if (retval < 0 || flags != URL_WRONLY_MODE)
+      return retval;
+
+    mLock.lock();
+    try
+    {
+      mPosition = 0;
+      mError = false;
+      mClosed = false;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+    mThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        writeBehind();
+      }
+    }, getClass().getSimpleName() + "-" + url);
+    mThread.setDaemon(true);
+    mThread.start();
+    return retval;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int read(byte[] buf, int size)
+  {
+    return mHandler.read(buf, size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int write(byte[] buf, int size)
+  {
+    if (mThread == null)
+      return mHandler.write(buf, size);
+
+    mLock.lock();
+    try
+    {
+      int written = 0;
+      while (written < size)
+      {
+        if (mError)
+          return -1;
+        if (mCurrent == null && !takeBuffer())
+          return -1;
+        final int length = Math.min(size - written,
+            mBufferSize - mCurrentLength);
+        System.arraycopy(buf, written, mCurrent, mCurrentLength, length);
+        mCurrentLength += length;
+        written += length;
+        if (mCurrentLength == mBufferSize)
+          queueCurrent();
+      }
+      mPosition += size;
+      return size;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long seek(long offset, int whence)
+  {
+    if (mThread == null)
+      return mHandler.seek(offset, whence);
+
+    mLock.lock();
+    try
+    {
+      // telling where we are needs no flush
+
+      if (whence == SEEK_CUR && offset == 0)
+        return mError ? -1 : mPosition;
+
+      if (!flush())
+        return -1;
+      final long retval = whence == SEEK_CUR
+          ? mHandler.seek(mPosition + offset, SEEK_SET)
+          : mHandler.seek(offset, whence);
+      if (retval >= 0 && whence != SEEK_SIZE)
+        mPosition = retval;
+      return retval;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean isStreamed(String url, int flags)
+  {
+    return mHandler.isStreamed(url, flags);
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * Waits for everything written to reach the wrapped handler first.
+   */
+  public int close()
+  {
+    if (mThread == null)
+      return mHandler.close();
+
+    boolean flushed;
+    mLock.lock();
+    try
+    {
+      flushed = flush();
+      mClosed = true;
+      mNotEmpty.signalAll();
+      mThread = null;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+    final int retval = mHandler.close();
+    return flushed ? retval : -1;
+  }
+
+  /**
+   * Get the handler this handler writes to.
+   * @return the handler
+   */
+  public IURLProtocolHandler getHandler()
+  {
+    return mHandler;
+  }
+
+  /**
+   * Get the size of each buffer.
+   * @return the buffer size
+   */
+  public int getBufferSize()
+  {
+    return mBufferSize;
+  }
+
+  /**
+   * Get the most buffers this handler uses.
+   * @return the number of buffers
+   */
+  public int getMaxBuffers()
+  {
+    return mQueue.length;
+  }
+
+  /**
+   * Get the number of bytes written to the wrapped handler.
+   * @return the number of bytes
+   */
+  public long getBytesWritten()
+  {
+    mLock.lock();
+    try
+    {
+      return mBytesWritten;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of writes made to the wrapped handler.
+   * @return the number of writes
+   */
+  public long getWrites()
+  {
+    mLock.lock();
+    try
+    {
+      return mWrites;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of times a write or seek had to wait for the I/O
+   * thread.
+   * @return the number of stalls
+   */
+  public long getStalls()
+  {
+    mLock.lock();
+    try
+    {
+      return mStalls;
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Get how long writes and seeks have waited for the I/O thread in total.
+   * @param unit the unit to return the time in
+   * @return the time
+   */
+  public long getStallTime(TimeUnit unit)
+  {
+    mLock.lock();
+    try
+    {
+      return unit.convert(mStallNanos, TimeUnit.NANOSECONDS);
+    }
+    finally
+    {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String toString()
+  {
+    return getClass().getName() + "[handler=" + mHandler + ";writes="
+        + getWrites() + ";stalls=" + getStalls() + "]";
+  }
+
+  /**
+   * Get a buffer to copy writes into, waiting for one to be written if
+   * they are all in use.  Called with mLock held.
+   * @return false if the I/O thread failed while waiting
+   */
+  private boolean takeBuffer()
+  {
+    if (mNumFree == 0 && mNumAllocated == mQueue.length)
+    {
+      final long start = System.nanoTime();
+      while (mNumFree == 0 && !mError)
+        mDone.awaitUninterruptibly();
+      mStallNanos += System.nanoTime() - start;
+      mStalls++;
+      if (mError)
+        return false;
+    }
+    if (mNumFree > 0)
+      mCurrent = mFree[--mNumFree];
+    else
+    {
+      mCurrent = new byte[mBufferSize];
+      mNumAllocated++;
+    }
+    mCurrentLength = 0;
+    return true;
+  }
+
+  /**
+   * Hand the current buffer to the I/O thread.  Called with mLock held.
+   */
+  private void queueCurrent()
+  {
+    mQueue[(mQueueHead + mQueueCount) % mQueue.length] = mCurrent;
+    mQueueLengths[(mQueueHead + mQueueCount) % mQueue.length] =
+      mCurrentLength;
+    mQueueCount++;
+    mCurrent = null;
+    mCurrentLength = 0;
+    mNotEmpty.signal();
+  }
+
+  /**
+   * Wait until everything written has reached the wrapped handler.
+   * Called with mLock held.
+   * @return false if anything could not be written
+   */
+  private boolean flush()
+  {
+    if (mCurrent != null && mCurrentLength > 0)
+      queueCurrent();
+    if (mQueueCount > 0 || mWriting)
+    {
+      final long start = System.nanoTime();
+      while ((mQueueCount > 0 || mWriting) && !mError)
+        mDone.awaitUninterruptibly();
+      mStallNanos += System.nanoTime() - start;
+      mStalls++;
+    }
+    return !mError;
+  }
+
+  /**
+   * The I/O thread: write queued buffers until closed.
+   */
+  private void writeBehind()
+  {
+    while (true)
+    {
+      final byte[] buffer;
+      final int length;
+      mLock.lock();
+      try
+      {
+        while (mQueueCount == 0 && !mClosed)
+          mNotEmpty.awaitUninterruptibly();
+        if (mQueueCount == 0)
+          return;
+        buffer = mQueue[mQueueHead];
+        length = mQueueLengths[mQueueHead];
+        mQueue[mQueueHead] = null;
+        mQueueHead = (mQueueHead + 1) % mQueue.length;
+        mQueueCount--;
+        mWriting = true;
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+
+      // the wrapped handler may take less than asked
+
+      int written = 0;
+      int writes = 0;
+      try
+      {
+        while (written < length)
+        {
+          final int ret = mHandler.write(written == 0 ? buffer
+              : copyTail(buffer, written, length), length - written);
+          writes++;
+          if (ret <= 0)
+            break;
+          written += ret;
+        }
+      }
+      catch (RuntimeException e)
+      {
+        log.error("error writing to: {}; {}", mHandler, e);
+      }
+
+      mLock.lock();
+      try
+      {
+        if (written < length)
+        {
+          log.error("could not write {} bytes to: {}", length - written,
+              mHandler);
+          mError = true;
+        }
+        mBytesWritten += written;
+        mWrites += writes;
+        mFree[mNumFree++] = buffer;
+
+        // nothing after a failed write can be written where it belongs
+        while (mError && mQueueCount > 0)
+        {
+          mFree[mNumFree++] = mQueue[mQueueHead];
+          mQueue[mQueueHead] = null;
+          mQueueHead = (mQueueHead + 1) % mQueue.length;
+          mQueueCount--;
+        }
+        mWriting = false;
+        mDone.signalAll();
+      }
+      finally
+      {
+        mLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * The wrapped handler only takes whole arrays from the start, so copy
+   * what is left of a partly written buffer to the start of a new one.
+   */
+  private static byte[] copyTail(byte[] buffer, int from, int to)
+  {
+    final byte[] tail = new byte[to - from];
+    System.arraycopy(buffer, from, tail, 0, tail.length);
+    return tail;
+  }
+}
@@ -476,7 +476,9 @@ public class XugglerIO implements IURLProtocolHandlerFactory
 
   /**
    * Maps an {@link ReadableByteChannel} or {@link WritableByteChannel} to a URL
-   * for use by Xuggler.
+   * for use by Xuggler.  If the channels can seek, such as a
+   * {@link java.nio.channels.FileChannel}, so can Xuggler; see
+   * {@link ReadableWritableChannelHandler}.
    * 
    * @param url the url
    * @param in the input to use
@@ -542,6 +544,48 @@ public class XugglerIO implements IURLProtocolHandlerFactory
     return DEFAULT_PROTOCOL + ":" + URLProtocolManager.getResourceFromURL(url);
   }
 
+  /**
+   * Maps a {@link IURLProtocolHandler} to a url that Xuggler can open,
+   * optionally reading ahead of Xuggler on a background thread.
+   * 
+   * {@link #unmap(String)} will be called automatically after this URL is
+   * opened.
+   * 
+   * @param handler the handler
+   * @param prefetch if true, wrap the handler in a
+   *        {@link PrefetchingProtocolHandler} with its default settings
+   * @return a string that is suitable for passing to {@link IContainer}'s open
+   *         methods.
+   */
+  public static String map(IURLProtocolHandler handler, boolean prefetch)
+  {
+    return map(generateUniqueName(handler), handler,
+        DEFAULT_UNMAP_URL_ON_OPEN, prefetch);
+  }
+
+  /**
+   * Maps a {@link IURLProtocolHandler} to a url that Xuggler can open,
+   * optionally reading ahead of Xuggler on a background thread.
+   * 
+   * @param url the unique string to use for the mapping.
+   * @param handler the handler
+   * @param unmapUrlOnOpen if true, when Xuggler opens the
+   *        {@link IURLProtocolHandler}, {@link #unmap(String)} will be called
+   *        automatically.
+   * @param prefetch if true, wrap the handler in a
+   *        {@link PrefetchingProtocolHandler} with its default settings
+   * @return a string that is suitable for passing to {@link IContainer}'s open
+   *         methods.
+   */
+  public static String map(String url, IURLProtocolHandler handler,
+      boolean unmapUrlOnOpen, boolean prefetch)
+  {
+    if (prefetch && handler != null
+        && !(handler instanceof PrefetchingProtocolHandler))
+      handler = new PrefetchingProtocolHandler(handler);
+    return map(url, handler, unmapUrlOnOpen);
+  }
+
   /**
    * Undoes a URL to {@link InputStream} or {@link OutputStream} mapping.
    * Forwards to {@link #getFactory()}.{@link #unmapIO(String)}
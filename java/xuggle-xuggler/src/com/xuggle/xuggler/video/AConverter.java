@@ -20,6 +20,8 @@
 package com.xuggle.xuggler.video;
 
 import java.awt.image.BufferedImage;
+
+import com.xuggle.ferry.FerryScope;
 import com.xuggle.xuggler.IVideoPicture;
 import com.xuggle.xuggler.IVideoResampler;
 import com.xuggle.xuggler.IPixelFormat;
@@ -73,6 +75,28 @@ abstract public class AConverter implements IConverter
 
   final private String mDescription;
 
+  // re-sampled picture reused by toImage, may be null
+
+  private IVideoPicture mToImagePicture = null;
+
+  // picture of the required type reused by toPicture, may be null
+
+  private IVideoPicture mToPicturePicture = null;
+
+  // image reused by toImage when no target image is passed, may be null
+
+  private BufferedImage mImage = null;
+
+  // the most bands to cut pictures into when re-sampling
+
+  private int mNumBands = 1;
+
+  // banded re-samplers used instead of the whole picture re-samplers
+  // when there is more than one band, may be null
+
+  private BandedResampler mToImageBands = null;
+  private BandedResampler mToPictureBands = null;
+
   /** 
    * Construct an abstract Converter.  This will create a
    * {@link IVideoResampler}
@@ -127,18 +151,18 @@ abstract public class AConverter implements IConverter
           "Color space conversion is not supported by this version of" +
           "Xuggler.  Recompile Xuggler with the GPL option enabled.");
 
-      mToImageResampler = IVideoResampler.make(
+      mToImageResampler = keep(IVideoResampler.make(
         imageWidth, imageHeight, requiredPictureType,
-        mPictureWidth, mPictureHeight, pictureType);
+        mPictureWidth, mPictureHeight, pictureType));
       
       if (mToImageResampler == null)
         throw new RuntimeException(
           "1 Could not create could resampler to translate from " + 
           pictureType + " to " + requiredPictureType + ".");
 
-      mToPictureResampler = IVideoResampler.make(
+      mToPictureResampler = keep(IVideoResampler.make(
         mPictureWidth, mPictureHeight, pictureType,
-        imageWidth, imageHeight, requiredPictureType);
+        imageWidth, imageHeight, requiredPictureType));
       
       if (mToPictureResampler == null)
         throw new RuntimeException(
@@ -233,6 +257,230 @@ abstract public class AConverter implements IConverter
     return picture2;
   }
 
+  /** 
+   * Re-sample a picture into an existing picture.
+   * 
+   * @param picture1 the picture to re-sample
+   * @param resampler the picture re-samper to use
+   * @param picture2 the picture to re-sample into, which must be of
+   *        the re-sampler's output type and size
+   *
+   * @return picture2
+   *
+   * @throws RuntimeException if could not re-sample picture
+   **/
+
+  protected static IVideoPicture resample(IVideoPicture picture1,
+    IVideoResampler resampler, IVideoPicture picture2)
+  {
+    // resample
+
+    if (resampler.resample(picture2, picture1) < 0)
+      throw new RuntimeException(
+        "could not resample from " + resampler.getInputPixelFormat() +
+        " to " + resampler.getOutputPixelFormat() + 
+        " for picture of type " + picture1.getPixelType());
+
+    // test that it worked
+
+    if (picture2.getPixelType() != resampler.getOutputPixelFormat() 
+      || !picture2.isComplete())
+    {
+      throw new RuntimeException(
+        "did not resample from " + resampler.getInputPixelFormat() +
+        " to " + resampler.getOutputPixelFormat() +
+        " for picture of type " + picture1.getPixelType());
+    }
+
+    return picture2;
+  }
+
+  /**
+   * Re-sample a picture for conversion to an image.  The result is
+   * written into a picture owned by this converter and reused on every
+   * call, so it must not be deleted or held past the next conversion.
+   * 
+   * @param picture the picture to re-sample
+   *
+   * @return the re-sampled picture.
+   *
+   * @throws RuntimeException if could not re-sample picture
+   */
+
+  protected IVideoPicture resampleToImage(IVideoPicture picture)
+  {
+    if (mToImagePicture == null)
+      mToImagePicture = keep(IVideoPicture.make(
+        mToImageResampler.getOutputPixelFormat(),
+        mToImageResampler.getOutputWidth(),
+        mToImageResampler.getOutputHeight()));
+
+    // cut the picture into bands if asked to and if we can
+
+    if (mToImageBands == null && isBandable())
+      mToImageBands = new BandedResampler(getPictureType(),
+        getRequiredPictureType(), mPictureWidth, mPictureHeight,
+        BandedResampler.getNumBands(getPictureType(), 
+          getRequiredPictureType(), mPictureHeight, mNumBands));
+    if (mToImageBands != null 
+      && mToImageBands.resample(picture, mToImagePicture) != null)
+      return mToImagePicture;
+
+    return resample(picture, mToImageResampler, mToImagePicture);
+  }
+
+  /**
+   * Re-sample a picture of the {@link #getRequiredPictureType()} type
+   * into a picture to return from {@link #toPicture(BufferedImage, long,
+   * IVideoPicture)}.
+   * 
+   * @param picture the picture to re-sample
+   * @param target the picture to re-sample into, or null to create one
+   *
+   * @return the re-sampled picture.
+   *
+   * @throws RuntimeException if could not re-sample picture
+   */
+
+  protected IVideoPicture resampleToPicture(IVideoPicture picture,
+    IVideoPicture target)
+  {
+    if (target == null)
+      target = IVideoPicture.make(getPictureType(), 
+        mToPictureResampler.getOutputWidth(),
+        mToPictureResampler.getOutputHeight());
+
+    // cut the picture into bands if asked to and if we can
+
+    if (mToPictureBands == null && isBandable())
+      mToPictureBands = new BandedResampler(getRequiredPictureType(),
+        getPictureType(), mPictureWidth, mPictureHeight,
+        BandedResampler.getNumBands(getRequiredPictureType(), 
+          getPictureType(), mPictureHeight, mNumBands));
+    if (mToPictureBands != null 
+      && mToPictureBands.resample(picture, target) != null)
+      return target;
+
+    return resample(picture, mToPictureResampler, target);
+  }
+
+  /** {@inheritDoc} */
+
+  public void setNumBands(int numBands)
+  {
+    if (numBands < 1)
+      throw new IllegalArgumentException("numBands must be at least 1");
+    mNumBands = numBands;
+    deleteBands();
+  }
+
+  /** {@inheritDoc} */
+
+  public int getNumBands()
+  {
+    return mNumBands;
+  }
+
+  /**
+   * Test if re-sampling can be split into bands: more than one band has
+   * been asked for, the re-sample only changes color space, and the
+   * picture is tall enough.
+   */
+
+  private boolean isBandable()
+  {
+    return mNumBands > 1 && willResample()
+      && mPictureWidth == mImageWidth
+      && mPictureHeight == mImageHeight
+      && BandedResampler.getNumBands(getPictureType(),
+        getRequiredPictureType(), mPictureHeight, mNumBands) > 1;
+  }
+
+  private void deleteBands()
+  {
+    if (mToImageBands != null)
+      mToImageBands.delete();
+    mToImageBands = null;
+    if (mToPictureBands != null)
+      mToPictureBands.delete();
+    mToPictureBands = null;
+  }
+
+  /**
+   * Get a picture of the {@link #getRequiredPictureType()} type which
+   * {@link #toPicture(BufferedImage, long, IVideoPicture)} can copy an
+   * image into before re-sampling it.  The picture is owned by this
+   * converter and reused on every call.
+   * 
+   * @param width the width of the image
+   * @param height the height of the image
+   *
+   * @return the picture.
+   */
+
+  protected IVideoPicture getToPicturePicture(int width, int height)
+  {
+    if (mToPicturePicture != null && 
+      (mToPicturePicture.getWidth() != width
+        || mToPicturePicture.getHeight() != height))
+    {
+      mToPicturePicture.delete();
+      mToPicturePicture = null;
+    }
+    if (mToPicturePicture == null)
+      mToPicturePicture = keep(IVideoPicture.make(
+        getRequiredPictureType(), width, height));
+    return mToPicturePicture;
+  }
+
+  /**
+   * Get the image {@link #toImage(IVideoPicture, BufferedImage)} writes
+   * into when no target image is passed.  The image is reused for as
+   * long as the picture size doesn't change.
+   * 
+   * @param width the width of the image
+   * @param height the height of the image
+   *
+   * @return the image.
+   */
+
+  protected BufferedImage getCachedImage(int width, int height)
+  {
+    if (mImage == null 
+      || mImage.getWidth() != width
+      || mImage.getHeight() != height)
+      mImage = createImage(width, height);
+    return mImage;
+  }
+
+  /**
+   * Create a new image of the {@link #getImageType()} type with the
+   * memory layout this converter copies pictures into.
+   * 
+   * @param width the width of the image
+   * @param height the height of the image
+   *
+   * @return the new image.
+   */
+
+  protected BufferedImage createImage(int width, int height)
+  {
+    return new BufferedImage(width, height, getImageType());
+  }
+
+  /**
+   * Make sure an open {@link FerryScope} won't delete a Ferry object a
+   * converter keeps between calls.
+   */
+
+  static <T> T keep(T object)
+  {
+    FerryScope scope = FerryScope.getCurrentScope();
+    if (scope != null)
+      scope.escape(object);
+    return object;
+  }
+
   /** 
    * Test that the passed image is valid and conforms to the
    * converters specifications.
@@ -262,6 +510,61 @@ abstract public class AConverter implements IConverter
         getImageType() + ".");
   }
 
+  /** 
+   * Test that an image passed to be written into is valid and conforms
+   * to the converters specifications.
+   *
+   * @param image the image to test
+   * @param width the width the image must have
+   * @param height the height the image must have
+   *
+   * @throws IllegalArgumentException if the passed {@link
+   *         BufferedImage} is NULL, is not the correct type, or is not
+   *         the correct size.
+   */
+
+  protected void validateTargetImage(BufferedImage image, int width,
+    int height)
+  {
+    validateImage(image);
+
+    // if the image is not the correct size, throw up
+
+    if (image.getWidth() != width || image.getHeight() != height)
+      throw new IllegalArgumentException(
+        "The passed image is [" + image.getWidth() + "x" + 
+        image.getHeight() + "] but is required to be [" + width + 
+        "x" + height + "].");
+  }
+
+  /** 
+   * Test that a picture passed to be written into conforms to the
+   * converters specifications.
+   *
+   * @param picture the picture to test
+   * @param width the width the picture must have
+   * @param height the height the picture must have
+   *
+   * @throws IllegalArgumentException if the passed {@link
+   *         IVideoPicture} is not of type {@link #getPictureType()} or
+   *         is not the correct size.
+   */
+
+  protected void validateTargetPicture(IVideoPicture picture, int width,
+    int height)
+  {
+    if (picture.getPixelType() != getPictureType())
+      throw new IllegalArgumentException(
+        "Picture is of type: " + picture.getPixelType() + 
+        ", but must be " + getPictureType() + ".");
+
+    if (picture.getWidth() != width || picture.getHeight() != height)
+      throw new IllegalArgumentException(
+        "The passed picture is [" + picture.getWidth() + "x" + 
+        picture.getHeight() + "] but is required to be [" + width + 
+        "x" + height + "].");
+  }
+
   /** 
    * Test that the passed picture is valid and conforms to the
    * converters specifications.
@@ -303,6 +606,27 @@ abstract public class AConverter implements IConverter
 
   /** {@inheritDoc} */
 
+  public IVideoPicture toPicture(BufferedImage image, long timestamp)
+  {
+    return toPicture(image, timestamp, null);
+  }
+
+  /** {@inheritDoc} */
+
+  public BufferedImage toImage(IVideoPicture picture)
+  {
+    // validate first so a bad picture doesn't cost an allocation
+
+    validatePicture(picture);
+    final int w = willResample()
+      ? mToImageResampler.getOutputWidth() : picture.getWidth();
+    final int h = willResample()
+      ? mToImageResampler.getOutputHeight() : picture.getHeight();
+    return toImage(picture, createImage(w, h));
+  }
+
+  /** {@inheritDoc} */
+
   public String getDescription()
   {
     return mDescription;
@@ -317,6 +641,14 @@ abstract public class AConverter implements IConverter
 
   public void close()
   {
+    if (mToImagePicture != null)
+      mToImagePicture.delete();
+    mToImagePicture = null;
+    if (mToPicturePicture != null)
+      mToPicturePicture.delete();
+    mToPicturePicture = null;
+    mImage = null;
+    deleteBands();
     if (mToPictureResampler != null)
       mToPictureResampler.delete();
     mToPictureResampler = null;
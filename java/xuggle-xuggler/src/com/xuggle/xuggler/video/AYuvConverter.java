@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.xuggle.ferry.JNIReference;
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+/** An abstract converter which translates {@link
+ * IPixelFormat.Type#YUV420P} and {@link IPixelFormat.Type#YUVJ420P}
+ * pictures in Java, from which converters for specific image types
+ * are derived to pack and unpack a row of pixels.
+ *
+ * <p> Those pictures are read from and written to directly, a row at a
+ * time, with no intermediate picture and no need for a version of
+ * Xuggler that supports color space conversion.  Other picture types,
+ * and any conversion which resizes, are handed to the re-sampling
+ * converter for the image type.  </p>
+ */
+
+abstract public class AYuvConverter extends AConverter
+{
+  // the matrix YUV is translated with
+
+  private YuvMatrix mMatrix = YuvMatrix.BT601;
+
+  // translates pixels in Java, or null if this converter re-samples
+
+  private YuvPixels mPixels;
+
+  // the converter which re-samples, or null if this converter
+  // translates in Java
+
+  private final IConverter mFallback;
+
+  /** Construct a converter which translates in Java if it can.
+   *
+   * @param pictureType the picture type recognized by this converter
+   * @param imageType the recognized {@link BufferedImage} type
+   * @param pictureWidth the width of pictures
+   * @param pictureHeight the height of pictures
+   * @param imageWidth the width of images
+   * @param imageHeight the height of images
+   */
+
+  AYuvConverter(IPixelFormat.Type pictureType, int imageType,
+    int pictureWidth, int pictureHeight,
+    int imageWidth, int imageHeight)
+  {
+    // this converter never re-samples itself, the fallback does
+
+    super(pictureType, pictureType, imageType, pictureWidth, 
+      pictureHeight, pictureWidth, pictureHeight);
+    if (YuvPixels.canConvert(pictureType, pictureWidth, pictureHeight,
+        imageWidth, imageHeight))
+    {
+      mPixels = new YuvPixels(mMatrix, 
+        pictureType == IPixelFormat.Type.YUVJ420P);
+      mFallback = null;
+    }
+    else
+      mFallback = createFallback(pictureType, pictureWidth, 
+        pictureHeight, imageWidth, imageHeight);
+  }
+
+  /** Create the converter which re-samples pictures this converter
+   * can't translate in Java.  Called from the constructor.
+   */
+
+  abstract IConverter createFallback(IPixelFormat.Type pictureType, 
+    int pictureWidth, int pictureHeight,
+    int imageWidth, int imageHeight);
+
+  /** Get at the pixels of an image, which has been validated. */
+
+  abstract Object getImagePixels(BufferedImage image);
+
+  /** Pack a decoded row of red, green and blue samples, 0 to 255, into
+   * row y of an image's pixels.
+   */
+
+  abstract void packRow(Object pixels, int y, int w,
+    int[] r, int[] g, int[] b);
+
+  /** Unpack row y of an image's pixels into red, green and blue
+   * samples, 0 to 255.
+   */
+
+  abstract void unpackRow(Object pixels, int y, int w,
+    int[] r, int[] g, int[] b);
+
+  /** Set the matrix used to translate between YUV and RGB.  The
+   * default is {@link YuvMatrix#BT601}, which is what FFmpeg's
+   * re-sampler uses.
+   *
+   * @param matrix the matrix
+   *
+   * @throws IllegalArgumentException if matrix is NULL.
+   */
+
+  public void setMatrix(YuvMatrix matrix)
+  {
+    if (matrix == null)
+      throw new IllegalArgumentException("The matrix is NULL.");
+    mMatrix = matrix;
+    if (mPixels != null && mPixels.getMatrix() != matrix)
+      mPixels = new YuvPixels(matrix, mPixels.isFullRange());
+  }
+
+  /** Get the matrix used to translate between YUV and RGB.
+   *
+   * @return the matrix.
+   */
+
+  public YuvMatrix getMatrix()
+  {
+    return mMatrix;
+  }
+
+  /** {@inheritDoc} */
+
+  public boolean willResample()
+  {
+    return mFallback != null && mFallback.willResample();
+  }
+
+  /** {@inheritDoc} */
+
+  public IVideoPicture toPicture(BufferedImage image, long timestamp,
+    IVideoPicture picture)
+  {
+    if (mFallback != null)
+      return mFallback.toPicture(image, timestamp, picture);
+
+    // validate the image and get at its pixels
+
+    validateImage(image);
+    final int w = image.getWidth();
+    final int h = image.getHeight();
+    final Object pixels = getImagePixels(image);
+
+    // establish the picture to write into
+
+    if (picture != null)
+      validateTargetPicture(picture, w, h);
+    else
+      picture = IVideoPicture.make(getPictureType(), w, h);
+    picture.setComplete(true, getPictureType(), w, h, timestamp);
+
+    final AtomicReference<JNIReference> ref =
+      new AtomicReference<JNIReference>(null);
+    try
+    {
+      final ByteBuffer buffer = picture.getByteBuffer(ref).duplicate();
+      final PlaneLayout layout = getLayout(picture);
+      final int[][] rgb = mPixels.getRgbRows(w);
+      for(int y = 0; y < h; y += 2)
+      {
+        // repeat the last row if the height is odd
+
+        unpackRow(pixels, y, w, rgb[0], rgb[1], rgb[2]);
+        unpackRow(pixels, Math.min(y + 1, h - 1), w, rgb[3], rgb[4],
+          rgb[5]);
+        mPixels.encodeRows(buffer, layout, y, w, h, rgb);
+      }
+      return picture;
+    }
+    finally
+    {
+      if (ref.get() != null)
+        ref.get().delete();
+    }
+  }
+
+  /** {@inheritDoc} */
+
+  public BufferedImage toImage(IVideoPicture picture)
+  {
+    if (mFallback != null)
+      return mFallback.toImage(picture);
+    return super.toImage(picture);
+  }
+
+  /** {@inheritDoc} */
+
+  public BufferedImage toImage(IVideoPicture picture, BufferedImage image)
+  {
+    if (mFallback != null)
+      return mFallback.toImage(picture, image);
+
+    // test that the picture is valid
+
+    validatePicture(picture);
+    final int w = picture.getWidth();
+    final int h = picture.getHeight();
+
+    // get the image to write into
+
+    if (image == null)
+      image = getCachedImage(w, h);
+    else
+      validateTargetImage(image, w, h);
+    final Object pixels = getImagePixels(image);
+
+    final AtomicReference<JNIReference> ref =
+      new AtomicReference<JNIReference>(null);
+    try
+    {
+      final ByteBuffer buffer = picture.getByteBuffer(ref).duplicate();
+      final PlaneLayout layout = getLayout(picture);
+      for(int y = 0; y < h; y++)
+      {
+        final int[][] rgb = mPixels.decodeRow(buffer, layout, y, w);
+        packRow(pixels, y, w, rgb[0], rgb[1], rgb[2]);
+      }
+      return image;
+    }
+    finally
+    {
+      if (ref.get() != null)
+        ref.get().delete();
+    }
+  }
+
+  /** {@inheritDoc} */
+
+  public void setNumBands(int numBands)
+  {
+    if (mFallback != null)
+      mFallback.setNumBands(numBands);
+    else
+      super.setNumBands(numBands);
+  }
+
+  /** {@inheritDoc} */
+
+  public int getNumBands()
+  {
+    return mFallback != null ? mFallback.getNumBands() 
+      : super.getNumBands();
+  }
+
+  /** {@inheritDoc} */
+
+  public String getDescription()
+  {
+    return mFallback != null ? mFallback.getDescription() 
+      : super.getDescription() + 
+      "Pictures are translated in Java with the " + mMatrix + " matrix.";
+  }
+
+  public void delete()
+  {
+    if (mFallback != null)
+      mFallback.delete();
+    super.close();
+  }
+
+  private static PlaneLayout getLayout(IVideoPicture picture)
+  {
+    final PlaneLayout layout = PlaneLayout.of(picture);
+    if (layout == null)
+      throw new IllegalArgumentException(
+        "The planes of the picture are not laid out as expected.");
+    return layout;
+  }
+}
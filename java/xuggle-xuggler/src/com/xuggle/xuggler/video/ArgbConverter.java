@@ -27,15 +27,13 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBuffer;
-import java.awt.image.ColorModel;
-import java.awt.image.DirectColorModel;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
-import java.awt.image.Raster;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReference;
 
 /** A converter to translate {@link IVideoPicture}s to and from
@@ -47,11 +45,6 @@ public class ArgbConverter extends AConverter
     
   private static final int[] mBitMasks = {0xff0000, 0xff00, 0xff, 0xff000000};
 
-  // the ARGB color model
-
-  private static final ColorModel mColorModel = new DirectColorModel(
-    32, 0xff0000, 0xff00, 0xff, 0xff000000);
-
   /** Construct as converter to translate {@link IVideoPicture}s to and
    * from {@link BufferedImage}s of type {@link
    * BufferedImage#TYPE_INT_ARGB}.
@@ -74,7 +67,8 @@ public class ArgbConverter extends AConverter
 
   /** {@inheritDoc} */
 
-  public IVideoPicture toPicture(BufferedImage image, long timestamp)
+  public IVideoPicture toPicture(BufferedImage image, long timestamp,
+    IVideoPicture picture)
   {
     // validate the image
 
@@ -109,16 +103,25 @@ public class ArgbConverter extends AConverter
         imageBuffer.getDataType());
     }
 
-    // create the video picture and get it's underling buffer
+    // establish the picture the image pixels are copied into; when
+    // re-sampling that's a picture this converter reuses, otherwise
+    // it's the result
+
+    final int w = willResample() ? mPictureWidth : image.getWidth();
+    final int h = willResample() ? mPictureHeight : image.getHeight();
+    if (picture != null)
+      validateTargetPicture(picture, w, h);
 
     final AtomicReference<JNIReference> ref = new AtomicReference<JNIReference>(null);
-    IVideoPicture resamplePicture = null;
     try
     {
-      IVideoPicture picture = IVideoPicture.make(getRequiredPictureType(), image.getWidth(),
-          image.getHeight());
+      IVideoPicture argbPicture = willResample()
+        ? getToPicturePicture(image.getWidth(), image.getHeight())
+        : (picture != null
+          ? picture
+          : IVideoPicture.make(getRequiredPictureType(), w, h));
 
-      ByteBuffer pictureByteBuffer = picture.getByteBuffer(ref);
+      ByteBuffer pictureByteBuffer = argbPicture.getByteBuffer(ref);
 
       if (imageInts != null)
       {
@@ -131,20 +134,17 @@ public class ArgbConverter extends AConverter
         pictureByteBuffer.put(imageBytes);
       }
       pictureByteBuffer = null;
-      picture.setComplete(true, getRequiredPictureType(), image.getWidth(),
-          image.getHeight(), timestamp);
+      argbPicture.setComplete(true, getRequiredPictureType(),
+        image.getWidth(), image.getHeight(), timestamp);
 
       // resample as needed
-      if (willResample()) {
-        resamplePicture = picture;
-        picture = resample(resamplePicture, mToPictureResampler);
-      }
-      return picture;
+
+      if (!willResample())
+        return argbPicture;
+      return resampleToPicture(argbPicture, picture);
     }
     finally
     {
-      if (resamplePicture != null)
-        resamplePicture.delete();
       if (ref.get() != null)
         ref.get().delete();
     }
@@ -152,7 +152,7 @@ public class ArgbConverter extends AConverter
 
   /** {@inheritDoc} */
 
-  public BufferedImage toImage(IVideoPicture picture)
+  public BufferedImage toImage(IVideoPicture picture, BufferedImage image)
   {
     // test that the picture is valid
 
@@ -160,23 +160,29 @@ public class ArgbConverter extends AConverter
 
     // resample as needed
 
-    IVideoPicture resamplePic = null;
     final AtomicReference<JNIReference> ref = 
       new AtomicReference<JNIReference>(null);
     try
     {
       if (willResample())
-      {
-        resamplePic = resample(picture, mToImageResampler);
-        picture = resamplePic;
-      }
+        picture = resampleToImage(picture);
+
       // get picture parameters
 
       final int w = picture.getWidth();
       final int h = picture.getHeight();
 
-      // make a copy of the raw bytes in the picture and convert those to
-      // integers
+      // get the image to write into, and make sure its integers are
+      // laid out the way the picture's are
+
+      if (image == null)
+        image = getCachedImage(w, h);
+      else
+        validateTargetImage(image, w, h);
+      final int[] ints = getImageInts(image);
+
+      // copy the raw bytes in the picture straight into the image's
+      // raster as integers
 
       final ByteBuffer byteBuf = picture.getByteBuffer(ref);
 
@@ -185,34 +191,52 @@ public class ArgbConverter extends AConverter
 
       byteBuf.order(ByteOrder.BIG_ENDIAN);
       final IntBuffer intBuf = byteBuf.asIntBuffer();
-      final int[] ints = new int[picture.getSize() / 4];
+      if (intBuf.remaining() < ints.length)
+        throw new IllegalArgumentException(
+          "The picture holds " + intBuf.remaining() + " pixels but a [" +
+          w + "x" + h + "] image needs " + ints.length + ".");
       intBuf.get(ints, 0, ints.length);
-
-      // create the data buffer from the ints
-
-      final DataBufferInt db = new DataBufferInt(ints, ints.length);
-
-      // create an a sample model which matches the byte layout of the
-      // image data and raster which contains the data which now can be
-      // properly interpreted
-
-      final SampleModel sm = new SinglePixelPackedSampleModel(db.getDataType(),
-          w, h, mBitMasks);
-      final WritableRaster wr = Raster.createWritableRaster(sm, db, null);
-
-      // return a new image created from the color model and raster
-
-      return new BufferedImage(mColorModel, wr, false, null);
+      return image;
     }
     finally
     {
-      if (resamplePic != null)
-        resamplePic.delete();
       if (ref.get() != null)
         ref.get().delete();
     }
   }
 
+  /**
+   * Get the integers backing an image, if they are packed the same way
+   * as a {@link IPixelFormat.Type#ARGB} picture.
+   * 
+   * @param image the image
+   *
+   * @return the integers of the image.
+   *
+   * @throws IllegalArgumentException if the image's raster does not
+   *         store tightly packed ARGB pixels, such as an image returned
+   *         by {@link BufferedImage#getSubimage}.
+   */
+
+  static int[] getImageInts(BufferedImage image)
+  {
+    final WritableRaster raster = image.getRaster();
+    final SampleModel sm = raster.getSampleModel();
+    final DataBuffer db = raster.getDataBuffer();
+    if (db instanceof DataBufferInt 
+      && db.getNumBanks() == 1
+      && db.getOffset() == 0
+      && raster.getParent() == null
+      && sm instanceof SinglePixelPackedSampleModel
+      && ((SinglePixelPackedSampleModel)sm).getScanlineStride() ==
+        image.getWidth()
+      && Arrays.equals(((SinglePixelPackedSampleModel)sm).getBitMasks(),
+        mBitMasks))
+      return ((DataBufferInt)db).getData();
+    throw new IllegalArgumentException(
+      "The passed image does not store packed ARGB integers.");
+  }
+
   public void delete()
   {
     super.close();
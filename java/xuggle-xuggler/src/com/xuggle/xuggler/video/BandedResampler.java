@@ -0,0 +1,366 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.xuggle.ferry.JNIReference;
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.IVideoResampler;
+
+/**
+ * Changes the color space of a picture by cutting it into horizontal
+ * bands and re-sampling every band on its own thread.
+ * <p>
+ * Each band has its own {@link IVideoResampler}, and is re-sampled
+ * together with {@link #BAND_OVERLAP} rows of its neighbours on either
+ * side, which are then thrown away.  So long as the re-sampler's
+ * filters reach fewer rows than that, the result is identical to
+ * re-sampling the whole picture at once.  Only pictures that are the
+ * same size in and out, and whose types {@link PlaneLayout} understands,
+ * can be banded.
+ * </p>
+ * <p>
+ * Bands run on a shared pool with one daemon thread per processor; the
+ * calling thread converts the first band itself.
+ * </p>
+ */
+
+final class BandedResampler
+{
+  /** The fewest rows worth giving a thread. */
+
+  static final int MIN_BAND_HEIGHT = 64;
+
+  /** The rows of each neighbouring band re-sampled with a band. */
+
+  static final int BAND_OVERLAP = 16;
+
+  private static ExecutorService mExecutor = null;
+
+  private final IPixelFormat.Type mInputType;
+  private final IPixelFormat.Type mOutputType;
+  private final int mWidth;
+  private final int mHeight;
+  private final Band[] mBands;
+
+  /**
+   * Get how many bands a picture can be cut into.
+   * 
+   * @param inputType the type of picture re-sampled from.
+   * @param outputType the type of picture re-sampled to.
+   * @param height the height of the pictures.
+   * @param maxBands the most bands wanted.
+   * 
+   * @return the number of bands, which is less than 2 if banding
+   *         isn't worth it or isn't possible.
+   */
+
+  static int getNumBands(IPixelFormat.Type inputType,
+    IPixelFormat.Type outputType, int height, int maxBands)
+  {
+    final int alignment = getRowAlignment(inputType, outputType);
+    if (alignment > BAND_OVERLAP || height % alignment != 0)
+      return 0;
+    return Math.min(maxBands, height / MIN_BAND_HEIGHT);
+  }
+
+  /**
+   * Create the bands and the re-samplers for them.
+   * 
+   * @param inputType the type of picture re-sampled from.
+   * @param outputType the type of picture re-sampled to.
+   * @param width the width of the pictures.
+   * @param height the height of the pictures.
+   * @param numBands the number of bands, as returned by
+   *        {@link #getNumBands}.
+   * 
+   * @throws RuntimeException if a re-sampler can't be created.
+   */
+
+  BandedResampler(IPixelFormat.Type inputType, IPixelFormat.Type outputType,
+    int width, int height, int numBands)
+  {
+    mInputType = inputType;
+    mOutputType = outputType;
+    mWidth = width;
+    mHeight = height;
+    mBands = new Band[numBands];
+
+    final int alignment = getRowAlignment(inputType, outputType);
+    try
+    {
+      for(int i = 0; i < numBands; i++)
+      {
+        final int firstRow = (int)((long)height * i / numBands)
+          / alignment * alignment;
+        final int endRow = i == numBands - 1 ? height :
+          (int)((long)height * (i + 1) / numBands) / alignment * alignment;
+        mBands[i] = new Band(firstRow, endRow);
+      }
+    }
+    catch (RuntimeException e)
+    {
+      delete();
+      throw e;
+    }
+  }
+
+  /**
+   * Re-sample a picture band by band.
+   * 
+   * @param in the picture to re-sample.
+   * @param out the picture to re-sample into, which must be made with the
+   *        output type and size.
+   * 
+   * @return out, or null if either picture's layout isn't understood and
+   *         so the caller must re-sample it whole.
+   * 
+   * @throws RuntimeException if a band could not be re-sampled.
+   */
+
+  IVideoPicture resample(IVideoPicture in, final IVideoPicture out)
+  {
+    if (in.getPixelType() != mInputType
+      || in.getWidth() != mWidth || in.getHeight() != mHeight)
+      return null;
+    out.setComplete(true, mOutputType, mWidth, mHeight, in.getPts());
+    final PlaneLayout inLayout = PlaneLayout.of(in);
+    final PlaneLayout outLayout = PlaneLayout.of(out);
+    if (inLayout == null || outLayout == null)
+      return null;
+
+    final AtomicReference<JNIReference> inRef =
+      new AtomicReference<JNIReference>(null);
+    final AtomicReference<JNIReference> outRef =
+      new AtomicReference<JNIReference>(null);
+    try
+    {
+      final ByteBuffer inBuffer = in.getByteBuffer(inRef);
+      final ByteBuffer outBuffer = out.getByteBuffer(outRef);
+      final long pts = in.getPts();
+
+      // hand all but the first band to the pool, and do that one here
+
+      final List<Future<Object>> futures =
+        new ArrayList<Future<Object>>(mBands.length - 1);
+      for(int i = 1; i < mBands.length; i++)
+      {
+        final Band band = mBands[i];
+        futures.add(getExecutor().submit(new Callable<Object>()
+        {
+          public Object call()
+          {
+            band.resample(inLayout, inBuffer, outLayout, outBuffer, pts);
+            return null;
+          }
+        }));
+      }
+      RuntimeException failure = null;
+      try
+      {
+        mBands[0].resample(inLayout, inBuffer, outLayout, outBuffer, pts);
+      }
+      catch (RuntimeException e)
+      {
+        failure = e;
+      }
+
+      // always wait for every band, as they write into out
+
+      boolean interrupted = false;
+      for(Future<Object> future : futures)
+      {
+        while (true)
+        {
+          try
+          {
+            future.get();
+            break;
+          }
+          catch (InterruptedException e)
+          {
+            interrupted = true;
+          }
+          catch (ExecutionException e)
+          {
+            if (failure == null)
+            {
+              final Throwable cause = e.getCause();
+              if (cause instanceof Error)
+                throw (Error)cause;
+              failure = cause instanceof RuntimeException
+                ? (RuntimeException)cause
+                : new RuntimeException(cause);
+            }
+            break;
+          }
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+      if (failure != null)
+        throw failure;
+      return out;
+    }
+    finally
+    {
+      if (inRef.get() != null)
+        inRef.get().delete();
+      if (outRef.get() != null)
+        outRef.get().delete();
+    }
+  }
+
+  /**
+   * Release the re-samplers and pictures of every band.
+   */
+
+  void delete()
+  {
+    for(Band band : mBands)
+      if (band != null)
+        band.delete();
+  }
+
+  private static int getRowAlignment(IPixelFormat.Type inputType,
+    IPixelFormat.Type outputType)
+  {
+    return Math.max(PlaneLayout.getRowAlignment(inputType),
+      PlaneLayout.getRowAlignment(outputType));
+  }
+
+  private static synchronized ExecutorService getExecutor()
+  {
+    if (mExecutor == null)
+    {
+      final AtomicInteger numThreads = new AtomicInteger(0);
+      mExecutor = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable runnable)
+          {
+            final Thread thread = new Thread(runnable,
+              "XugglerConverterBand-" + numThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    return mExecutor;
+  }
+
+  /**
+   * The rows one thread converts, plus the pictures and re-sampler it
+   * uses to do that.
+   */
+
+  private final class Band
+  {
+    private final int mFirstRow;
+    private final int mNumRows;
+    private final int mInputRow;
+    private final int mNumInputRows;
+    private IVideoResampler mResampler;
+    private IVideoPicture mIn;
+    private IVideoPicture mOut;
+
+    Band(int firstRow, int endRow)
+    {
+      mFirstRow = firstRow;
+      mNumRows = endRow - firstRow;
+      mInputRow = Math.max(0, firstRow - BAND_OVERLAP);
+      mNumInputRows = Math.min(mHeight, endRow + BAND_OVERLAP) - mInputRow;
+
+      mResampler = AConverter.keep(IVideoResampler.make(
+        mWidth, mNumInputRows, mOutputType,
+        mWidth, mNumInputRows, mInputType));
+      if (mResampler == null)
+        throw new RuntimeException(
+          "Could not create resampler to translate from " + 
+          mInputType + " to " + mOutputType + ".");
+      mIn = AConverter.keep(
+        IVideoPicture.make(mInputType, mWidth, mNumInputRows));
+      mOut = AConverter.keep(
+        IVideoPicture.make(mOutputType, mWidth, mNumInputRows));
+    }
+
+    void resample(PlaneLayout inLayout, ByteBuffer inBuffer,
+      PlaneLayout outLayout, ByteBuffer outBuffer, long pts)
+    {
+      final AtomicReference<JNIReference> ref =
+        new AtomicReference<JNIReference>(null);
+      try
+      {
+        // copy this band and its overlap out of the source
+
+        mIn.setComplete(true, mInputType, mWidth, mNumInputRows, pts);
+        final PlaneLayout bandInLayout = PlaneLayout.of(mIn);
+        if (bandInLayout == null)
+          throw new RuntimeException("Could not lay out band of type " +
+            mInputType);
+        inLayout.copyRows(inBuffer, mInputRow, bandInLayout,
+          mIn.getByteBuffer(ref), 0, mNumInputRows);
+        ref.getAndSet(null).delete();
+
+        AConverter.resample(mIn, mResampler, mOut);
+
+        // and copy just this band's rows into the destination
+
+        final PlaneLayout bandOutLayout = PlaneLayout.of(mOut);
+        if (bandOutLayout == null)
+          throw new RuntimeException("Could not lay out band of type " +
+            mOutputType);
+        bandOutLayout.copyRows(mOut.getByteBuffer(ref),
+          mFirstRow - mInputRow, outLayout, outBuffer, mFirstRow, mNumRows);
+      }
+      finally
+      {
+        if (ref.get() != null)
+          ref.get().delete();
+      }
+    }
+
+    void delete()
+    {
+      if (mResampler != null)
+        mResampler.delete();
+      mResampler = null;
+      if (mIn != null)
+        mIn.delete();
+      mIn = null;
+      if (mOut != null)
+        mOut.delete();
+      mOut = null;
+    }
+  }
+}
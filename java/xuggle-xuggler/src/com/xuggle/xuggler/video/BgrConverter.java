@@ -27,16 +27,13 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBuffer;
-import java.awt.image.ColorModel;
-import java.awt.color.ColorSpace;
-import java.awt.image.ComponentColorModel;
 import java.awt.image.SampleModel;
 import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.WritableRaster;
-import java.awt.image.Raster;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReference;
 
 /** A converter to translate {@link IVideoPicture}s to and from
@@ -48,11 +45,6 @@ public class BgrConverter extends AConverter
     
   private static final int[] mBandOffsets = {2, 1, 0};
 
-  // color space for this converter
-  
-  private static final ColorSpace mColorSpace = 
-    ColorSpace.getInstance(ColorSpace.CS_sRGB);
-
   /** Construct as converter to translate {@link IVideoPicture}s to and
    * from {@link BufferedImage}s of type {@link
    * BufferedImage#TYPE_3BYTE_BGR}.
@@ -75,7 +67,8 @@ public class BgrConverter extends AConverter
 
   /** {@inheritDoc} */
 
-  public IVideoPicture toPicture(BufferedImage image, long timestamp)
+  public IVideoPicture toPicture(BufferedImage image, long timestamp,
+    IVideoPicture picture)
   {
     // validate the image
 
@@ -110,16 +103,25 @@ public class BgrConverter extends AConverter
         imageBuffer.getDataType());
     }
 
-    // create the video picture and get it's underling buffer
+    // establish the picture the image bytes are copied into; when
+    // re-sampling that's a picture this converter reuses, otherwise
+    // it's the result
+
+    final int w = willResample() ? mPictureWidth : image.getWidth();
+    final int h = willResample() ? mPictureHeight : image.getHeight();
+    if (picture != null)
+      validateTargetPicture(picture, w, h);
 
     final AtomicReference<JNIReference> ref =
       new AtomicReference<JNIReference>(null);
-    IVideoPicture resamplePicture = null;
     try
     {
-      IVideoPicture picture = IVideoPicture.make(getRequiredPictureType(), image.getWidth(),
-          image.getHeight());
-      ByteBuffer pictureByteBuffer = picture.getByteBuffer(ref);
+      IVideoPicture bgrPicture = willResample()
+        ? getToPicturePicture(image.getWidth(), image.getHeight())
+        : (picture != null
+          ? picture
+          : IVideoPicture.make(getRequiredPictureType(), w, h));
+      ByteBuffer pictureByteBuffer = bgrPicture.getByteBuffer(ref);
 
       if (imageInts != null)
       {
@@ -132,86 +134,102 @@ public class BgrConverter extends AConverter
         pictureByteBuffer.put(imageBytes);
       }
       pictureByteBuffer = null;
-      picture.setComplete(true, getRequiredPictureType(), image.getWidth(),
-          image.getHeight(), timestamp);
+      bgrPicture.setComplete(true, getRequiredPictureType(), 
+        image.getWidth(), image.getHeight(), timestamp);
 
       // resample as needed
-      if (willResample())
-      {
-        resamplePicture = picture;
-        picture = resample(resamplePicture, mToPictureResampler);
-      }
-      return picture;
+
+      if (!willResample())
+        return bgrPicture;
+      return resampleToPicture(bgrPicture, picture);
     }
     finally
     {
-      if (resamplePicture != null) resamplePicture.delete();
       if (ref.get() != null) ref.get().delete();
     }
   }
 
   /** {@inheritDoc} */
 
-  public BufferedImage toImage(IVideoPicture picture)
+  public BufferedImage toImage(IVideoPicture picture, BufferedImage image)
   {
     // test that the picture is valid
 
     validatePicture(picture);
 
     // resample as needed
-    IVideoPicture resamplePicture = null;
+
     AtomicReference<JNIReference> ref = 
       new AtomicReference<JNIReference>(null);
     try
     {
-    if (willResample())
-    {
-      resamplePicture = resample(picture, mToImageResampler);
-      picture = resamplePicture;
-    }
+      if (willResample())
+        picture = resampleToImage(picture);
 
-    // get picture parameters
-    
-    final int w = picture.getWidth();
-    final int h = picture.getHeight();
-    
-    // make a copy of the raw bytes int a DataBufferByte which the
-    // writable raster can operate on
-
-    final ByteBuffer byteBuf = picture.getByteBuffer(ref);
-    final byte[] bytes = new byte[picture.getSize()];
-    byteBuf.get(bytes, 0, bytes.length);
-   
-    // create the data buffer from the bytes
-    
-    final DataBufferByte db = new DataBufferByte(bytes, bytes.length);
-    
-    // create an a sample model which matches the byte layout of the
-    // image data and raster which contains the data which now can be
-    // properly interpreted
-    
-    final SampleModel sm = new PixelInterleavedSampleModel(
-      db.getDataType(), w, h, 3, 3 * w, mBandOffsets);
-    final WritableRaster wr = Raster.createWritableRaster(sm, db, null);
-    
-    // create a color model
-    
-    final ColorModel colorModel = new ComponentColorModel(
-      mColorSpace, false, false, ColorModel.OPAQUE, db.getDataType());
-    
-    // return a new image created from the color model and raster
-    
-    return new BufferedImage(colorModel, wr, false, null);
+      // get picture parameters
+
+      final int w = picture.getWidth();
+      final int h = picture.getHeight();
+
+      // get the image to write into, and make sure its bytes are laid
+      // out the way the picture's are
+
+      if (image == null)
+        image = getCachedImage(w, h);
+      else
+        validateTargetImage(image, w, h);
+      final byte[] bytes = getImageBytes(image);
+
+      // copy the raw bytes straight into the image's raster
+
+      final ByteBuffer byteBuf = picture.getByteBuffer(ref);
+      if (byteBuf.remaining() < bytes.length)
+        throw new IllegalArgumentException(
+          "The picture holds " + byteBuf.remaining() + " bytes but a [" +
+          w + "x" + h + "] image needs " + bytes.length + ".");
+      byteBuf.get(bytes, 0, bytes.length);
+      return image;
     }
     finally
     {
-      if (resamplePicture!=null)
-        resamplePicture.delete();
       if (ref.get()!=null)
         ref.get().delete();
     }
   }
 
+  /**
+   * Get the bytes backing an image, if they are packed the same way
+   * as a {@link IPixelFormat.Type#BGR24} picture.
+   * 
+   * @param image the image
+   *
+   * @return the bytes of the image.
+   *
+   * @throws IllegalArgumentException if the image's raster does not
+   *         store tightly packed, BGR ordered pixels, such as an image
+   *         returned by {@link BufferedImage#getSubimage}.
+   */
+
+  static byte[] getImageBytes(BufferedImage image)
+  {
+    final WritableRaster raster = image.getRaster();
+    final SampleModel sm = raster.getSampleModel();
+    final DataBuffer db = raster.getDataBuffer();
+    if (db instanceof DataBufferByte 
+      && db.getNumBanks() == 1
+      && db.getOffset() == 0
+      && raster.getParent() == null
+      && sm instanceof PixelInterleavedSampleModel
+      && ((PixelInterleavedSampleModel)sm).getPixelStride() == 3
+      && ((PixelInterleavedSampleModel)sm).getScanlineStride() ==
+        3 * image.getWidth()
+      && Arrays.equals(((PixelInterleavedSampleModel)sm).getBandOffsets(),
+        mBandOffsets))
+      return ((DataBufferByte)db).getData();
+    throw new IllegalArgumentException(
+      "The passed image does not store packed BGR bytes.");
+  }
+
   public void delete()
   {
     super.close();
@@ -0,0 +1,524 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * A cache of {@link IConverter}s that can be leased, used, and returned
+ * for reuse instead of being created for every stream.
+ * <p>
+ * Creating a converter that re-samples creates two
+ * {@link com.xuggle.xuggler.IVideoResampler}s, which is expensive.  A
+ * {@link ConverterCache} keeps converters that are returned to it keyed by
+ * descriptor, picture type and picture and image sizes, and hands them
+ * back out on the next lease for the same key.  {@link
+ * ConverterFactory#getConverterCache()} is shared by the mediatool
+ * readers and writers.
+ * </p>
+ * <p>
+ * To use:
+ * </p>
+ * <pre>
+ * ConverterCache cache = ConverterFactory.getConverterCache();
+ * IConverter converter = cache.lease(ConverterFactory.XUGGLER_BGR_24, picture);
+ * try {
+ *   BufferedImage image = converter.toImage(picture);
+ *   ...
+ * } finally {
+ *   cache.recycle(converter);
+ * }
+ * </pre>
+ * <p>
+ * A converter is only ever leased to one caller at a time, as converters
+ * are not thread safe.  Return converters with the settings they were
+ * leased with, and don't keep images a converter wrote into from
+ * {@link IConverter#toImage(IVideoPicture, java.awt.image.BufferedImage)}
+ * with no target once it's returned.
+ * </p>
+ * <p>
+ * The cache will only keep up to {@link #getMaxIdle()} idle converters.
+ * If returning a converter would exceed that bound, the least recently
+ * used key gives up its oldest idle converter, which is deleted.  Idle
+ * converters not leased for longer than the idle time are also deleted,
+ * the next time the cache is used or when {@link #evictIdle()} is called.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+public class ConverterCache
+{
+  /**
+   * The default maximum number of idle converters a cache keeps
+   * ({@value}).
+   */
+  public static final int DEFAULT_MAX_IDLE = 16;
+
+  /**
+   * The default time, in seconds, a converter may be idle before it is
+   * deleted ({@value}).
+   */
+  public static final long DEFAULT_MAX_IDLE_SECONDS = 60;
+
+  private final int mMaxIdle;
+  private final long mMaxIdleNanos;
+
+  // idle converters, by key, in least-recently-used order
+
+  private final LinkedHashMap<Key, IdleList> mIdle =
+    new LinkedHashMap<Key, IdleList>(16, 0.75f, true);
+
+  // the keys converters we've leased out were leased under
+
+  private final Map<IConverter, Key> mLeased = 
+    new IdentityHashMap<IConverter, Key>();
+
+  // reused for lookups so that a lease does not allocate a key
+
+  private final Key mProbe = new Key();
+
+  private int mNumIdle = 0;
+  private long mNumHits = 0;
+  private long mNumMisses = 0;
+  private long mNumEvictions = 0;
+  private long mNumExpirations = 0;
+
+  /**
+   * Create a cache that keeps up to {@link #DEFAULT_MAX_IDLE} idle
+   * converters for up to {@link #DEFAULT_MAX_IDLE_SECONDS} seconds.
+   */
+  public ConverterCache()
+  {
+    this(DEFAULT_MAX_IDLE, DEFAULT_MAX_IDLE_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Create a cache.
+   * 
+   * @param maxIdle the maximum number of idle converters to keep.
+   * @param maxIdleTime how long a converter may be idle before it is
+   *        deleted.
+   * @param unit the unit of maxIdleTime.
+   * 
+   * @throws IllegalArgumentException if maxIdle &lt; 0, maxIdleTime &lt; 0
+   *         or unit is null.
+   */
+  public ConverterCache(int maxIdle, long maxIdleTime, TimeUnit unit)
+  {
+    if (maxIdle < 0)
+      throw new IllegalArgumentException("maxIdle must be >= 0");
+    if (maxIdleTime < 0)
+      throw new IllegalArgumentException("maxIdleTime must be >= 0");
+    if (unit == null)
+      throw new IllegalArgumentException("must pass time unit");
+    mMaxIdle = maxIdle;
+    mMaxIdleNanos = unit.toNanos(maxIdleTime);
+  }
+
+  /**
+   * Lease a converter for pictures the type and size of a given picture.
+   * 
+   * @param descriptor the descriptor of the converter, as registered with
+   *        {@link ConverterFactory}.
+   * @param picture the picture from which type and size are extracted.
+   * @return a converter; return it with {@link #recycle(IConverter)}.
+   * 
+   * @throws IllegalArgumentException if picture is null.
+   * @throws UnsupportedOperationException if the converter can't be
+   *         created; see {@link ConverterFactory#createConverter(String,
+   *         IPixelFormat.Type, int, int, int, int)}.
+   */
+  public IConverter lease(String descriptor, IVideoPicture picture)
+  {
+    if (picture == null)
+      throw new IllegalArgumentException("The picture is NULL.");
+    return lease(descriptor, picture.getPixelType(),
+      picture.getWidth(), picture.getHeight());
+  }
+
+  /**
+   * Lease a converter which does not resize.
+   * 
+   * @param descriptor the descriptor of the converter, as registered with
+   *        {@link ConverterFactory}.
+   * @param pictureType the picture type of the converter.
+   * @param width the width of pictures and images.
+   * @param height the height of pictures and images.
+   * @return a converter; return it with {@link #recycle(IConverter)}.
+   * 
+   * @throws UnsupportedOperationException if the converter can't be
+   *         created; see {@link ConverterFactory#createConverter(String,
+   *         IPixelFormat.Type, int, int, int, int)}.
+   */
+  public IConverter lease(String descriptor, IPixelFormat.Type pictureType,
+    int width, int height)
+  {
+    return lease(descriptor, pictureType, width, height, width, height);
+  }
+
+  /**
+   * Lease a converter.
+   * 
+   * @param descriptor the descriptor of the converter, as registered with
+   *        {@link ConverterFactory}.
+   * @param pictureType the picture type of the converter.
+   * @param pictureWidth the width of pictures.
+   * @param pictureHeight the height of pictures.
+   * @param imageWidth the width of images.
+   * @param imageHeight the height of images.
+   * @return a converter; return it with {@link #recycle(IConverter)}.
+   * 
+   * @throws IllegalArgumentException if pictureType is null.
+   * @throws UnsupportedOperationException if the converter can't be
+   *         created; see {@link ConverterFactory#createConverter(String,
+   *         IPixelFormat.Type, int, int, int, int)}.
+   */
+  public IConverter lease(String descriptor, IPixelFormat.Type pictureType,
+    int pictureWidth, int pictureHeight, int imageWidth, int imageHeight)
+  {
+    if (pictureType == null)
+      throw new IllegalArgumentException("must pass picture type");
+
+    // let the factory explain that there is no such converter
+
+    if (descriptor == null 
+      || ConverterFactory.findRegisteredConverter(descriptor) == null)
+      return ConverterFactory.createConverter(descriptor, pictureType,
+        pictureWidth, pictureHeight, imageWidth, imageHeight);
+
+    final Key key;
+    synchronized(this)
+    {
+      expire(System.nanoTime());
+      mProbe.set(descriptor, pictureType, pictureWidth, pictureHeight,
+        imageWidth, imageHeight);
+      final IdleList idle = mIdle.get(mProbe);
+      if (idle != null && !idle.mItems.isEmpty())
+      {
+        final IConverter converter =
+          idle.mItems.remove(idle.mItems.size()-1).mConverter;
+        --mNumIdle;
+        ++mNumHits;
+        mLeased.put(converter, idle.mKey);
+        return converter;
+      }
+      ++mNumMisses;
+      key = mProbe.copy();
+    }
+
+    // creating re-samplers is slow, so don't hold the lock doing it
+
+    final IConverter converter = ConverterFactory.createConverter(
+      descriptor, pictureType, pictureWidth, pictureHeight,
+      imageWidth, imageHeight);
+    synchronized(this)
+    {
+      mLeased.put(converter, key);
+    }
+    return converter;
+  }
+
+  /**
+   * Return a converter to the cache.
+   * <p>
+   * The caller must not use the converter after returning it.  Converters
+   * that were not leased from this cache are deleted rather than cached.
+   * </p>
+   * 
+   * @param converter the converter to return; null is ignored.
+   */
+  public synchronized void recycle(IConverter converter)
+  {
+    if (converter == null)
+      return;
+    final long now = System.nanoTime();
+    final Key key = mLeased.remove(converter);
+    if (key == null || mMaxIdle == 0)
+    {
+      converter.delete();
+      return;
+    }
+    expire(now);
+    if (mNumIdle >= mMaxIdle)
+      evictEldest();
+    IdleList idle = mIdle.get(key);
+    if (idle == null)
+    {
+      idle = new IdleList(key);
+      mIdle.put(key, idle);
+    }
+    idle.mItems.add(new Idle(converter, now));
+    ++mNumIdle;
+  }
+
+  /**
+   * Delete every converter that has been idle longer than the idle time.
+   * This happens anyway whenever the cache is used; call this to free
+   * resources when it's not being used.
+   */
+  public synchronized void evictIdle()
+  {
+    expire(System.nanoTime());
+  }
+
+  /**
+   * Delete all idle converters in this cache.  Converters currently
+   * leased out are unaffected.
+   */
+  public synchronized void clear()
+  {
+    for(IdleList idle : mIdle.values())
+      for(Idle item : idle.mItems)
+        item.mConverter.delete();
+    mIdle.clear();
+    mNumIdle = 0;
+  }
+
+  /**
+   * Get the maximum number of idle converters this cache will keep.
+   * 
+   * @return the maximum.
+   */
+  public int getMaxIdle()
+  {
+    return mMaxIdle;
+  }
+
+  /**
+   * Get how long a converter may be idle before it is deleted.
+   * 
+   * @param unit the unit to return the time in.
+   * 
+   * @return the idle time.
+   */
+  public long getMaxIdleTime(TimeUnit unit)
+  {
+    return unit.convert(mMaxIdleNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Get the number of idle converters currently in this cache.
+   * 
+   * @return the number of idle converters.
+   */
+  public synchronized int getNumIdle()
+  {
+    return mNumIdle;
+  }
+
+  /**
+   * Get the number of converters currently leased out of this cache.
+   * 
+   * @return the number of leased converters.
+   */
+  public synchronized int getNumLeased()
+  {
+    return mLeased.size();
+  }
+
+  /**
+   * Get the number of leases that were satisfied by an idle converter.
+   * 
+   * @return the number of hits.
+   */
+  public synchronized long getNumHits()
+  {
+    return mNumHits;
+  }
+
+  /**
+   * Get the number of leases that required a new converter.
+   * 
+   * @return the number of misses.
+   */
+  public synchronized long getNumMisses()
+  {
+    return mNumMisses;
+  }
+
+  /**
+   * Get the number of idle converters deleted to keep the cache within
+   * {@link #getMaxIdle()}.
+   * 
+   * @return the number of evictions.
+   */
+  public synchronized long getNumEvictions()
+  {
+    return mNumEvictions;
+  }
+
+  /**
+   * Get the number of converters deleted because they were idle for
+   * longer than the idle time.
+   * 
+   * @return the number of expirations.
+   */
+  public synchronized long getNumExpirations()
+  {
+    return mNumExpirations;
+  }
+
+  /**
+   * Delete converters idle since before now less the idle time.  Caller
+   * must hold the lock.
+   */
+  private void expire(long now)
+  {
+    if (mNumIdle == 0)
+      return;
+    final Iterator<IdleList> it = mIdle.values().iterator();
+    while (it.hasNext())
+    {
+      final IdleList idle = it.next();
+
+      // idle converters are in the order they were returned
+
+      while (!idle.mItems.isEmpty() 
+        && now - idle.mItems.get(0).mSince > mMaxIdleNanos)
+      {
+        idle.mItems.remove(0).mConverter.delete();
+        --mNumIdle;
+        ++mNumExpirations;
+      }
+      if (idle.mItems.isEmpty())
+        it.remove();
+    }
+  }
+
+  /**
+   * Delete the oldest idle converter of the least recently used key.
+   * Caller must hold the lock.
+   */
+  private void evictEldest()
+  {
+    final Iterator<IdleList> it = mIdle.values().iterator();
+    while (it.hasNext())
+    {
+      final IdleList idle = it.next();
+      if (idle.mItems.isEmpty())
+      {
+        it.remove();
+        continue;
+      }
+      idle.mItems.remove(0).mConverter.delete();
+      --mNumIdle;
+      ++mNumEvictions;
+      if (idle.mItems.isEmpty())
+        it.remove();
+      return;
+    }
+  }
+
+  /**
+   * An idle converter and when it was returned.
+   */
+  private static final class Idle
+  {
+    private final IConverter mConverter;
+    private final long mSince;
+
+    Idle(IConverter converter, long since)
+    {
+      mConverter = converter;
+      mSince = since;
+    }
+  }
+
+  /**
+   * The idle converters for one key.
+   */
+  private static final class IdleList
+  {
+    private final Key mKey;
+    private final ArrayList<Idle> mItems = new ArrayList<Idle>();
+
+    IdleList(Key key)
+    {
+      mKey = key;
+    }
+  }
+
+  /**
+   * The descriptor, type and sizes a converter was leased with.
+   */
+  private static final class Key
+  {
+    private String mDescriptor;
+    private IPixelFormat.Type mPictureType;
+    private int mPictureWidth;
+    private int mPictureHeight;
+    private int mImageWidth;
+    private int mImageHeight;
+
+    void set(String descriptor, IPixelFormat.Type pictureType,
+      int pictureWidth, int pictureHeight, int imageWidth, int imageHeight)
+    {
+      mDescriptor = descriptor;
+      mPictureType = pictureType;
+      mPictureWidth = pictureWidth;
+      mPictureHeight = pictureHeight;
+      mImageWidth = imageWidth;
+      mImageHeight = imageHeight;
+    }
+
+    Key copy()
+    {
+      final Key key = new Key();
+      key.set(mDescriptor, mPictureType, mPictureWidth, mPictureHeight,
+        mImageWidth, mImageHeight);
+      return key;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof Key))
+        return false;
+      final Key other = (Key) obj;
+      return mDescriptor.equals(other.mDescriptor)
+        && mPictureType == other.mPictureType
+        && mPictureWidth == other.mPictureWidth
+        && mPictureHeight == other.mPictureHeight
+        && mImageWidth == other.mImageWidth
+        && mImageHeight == other.mImageHeight;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int result = mDescriptor.hashCode();
+      result = 31 * result + mPictureType.hashCode();
+      result = 31 * result + mPictureWidth;
+      result = 31 * result + mPictureHeight;
+      result = 31 * result + mImageWidth;
+      result = 31 * result + mImageHeight;
+      return result;
+    }
+  }
+}
@@ -20,7 +20,7 @@
 package com.xuggle.xuggler.video;
 
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -84,9 +84,41 @@ public class ConverterFactory
 
   public static final String XUGGLER_BGR_24 = "XUGGLER-BGR-24";
 
-  // the registered converter types
+  /** Converts between IVideoPictures and {@link BufferedImage} of type
+   * {@link BufferedImage#TYPE_3BYTE_BGR}, translating {@link
+   * com.xuggle.xuggler.IPixelFormat.Type#YUV420P} pictures in Java so
+   * no color space conversion support is needed.  See {@link
+   * YuvBgrConverter}. */
+
+  public static final String XUGGLER_YUV420P_BGR_24 = 
+    "XUGGLER-YUV420P-BGR-24";
+
+  /** Converts between IVideoPictures and {@link BufferedImage} of type
+   * {@link BufferedImage#TYPE_INT_ARGB}, translating {@link
+   * com.xuggle.xuggler.IPixelFormat.Type#YUV420P} pictures in Java.
+   * See {@link YuvArgbConverter}.  Like {@link #XUGGLER_ARGB_32} it is
+   * not registered by default, as other picture types still go through
+   * the FFMPEG ARGB support.
+   */
+
+  public static final String XUGGLER_YUV420P_ARGB_32 = 
+    "XUGGLER-YUV420P-ARGB-32";
+
+  /** Converts between IVideoPictures and {@link BufferedImage} of type
+   * {@link BufferedImage#TYPE_BYTE_GRAY}, copying only the luma of
+   * planar YUV pictures.  See {@link GrayConverter}. */
+
+  public static final String XUGGLER_GRAY_8 = "XUGGLER-GRAY-8";
+
+  // the converter cache shared by everyone who doesn't make their own
+
+  private static final ConverterCache mConverterCache = new ConverterCache();
+
+  // the registered converter types, in the order they were registered
+  // so findDescriptor prefers the earliest
   
-  private static Map<String, Type> mConverterTypes = new HashMap<String, Type>();
+  private static Map<String, Type> mConverterTypes = 
+    new LinkedHashMap<String, Type>();
 
   // register the known converters
 
@@ -102,6 +134,11 @@ public class ConverterFactory
 
     registerConverter(new Type(XUGGLER_BGR_24, BgrConverter.class, 
         IPixelFormat.Type.BGR24, BufferedImage.TYPE_3BYTE_BGR));
+    registerConverter(new Type(XUGGLER_YUV420P_BGR_24, 
+        YuvBgrConverter.class, IPixelFormat.Type.BGR24,
+        BufferedImage.TYPE_3BYTE_BGR));
+    registerConverter(new Type(XUGGLER_GRAY_8, GrayConverter.class,
+        IPixelFormat.Type.GRAY8, BufferedImage.TYPE_BYTE_GRAY));
   }
 
   /**
@@ -145,6 +182,20 @@ public class ConverterFactory
     return Collections.unmodifiableCollection(mConverterTypes.values());
   }
 
+  /**
+   * Get the converter cache shared across this process.  Use it instead
+   * of {@link #createConverter(String, IPixelFormat.Type, int, int, int,
+   * int)} to avoid creating a converter, and its re-samplers, for every
+   * stream of the same type and size.
+   *
+   * @return the shared cache.
+   */
+
+  public static ConverterCache getConverterCache()
+  {
+    return mConverterCache;
+  }
+
   /**
    * Find a converter given a type descriptor.
    *
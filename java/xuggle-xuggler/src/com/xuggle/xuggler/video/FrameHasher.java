@@ -0,0 +1,507 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.util.Arrays;
+
+import com.xuggle.xuggler.ICodec;
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IStream;
+import com.xuggle.xuggler.IStreamCoder;
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * Computes 64 bit perceptual hashes of {@link IVideoPicture}s, for finding
+ * duplicate and near duplicate video.
+ * <p>
+ * Pictures are hashed straight from their luma plane, which is averaged
+ * down to a tiny grid in a single pass; no {@link
+ * java.awt.image.BufferedImage} or other per picture object is made.  Two
+ * {@link Algorithm}s are supported:
+ * </p>
+ * <ul>
+ * <li>{@link Algorithm#DHASH} averages the luma down to 9x8 and sets a bit
+ * for each pair of neighbouring cells that gets brighter from left to
+ * right.  It is the cheapest.</li>
+ * <li>{@link Algorithm#PHASH} averages the luma down to 32x32, and sets a
+ * bit for each of the 8x8 lowest frequency DCT coefficients that is above
+ * their median.  It copes better with changes in brightness, contrast and
+ * compression.</li>
+ * </ul>
+ * <p>
+ * Hashes of similar pictures differ in few bits; see {@link
+ * #distance(long, long)}.  Only pictures whose luma plane comes first and
+ * holds one byte per pixel can be hashed; see {@link
+ * VideoPlanes#isSupported(com.xuggle.xuggler.IPixelFormat.Type)}.
+ * </p>
+ * <p>
+ * A {@link FrameHasher} can be used in three ways:
+ * </p>
+ * <ul>
+ * <li>{@link #hash(IVideoPicture)} hashes single pictures.</li>
+ * <li>In streaming mode, {@link #add(IVideoPicture)} hashes pictures as
+ * they are decoded and remembers them, and {@link #getSignature()} returns
+ * a {@link FrameSignature} of all pictures added so far.</li>
+ * <li>In batch mode, {@link #fingerprint(String)} reads a whole file in one
+ * pass and returns the {@link FrameSignature} of its key frames.</li>
+ * </ul>
+ * <p>
+ * For example:
+ * </p>
+ * <pre>
+ * FrameHasher hasher = new FrameHasher(FrameHasher.Algorithm.PHASH);
+ * FrameSignature a = hasher.fingerprint("a.mp4");
+ * FrameSignature b = hasher.fingerprint("b.mp4");
+ * if (a.similarity(b, 10) &gt; 0.8)
+ *   ...
+ * </pre>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+public class FrameHasher
+{
+  /**
+   * The ways a picture can be hashed.  The hashes of different algorithms
+   * can not be compared.
+   */
+
+  public enum Algorithm
+  {
+    /** Difference hash of a 9x8 luma grid. */
+    DHASH(9, 8),
+    /** DCT hash of a 32x32 luma grid. */
+    PHASH(32, 32);
+
+    private final int mGridWidth;
+    private final int mGridHeight;
+
+    private Algorithm(int gridWidth, int gridHeight)
+    {
+      mGridWidth = gridWidth;
+      mGridHeight = gridHeight;
+    }
+  }
+
+  /** The size of the low frequency DCT block a {@link Algorithm#PHASH}
+   * is made from. */
+
+  private static final int DCT_SIZE = 8;
+
+  /** DCT_SIZE rows of cosines, each as wide as a PHASH grid. */
+
+  private static final double[] COSINES = makeCosines(
+    Algorithm.PHASH.mGridWidth);
+
+  private final Algorithm mAlgorithm;
+
+  // the luma sums and pixel counts of each grid cell
+
+  private final long[] mSums;
+  private final int[] mCounts;
+
+  // the grid column of each picture column, for the last width seen
+
+  private int[] mColumns = new int[0];
+  private int mWidth = -1;
+  private byte[] mRow = new byte[0];
+
+  // work space for the DCT
+
+  private final double[] mGrid;
+  private final double[] mRowDct;
+  private final double[] mCoefficients = new double[DCT_SIZE * DCT_SIZE];
+  private final double[] mSorted = new double[DCT_SIZE * DCT_SIZE];
+
+  // the pictures added in streaming mode
+
+  private long[] mTimeStamps = new long[16];
+  private long[] mHashes = new long[16];
+  private int mSize;
+
+  /**
+   * Create a hasher.
+   * 
+   * @param algorithm the algorithm to hash with
+   */
+
+  public FrameHasher(Algorithm algorithm)
+  {
+    if (algorithm == null)
+      throw new IllegalArgumentException("must pass in an algorithm");
+    mAlgorithm = algorithm;
+    final int cells = algorithm.mGridWidth * algorithm.mGridHeight;
+    mSums = new long[cells];
+    mCounts = new int[cells];
+    mGrid = new double[cells];
+    mRowDct = new double[DCT_SIZE * algorithm.mGridHeight];
+  }
+
+  /**
+   * Get the algorithm this hasher hashes with.
+   * 
+   * @return the algorithm
+   */
+
+  public Algorithm getAlgorithm()
+  {
+    return mAlgorithm;
+  }
+
+  /**
+   * Count the bits two hashes differ in.  Hashes of the same picture
+   * differ in none, near duplicates in a few, and unrelated pictures in
+   * about 32.
+   * 
+   * @param hash1 a hash
+   * @param hash2 another hash, made with the same {@link Algorithm}
+   * 
+   * @return the number of differing bits, from 0 to 64
+   */
+
+  public static int distance(long hash1, long hash2)
+  {
+    return Long.bitCount(hash1 ^ hash2);
+  }
+
+  /**
+   * Hash a picture.
+   * 
+   * @param picture a complete picture
+   * 
+   * @return the 64 bit hash of the picture
+   * 
+   * @throws IllegalArgumentException if the picture is null, incomplete
+   *         or of an unsupported type
+   */
+
+  public long hash(IVideoPicture picture)
+  {
+    if (picture == null)
+      throw new IllegalArgumentException("must pass in a picture");
+    if (!picture.isComplete())
+      throw new IllegalArgumentException("picture is not complete");
+    if (!VideoPlanes.isSupported(picture.getPixelType()))
+      throw new IllegalArgumentException("unsupported picture type: "
+        + picture.getPixelType());
+    final int w = picture.getWidth();
+    final int h = picture.getHeight();
+    if (w < mAlgorithm.mGridWidth || h < mAlgorithm.mGridHeight)
+      throw new IllegalArgumentException("picture is smaller than "
+        + mAlgorithm.mGridWidth + "x" + mAlgorithm.mGridHeight);
+
+    average(picture, w, h);
+    switch (mAlgorithm)
+    {
+      case DHASH:
+        return differenceHash();
+      case PHASH:
+        return dctHash();
+      default:
+        throw new UnsupportedOperationException(mAlgorithm.toString());
+    }
+  }
+
+  /**
+   * Hash a picture and add it to the signature this hasher is building.
+   * 
+   * @param picture a complete picture
+   * 
+   * @return the 64 bit hash of the picture
+   * 
+   * @throws IllegalArgumentException if the picture can not be hashed;
+   *         see {@link #hash(IVideoPicture)}
+   */
+
+  public long add(IVideoPicture picture)
+  {
+    final long hash = hash(picture);
+    if (mSize == mHashes.length)
+    {
+      mHashes = copyOf(mHashes, mSize * 2);
+      mTimeStamps = copyOf(mTimeStamps, mSize * 2);
+    }
+    mTimeStamps[mSize] = picture.getTimeStamp();
+    mHashes[mSize] = hash;
+    mSize++;
+    return hash;
+  }
+
+  /**
+   * Get the signature of all pictures added since this hasher was made or
+   * last {@link #reset()}.
+   * 
+   * @return a signature, which does not change as more pictures are added
+   */
+
+  public FrameSignature getSignature()
+  {
+    return new FrameSignature(mAlgorithm, copyOf(mTimeStamps, mSize),
+      copyOf(mHashes, mSize));
+  }
+
+  /**
+   * Forget all pictures added.
+   */
+
+  public void reset()
+  {
+    mSize = 0;
+  }
+
+  /**
+   * Read a media file and return the signature of the key frames of its
+   * first video stream.
+   * <p>
+   * The file is read once, and only its key frame packets are decoded.
+   * Pictures already added to this hasher are forgotten first, and the
+   * key frames stay added afterwards.
+   * </p>
+   * 
+   * @param url the file or url to read
+   * 
+   * @return the signature of the key frames
+   * 
+   * @throws IllegalArgumentException if the file can not be opened or has
+   *         no video stream
+   * @throws RuntimeException if the video can not be decoded
+   */
+
+  public FrameSignature fingerprint(String url)
+  {
+    reset();
+    final IContainer container = IContainer.make();
+    IStreamCoder coder = null;
+    IVideoPicture picture = null;
+    IPacket packet = null;
+    try
+    {
+      if (container.open(url, IContainer.Type.READ, null) < 0)
+        throw new IllegalArgumentException("could not open: " + url);
+
+      // find the first video stream
+
+      int streamIndex = -1;
+      for (int i = 0; i < container.getNumStreams() && coder == null; i++)
+      {
+        final IStream stream = container.getStream(i);
+        final IStreamCoder streamCoder = stream.getStreamCoder();
+        if (streamCoder.getCodecType() == ICodec.Type.CODEC_TYPE_VIDEO)
+        {
+          coder = streamCoder;
+          streamIndex = i;
+        }
+        else
+          streamCoder.delete();
+        stream.delete();
+      }
+      if (coder == null)
+        throw new IllegalArgumentException("no video stream in: " + url);
+      if (coder.open() < 0)
+        throw new RuntimeException("could not open video decoder for: "
+          + url);
+
+      // decode only the key frames, which need no other frames
+
+      picture = IVideoPicture.make(coder.getPixelType(), coder.getWidth(),
+        coder.getHeight());
+      packet = IPacket.make();
+      while (container.readNextPacket(packet) >= 0)
+      {
+        if (packet.getStreamIndex() != streamIndex || !packet.isKeyPacket())
+          continue;
+        int offset = 0;
+        while (offset < packet.getSize())
+        {
+          final int rv = coder.decodeVideo(picture, packet, offset);
+          if (rv < 0)
+            throw new RuntimeException("error " + rv + " decoding video in: "
+              + url);
+          offset += rv;
+          if (picture.isComplete()
+            && VideoPlanes.isSupported(picture.getPixelType()))
+            add(picture);
+        }
+      }
+      return getSignature();
+    }
+    finally
+    {
+      if (packet != null)
+        packet.delete();
+      if (picture != null)
+        picture.delete();
+      if (coder != null)
+      {
+        coder.close();
+        coder.delete();
+      }
+      container.close();
+      container.delete();
+    }
+  }
+
+  /**
+   * Average the luma plane of a picture down to the grid.
+   */
+
+  private void average(IVideoPicture picture, int w, int h)
+  {
+    final int gridWidth = mAlgorithm.mGridWidth;
+    final int gridHeight = mAlgorithm.mGridHeight;
+    if (w != mWidth)
+    {
+      if (mColumns.length < w)
+      {
+        mColumns = new int[w];
+        mRow = new byte[w];
+      }
+      for (int x = 0; x < w; x++)
+        mColumns[x] = (int) ((long) x * gridWidth / w);
+      mWidth = w;
+    }
+    Arrays.fill(mSums, 0);
+    Arrays.fill(mCounts, 0);
+
+    final int lineSize = picture.getDataLineSize(0);
+    final int[] columns = mColumns;
+    final byte[] row = mRow;
+    final long[] sums = mSums;
+    for (int y = 0; y < h; y++)
+    {
+      picture.get(y * lineSize, row, 0, w);
+      final int cellRow = (int) ((long) y * gridHeight / h) * gridWidth;
+      int rowSum = 0;
+      int column = columns[0];
+      for (int x = 0; x < w; x++)
+      {
+        // add up runs of pixels in the same cell before touching the grid
+
+        if (columns[x] != column)
+        {
+          sums[cellRow + column] += rowSum;
+          rowSum = 0;
+          column = columns[x];
+        }
+        rowSum += row[x] & 0xff;
+      }
+      sums[cellRow + column] += rowSum;
+    }
+
+    // every cell of a grid row has the same number of pixels
+
+    for (int gy = 0; gy < gridHeight; gy++)
+    {
+      final int rows = getBound(gy + 1, gridHeight, h)
+        - getBound(gy, gridHeight, h);
+      for (int gx = 0; gx < gridWidth; gx++)
+        mCounts[gy * gridWidth + gx] = rows * (getBound(gx + 1, gridWidth, w)
+          - getBound(gx, gridWidth, w));
+    }
+  }
+
+  /**
+   * Get the first picture row or column that falls in a grid cell.
+   */
+
+  private static int getBound(int cell, int cells, int size)
+  {
+    return (int) (((long) cell * size + cells - 1) / cells);
+  }
+
+  private long differenceHash()
+  {
+    final int gridWidth = mAlgorithm.mGridWidth;
+    long hash = 0;
+    for (int gy = 0; gy < mAlgorithm.mGridHeight; gy++)
+    {
+      final int start = gy * gridWidth;
+      for (int gx = 0; gx < gridWidth - 1; gx++)
+      {
+        // compare the means without dividing
+
+        final int left = start + gx;
+        final int right = left + 1;
+        hash <<= 1;
+        if (mSums[left] * mCounts[right] < mSums[right] * mCounts[left])
+          hash |= 1;
+      }
+    }
+    return hash;
+  }
+
+  private long dctHash()
+  {
+    final int size = mAlgorithm.mGridWidth;
+    for (int i = 0; i < mGrid.length; i++)
+      mGrid[i] = (double) mSums[i] / mCounts[i];
+
+    // the DCT is separable; transform the rows, then the columns, keeping
+    // only the lowest frequencies
+
+    for (int y = 0; y < size; y++)
+      for (int u = 0; u < DCT_SIZE; u++)
+      {
+        double sum = 0;
+        for (int x = 0; x < size; x++)
+          sum += COSINES[u * size + x] * mGrid[y * size + x];
+        mRowDct[u * size + y] = sum;
+      }
+    for (int v = 0; v < DCT_SIZE; v++)
+      for (int u = 0; u < DCT_SIZE; u++)
+      {
+        double sum = 0;
+        for (int y = 0; y < size; y++)
+          sum += COSINES[v * size + y] * mRowDct[u * size + y];
+        mCoefficients[v * DCT_SIZE + u] = sum;
+      }
+
+    System.arraycopy(mCoefficients, 0, mSorted, 0, mSorted.length);
+    Arrays.sort(mSorted);
+    final double median = (mSorted[mSorted.length / 2 - 1]
+      + mSorted[mSorted.length / 2]) / 2;
+    long hash = 0;
+    for (int i = 0; i < mCoefficients.length; i++)
+    {
+      hash <<= 1;
+      if (mCoefficients[i] > median)
+        hash |= 1;
+    }
+    return hash;
+  }
+
+  static long[] copyOf(long[] array, int length)
+  {
+    final long[] copy = new long[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static double[] makeCosines(int size)
+  {
+    final double[] cosines = new double[DCT_SIZE * size];
+    for (int u = 0; u < DCT_SIZE; u++)
+      for (int x = 0; x < size; x++)
+        cosines[u * size + x] = Math.cos((2 * x + 1) * u * Math.PI
+          / (2 * size));
+    return cosines;
+  }
+}
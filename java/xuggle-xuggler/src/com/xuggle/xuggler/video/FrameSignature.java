@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.xuggle.xuggler.Global;
+
+/**
+ * The perceptual hashes of a sequence of pictures, typically the key frames
+ * of a file, as made by a {@link FrameHasher}.
+ * <p>
+ * Signatures can be compared with {@link #similarity(FrameSignature,
+ * int)}, and stored with {@link #write(OutputStream)} in a compact binary
+ * format of about 10 bytes per picture:
+ * </p>
+ * <pre>
+ * 'X' 'F' 'S'    magic
+ * 1              version
+ * algorithm      the {@link FrameHasher.Algorithm} ordinal
+ * count          number of pictures, as a varint
+ * count times:
+ *   delta        time stamp minus the previous one (0 for the first),
+ *                as a zig-zag varint
+ *   hash         8 bytes, big endian
+ * </pre>
+ * <p>
+ * Varints are 7 bits per byte, least significant first, with the top bit
+ * set on all but the last byte.  Signatures are immutable.
+ * </p>
+ */
+public final class FrameSignature
+{
+  private static final byte[] MAGIC = { 'X', 'F', 'S' };
+  private static final int VERSION = 1;
+
+  // the most entries read makes room for before seeing them, so a corrupt
+  // size can't make it allocate more than the stream holds
+
+  private static final int MAX_INITIAL_CAPACITY = 1024;
+
+  private final FrameHasher.Algorithm mAlgorithm;
+  private final long[] mTimeStamps;
+  private final long[] mHashes;
+
+  /**
+   * Create a signature, taking ownership of the arrays passed in.
+   */
+
+  FrameSignature(FrameHasher.Algorithm algorithm, long[] timeStamps,
+    long[] hashes)
+  {
+    mAlgorithm = algorithm;
+    mTimeStamps = timeStamps;
+    mHashes = hashes;
+  }
+
+  /**
+   * Get the algorithm the hashes were made with.
+   * 
+   * @return the algorithm
+   */
+
+  public FrameHasher.Algorithm getAlgorithm()
+  {
+    return mAlgorithm;
+  }
+
+  /**
+   * Get the number of pictures in this signature.
+   * 
+   * @return the number of pictures
+   */
+
+  public int size()
+  {
+    return mHashes.length;
+  }
+
+  /**
+   * Get the hash of a picture.
+   * 
+   * @param index the picture, from 0 to {@link #size()} - 1
+   * 
+   * @return the hash
+   */
+
+  public long getHash(int index)
+  {
+    return mHashes[index];
+  }
+
+  /**
+   * Get the time stamp of a picture.
+   * 
+   * @param index the picture, from 0 to {@link #size()} - 1
+   * 
+   * @return the time stamp in microseconds, or {@link Global#NO_PTS}
+   */
+
+  public long getTimeStamp(int index)
+  {
+    return mTimeStamps[index];
+  }
+
+  /**
+   * Find the picture in this signature closest to a hash.
+   * 
+   * @param hash a hash made with this signature's algorithm
+   * 
+   * @return the index of the picture with the fewest differing bits, or
+   *         -1 if this signature is empty
+   */
+
+  public int indexOfClosest(long hash)
+  {
+    int closest = -1;
+    int best = Integer.MAX_VALUE;
+    for (int i = 0; i < mHashes.length && best > 0; i++)
+    {
+      final int distance = FrameHasher.distance(hash, mHashes[i]);
+      if (distance < best)
+      {
+        best = distance;
+        closest = i;
+      }
+    }
+    return closest;
+  }
+
+  /**
+   * Measure how much of this signature appears in another one.
+   * 
+   * @param other the other signature
+   * @param maxDistance the most bits two hashes may differ in and still be
+   *        counted as the same picture
+   * 
+   * @return the fraction, from 0 to 1, of this signature's pictures that
+   *         have a match in the other signature; 0 if this one is empty
+   * 
+   * @throws IllegalArgumentException if the signatures were made with
+   *         different algorithms
+   */
+
+  public double similarity(FrameSignature other, int maxDistance)
+  {
+    if (other == null)
+      throw new IllegalArgumentException("must pass in a signature");
+    if (other.mAlgorithm != mAlgorithm)
+      throw new IllegalArgumentException("can not compare " + mAlgorithm
+        + " with " + other.mAlgorithm + " signatures");
+    if (mHashes.length == 0)
+      return 0;
+    int matches = 0;
+    for (int i = 0; i < mHashes.length; i++)
+    {
+      final int closest = other.indexOfClosest(mHashes[i]);
+      if (closest >= 0
+        && FrameHasher.distance(mHashes[i], other.mHashes[closest])
+          <= maxDistance)
+        matches++;
+    }
+    return (double) matches / mHashes.length;
+  }
+
+  /**
+   * Write this signature in the binary format described above.
+   * 
+   * @param stream the stream to write to, which is not closed
+   * 
+   * @throws IOException if the stream can not be written
+   */
+
+  public void write(OutputStream stream) throws IOException
+  {
+    final DataOutputStream out = new DataOutputStream(stream);
+    out.write(MAGIC);
+    out.writeByte(VERSION);
+    out.writeByte(mAlgorithm.ordinal());
+    writeVarint(out, mHashes.length);
+    long previous = 0;
+    for (int i = 0; i < mHashes.length; i++)
+    {
+      final long delta = mTimeStamps[i] - previous;
+      writeVarint(out, (delta << 1) ^ (delta >> 63));
+      out.writeLong(mHashes[i]);
+      previous = mTimeStamps[i];
+    }
+    out.flush();
+  }
+
+  /**
+   * Read a signature written by {@link #write(OutputStream)}.
+   * 
+   * @param stream the stream to read from, which is not closed
+   * 
+   * @return the signature
+   * 
+   * @throws IOException if the stream can not be read, or does not hold a
+   *         signature
+   */
+
+  public static FrameSignature read(InputStream stream) throws IOException
+  {
+    final DataInputStream in = new DataInputStream(stream);
+    final byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC))
+      throw new IOException("not a frame signature");
+    final int version = in.readUnsignedByte();
+    if (version != VERSION)
+      throw new IOException("unsupported frame signature version: "
+        + version);
+    final int algorithm = in.readUnsignedByte();
+    final FrameHasher.Algorithm[] algorithms =
+      FrameHasher.Algorithm.values();
+    if (algorithm >= algorithms.length)
+      throw new IOException("unknown frame signature algorithm: "
+        + algorithm);
+    final long size = readVarint(in);
+    if (size < 0 || size > Integer.MAX_VALUE)
+      throw new IOException("invalid frame signature size: " + size);
+
+    final int count = (int) size;
+    final int capacity = Math.min(count, MAX_INITIAL_CAPACITY);
+    long[] timeStamps = new long[capacity];
+    long[] hashes = new long[capacity];
+    long previous = 0;
+    for (int i = 0; i < count; i++)
+    {
+      if (i == hashes.length)
+      {
+        final int length = (int) Math.min((long) i * 2, count);
+        timeStamps = FrameHasher.copyOf(timeStamps, length);
+        hashes = FrameHasher.copyOf(hashes, length);
+      }
+      final long zigZag = readVarint(in);
+      previous += (zigZag >>> 1) ^ -(zigZag & 1);
+      timeStamps[i] = previous;
+      hashes[i] = in.readLong();
+    }
+    return new FrameSignature(algorithms[algorithm], timeStamps, hashes);
+  }
+
+  /**
+   * Get this signature in the binary format described above.
+   * 
+   * @return the bytes
+   */
+
+  public byte[] toByteArray()
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(
+      5 + 10 * mHashes.length);
+    try
+    {
+      write(out);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Read a signature from the bytes returned by {@link #toByteArray()}.
+   * 
+   * @param bytes the bytes
+   * 
+   * @return the signature
+   * 
+   * @throws IllegalArgumentException if the bytes do not hold a signature
+   */
+
+  public static FrameSignature fromByteArray(byte[] bytes)
+  {
+    try
+    {
+      return read(new ByteArrayInputStream(bytes));
+    }
+    catch (IOException e)
+    {
+      throw new IllegalArgumentException("not a frame signature", e);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (!(obj instanceof FrameSignature))
+      return false;
+    final FrameSignature other = (FrameSignature) obj;
+    return mAlgorithm == other.mAlgorithm
+      && Arrays.equals(mTimeStamps, other.mTimeStamps)
+      && Arrays.equals(mHashes, other.mHashes);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return (mAlgorithm.hashCode() * 31 + Arrays.hashCode(mTimeStamps)) * 31
+      + Arrays.hashCode(mHashes);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getName() + "[algorithm=" + mAlgorithm + ";size="
+      + mHashes.length + "]";
+  }
+
+  private static void writeVarint(DataOutputStream out, long value)
+    throws IOException
+  {
+    while ((value & ~0x7fL) != 0)
+    {
+      out.writeByte((int) (value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarint(DataInputStream in) throws IOException
+  {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7)
+    {
+      final int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IOException("invalid varint in frame signature");
+  }
+}
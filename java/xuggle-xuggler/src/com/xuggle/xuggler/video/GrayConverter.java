@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.xuggle.ferry.JNIReference;
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+/** A converter to translate {@link IVideoPicture}s to and from
+ * {@link BufferedImage}s of type {@link BufferedImage#TYPE_BYTE_GRAY},
+ * for work which only needs the brightness of each pixel.
+ *
+ * <p> The luma plane of planar YUV pictures, such as {@link
+ * IPixelFormat.Type#YUV420P}, and the only plane of {@link
+ * IPixelFormat.Type#GRAY8} pictures, is copied straight to and from the
+ * image with no color space math and no intermediate picture, so it
+ * needs no version of Xuggler that supports color space conversion.
+ * Luma is copied as is, so images of pictures whose luma is limited to
+ * 16 to 235, such as {@link IPixelFormat.Type#YUV420P}, have the same
+ * limited range.  Pictures written from images get neutral chroma.
+ * Other picture types, and any conversion which resizes, are re-sampled
+ * to and from {@link IPixelFormat.Type#GRAY8}.  </p>
+ */
+
+public class GrayConverter extends AConverter
+{
+  /** Construct as converter to translate {@link IVideoPicture}s to and
+   * from {@link BufferedImage}s of type {@link
+   * BufferedImage#TYPE_BYTE_GRAY}.
+   *
+   * @param pictureType the picture type recognized by this converter
+   * @param pictureWidth the width of pictures
+   * @param pictureHeight the height of pictures
+   * @param imageWidth the width of images
+   * @param imageHeight the height of images
+   */
+
+  public GrayConverter(IPixelFormat.Type pictureType, 
+    int pictureWidth, int pictureHeight,
+    int imageWidth, int imageHeight)
+  {
+    super(pictureType, 
+      canCopy(pictureType, pictureWidth, pictureHeight,
+        imageWidth, imageHeight) ? pictureType : IPixelFormat.Type.GRAY8,
+      BufferedImage.TYPE_BYTE_GRAY, pictureWidth, pictureHeight,
+      imageWidth, imageHeight);
+  }
+
+  /** {@inheritDoc} */
+
+  public IVideoPicture toPicture(BufferedImage image, long timestamp,
+    IVideoPicture picture)
+  {
+    // validate the image and get at its pixels
+
+    validateImage(image);
+    final int w = image.getWidth();
+    final int h = image.getHeight();
+    final byte[] bytes = getImageBytes(image);
+
+    // establish the picture the image is copied into; when re-sampling
+    // that's a picture this converter reuses, otherwise it's the result
+
+    if (picture != null)
+      validateTargetPicture(picture, 
+        willResample() ? mPictureWidth : w,
+        willResample() ? mPictureHeight : h);
+    final IVideoPicture grayPicture = willResample()
+      ? getToPicturePicture(w, h)
+      : (picture != null
+        ? picture
+        : IVideoPicture.make(getRequiredPictureType(), w, h));
+    grayPicture.setComplete(true, getRequiredPictureType(), w, h,
+      timestamp);
+
+    final AtomicReference<JNIReference> ref =
+      new AtomicReference<JNIReference>(null);
+    try
+    {
+      final ByteBuffer buffer = grayPicture.getByteBuffer(ref);
+      final PlaneLayout layout = getLayout(grayPicture);
+      final int lineSize = layout.getLineSize(0);
+      for(int y = 0; y < h; y++)
+      {
+        buffer.position(layout.getOffset(0) + y * lineSize);
+        buffer.put(bytes, y * w, w);
+      }
+
+      // no color in any chroma planes; both are the same size, and
+      // follow the luma plane
+
+      if (PlaneLayout.isPlanarYuv(grayPicture.getPixelType()))
+      {
+        final int start = layout.getOffset(1);
+        final int end = start + 2 * (layout.getOffset(2) - start);
+        buffer.position(start);
+        for(int i = start; i < end; i++)
+          buffer.put((byte)128);
+      }
+    }
+    finally
+    {
+      if (ref.get() != null)
+        ref.get().delete();
+    }
+
+    // resample as needed
+
+    if (!willResample())
+      return grayPicture;
+    return resampleToPicture(grayPicture, picture);
+  }
+
+  /** {@inheritDoc} */
+
+  public BufferedImage toImage(IVideoPicture picture, BufferedImage image)
+  {
+    // test that the picture is valid
+
+    validatePicture(picture);
+
+    // resample as needed
+
+    if (willResample())
+      picture = resampleToImage(picture);
+    final int w = picture.getWidth();
+    final int h = picture.getHeight();
+
+    // get the image to write into
+
+    if (image == null)
+      image = getCachedImage(w, h);
+    else
+      validateTargetImage(image, w, h);
+    final byte[] bytes = getImageBytes(image);
+
+    // copy the luma rows straight into the image's raster
+
+    final AtomicReference<JNIReference> ref =
+      new AtomicReference<JNIReference>(null);
+    try
+    {
+      final ByteBuffer buffer = picture.getByteBuffer(ref);
+      final PlaneLayout layout = getLayout(picture);
+      final int lineSize = layout.getLineSize(0);
+      if (lineSize == w)
+      {
+        buffer.position(layout.getOffset(0));
+        buffer.get(bytes, 0, w * h);
+      }
+      else
+        for(int y = 0; y < h; y++)
+        {
+          buffer.position(layout.getOffset(0) + y * lineSize);
+          buffer.get(bytes, y * w, w);
+        }
+      return image;
+    }
+    finally
+    {
+      if (ref.get() != null)
+        ref.get().delete();
+    }
+  }
+
+  /**
+   * Test if pictures of a type and size can be copied to and from
+   * images without re-sampling.
+   */
+
+  private static boolean canCopy(IPixelFormat.Type pictureType,
+    int pictureWidth, int pictureHeight, int imageWidth, int imageHeight)
+  {
+    return (pictureType == IPixelFormat.Type.GRAY8
+      || PlaneLayout.isPlanarYuv(pictureType))
+      && pictureWidth == imageWidth && pictureHeight == imageHeight;
+  }
+
+  /**
+   * Get the bytes backing an image, if they are packed one byte per
+   * pixel with no padding.
+   * 
+   * @param image the image
+   *
+   * @return the bytes of the image.
+   *
+   * @throws IllegalArgumentException if the image's raster is not
+   *         tightly packed, such as an image returned by {@link
+   *         BufferedImage#getSubimage}.
+   */
+
+  static byte[] getImageBytes(BufferedImage image)
+  {
+    final WritableRaster raster = image.getRaster();
+    final SampleModel sm = raster.getSampleModel();
+    final DataBuffer db = raster.getDataBuffer();
+    if (db instanceof DataBufferByte 
+      && db.getNumBanks() == 1
+      && db.getOffset() == 0
+      && raster.getParent() == null
+      && sm instanceof ComponentSampleModel
+      && ((ComponentSampleModel)sm).getPixelStride() == 1
+      && ((ComponentSampleModel)sm).getScanlineStride() == image.getWidth())
+      return ((DataBufferByte)db).getData();
+    throw new IllegalArgumentException(
+      "The passed image does not store packed gray bytes.");
+  }
+
+  private static PlaneLayout getLayout(IVideoPicture picture)
+  {
+    final PlaneLayout layout = PlaneLayout.of(picture);
+    if (layout == null)
+      throw new IllegalArgumentException(
+        "The planes of the picture are not laid out as expected.");
+    return layout;
+  }
+
+  public void delete()
+  {
+    super.close();
+  }
+}
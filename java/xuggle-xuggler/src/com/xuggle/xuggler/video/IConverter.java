@@ -31,6 +31,9 @@ import com.xuggle.xuggler.IPixelFormat;
  * {@link BufferedImage} type.  Converters can optionally resize images
  * during
  * the conversion process.
+ *
+ * <p> Converters reuse internal pictures between calls, so a converter
+ * must only be used by one thread at a time.  </p>
  */
 
 public interface IConverter
@@ -89,6 +92,35 @@ public interface IConverter
 
   public IVideoPicture toPicture(BufferedImage image, long timestamp);
 
+  /** Converts a {@link BufferedImage} to an {@link IVideoPicture},
+   * writing into an existing picture.  Use this with pictures leased
+   * from a {@link com.xuggle.xuggler.MediaDataPool} to avoid allocating
+   * a new picture for every image.
+   *
+   * @param image the source buffered image.
+   * @param timestamp the time stamp which should be attached to the the
+   *        video picture (in microseconds).
+   * @param picture the picture to write into, which must be of type
+   *        {@link #getPictureType} and the size this converter creates
+   *        pictures at; or null to create a new picture.
+   *
+   * @return picture, or the new picture if picture was null.
+   *
+   * @throws IllegalArgumentException if the passed {@link
+   *         BufferedImage} is NULL;
+   * @throws IllegalArgumentException if the passed {@link
+   *         BufferedImage} is not the correct type. See {@link
+   *         #getImageType}.
+   * @throws IllegalArgumentException if the underlying data buffer of
+   *         the {@link BufferedImage} is composed elements other bytes
+   *         or integers.
+   * @throws IllegalArgumentException if the passed {@link
+   *         IVideoPicture} is not the correct type or size.
+   */
+
+  public IVideoPicture toPicture(BufferedImage image, long timestamp,
+    IVideoPicture picture);
+
   /** Converts an {@link IVideoPicture} to a {@link BufferedImage}.
    *
    * @param picture the source video picture.
@@ -102,6 +134,68 @@ public interface IConverter
 
   public BufferedImage toImage(IVideoPicture picture);
 
+  /** Converts an {@link IVideoPicture} to a {@link BufferedImage},
+   * writing into an existing image rather than allocating a new one.
+   *
+   * <p> If image is null, the converter writes into an image it keeps
+   * and returns that same image on every call (until the picture size
+   * changes).  Its contents are overwritten by the next conversion, so
+   * copy it if it must be kept.  </p>
+   *
+   * <p> An image passed in must be of type {@link #getImageType}, the
+   * size of the converted picture, and have the memory layout of an
+   * image created with {@link BufferedImage#BufferedImage(int, int,
+   * int)}; images returned by {@link BufferedImage#getSubimage} can't be
+   * written into.  </p>
+   *
+   * @param picture the source video picture.
+   * @param image the image to write into, or null to use the image
+   *        this converter keeps.
+   *
+   * @return the image written into.
+   *
+   * @throws IllegalArgumentException if the passed {@link
+   *         IVideoPicture} is NULL;
+   * @throws IllegalArgumentException if the passed {@link
+   *         IVideoPicture} is not the correct type. See {@link
+   *         #getPictureType}.
+   * @throws IllegalArgumentException if the passed {@link
+   *         BufferedImage} is not the correct type, size or layout.
+   * @throws IllegalArgumentException if the picture holds too few
+   *         bytes to fill the image.
+   */
+
+  public BufferedImage toImage(IVideoPicture picture, BufferedImage image);
+
+  /** Set the most horizontal bands a picture is cut into so it can be
+   * re-sampled on several threads at once.  The default, 1, re-samples
+   * on the calling thread.
+   *
+   * <p> Banding only applies when the converter changes color space
+   * without resizing, and each band is at least 64 rows tall;
+   * otherwise pictures are re-sampled whole.  The result is the same
+   * either way.  Bands run on a pool shared by every converter with one
+   * thread per processor.  Only the re-sample is banded; copying
+   * between the picture and the image still runs on the calling
+   * thread.  </p>
+   *
+   * @param numBands the most bands to use.
+   *
+   * @throws IllegalArgumentException if numBands is less than 1.
+   */
+
+  public void setNumBands(int numBands);
+
+  /** Get the most horizontal bands a picture is cut into when being
+   * re-sampled.
+   *
+   * @return the number of bands.
+   *
+   * @see #setNumBands(int)
+   */
+
+  public int getNumBands();
+
   /** Return a written description of the converter. 
    *
    * @return a detailed description of what this converter does.
@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * Where each plane of an {@link IVideoPicture} lives in its buffer, so
+ * runs of rows can be copied between pictures without going through
+ * FFmpeg.
+ * <p>
+ * Pictures lay their planes out one after the other the same way
+ * <code>avpicture_fill</code> does, each plane taking its line size times
+ * its number of rows.  Only packed formats and the common planar YUV
+ * formats are understood.
+ * </p>
+ */
+
+final class PlaneLayout
+{
+  // log2 of the vertical chroma subsampling of the planar formats we
+  // understand
+
+  private static final Map<IPixelFormat.Type, Integer> mChromaShifts =
+    new EnumMap<IPixelFormat.Type, Integer>(IPixelFormat.Type.class);
+
+  // log2 of their horizontal chroma subsampling
+
+  private static final Map<IPixelFormat.Type, Integer> mChromaWidthShifts =
+    new EnumMap<IPixelFormat.Type, Integer>(IPixelFormat.Type.class);
+
+  static
+  {
+    mChromaWidthShifts.put(IPixelFormat.Type.YUV420P, 1);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUVJ420P, 1);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUV440P, 0);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUVJ440P, 0);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUV410P, 2);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUV422P, 1);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUVJ422P, 1);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUV444P, 0);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUVJ444P, 0);
+    mChromaWidthShifts.put(IPixelFormat.Type.YUV411P, 2);
+  }
+
+  static
+  {
+    mChromaShifts.put(IPixelFormat.Type.YUV420P, 1);
+    mChromaShifts.put(IPixelFormat.Type.YUVJ420P, 1);
+    mChromaShifts.put(IPixelFormat.Type.YUV440P, 1);
+    mChromaShifts.put(IPixelFormat.Type.YUVJ440P, 1);
+    mChromaShifts.put(IPixelFormat.Type.YUV410P, 2);
+    mChromaShifts.put(IPixelFormat.Type.YUV422P, 0);
+    mChromaShifts.put(IPixelFormat.Type.YUVJ422P, 0);
+    mChromaShifts.put(IPixelFormat.Type.YUV444P, 0);
+    mChromaShifts.put(IPixelFormat.Type.YUVJ444P, 0);
+    mChromaShifts.put(IPixelFormat.Type.YUV411P, 0);
+  }
+
+  private final int mHeight;
+  private final int[] mOffsets;
+  private final int[] mLineSizes;
+  private final int[] mShifts;
+
+  private PlaneLayout(int height, int[] offsets, int[] lineSizes,
+    int[] shifts)
+  {
+    mHeight = height;
+    mOffsets = offsets;
+    mLineSizes = lineSizes;
+    mShifts = shifts;
+  }
+
+  /**
+   * Get the layout of a picture.
+   * 
+   * @param picture the picture, which must have its type, size and line
+   *        sizes set.
+   * 
+   * @return the layout, or null if the picture's format isn't understood
+   *         or its planes don't fit in its buffer.
+   */
+
+  static PlaneLayout of(IVideoPicture picture)
+  {
+    final int height = picture.getHeight();
+    final Integer chromaShift = mChromaShifts.get(picture.getPixelType());
+    final int numPlanes;
+    if (chromaShift != null)
+      numPlanes = 3;
+    else if (picture.getDataLineSize(1) == 0)
+      numPlanes = 1;
+    else
+      return null;
+
+    final int[] offsets = new int[numPlanes];
+    final int[] lineSizes = new int[numPlanes];
+    final int[] shifts = new int[numPlanes];
+    int offset = 0;
+    for(int i = 0; i < numPlanes; i++)
+    {
+      lineSizes[i] = picture.getDataLineSize(i);
+      if (lineSizes[i] <= 0)
+        return null;
+      shifts[i] = i == 0 ? 0 : chromaShift;
+      offsets[i] = offset;
+      offset += lineSizes[i] * getNumRows(height, shifts[i]);
+    }
+    if (offset > picture.getSize())
+      return null;
+    return new PlaneLayout(height, offsets, lineSizes, shifts);
+  }
+
+  /**
+   * Test if a picture type is one of the planar YUV formats this class
+   * understands, whose first plane is luma.
+   * 
+   * @param type the picture type.
+   * 
+   * @return true if the type is planar YUV.
+   */
+
+  static boolean isPlanarYuv(IPixelFormat.Type type)
+  {
+    return mChromaShifts.containsKey(type);
+  }
+
+  /**
+   * Get the log2 of the horizontal chroma subsampling of a planar YUV
+   * type.
+   * 
+   * @param type the picture type.
+   * 
+   * @return the shift, or 0 if the type is not planar YUV.
+   */
+
+  static int getChromaWidthShift(IPixelFormat.Type type)
+  {
+    final Integer shift = mChromaWidthShifts.get(type);
+    return shift == null ? 0 : shift;
+  }
+
+  /**
+   * Get the log2 of the vertical chroma subsampling of a planar YUV
+   * type.
+   * 
+   * @param type the picture type.
+   * 
+   * @return the shift, or 0 if the type is not planar YUV.
+   */
+
+  static int getChromaHeightShift(IPixelFormat.Type type)
+  {
+    final Integer shift = mChromaShifts.get(type);
+    return shift == null ? 0 : shift;
+  }
+
+  /**
+   * Get the number of rows that must separate the first rows of two
+   * bands so that every band starts on a whole row in every plane.
+   * 
+   * @param type the picture type.
+   * 
+   * @return the alignment, in rows.
+   */
+
+  static int getRowAlignment(IPixelFormat.Type type)
+  {
+    final Integer chromaShift = mChromaShifts.get(type);
+    return chromaShift == null ? 1 : 1 << chromaShift;
+  }
+
+  /**
+   * Get where a plane starts in the picture's buffer.
+   * 
+   * @param plane the plane.
+   * 
+   * @return the offset of the first byte of the plane.
+   */
+
+  int getOffset(int plane)
+  {
+    return mOffsets[plane];
+  }
+
+  /**
+   * Get the number of planes.
+   * 
+   * @return the number of planes.
+   */
+
+  int getNumPlanes()
+  {
+    return mOffsets.length;
+  }
+
+  /**
+   * Get the number of rows in a plane.
+   * 
+   * @param plane the plane.
+   * 
+   * @return the number of rows.
+   */
+
+  int getNumRows(int plane)
+  {
+    return getNumRows(mHeight, mShifts[plane]);
+  }
+
+  /**
+   * Get how many bytes apart the rows of a plane start.
+   * 
+   * @param plane the plane.
+   * 
+   * @return the line size of the plane.
+   */
+
+  int getLineSize(int plane)
+  {
+    return mLineSizes[plane];
+  }
+
+  /**
+   * Copy rows from one picture to another.  Both pictures must be of the
+   * same type and width, and both row numbers must be multiples of
+   * {@link #getRowAlignment(IPixelFormat.Type)}.  Neither buffer's
+   * position or limit is changed, so several threads can copy out of
+   * or into different rows of the same buffers at once.
+   * 
+   * @param src the source picture's buffer.
+   * @param srcRow the first row to copy.
+   * @param dstLayout the destination picture's layout.
+   * @param dst the destination picture's buffer.
+   * @param dstRow the row to copy the first row to.
+   * @param numRows the number of rows to copy.
+   */
+
+  void copyRows(ByteBuffer src, int srcRow, PlaneLayout dstLayout,
+    ByteBuffer dst, int dstRow, int numRows)
+  {
+    for(int i = 0; i < mOffsets.length; i++)
+    {
+      final int shift = mShifts[i];
+      final int srcFirst = srcRow >> shift;
+      final int dstFirst = dstRow >> shift;
+
+      // the last band of a picture may end on a half chroma row
+
+      final int rows = Math.min(
+        getNumRows(srcRow + numRows, shift) - srcFirst,
+        getNumRows(dstLayout.mHeight, shift) - dstFirst);
+      final int srcLineSize = mLineSizes[i];
+      final int dstLineSize = dstLayout.mLineSizes[i];
+      final ByteBuffer from = src.duplicate();
+      final ByteBuffer to = dst.duplicate();
+      int srcPos = mOffsets[i] + srcFirst * srcLineSize;
+      int dstPos = dstLayout.mOffsets[i] + dstFirst * dstLineSize;
+      if (srcLineSize == dstLineSize)
+      {
+        from.limit(srcPos + rows * srcLineSize).position(srcPos);
+        to.position(dstPos);
+        to.put(from);
+      }
+      else
+      {
+        final int lineSize = Math.min(srcLineSize, dstLineSize);
+        for(int row = 0; row < rows; row++)
+        {
+          from.limit(srcPos + lineSize).position(srcPos);
+          to.position(dstPos);
+          to.put(from);
+          srcPos += srcLineSize;
+          dstPos += dstLineSize;
+        }
+      }
+    }
+  }
+
+  private static int getNumRows(int height, int shift)
+  {
+    return (height + (1 << shift) - 1) >> shift;
+  }
+}
@@ -0,0 +1,744 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.xuggle.ferry.JNIReference;
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.IVideoResampler;
+
+/**
+ * Makes fixed size thumbnail {@link BufferedImage}s straight from decoded
+ * {@link IVideoPicture}s.
+ * <p>
+ * Scaling a full size image made by a {@link BgrConverter} in Java2D
+ * converts every pixel of the picture to RGB, and then reads every one of
+ * them again to scale.  A {@link ThumbnailMaker} scales and converts in a
+ * single pass, writing only the pixels of the thumbnail, with one of two
+ * {@link Filter}s:
+ * </p>
+ * <ul>
+ * <li>{@link Filter#NATIVE} has FFmpeg's re-sampler scale and convert
+ * pictures at once, with an area filter when shrinking and a bicubic one
+ * when growing.  It needs a version of Xuggler that supports color space
+ * conversion.</li>
+ * <li>{@link Filter#BOX} averages the box of picture pixels under each
+ * thumbnail pixel in Java, directly from the planes of
+ * {@link IPixelFormat.Type#YUV420P} and {@link IPixelFormat.Type#YUVJ420P}
+ * pictures.  Other picture types are first re-sampled to
+ * {@link IPixelFormat.Type#YUV420P} at their own size.</li>
+ * </ul>
+ * <p>
+ * The converters and re-samplers a {@link ThumbnailMaker} needs are kept
+ * per picture size and type, so streams that change size or several
+ * streams of different sizes don't recreate them for every picture.  Only
+ * the {@link #getMaxSizes()} most recently used sizes are kept.
+ * </p>
+ * <p>
+ * To use:
+ * </p>
+ * <pre>
+ * ThumbnailMaker maker = new ThumbnailMaker(160, 90,
+ *   BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.BOX);
+ * try {
+ *   BufferedImage thumbnail = maker.toImage(picture);
+ *   ...
+ * } finally {
+ *   maker.close();
+ * }
+ * </pre>
+ * <p>
+ * Like converters, this class is not thread safe.
+ * </p>
+ */
+public class ThumbnailMaker
+{
+  /**
+   * How pictures are scaled down to thumbnails.
+   */
+  public enum Filter
+  {
+    /**
+     * FFmpeg's re-sampler scales and converts in one native pass.
+     */
+    NATIVE,
+
+    /**
+     * Each thumbnail pixel is the average of the picture pixels it
+     * covers, computed in Java.
+     */
+    BOX,
+  }
+
+  /**
+   * The default number of picture sizes a maker keeps converters and
+   * re-samplers for ({@value}).
+   */
+  public static final int DEFAULT_MAX_SIZES = 8;
+
+  private final int mWidth;
+  private final int mHeight;
+  private final int mImageType;
+  private final Filter mFilter;
+  private final int mMaxSizes;
+
+  // converters or re-samplers, by picture size and type, in
+  // least-recently-used order
+
+  private final LinkedHashMap<Key, Object> mCache;
+
+  // reused for lookups so that a conversion does not allocate a key
+
+  private final Key mProbe = new Key();
+
+  // the matrix YUV is translated with by the box filter
+
+  private YuvMatrix mMatrix = YuvMatrix.BT601;
+  private YuvPixels mPixels;
+
+  // the YUV420P picture other types are re-sampled to for the box filter
+
+  private IVideoPicture mYuvPicture;
+
+  // the thumbnail the native filter draws in before it is copied into a
+  // larger image
+
+  private BufferedImage mTile;
+
+  // the box of picture columns each thumbnail column covers, for luma
+  // and chroma, and the picture width they were computed for
+
+  private int mBoxWidth = -1;
+  private int[] mLumaColumns;
+  private int[] mChromaColumns;
+
+  // running column sums of the rows in a box
+
+  private int[] mYSums = new int[0];
+  private int[] mUSums = new int[0];
+  private int[] mVSums = new int[0];
+  private byte[] mRow = new byte[0];
+
+  /**
+   * Create a maker which keeps converters for up to
+   * {@link #DEFAULT_MAX_SIZES} picture sizes.
+   * 
+   * @param width the width of thumbnails
+   * @param height the height of thumbnails
+   * @param imageType the type of thumbnails; either
+   *        {@link BufferedImage#TYPE_3BYTE_BGR} or
+   *        {@link BufferedImage#TYPE_INT_ARGB}
+   * @param filter how pictures are scaled
+   *
+   * @throws IllegalArgumentException if a size is not positive, the image
+   *         type is not supported, or filter is NULL.
+   */
+
+  public ThumbnailMaker(int width, int height, int imageType, Filter filter)
+  {
+    this(width, height, imageType, filter, DEFAULT_MAX_SIZES);
+  }
+
+  /**
+   * Create a maker.
+   * 
+   * @param width the width of thumbnails
+   * @param height the height of thumbnails
+   * @param imageType the type of thumbnails; either
+   *        {@link BufferedImage#TYPE_3BYTE_BGR} or
+   *        {@link BufferedImage#TYPE_INT_ARGB}
+   * @param filter how pictures are scaled
+   * @param maxSizes the number of picture sizes to keep converters and
+   *        re-samplers for
+   *
+   * @throws IllegalArgumentException if a size is not positive, the image
+   *         type is not supported, filter is NULL, or maxSizes is not
+   *         positive.
+   */
+
+  public ThumbnailMaker(int width, int height, int imageType, Filter filter,
+    int maxSizes)
+  {
+    if (width <= 0 || height <= 0)
+      throw new IllegalArgumentException(
+        "Thumbnail size [" + width + "x" + height + "] is not positive.");
+    if (imageType != BufferedImage.TYPE_3BYTE_BGR
+      && imageType != BufferedImage.TYPE_INT_ARGB)
+      throw new IllegalArgumentException(
+        "Unsupported image type: " + imageType);
+    if (filter == null)
+      throw new IllegalArgumentException("The filter is NULL.");
+    if (maxSizes <= 0)
+      throw new IllegalArgumentException(
+        "maxSizes must be positive: " + maxSizes);
+
+    mWidth = width;
+    mHeight = height;
+    mImageType = imageType;
+    mFilter = filter;
+    mMaxSizes = maxSizes;
+    mCache = new LinkedHashMap<Key, Object>(16, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest)
+      {
+        if (size() <= mMaxSizes)
+          return false;
+        delete(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Get the width of thumbnails.
+   *
+   * @return the width.
+   */
+
+  public int getWidth()
+  {
+    return mWidth;
+  }
+
+  /**
+   * Get the height of thumbnails.
+   *
+   * @return the height.
+   */
+
+  public int getHeight()
+  {
+    return mHeight;
+  }
+
+  /**
+   * Get the {@link BufferedImage} type of thumbnails.
+   *
+   * @return the image type.
+   */
+
+  public int getImageType()
+  {
+    return mImageType;
+  }
+
+  /**
+   * Get the filter pictures are scaled with.
+   *
+   * @return the filter.
+   */
+
+  public Filter getFilter()
+  {
+    return mFilter;
+  }
+
+  /**
+   * Get the number of picture sizes this maker keeps converters and
+   * re-samplers for.
+   *
+   * @return the maximum number of sizes.
+   */
+
+  public int getMaxSizes()
+  {
+    return mMaxSizes;
+  }
+
+  /**
+   * Get the number of picture sizes this maker is currently keeping
+   * converters or re-samplers for.
+   *
+   * @return the number of sizes.
+   */
+
+  public int getNumSizes()
+  {
+    return mCache.size();
+  }
+
+  /**
+   * Set the matrix the {@link Filter#BOX} filter translates YUV to RGB
+   * with.  The default is {@link YuvMatrix#BT601}, which is what FFmpeg's
+   * re-sampler uses.
+   *
+   * @param matrix the matrix
+   *
+   * @throws IllegalArgumentException if matrix is NULL.
+   */
+
+  public void setMatrix(YuvMatrix matrix)
+  {
+    if (matrix == null)
+      throw new IllegalArgumentException("The matrix is NULL.");
+    mMatrix = matrix;
+  }
+
+  /**
+   * Get the matrix the {@link Filter#BOX} filter translates YUV to RGB
+   * with.
+   *
+   * @return the matrix.
+   */
+
+  public YuvMatrix getMatrix()
+  {
+    return mMatrix;
+  }
+
+  /**
+   * Make a thumbnail of a picture in a new image.
+   *
+   * @param picture the picture
+   *
+   * @return a new image of {@link #getWidth()} by {@link #getHeight()}
+   *         pixels.
+   *
+   * @throws IllegalArgumentException if the picture is NULL or not
+   *         complete.
+   */
+
+  public BufferedImage toImage(IVideoPicture picture)
+  {
+    return toImage(picture, null);
+  }
+
+  /**
+   * Make a thumbnail of a picture.
+   *
+   * @param picture the picture
+   * @param image the image to write the thumbnail into, which must be
+   *        {@link #getWidth()} by {@link #getHeight()} pixels of type
+   *        {@link #getImageType()}, or NULL to create a new image
+   *
+   * @return the image.
+   *
+   * @throws IllegalArgumentException if the picture is NULL or not
+   *         complete, or the image does not match this maker.
+   */
+
+  public BufferedImage toImage(IVideoPicture picture, BufferedImage image)
+  {
+    if (picture == null)
+      throw new IllegalArgumentException("The video picture is NULL.");
+    if (!picture.isComplete())
+      throw new IllegalArgumentException("The picture is not complete.");
+    if (image == null)
+      image = new BufferedImage(mWidth, mHeight, mImageType);
+    else if (image.getType() != mImageType
+      || image.getWidth() != mWidth || image.getHeight() != mHeight)
+      throw new IllegalArgumentException(
+        "The passed image is [" + image.getWidth() + "x" + image.getHeight()
+        + "] of type " + image.getType() + " but is required to be ["
+        + mWidth + "x" + mHeight + "] of type " + mImageType + ".");
+
+    if (mFilter == Filter.NATIVE)
+      return getConverter(picture).toImage(picture, image);
+    box(picture, image, 0, mWidth);
+    return image;
+  }
+
+  /**
+   * Make a thumbnail of a picture in part of a larger image, such as one
+   * tile of a sprite sheet.  With the {@link Filter#BOX} filter the
+   * thumbnail is written straight into the image; otherwise it is made in
+   * an image this maker keeps, and copied.
+   * <p>
+   * Makers in different threads may draw into different parts of the same
+   * image at once.
+   * </p>
+   *
+   * @param picture the picture
+   * @param image the image to draw into, of type {@link #getImageType()}
+   * @param x the column of the image the left of the thumbnail goes in
+   * @param y the row of the image the top of the thumbnail goes in
+   *
+   * @throws IllegalArgumentException if the picture is NULL or not
+   *         complete, the image is NULL or of the wrong type, or the
+   *         thumbnail does not fit in the image at x, y.
+   */
+
+  public void drawThumbnail(IVideoPicture picture, BufferedImage image,
+    int x, int y)
+  {
+    if (picture == null)
+      throw new IllegalArgumentException("The video picture is NULL.");
+    if (!picture.isComplete())
+      throw new IllegalArgumentException("The picture is not complete.");
+    if (image == null)
+      throw new IllegalArgumentException("The image is NULL.");
+    if (image.getType() != mImageType)
+      throw new IllegalArgumentException("The passed image is of type "
+        + image.getType() + " but is required to be of type " + mImageType
+        + ".");
+    if (x < 0 || y < 0 || x + mWidth > image.getWidth()
+      || y + mHeight > image.getHeight())
+      throw new IllegalArgumentException("A [" + mWidth + "x" + mHeight
+        + "] thumbnail at " + x + "," + y + " does not fit in a ["
+        + image.getWidth() + "x" + image.getHeight() + "] image.");
+
+    final int stride = image.getWidth();
+    if (mFilter == Filter.BOX)
+    {
+      box(picture, image, y * stride + x, stride);
+      return;
+    }
+
+    // copy the converted thumbnail in row by row
+
+    if (mTile == null)
+      mTile = new BufferedImage(mWidth, mHeight, mImageType);
+    getConverter(picture).toImage(picture, mTile);
+    final Object from = mImageType == BufferedImage.TYPE_3BYTE_BGR
+      ? BgrConverter.getImageBytes(mTile) : ArgbConverter.getImageInts(mTile);
+    final Object to = mImageType == BufferedImage.TYPE_3BYTE_BGR
+      ? BgrConverter.getImageBytes(image) : ArgbConverter.getImageInts(image);
+    final int scale = mImageType == BufferedImage.TYPE_3BYTE_BGR ? 3 : 1;
+    for (int row = 0; row < mHeight; row++)
+      System.arraycopy(from, row * mWidth * scale, to,
+        ((y + row) * stride + x) * scale, mWidth * scale);
+  }
+
+  /**
+   * Box filter a picture into the image, starting at pixel
+   * <code>offset</code>, with <code>stride</code> pixels per image row.
+   */
+
+  private void box(IVideoPicture picture, BufferedImage image, int offset,
+    int stride)
+  {
+    // box filter the picture's planes, re-sampling to YUV420P first if
+    // need be
+
+    IVideoPicture yuv = picture;
+    PlaneLayout layout = null;
+    if (isYuv420(picture.getPixelType()))
+      layout = PlaneLayout.of(picture);
+    if (layout == null)
+    {
+      yuv = AConverter.resample(picture, getResampler(picture),
+        getYuvPicture(picture.getWidth(), picture.getHeight()));
+      layout = PlaneLayout.of(yuv);
+      if (layout == null)
+        throw new IllegalArgumentException(
+          "The planes of the picture are not laid out as expected.");
+    }
+
+    final AtomicReference<JNIReference> ref =
+      new AtomicReference<JNIReference>(null);
+    try
+    {
+      box(yuv.getByteBuffer(ref), layout, yuv.getWidth(), yuv.getHeight(),
+        getPixels(yuv.getPixelType() == IPixelFormat.Type.YUVJ420P), image,
+        offset, stride);
+    }
+    finally
+    {
+      if (ref.get() != null)
+        ref.get().delete();
+    }
+  }
+
+  /**
+   * Delete the converters, re-samplers and pictures this maker keeps.
+   * The maker may still be used afterwards, and will create them again.
+   */
+
+  public void close()
+  {
+    for (Iterator<Object> i = mCache.values().iterator(); i.hasNext();)
+    {
+      delete(i.next());
+      i.remove();
+    }
+    if (mYuvPicture != null)
+      mYuvPicture.delete();
+    mYuvPicture = null;
+    mTile = null;
+  }
+
+  /** Get a string representation of this maker. */
+
+  public String toString()
+  {
+    return getClass().getName() + "@" + hashCode() + "[" + mWidth + "x"
+      + mHeight + " type=" + mImageType + " filter=" + mFilter + "]";
+  }
+
+  private IConverter getConverter(IVideoPicture picture)
+  {
+    mProbe.set(picture);
+    IConverter converter = (IConverter) mCache.get(mProbe);
+    if (converter == null)
+    {
+      converter = ConverterFactory.createConverter(
+        mImageType == BufferedImage.TYPE_INT_ARGB
+          ? ConverterFactory.XUGGLER_ARGB_32
+          : ConverterFactory.XUGGLER_BGR_24,
+        picture.getPixelType(), picture.getWidth(), picture.getHeight(),
+        mWidth, mHeight);
+      mCache.put(new Key(mProbe), converter);
+    }
+    return converter;
+  }
+
+  private IVideoResampler getResampler(IVideoPicture picture)
+  {
+    if (!IVideoResampler.isSupported(
+        IVideoResampler.Feature.FEATURE_COLORSPACECONVERSION))
+      throw new UnsupportedOperationException(
+        "Box filtering " + picture.getPixelType() + " pictures requires"
+        + " color space conversion, which is not supported.");
+
+    mProbe.set(picture);
+    IVideoResampler resampler = (IVideoResampler) mCache.get(mProbe);
+    if (resampler == null)
+    {
+      resampler = AConverter.keep(IVideoResampler.make(
+        picture.getWidth(), picture.getHeight(), IPixelFormat.Type.YUV420P,
+        picture.getWidth(), picture.getHeight(), picture.getPixelType()));
+      if (resampler == null)
+        throw new RuntimeException(
+          "Could not create re-sampler from " + picture.getPixelType()
+          + " to " + IPixelFormat.Type.YUV420P + ".");
+      mCache.put(new Key(mProbe), resampler);
+    }
+    return resampler;
+  }
+
+  private IVideoPicture getYuvPicture(int width, int height)
+  {
+    if (mYuvPicture == null
+      || mYuvPicture.getWidth() != width
+      || mYuvPicture.getHeight() != height)
+    {
+      if (mYuvPicture != null)
+        mYuvPicture.delete();
+      mYuvPicture = AConverter.keep(
+        IVideoPicture.make(IPixelFormat.Type.YUV420P, width, height));
+    }
+    return mYuvPicture;
+  }
+
+  private YuvPixels getPixels(boolean fullRange)
+  {
+    if (mPixels == null || mPixels.getMatrix() != mMatrix
+      || mPixels.isFullRange() != fullRange)
+      mPixels = new YuvPixels(mMatrix, fullRange);
+    return mPixels;
+  }
+
+  /**
+   * Average the box of picture pixels under each thumbnail pixel, and
+   * write the result into the image.
+   */
+
+  private void box(ByteBuffer src, PlaneLayout layout, int w, int h,
+    YuvPixels pixels, BufferedImage image, int offset, int stride)
+  {
+    final ByteBuffer buffer = src.duplicate();
+    final int cw = (w + 1) >> 1;
+    final int ch = (h + 1) >> 1;
+    setBoxWidth(w);
+
+    final byte[] bytes = mImageType == BufferedImage.TYPE_3BYTE_BGR
+      ? BgrConverter.getImageBytes(image) : null;
+    final int[] ints = bytes == null
+      ? ArgbConverter.getImageInts(image) : null;
+
+    final int pixelSize = bytes != null ? 3 : 1;
+    for (int ty = 0; ty < mHeight; ty++)
+    {
+      int o = (offset + ty * stride) * pixelSize;
+
+      // sum the rows each plane's box covers into columns
+
+      final int yRows = sumRows(buffer, layout, 0, w, h, ty, mYSums);
+      final int cRows = sumRows(buffer, layout, 1, cw, ch, ty, mUSums);
+      sumRows(buffer, layout, 2, cw, ch, ty, mVSums);
+
+      // then the columns of each box, rounding to the nearest value
+
+      for (int tx = 0; tx < mWidth; tx++)
+      {
+        final int y = average(mYSums, mLumaColumns, tx, yRows);
+        final int u = average(mUSums, mChromaColumns, tx, cRows);
+        final int v = average(mVSums, mChromaColumns, tx, cRows);
+        final int rgb = pixels.toRgb(y, u, v);
+        if (bytes != null)
+        {
+          bytes[o++] = (byte) rgb;
+          bytes[o++] = (byte) (rgb >> 8);
+          bytes[o++] = (byte) (rgb >> 16);
+        }
+        else
+          ints[o++] = 0xff000000 | rgb;
+      }
+    }
+  }
+
+  /**
+   * Work out the columns of the picture each thumbnail column covers.
+   * Each box spans at least one column, so growing repeats pixels.
+   */
+
+  private void setBoxWidth(int w)
+  {
+    if (w == mBoxWidth)
+      return;
+    final int cw = (w + 1) >> 1;
+    mLumaColumns = getBounds(w, mWidth);
+    mChromaColumns = getBounds(cw, mWidth);
+    if (mYSums.length < w)
+    {
+      mYSums = new int[w];
+      mRow = new byte[w];
+    }
+    if (mUSums.length < cw)
+    {
+      mUSums = new int[cw];
+      mVSums = new int[cw];
+    }
+    mBoxWidth = w;
+  }
+
+  /**
+   * Get the start of each of <code>to</code> boxes spread over
+   * <code>from</code> samples, followed by the end of the last.
+   */
+
+  private static int[] getBounds(int from, int to)
+  {
+    final int[] bounds = new int[to + 1];
+    for (int i = 0; i <= to; i++)
+      bounds[i] = (int) ((long) i * from / to);
+    return bounds;
+  }
+
+  /**
+   * Sum the rows of a plane that thumbnail row <code>ty</code> covers
+   * into per column sums, and return the number of rows summed.
+   */
+
+  private int sumRows(ByteBuffer buffer, PlaneLayout layout, int plane,
+    int w, int h, int ty, int[] sums)
+  {
+    final int first = (int) ((long) ty * h / mHeight);
+    final int last = Math.max(first + 1,
+      (int) ((long) (ty + 1) * h / mHeight));
+    final byte[] row = mRow;
+    final int offset = layout.getOffset(plane);
+    final int lineSize = layout.getLineSize(plane);
+    for (int y = first; y < last; y++)
+    {
+      buffer.position(offset + y * lineSize);
+      buffer.get(row, 0, w);
+      if (y == first)
+        for (int x = 0; x < w; x++)
+          sums[x] = row[x] & 0xff;
+      else
+        for (int x = 0; x < w; x++)
+          sums[x] += row[x] & 0xff;
+    }
+    return last - first;
+  }
+
+  /**
+   * Average the column sums under thumbnail column <code>tx</code>.
+   */
+
+  private static int average(int[] sums, int[] bounds, int tx, int rows)
+  {
+    final int first = bounds[tx];
+    final int last = Math.max(first + 1, bounds[tx + 1]);
+    long sum = 0;
+    for (int x = first; x < last; x++)
+      sum += sums[x];
+    final long count = (long) (last - first) * rows;
+    return (int) ((sum + (count >> 1)) / count);
+  }
+
+  private static boolean isYuv420(IPixelFormat.Type type)
+  {
+    return type == IPixelFormat.Type.YUV420P
+      || type == IPixelFormat.Type.YUVJ420P;
+  }
+
+  private static void delete(Object cached)
+  {
+    if (cached instanceof IConverter)
+      ((IConverter) cached).delete();
+    else if (cached instanceof IVideoResampler)
+      ((IVideoResampler) cached).delete();
+  }
+
+  /**
+   * The size and type of the pictures a cached converter or re-sampler
+   * takes.
+   */
+
+  private static final class Key
+  {
+    private IPixelFormat.Type mType;
+    private int mWidth;
+    private int mHeight;
+
+    Key()
+    {
+    }
+
+    Key(Key key)
+    {
+      mType = key.mType;
+      mWidth = key.mWidth;
+      mHeight = key.mHeight;
+    }
+
+    void set(IVideoPicture picture)
+    {
+      mType = picture.getPixelType();
+      mWidth = picture.getWidth();
+      mHeight = picture.getHeight();
+    }
+
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key))
+        return false;
+      final Key key = (Key) o;
+      return mType == key.mType && mWidth == key.mWidth
+        && mHeight == key.mHeight;
+    }
+
+    public int hashCode()
+    {
+      return (mType.hashCode() * 31 + mWidth) * 31 + mHeight;
+    }
+  }
+}
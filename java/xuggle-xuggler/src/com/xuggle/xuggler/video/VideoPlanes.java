@@ -0,0 +1,828 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.xuggle.ferry.JNIReference;
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * A view of the planes of a planar YUV or {@link IPixelFormat.Type#GRAY8}
+ * {@link IVideoPicture}, straight onto the picture's native memory.
+ * <p>
+ * {@link IPixelFormat#getYUV420PPixel(IVideoPicture, int, int,
+ * IPixelFormat.YUVColorComponent)} and its setter make a JNI call for
+ * every sample.  A {@link VideoPlanes} gets the picture's buffer once,
+ * and hands out a {@link Plane} for each of the Y, U and V planes with
+ * its size and stride, so samples can be read and written with plain
+ * {@link ByteBuffer} calls.  It also fills, copies, crops and overlays
+ * whole regions.  None of these allocate per sample or per row; copies go
+ * through one row of scratch space per plane, which only grows to the
+ * widest row copied.
+ * </p>
+ * <p>
+ * To use:
+ * </p>
+ * <pre>
+ * VideoPlanes planes = VideoPlanes.make(picture);
+ * try {
+ *   VideoPlanes.Plane luma = planes.getY();
+ *   for (int y = 0; y &lt; luma.getHeight(); y++)
+ *     for (int x = 0; x &lt; luma.getWidth(); x++)
+ *       luma.set(x, y, 255 - luma.get(x, y));
+ *   planes.overlay(logo, 16, 16);
+ * } finally {
+ *   planes.delete();
+ * }
+ * </pre>
+ * <p>
+ * Regions are given in luma samples.  Where chroma is subsampled, the
+ * chroma region is the one covering every luma sample in the region, so
+ * regions that start and end on chroma sample boundaries (even
+ * coordinates for {@link IPixelFormat.Type#YUV420P}) are exact.
+ * </p>
+ * <p>
+ * Like converters, this class is not thread safe, and its buffers'
+ * positions and limits are changed by the bulk operations.  The view
+ * must not be used after the picture is deleted.
+ * </p>
+ */
+public final class VideoPlanes
+{
+  private final IPixelFormat.Type mType;
+  private final int mWidth;
+  private final int mHeight;
+  private final int mWidthShift;
+  private final int mHeightShift;
+  private final Plane[] mPlanes;
+  private JNIReference mRef;
+
+  // the matrix RGB is translated to YUV with when overlaying
+
+  private YuvMatrix mMatrix = YuvMatrix.BT601;
+  private YuvPixels mPixels;
+
+  private VideoPlanes(IVideoPicture picture, PlaneLayout layout)
+  {
+    mType = picture.getPixelType();
+    mWidth = picture.getWidth();
+    mHeight = picture.getHeight();
+    mWidthShift = PlaneLayout.getChromaWidthShift(mType);
+    mHeightShift = PlaneLayout.getChromaHeightShift(mType);
+
+    final AtomicReference<JNIReference> ref =
+      new AtomicReference<JNIReference>(null);
+    final ByteBuffer buffer = picture.getByteBuffer(ref);
+    mRef = ref.get();
+    if (buffer == null)
+      throw new IllegalArgumentException(
+        "Could not get at the picture's buffer.");
+
+    mPlanes = new Plane[layout.getNumPlanes()];
+    for(int i = 0; i < mPlanes.length; i++)
+    {
+      final int offset = layout.getOffset(i);
+      final int stride = layout.getLineSize(i);
+      final int rows = layout.getNumRows(i);
+      buffer.limit(offset + stride * rows).position(offset);
+      mPlanes[i] = new Plane(buffer.slice(),
+        i == 0 ? mWidth : getChromaSize(mWidth, mWidthShift),
+        rows, stride);
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Test if pictures of a type can be viewed.  The first plane of every
+   * such picture is its luma, starting at the start of its buffer.
+   * 
+   * @param type the picture type
+   *
+   * @return true for planar YUV and {@link IPixelFormat.Type#GRAY8}.
+   */
+
+  public static boolean isSupported(IPixelFormat.Type type)
+  {
+    return PlaneLayout.isPlanarYuv(type) || type == IPixelFormat.Type.GRAY8;
+  }
+
+  /**
+   * Make a view of a picture's planes.
+   * 
+   * @param picture the picture, which must have its type, size and line
+   *        sizes set, as decoded pictures and pictures passed to
+   *        {@link IVideoPicture#setComplete(boolean, IPixelFormat.Type,
+   *        int, int, long)} do.
+   *
+   * @return the view, which must be deleted with {@link #delete()} when
+   *         no longer needed.
+   *
+   * @throws IllegalArgumentException if the picture is NULL, is not
+   *         planar YUV or {@link IPixelFormat.Type#GRAY8}, or its planes
+   *         are not laid out as expected.
+   */
+
+  public static VideoPlanes make(IVideoPicture picture)
+  {
+    if (picture == null)
+      throw new IllegalArgumentException("The picture is NULL.");
+    final IPixelFormat.Type type = picture.getPixelType();
+    if (!isSupported(type))
+      throw new IllegalArgumentException(
+        "Picture is of type: " + type + ", but must be planar YUV or "
+        + IPixelFormat.Type.GRAY8 + ".");
+    final PlaneLayout layout = PlaneLayout.of(picture);
+    if (layout == null)
+      throw new IllegalArgumentException(
+        "The planes of the picture are not laid out as expected.");
+    return new VideoPlanes(picture, layout);
+  }
+
+  /**
+   * Copy a region of a picture into another picture.
+   *
+   * @param picture the picture to crop
+   * @param x the left of the region
+   * @param y the top of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @param target the picture to copy the region into, which must be of
+   *        the same type and exactly the size of the region, or NULL to
+   *        create a new picture
+   *
+   * @return the target, complete and with the time stamp of the picture.
+   *
+   * @throws IllegalArgumentException if the picture is not supported,
+   *         the region is not inside it, or the target does not match
+   *         the region.
+   */
+
+  public static IVideoPicture crop(IVideoPicture picture, int x, int y,
+    int width, int height, IVideoPicture target)
+  {
+    final VideoPlanes src = make(picture);
+    try
+    {
+      src.checkRegion(x, y, width, height);
+      if (target == null)
+        target = IVideoPicture.make(picture.getPixelType(), width, height);
+      else if (target.getPixelType() != picture.getPixelType()
+        || target.getWidth() != width || target.getHeight() != height)
+        throw new IllegalArgumentException(
+          "The target picture is [" + target.getWidth() + "x"
+          + target.getHeight() + "] of type " + target.getPixelType()
+          + " but is required to be [" + width + "x" + height
+          + "] of type " + picture.getPixelType() + ".");
+      target.setComplete(true, picture.getPixelType(), width, height,
+        picture.getTimeStamp());
+
+      final VideoPlanes dst = make(target);
+      try
+      {
+        dst.blit(src, x, y, width, height, 0, 0);
+      }
+      finally
+      {
+        dst.delete();
+      }
+      return target;
+    }
+    finally
+    {
+      src.delete();
+    }
+  }
+
+  /**
+   * Get the picture type of the viewed picture.
+   *
+   * @return the type.
+   */
+
+  public IPixelFormat.Type getPixelType()
+  {
+    return mType;
+  }
+
+  /**
+   * Get the width of the viewed picture.
+   *
+   * @return the width in luma samples.
+   */
+
+  public int getWidth()
+  {
+    return mWidth;
+  }
+
+  /**
+   * Get the height of the viewed picture.
+   *
+   * @return the height in luma samples.
+   */
+
+  public int getHeight()
+  {
+    return mHeight;
+  }
+
+  /**
+   * Get the number of planes: 3 for planar YUV, 1 for
+   * {@link IPixelFormat.Type#GRAY8}.
+   *
+   * @return the number of planes.
+   */
+
+  public int getNumPlanes()
+  {
+    return mPlanes.length;
+  }
+
+  /**
+   * Get a plane.
+   *
+   * @param plane the plane; 0 for Y, 1 for U and 2 for V
+   *
+   * @return the plane.
+   *
+   * @throws IllegalArgumentException if there is no such plane.
+   */
+
+  public Plane getPlane(int plane)
+  {
+    if (plane < 0 || plane >= mPlanes.length)
+      throw new IllegalArgumentException("No plane " + plane + " in a "
+        + mType + " picture.");
+    return mPlanes[plane];
+  }
+
+  /**
+   * Get the luma plane.
+   *
+   * @return the Y plane.
+   */
+
+  public Plane getY()
+  {
+    return getPlane(0);
+  }
+
+  /**
+   * Get the blue difference chroma plane.
+   *
+   * @return the U plane.
+   *
+   * @throws IllegalArgumentException if the picture has no chroma.
+   */
+
+  public Plane getU()
+  {
+    return getPlane(1);
+  }
+
+  /**
+   * Get the red difference chroma plane.
+   *
+   * @return the V plane.
+   *
+   * @throws IllegalArgumentException if the picture has no chroma.
+   */
+
+  public Plane getV()
+  {
+    return getPlane(2);
+  }
+
+  /**
+   * Set the matrix {@link #overlay(BufferedImage, int, int)} translates
+   * RGB to YUV with.  The default is {@link YuvMatrix#BT601}, which is
+   * what FFmpeg's re-sampler uses.
+   *
+   * @param matrix the matrix
+   *
+   * @throws IllegalArgumentException if matrix is NULL.
+   */
+
+  public void setMatrix(YuvMatrix matrix)
+  {
+    if (matrix == null)
+      throw new IllegalArgumentException("The matrix is NULL.");
+    mMatrix = matrix;
+  }
+
+  /**
+   * Get the matrix {@link #overlay(BufferedImage, int, int)} translates
+   * RGB to YUV with.
+   *
+   * @return the matrix.
+   */
+
+  public YuvMatrix getMatrix()
+  {
+    return mMatrix;
+  }
+
+  /**
+   * Fill the whole picture with one color.
+   *
+   * @param y the luma
+   * @param u the blue difference chroma; ignored if there is no chroma
+   * @param v the red difference chroma; ignored if there is no chroma
+   */
+
+  public void fill(int y, int u, int v)
+  {
+    fill(0, 0, mWidth, mHeight, y, u, v);
+  }
+
+  /**
+   * Fill a region of the picture with one color.
+   *
+   * @param x the left of the region
+   * @param y the top of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @param luma the luma
+   * @param u the blue difference chroma; ignored if there is no chroma
+   * @param v the red difference chroma; ignored if there is no chroma
+   *
+   * @throws IllegalArgumentException if the region is not inside the
+   *         picture.
+   */
+
+  public void fill(int x, int y, int width, int height, int luma, int u,
+    int v)
+  {
+    checkRegion(x, y, width, height);
+    mPlanes[0].fill(x, y, width, height, luma);
+    if (mPlanes.length == 1)
+      return;
+    final int cx = x >> mWidthShift;
+    final int cy = y >> mHeightShift;
+    final int cw = getChromaSize(x + width, mWidthShift) - cx;
+    final int ch = getChromaSize(y + height, mHeightShift) - cy;
+    mPlanes[1].fill(cx, cy, cw, ch, u);
+    mPlanes[2].fill(cx, cy, cw, ch, v);
+  }
+
+  /**
+   * Copy a region of another picture, or of this one, into this picture.
+   * Overlapping regions of the same picture are copied correctly.
+   *
+   * @param src the view of the picture to copy from, which must be of
+   *        the same type as this one
+   * @param srcX the left of the region in the source
+   * @param srcY the top of the region in the source
+   * @param width the width of the region
+   * @param height the height of the region
+   * @param dstX the left of where the region is copied to
+   * @param dstY the top of where the region is copied to
+   *
+   * @throws IllegalArgumentException if the types differ, or either
+   *         region does not fit in its picture.
+   */
+
+  public void blit(VideoPlanes src, int srcX, int srcY, int width,
+    int height, int dstX, int dstY)
+  {
+    if (src == null)
+      throw new IllegalArgumentException("The source is NULL.");
+    if (src.mType != mType)
+      throw new IllegalArgumentException("Cannot copy a " + src.mType
+        + " picture into a " + mType + " picture.");
+    src.checkRegion(srcX, srcY, width, height);
+    checkRegion(dstX, dstY, width, height);
+    mPlanes[0].copy(src.mPlanes[0], srcX, srcY, width, height, dstX, dstY);
+    if (mPlanes.length == 1)
+      return;
+
+    // copy the chroma covering the source region, clipped to where it
+    // lands in this picture
+
+    final int scx = srcX >> mWidthShift;
+    final int scy = srcY >> mHeightShift;
+    final int dcx = dstX >> mWidthShift;
+    final int dcy = dstY >> mHeightShift;
+    final int cw = Math.min(getChromaSize(srcX + width, mWidthShift) - scx,
+      mPlanes[1].mWidth - dcx);
+    final int ch = Math.min(getChromaSize(srcY + height, mHeightShift) - scy,
+      mPlanes[1].mHeight - dcy);
+    for(int i = 1; i < 3; i++)
+      mPlanes[i].copy(src.mPlanes[i], scx, scy, cw, ch, dcx, dcy);
+  }
+
+  /**
+   * Draw an image onto the picture, blending it by its alpha.  The parts
+   * of the image that fall outside the picture are ignored.  Images of
+   * type {@link BufferedImage#TYPE_INT_ARGB} and
+   * {@link BufferedImage#TYPE_3BYTE_BGR} are read directly from their
+   * rasters; others are read a pixel at a time.
+   *
+   * @param image the image
+   * @param x where the left of the image goes; may be negative
+   * @param y where the top of the image goes; may be negative
+   *
+   * @throws IllegalArgumentException if the image is NULL.
+   */
+
+  public void overlay(BufferedImage image, int x, int y)
+  {
+    if (image == null)
+      throw new IllegalArgumentException("The image is NULL.");
+
+    // the part of the picture the image covers
+
+    final int left = Math.max(x, 0);
+    final int top = Math.max(y, 0);
+    final int right = Math.min(x + image.getWidth(), mWidth);
+    final int bottom = Math.min(y + image.getHeight(), mHeight);
+    if (left >= right || top >= bottom)
+      return;
+
+    final ImagePixels pixels = new ImagePixels(image, x, y);
+    final YuvPixels yuv = getPixels();
+
+    // blend luma a pixel at a time
+
+    final Plane luma = mPlanes[0];
+    for(int py = top; py < bottom; py++)
+    {
+      int pos = py * luma.mStride + left;
+      for(int px = left; px < right; px++, pos++)
+      {
+        final int argb = pixels.get(px, py);
+        final int a = argb >>> 24;
+        if (a == 0)
+          continue;
+        final int src = yuv.toY((argb >> 16) & 0xff, (argb >> 8) & 0xff,
+          argb & 0xff);
+        luma.mBuffer.put(pos, (byte)blend(src, a,
+          luma.mBuffer.get(pos) & 0xff, 255));
+      }
+    }
+    if (mPlanes.length == 1)
+      return;
+
+    // blend each chroma sample with the alpha weighted average of the
+    // pixels it covers
+
+    final Plane uPlane = mPlanes[1];
+    final Plane vPlane = mPlanes[2];
+    final int cLeft = left >> mWidthShift;
+    final int cTop = top >> mHeightShift;
+    final int cRight = getChromaSize(right, mWidthShift);
+    final int cBottom = getChromaSize(bottom, mHeightShift);
+    for(int cy = cTop; cy < cBottom; cy++)
+      for(int cx = cLeft; cx < cRight; cx++)
+      {
+        final int x0 = cx << mWidthShift;
+        final int y0 = cy << mHeightShift;
+        final int x1 = Math.min(x0 + (1 << mWidthShift), mWidth);
+        final int y1 = Math.min(y0 + (1 << mHeightShift), mHeight);
+        int alpha = 0, r = 0, g = 0, b = 0;
+        for(int py = Math.max(y0, top); py < Math.min(y1, bottom); py++)
+          for(int px = Math.max(x0, left); px < Math.min(x1, right); px++)
+          {
+            final int argb = pixels.get(px, py);
+            final int a = argb >>> 24;
+            alpha += a;
+            r += a * ((argb >> 16) & 0xff);
+            g += a * ((argb >> 8) & 0xff);
+            b += a * (argb & 0xff);
+          }
+        if (alpha == 0)
+          continue;
+        final int total = 255 * (x1 - x0) * (y1 - y0);
+        r /= alpha;
+        g /= alpha;
+        b /= alpha;
+        final int pos = cy * uPlane.mStride + cx;
+        uPlane.mBuffer.put(pos, (byte)blend(yuv.toU(r, g, b), alpha,
+          uPlane.mBuffer.get(pos) & 0xff, total));
+        final int vPos = cy * vPlane.mStride + cx;
+        vPlane.mBuffer.put(vPos, (byte)blend(yuv.toV(r, g, b), alpha,
+          vPlane.mBuffer.get(vPos) & 0xff, total));
+      }
+  }
+
+  /**
+   * Release the picture's buffer.  The view, and its planes, must not be
+   * used afterwards.
+   */
+
+  public void delete()
+  {
+    if (mRef != null)
+      mRef.delete();
+    mRef = null;
+  }
+
+  /** Get a string representation of this view. */
+
+  public String toString()
+  {
+    return getClass().getName() + "@" + hashCode() + "[" + mType + " "
+      + mWidth + "x" + mHeight + "]";
+  }
+
+  private YuvPixels getPixels()
+  {
+    final boolean fullRange = mType == IPixelFormat.Type.GRAY8
+      || mType == IPixelFormat.Type.YUVJ420P
+      || mType == IPixelFormat.Type.YUVJ422P
+      || mType == IPixelFormat.Type.YUVJ440P
+      || mType == IPixelFormat.Type.YUVJ444P;
+    if (mPixels == null || mPixels.getMatrix() != mMatrix)
+      mPixels = new YuvPixels(mMatrix, fullRange);
+    return mPixels;
+  }
+
+  private void checkRegion(int x, int y, int width, int height)
+  {
+    if (x < 0 || y < 0 || width < 0 || height < 0
+      || x + width > mWidth || y + height > mHeight)
+      throw new IllegalArgumentException("Region [" + x + "," + y + " "
+        + width + "x" + height + "] is not inside the [" + mWidth + "x"
+        + mHeight + "] picture.");
+  }
+
+  /**
+   * Blend a value with weight <code>alpha</code> out of
+   * <code>total</code> over another value, rounding.
+   */
+
+  private static int blend(int src, int alpha, int dst, int total)
+  {
+    return (src * alpha + dst * (total - alpha) + (total >> 1)) / total;
+  }
+
+  private static int getChromaSize(int size, int shift)
+  {
+    return (size + (1 << shift) - 1) >> shift;
+  }
+
+  /**
+   * Reads ARGB pixels of an image by picture coordinates.
+   */
+
+  private static final class ImagePixels
+  {
+    private final BufferedImage mImage;
+    private final int mX;
+    private final int mY;
+    private final int mWidth;
+    private final int[] mInts;
+    private final byte[] mBytes;
+
+    ImagePixels(BufferedImage image, int x, int y)
+    {
+      mImage = image;
+      mX = x;
+      mY = y;
+      mWidth = image.getWidth();
+      mInts = image.getType() == BufferedImage.TYPE_INT_ARGB
+        ? getInts(image) : null;
+      mBytes = image.getType() == BufferedImage.TYPE_3BYTE_BGR
+        ? getBytes(image) : null;
+    }
+
+    int get(int px, int py)
+    {
+      final int ix = px - mX;
+      final int iy = py - mY;
+      if (mInts != null)
+        return mInts[iy * mWidth + ix];
+      if (mBytes != null)
+      {
+        final int i = (iy * mWidth + ix) * 3;
+        return 0xff000000 | (mBytes[i + 2] & 0xff) << 16
+          | (mBytes[i + 1] & 0xff) << 8 | (mBytes[i] & 0xff);
+      }
+      return mImage.getRGB(ix, iy);
+    }
+
+    private static int[] getInts(BufferedImage image)
+    {
+      try
+      {
+        return ArgbConverter.getImageInts(image);
+      }
+      catch (IllegalArgumentException e)
+      {
+        // not packed, so read it a pixel at a time
+        return null;
+      }
+    }
+
+    private static byte[] getBytes(BufferedImage image)
+    {
+      try
+      {
+        return BgrConverter.getImageBytes(image);
+      }
+      catch (IllegalArgumentException e)
+      {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * One plane of a picture.  Sample (x, y) is at
+   * <code>y * getStride() + x</code> in {@link #getBuffer()}.
+   */
+
+  public static final class Plane
+  {
+    private final ByteBuffer mBuffer;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mStride;
+
+    // a row copied through when copying within or between planes
+
+    private byte[] mRow = new byte[0];
+
+    Plane(ByteBuffer buffer, int width, int height, int stride)
+    {
+      mBuffer = buffer;
+      mWidth = width;
+      mHeight = height;
+      mStride = stride;
+    }
+
+    /**
+     * Get the plane's samples.  The buffer starts at the first sample of
+     * the plane and ends after the last row, including any padding at the
+     * end of each row.  Prefer the absolute get and put methods; the
+     * bulk operations of the view change the position and limit.
+     *
+     * @return the buffer, which is direct and backed by the picture.
+     */
+
+    public ByteBuffer getBuffer()
+    {
+      return mBuffer;
+    }
+
+    /**
+     * Get the width of the plane.
+     *
+     * @return the number of samples in a row.
+     */
+
+    public int getWidth()
+    {
+      return mWidth;
+    }
+
+    /**
+     * Get the height of the plane.
+     *
+     * @return the number of rows.
+     */
+
+    public int getHeight()
+    {
+      return mHeight;
+    }
+
+    /**
+     * Get how many bytes apart rows start, which may be more than the
+     * width.
+     *
+     * @return the stride.
+     */
+
+    public int getStride()
+    {
+      return mStride;
+    }
+
+    /**
+     * Get a sample.
+     *
+     * @param x the column
+     * @param y the row
+     *
+     * @return the sample, 0 to 255.
+     */
+
+    public int get(int x, int y)
+    {
+      return mBuffer.get(y * mStride + x) & 0xff;
+    }
+
+    /**
+     * Set a sample.
+     *
+     * @param x the column
+     * @param y the row
+     * @param value the sample, 0 to 255
+     */
+
+    public void set(int x, int y, int value)
+    {
+      mBuffer.put(y * mStride + x, (byte)value);
+    }
+
+    /**
+     * Set every sample in a region to one value.
+     *
+     * @param x the left of the region
+     * @param y the top of the region
+     * @param width the width of the region
+     * @param height the height of the region
+     * @param value the sample, 0 to 255
+     *
+     * @throws IllegalArgumentException if the region is not inside the
+     *         plane.
+     */
+
+    public void fill(int x, int y, int width, int height, int value)
+    {
+      checkRegion(x, y, width, height);
+      final byte b = (byte)value;
+      for(int row = y; row < y + height; row++)
+      {
+        final int start = row * mStride + x;
+        for(int i = start; i < start + width; i++)
+          mBuffer.put(i, b);
+      }
+    }
+
+    /**
+     * Copy a region of another plane, or of this one, into this plane.
+     * Overlapping regions are copied correctly.
+     *
+     * @param src the plane to copy from
+     * @param srcX the left of the region in the source
+     * @param srcY the top of the region in the source
+     * @param width the width of the region
+     * @param height the height of the region
+     * @param dstX the left of where the region is copied to
+     * @param dstY the top of where the region is copied to
+     *
+     * @throws IllegalArgumentException if either region does not fit in
+     *         its plane.
+     */
+
+    public void copy(Plane src, int srcX, int srcY, int width, int height,
+      int dstX, int dstY)
+    {
+      src.checkRegion(srcX, srcY, width, height);
+      checkRegion(dstX, dstY, width, height);
+      if (width == 0)
+        return;
+      if (mRow.length < width)
+        mRow = new byte[width];
+
+      // go bottom up if copying down within the same memory, so rows
+      // aren't overwritten before they are read
+
+      final boolean up = dstY > srcY;
+      for(int i = 0; i < height; i++)
+      {
+        final int row = up ? height - 1 - i : i;
+        src.mBuffer.limit(src.mBuffer.capacity())
+          .position((srcY + row) * src.mStride + srcX);
+        src.mBuffer.get(mRow, 0, width);
+        mBuffer.limit(mBuffer.capacity())
+          .position((dstY + row) * mStride + dstX);
+        mBuffer.put(mRow, 0, width);
+      }
+      src.mBuffer.clear();
+      mBuffer.clear();
+    }
+
+    private void checkRegion(int x, int y, int width, int height)
+    {
+      if (x < 0 || y < 0 || width < 0 || height < 0
+        || x + width > mWidth || y + height > mHeight)
+        throw new IllegalArgumentException("Region [" + x + "," + y + " "
+          + width + "x" + height + "] is not inside the [" + mWidth + "x"
+          + mHeight + "] plane.");
+    }
+  }
+}
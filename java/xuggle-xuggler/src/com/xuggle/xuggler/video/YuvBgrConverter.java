@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+/** A converter to translate {@link IVideoPicture}s to and from
+ * {@link BufferedImage}s of type {@link BufferedImage#TYPE_3BYTE_BGR},
+ * which translates {@link IPixelFormat.Type#YUV420P} and {@link
+ * IPixelFormat.Type#YUVJ420P} pictures in Java.
+ *
+ * <p> Those pictures are read from and written to directly, as {@link
+ * AYuvConverter} describes.  Other picture types, and any conversion
+ * which resizes, are re-sampled exactly as {@link BgrConverter} does.
+ * </p>
+ */
+
+public class YuvBgrConverter extends AYuvConverter
+{
+  /** Construct as converter to translate {@link IVideoPicture}s to and
+   * from {@link BufferedImage}s of type {@link
+   * BufferedImage#TYPE_3BYTE_BGR}.
+   *
+   * @param pictureType the picture type recognized by this converter
+   * @param pictureWidth the width of pictures
+   * @param pictureHeight the height of pictures
+   * @param imageWidth the width of images
+   * @param imageHeight the height of images
+   */
+
+  public YuvBgrConverter(IPixelFormat.Type pictureType, 
+    int pictureWidth, int pictureHeight,
+    int imageWidth, int imageHeight)
+  {
+    super(pictureType, BufferedImage.TYPE_3BYTE_BGR, pictureWidth, 
+      pictureHeight, imageWidth, imageHeight);
+  }
+
+  IConverter createFallback(IPixelFormat.Type pictureType, 
+    int pictureWidth, int pictureHeight,
+    int imageWidth, int imageHeight)
+  {
+    return new BgrConverter(pictureType, pictureWidth, pictureHeight,
+      imageWidth, imageHeight);
+  }
+
+  Object getImagePixels(BufferedImage image)
+  {
+    return BgrConverter.getImageBytes(image);
+  }
+
+  void packRow(Object pixels, int y, int w, int[] r, int[] g, int[] b)
+  {
+    final byte[] bytes = (byte[])pixels;
+    int o = y * w * 3;
+    for(int x = 0; x < w; x++)
+    {
+      bytes[o++] = (byte)b[x];
+      bytes[o++] = (byte)g[x];
+      bytes[o++] = (byte)r[x];
+    }
+  }
+
+  void unpackRow(Object pixels, int y, int w, int[] r, int[] g, int[] b)
+  {
+    final byte[] bytes = (byte[])pixels;
+    int i = y * w * 3;
+    for(int x = 0; x < w; x++)
+    {
+      b[x] = bytes[i++] & 0xff;
+      g[x] = bytes[i++] & 0xff;
+      r[x] = bytes[i++] & 0xff;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+/**
+ * The matrices used to translate between YUV and RGB colors, as
+ * understood by {@link YuvBgrConverter} and {@link YuvArgbConverter}.
+ * Standard definition video is usually {@link #BT601}, and high
+ * definition video is usually {@link #BT709}.
+ */
+
+public enum YuvMatrix
+{
+  /** ITU-R BT.601, the matrix FFmpeg assumes by default. */
+
+  BT601(0.299, 0.114),
+
+  /** ITU-R BT.709. */
+
+  BT709(0.2126, 0.0722);
+
+  private final double mKr;
+  private final double mKb;
+
+  private YuvMatrix(double kr, double kb)
+  {
+    mKr = kr;
+    mKb = kb;
+  }
+
+  /**
+   * Get how much red contributes to luma.
+   * 
+   * @return the red weight.
+   */
+
+  public double getKr()
+  {
+    return mKr;
+  }
+
+  /**
+   * Get how much green contributes to luma.
+   * 
+   * @return the green weight.
+   */
+
+  public double getKg()
+  {
+    return 1 - mKr - mKb;
+  }
+
+  /**
+   * Get how much blue contributes to luma.
+   * 
+   * @return the blue weight.
+   */
+
+  public double getKb()
+  {
+    return mKb;
+  }
+}
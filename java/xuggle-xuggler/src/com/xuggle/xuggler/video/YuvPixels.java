@@ -0,0 +1,408 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.nio.ByteBuffer;
+
+import com.xuggle.xuggler.IPixelFormat;
+
+/**
+ * Translates between 4:2:0 planar YUV pictures and rows of red, green
+ * and blue samples in Java, without FFmpeg's re-sampler.
+ * <p>
+ * All arithmetic is 16.16 fixed point.  Pictures are decoded and encoded
+ * a row at a time, and the per-pixel loops are straight-line multiplies,
+ * adds and {@link Math#min}/{@link Math#max} clamps over int arrays,
+ * with no lookup tables and no branches, so the JIT can vectorize them.
+ * Chroma is expanded to the width of a row once per pair of rows.
+ * Encoding averages each 2x2 block of pixels for its chroma sample.
+ * </p>
+ * <p>
+ * Not thread safe; each converter has its own.
+ * </p>
+ */
+
+final class YuvPixels
+{
+  private static final int SHIFT = 16;
+  private static final int HALF = 1 << (SHIFT - 1);
+
+  private final YuvMatrix mMatrix;
+  private final boolean mFullRange;
+
+  // decoding coefficients, with rounding folded into the luma offset
+
+  private final int mYMul, mYAdd;
+  private final int mCVR, mCUG, mCVG, mCUB;
+
+  // encoding coefficients
+
+  private final int mYR, mYG, mYB, mYBias;
+  private final int mUR, mUG, mUB, mVR, mVG, mVB;
+
+  // rows reused between calls
+
+  private byte[] mYRow = new byte[0];
+  private byte[] mURow = new byte[0];
+  private byte[] mVRow = new byte[0];
+  private int[][] mChromaRows = new int[3][0];
+  private int[][] mRgbRows = new int[6][0];
+
+  /**
+   * Test if a conversion can be done in Java.
+   * 
+   * @param pictureType the picture type.
+   * @param pictureWidth the width of pictures.
+   * @param pictureHeight the height of pictures.
+   * @param imageWidth the width of images.
+   * @param imageHeight the height of images.
+   * 
+   * @return true if the picture type is 4:2:0 planar YUV and no resizing
+   *         is needed.
+   */
+
+  static boolean canConvert(IPixelFormat.Type pictureType,
+    int pictureWidth, int pictureHeight, int imageWidth, int imageHeight)
+  {
+    return (pictureType == IPixelFormat.Type.YUV420P
+      || pictureType == IPixelFormat.Type.YUVJ420P)
+      && pictureWidth == imageWidth && pictureHeight == imageHeight;
+  }
+
+  /**
+   * Build the coefficients for a matrix.
+   * 
+   * @param matrix the YUV matrix.
+   * @param fullRange true if luma and chroma span 0 to 255, as in
+   *        {@link IPixelFormat.Type#YUVJ420P}; false if luma spans 16 to
+   *        235 and chroma 16 to 240, as in
+   *        {@link IPixelFormat.Type#YUV420P}.
+   */
+
+  YuvPixels(YuvMatrix matrix, boolean fullRange)
+  {
+    mMatrix = matrix;
+    mFullRange = fullRange;
+
+    final double kr = matrix.getKr();
+    final double kg = matrix.getKg();
+    final double kb = matrix.getKb();
+    final double yScale = fullRange ? 1 : 255.0 / 219;
+    final double yOffset = fullRange ? 0 : 16;
+    final double cScale = fullRange ? 1 : 255.0 / 224;
+
+    mYMul = fix(yScale);
+    mYAdd = HALF - fix(yScale * yOffset);
+    mCVR = fix(cScale * 2 * (1 - kr));
+    mCUG = fix(-cScale * 2 * kb * (1 - kb) / kg);
+    mCVG = fix(-cScale * 2 * kr * (1 - kr) / kg);
+    mCUB = fix(cScale * 2 * (1 - kb));
+
+    mYR = fix(kr / yScale);
+    mYG = fix(kg / yScale);
+    mYB = fix(kb / yScale);
+    mYBias = fix(yOffset) + HALF;
+
+    // chroma coefficients apply to the sum of four pixels
+
+    mUR = fix(-kr / (2 * (1 - kb)) / cScale / 4);
+    mUG = fix(-kg / (2 * (1 - kb)) / cScale / 4);
+    mUB = fix(0.5 / cScale / 4);
+    mVR = fix(0.5 / cScale / 4);
+    mVG = fix(-kg / (2 * (1 - kr)) / cScale / 4);
+    mVB = fix(-kb / (2 * (1 - kr)) / cScale / 4);
+  }
+
+  /**
+   * Get the matrix these pixels are translated with.
+   * 
+   * @return the matrix.
+   */
+
+  YuvMatrix getMatrix()
+  {
+    return mMatrix;
+  }
+
+  /**
+   * Test if these pixels use the full 0 to 255 range.
+   * 
+   * @return true for full range.
+   */
+
+  boolean isFullRange()
+  {
+    return mFullRange;
+  }
+
+  /**
+   * Decode one row of a picture.  Rows must be decoded in order from 0,
+   * because the chroma of each pair of rows is read with its first row.
+   * 
+   * @param buffer the picture's buffer, whose position is changed.
+   * @param layout the picture's layout.
+   * @param y the row.
+   * @param w the width.
+   * 
+   * @return the red, green and blue rows, at least w long, which are
+   *         reused by the next call.
+   */
+
+  int[][] decodeRow(ByteBuffer buffer, PlaneLayout layout, int y, int w)
+  {
+    final byte[] yRow = getYRow(w);
+    final int[][] rgb = getRgbRows(w);
+    final int[][] chroma = getChromaRows(w + 1);
+    final int[] rc = chroma[0];
+    final int[] gc = chroma[1];
+    final int[] bc = chroma[2];
+
+    buffer.position(layout.getOffset(0) + y * layout.getLineSize(0));
+    buffer.get(yRow, 0, w);
+    if ((y & 1) == 0)
+    {
+      // expand the chroma both luma columns share
+
+      final int cw = (w + 1) >> 1;
+      final byte[] uRow = getURow(cw);
+      final byte[] vRow = getVRow(cw);
+      buffer.position(layout.getOffset(1) + (y >> 1) * layout.getLineSize(1));
+      buffer.get(uRow, 0, cw);
+      buffer.position(layout.getOffset(2) + (y >> 1) * layout.getLineSize(2));
+      buffer.get(vRow, 0, cw);
+      for(int c = 0; c < cw; c++)
+      {
+        final int u = (uRow[c] & 0xff) - 128;
+        final int v = (vRow[c] & 0xff) - 128;
+        final int x = c << 1;
+        rc[x] = rc[x + 1] = v * mCVR;
+        gc[x] = gc[x + 1] = u * mCUG + v * mCVG;
+        bc[x] = bc[x + 1] = u * mCUB;
+      }
+    }
+
+    final int[] r = rgb[0];
+    final int[] g = rgb[1];
+    final int[] b = rgb[2];
+    for(int x = 0; x < w; x++)
+    {
+      final int luma = (yRow[x] & 0xff) * mYMul + mYAdd;
+      r[x] = Math.min(255, Math.max(0, (luma + rc[x]) >> SHIFT));
+      g[x] = Math.min(255, Math.max(0, (luma + gc[x]) >> SHIFT));
+      b[x] = Math.min(255, Math.max(0, (luma + bc[x]) >> SHIFT));
+    }
+    return rgb;
+  }
+
+  /**
+   * Get the rows to fill with red, green and blue samples before calling
+   * {@link #encodeRows}: red, green and blue for the first row of a pair,
+   * then for the second.
+   * 
+   * @param w the width.
+   * 
+   * @return the six rows, at least w long.
+   */
+
+  int[][] getRgbRows(int w)
+  {
+    if (mRgbRows[0].length < w)
+      for(int i = 0; i < mRgbRows.length; i++)
+        mRgbRows[i] = new int[w];
+    return mRgbRows;
+  }
+
+  /**
+   * Encode a pair of rows from {@link #getRgbRows} into a picture: the
+   * luma of both rows, and the chroma they share.  If the height is odd
+   * the second row of the last pair must repeat the first.
+   * 
+   * @param buffer the picture's buffer, whose position is changed.
+   * @param layout the picture's layout.
+   * @param y the first row of the pair, which must be even.
+   * @param w the width.
+   * @param h the height.
+   * @param rgb the rows.
+   */
+
+  void encodeRows(ByteBuffer buffer, PlaneLayout layout,
+    int y, int w, int h, int[][] rgb)
+  {
+    final byte[] yRow = getYRow(w);
+    final int numRows = Math.min(2, h - y);
+    for(int row = 0; row < numRows; row++)
+    {
+      final int[] r = rgb[row * 3];
+      final int[] g = rgb[row * 3 + 1];
+      final int[] b = rgb[row * 3 + 2];
+      for(int x = 0; x < w; x++)
+        yRow[x] = (byte)Math.min(255, Math.max(0,
+          (mYR * r[x] + mYG * g[x] + mYB * b[x] + mYBias) >> SHIFT));
+      buffer.position(layout.getOffset(0) + (y + row) * layout.getLineSize(0));
+      buffer.put(yRow, 0, w);
+    }
+
+    // sum the rows into the first, then each 2x2 block for a chroma
+    // sample, repeating the last column if the width is odd
+
+    final int[] r0 = rgb[0], g0 = rgb[1], b0 = rgb[2];
+    final int[] r1 = rgb[3], g1 = rgb[4], b1 = rgb[5];
+    for(int x = 0; x < w; x++)
+    {
+      r0[x] += r1[x];
+      g0[x] += g1[x];
+      b0[x] += b1[x];
+    }
+    final int cw = (w + 1) >> 1;
+    final byte[] uRow = getURow(cw);
+    final byte[] vRow = getVRow(cw);
+    final int pairs = w >> 1;
+    for(int c = 0; c < pairs; c++)
+      encodeChroma(uRow, vRow, c, r0[2 * c] + r0[2 * c + 1],
+        g0[2 * c] + g0[2 * c + 1], b0[2 * c] + b0[2 * c + 1]);
+    if (pairs < cw)
+      encodeChroma(uRow, vRow, pairs, r0[w - 1] << 1, g0[w - 1] << 1,
+        b0[w - 1] << 1);
+    buffer.position(layout.getOffset(1) + (y >> 1) * layout.getLineSize(1));
+    buffer.put(uRow, 0, cw);
+    buffer.position(layout.getOffset(2) + (y >> 1) * layout.getLineSize(2));
+    buffer.put(vRow, 0, cw);
+  }
+
+  /**
+   * Decode one pixel.
+   * 
+   * @param y the luma, 0 to 255.
+   * @param u the blue difference chroma, 0 to 255.
+   * @param v the red difference chroma, 0 to 255.
+   * 
+   * @return the pixel as 0x00RRGGBB.
+   */
+
+  int toRgb(int y, int u, int v)
+  {
+    final int luma = y * mYMul + mYAdd;
+    u -= 128;
+    v -= 128;
+    return clamp((luma + v * mCVR) >> SHIFT) << 16
+      | clamp((luma + u * mCUG + v * mCVG) >> SHIFT) << 8
+      | clamp((luma + u * mCUB) >> SHIFT);
+  }
+
+  /**
+   * Encode the luma of one pixel.
+   * 
+   * @param r the red, 0 to 255.
+   * @param g the green, 0 to 255.
+   * @param b the blue, 0 to 255.
+   * 
+   * @return the luma.
+   */
+
+  int toY(int r, int g, int b)
+  {
+    return clamp((mYR * r + mYG * g + mYB * b + mYBias) >> SHIFT);
+  }
+
+  /**
+   * Encode the blue difference chroma of one pixel.
+   * 
+   * @param r the red, 0 to 255.
+   * @param g the green, 0 to 255.
+   * @param b the blue, 0 to 255.
+   * 
+   * @return the chroma.
+   */
+
+  int toU(int r, int g, int b)
+  {
+    // the coefficients apply to the sum of four pixels
+
+    return clamp((mUR * (r << 2) + mUG * (g << 2) + mUB * (b << 2)
+      + (128 << SHIFT) + HALF) >> SHIFT);
+  }
+
+  /**
+   * Encode the red difference chroma of one pixel.
+   * 
+   * @param r the red, 0 to 255.
+   * @param g the green, 0 to 255.
+   * @param b the blue, 0 to 255.
+   * 
+   * @return the chroma.
+   */
+
+  int toV(int r, int g, int b)
+  {
+    return clamp((mVR * (r << 2) + mVG * (g << 2) + mVB * (b << 2)
+      + (128 << SHIFT) + HALF) >> SHIFT);
+  }
+
+  /**
+   * Encode the chroma of a 2x2 block from the sums of its samples.
+   */
+
+  private void encodeChroma(byte[] uRow, byte[] vRow, int c,
+    int r, int g, int b)
+  {
+    final int bias = (128 << SHIFT) + HALF;
+    uRow[c] = (byte)clamp((mUR * r + mUG * g + mUB * b + bias) >> SHIFT);
+    vRow[c] = (byte)clamp((mVR * r + mVG * g + mVB * b + bias) >> SHIFT);
+  }
+
+  private static int clamp(int value)
+  {
+    return Math.min(255, Math.max(0, value));
+  }
+
+  private byte[] getYRow(int length)
+  {
+    if (mYRow.length < length)
+      mYRow = new byte[length];
+    return mYRow;
+  }
+
+  private byte[] getURow(int length)
+  {
+    if (mURow.length < length)
+      mURow = new byte[length];
+    return mURow;
+  }
+
+  private byte[] getVRow(int length)
+  {
+    if (mVRow.length < length)
+      mVRow = new byte[length];
+    return mVRow;
+  }
+
+  private int[][] getChromaRows(int length)
+  {
+    if (mChromaRows[0].length < length)
+      for(int i = 0; i < mChromaRows.length; i++)
+        mChromaRows[i] = new int[length];
+    return mChromaRows;
+  }
+
+  private static int fix(double value)
+  {
+    return (int)Math.round(value * (1 << SHIFT));
+  }
+}
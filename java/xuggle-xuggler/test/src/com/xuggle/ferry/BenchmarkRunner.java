@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A small throughput benchmark harness for our Exhaustive tests.
+ * <p>
+ * Each benchmark is a {@link Task} whose {@link Task#run()} method does
+ * one operation.  The runner calls it in a tight loop for a number of
+ * timed warmup iterations, then a number of timed measurement iterations,
+ * and records operations per second for each measurement iteration.
+ * </p>
+ * <p>
+ * {@link #writeReport()} writes all results for a suite as a JSON array
+ * in the same shape as JMH's <code>-rf json</code> output, so existing
+ * JMH tooling can compare runs, and prints a summary to standard out.
+ * </p>
+ * <p>
+ * Tune with system properties:
+ * </p>
+ * <ul>
+ * <li>xuggle.benchmark.warmups: warmup iterations (default 3)</li>
+ * <li>xuggle.benchmark.iterations: measurement iterations (default 5)</li>
+ * <li>xuggle.benchmark.time: milliseconds per iteration (default 1000)</li>
+ * <li>xuggle.benchmark.dir: where reports go (default the current
+ * directory)</li>
+ * </ul>
+ */
+public class BenchmarkRunner
+{
+  /**
+   * One benchmark.
+   */
+  public static abstract class Task
+  {
+    /**
+     * Called once before warmup.
+     * @throws Exception if setup fails.
+     */
+    public void setUp() throws Exception
+    {
+    }
+
+    /**
+     * Do one operation.  Return something computed from the work so the
+     * compiler can't optimize it away.
+     * @return any value.
+     * @throws Exception if the operation fails.
+     */
+    public abstract long run() throws Exception;
+
+    /**
+     * Called once after measurement.
+     * @throws Exception if teardown fails.
+     */
+    public void tearDown() throws Exception
+    {
+    }
+  }
+
+  /**
+   * The result of one benchmark.
+   */
+  public static class Result
+  {
+    private final String mName;
+    private final Map<String, String> mParams;
+    private final double mScores[];
+
+    Result(String name, Map<String, String> params, double scores[])
+    {
+      mName = name;
+      mParams = params;
+      mScores = scores;
+    }
+
+    /**
+     * @return the benchmark name.
+     */
+    public String getName()
+    {
+      return mName;
+    }
+
+    /**
+     * @return the parameters the benchmark ran with.
+     */
+    public Map<String, String> getParams()
+    {
+      return mParams;
+    }
+
+    /**
+     * @return operations per second for each measurement iteration.
+     */
+    public double[] getScores()
+    {
+      return mScores.clone();
+    }
+
+    /**
+     * @return mean operations per second.
+     */
+    public double getScore()
+    {
+      double sum = 0;
+      for(double score : mScores)
+        sum += score;
+      return sum / mScores.length;
+    }
+
+    /**
+     * @return the half-width of a ~99.9% confidence interval on the mean.
+     */
+    public double getScoreError()
+    {
+      if (mScores.length < 2)
+        return Double.NaN;
+      final double mean = getScore();
+      double sumSquares = 0;
+      for(double score : mScores)
+        sumSquares += (score - mean) * (score - mean);
+      final double stddev = Math.sqrt(sumSquares / (mScores.length - 1));
+      return 3.29 * stddev / Math.sqrt(mScores.length);
+    }
+  }
+
+  private final String mSuite;
+  private final int mNumWarmups;
+  private final int mNumIterations;
+  private final long mIterationTime;
+  private final File mReportDir;
+  private final List<Result> mResults;
+
+  /**
+   * Sink for task return values.
+   */
+  private volatile long mSink;
+
+  /**
+   * Create a runner for a suite of benchmarks.
+   * @param suite the suite name, used for the report file name.
+   */
+  public BenchmarkRunner(String suite)
+  {
+    mSuite = suite;
+    mNumWarmups = Integer.getInteger("xuggle.benchmark.warmups", 3);
+    mNumIterations = Integer.getInteger("xuggle.benchmark.iterations", 5);
+    mIterationTime = Long.getLong("xuggle.benchmark.time", 1000);
+    mReportDir = new File(System.getProperty("xuggle.benchmark.dir", "."));
+    mResults = new ArrayList<Result>();
+  }
+
+  /**
+   * Run a benchmark and remember its result.
+   * 
+   * @param name the benchmark name.
+   * @param params name/value pairs describing this run, e.g.
+   *   "model", "NATIVE_BUFFERS"; may be empty.
+   * @param task the benchmark.
+   * @return the result.
+   */
+  public Result run(String name, String[] params, Task task)
+  {
+    if (params.length % 2 != 0)
+      throw new IllegalArgumentException("params must be name/value pairs");
+    final Map<String, String> paramMap = new LinkedHashMap<String, String>();
+    for(int i = 0; i < params.length; i += 2)
+      paramMap.put(params[i], params[i + 1]);
+
+    final double scores[] = new double[mNumIterations];
+    try
+    {
+      task.setUp();
+      try
+      {
+        for(int i = 0; i < mNumWarmups; i++)
+          iteration(task);
+        for(int i = 0; i < mNumIterations; i++)
+          scores[i] = iteration(task);
+      }
+      finally
+      {
+        task.tearDown();
+      }
+    }
+    catch (RuntimeException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeException("benchmark " + name + " failed", e);
+    }
+    final Result result = new Result(mSuite + "." + name, paramMap, scores);
+    mResults.add(result);
+    System.out.println(String.format(Locale.US, "%s %s: %.1f +- %.1f ops/s",
+        result.getName(), paramMap, result.getScore(),
+        result.getScoreError()));
+    return result;
+  }
+
+  /**
+   * @return every result so far.
+   */
+  public List<Result> getResults()
+  {
+    return mResults;
+  }
+
+  /**
+   * Write all results to <code>&lt;suite&gt;.json</code> in the report
+   * directory.
+   * 
+   * @return the file written.
+   * @throws IOException if the file can't be written.
+   */
+  public File writeReport() throws IOException
+  {
+    if (!mReportDir.isDirectory() && !mReportDir.mkdirs())
+      throw new IOException("could not create " + mReportDir);
+    final File file = new File(mReportDir, mSuite + ".json");
+    final PrintWriter out = new PrintWriter(new FileWriter(file));
+    try
+    {
+      out.println("[");
+      for(int i = 0; i < mResults.size(); i++)
+      {
+        final Result result = mResults.get(i);
+        out.println("  {");
+        out.println("    \"benchmark\" : " + quote(result.getName()) + ",");
+        out.println("    \"mode\" : \"thrpt\",");
+        out.println("    \"warmupIterations\" : " + mNumWarmups + ",");
+        out.println("    \"measurementIterations\" : " + mNumIterations + ",");
+        out.println("    \"measurementTime\" : \"" + mIterationTime + " ms\",");
+        out.print("    \"params\" : {");
+        int j = 0;
+        for(Map.Entry<String, String> param : result.getParams().entrySet())
+          out.print((j++ > 0 ? ", " : " ") + quote(param.getKey()) + " : " +
+              quote(param.getValue()));
+        out.println(" },");
+        out.println("    \"primaryMetric\" : {");
+        out.println("      \"score\" : " + number(result.getScore()) + ",");
+        out.println("      \"scoreError\" : " + number(result.getScoreError()) + ",");
+        out.println("      \"scoreUnit\" : \"ops/s\",");
+        out.print("      \"rawData\" : [ [");
+        final double scores[] = result.getScores();
+        for(int k = 0; k < scores.length; k++)
+          out.print((k > 0 ? ", " : " ") + number(scores[k]));
+        out.println(" ] ]");
+        out.println("    }");
+        out.println(i < mResults.size() - 1 ? "  }," : "  }");
+      }
+      out.println("]");
+    }
+    finally
+    {
+      out.close();
+    }
+    System.out.println("wrote benchmark report: " + file.getAbsolutePath());
+    return file;
+  }
+
+  private double iteration(Task task) throws Exception
+  {
+    // start every iteration from a collected heap, ferry included
+    System.gc();
+    JNIMemoryManager.getMgr().gc();
+
+    long sink = 0;
+    long numOps = 0;
+    final long start = System.nanoTime();
+    final long deadline = start + mIterationTime * 1000 * 1000;
+    long now;
+    do
+    {
+      sink += task.run();
+      ++numOps;
+    } while ((now = System.nanoTime()) < deadline);
+    mSink = sink;
+    return numOps * 1e9 / (now - start);
+  }
+
+  private static String quote(String value)
+  {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  private static String number(double value)
+  {
+    if (Double.isNaN(value) || Double.isInfinite(value))
+      return "\"NaN\"";
+    return String.format(Locale.US, "%.3f", value);
+  }
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.xuggle.ferry.JNIMemoryManager.MemoryModel;
+
+/**
+ * Throughput of the Ferry hot paths under every {@link MemoryModel}.
+ * <p>
+ * Results go to <code>FerryBenchmark.json</code>; see
+ * {@link BenchmarkRunner} for how to tune and read them.
+ * </p>
+ */
+public class FerryBenchmarkExhaustiveTest
+{
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int REFERENCES_PER_GC = 1000;
+
+  private MemoryModel mOriginalModel = JNIMemoryManager.getMemoryModel();
+
+  @After
+  public void tearDown()
+  {
+    JNIMemoryManager.setMemoryModel(mOriginalModel);
+    JNIMemoryManager.getMgr().flush();
+  }
+
+  @Test
+  public void testBenchmark() throws Exception
+  {
+    final BenchmarkRunner runner = new BenchmarkRunner("FerryBenchmark");
+    for(MemoryModel model : MemoryModel.values())
+    {
+      JNIMemoryManager.setMemoryModel(model);
+      final String params[] = { "model", model.name() };
+
+      runner.run("addReference", params, new BenchmarkRunner.Task() {
+        public long run()
+        {
+          RefCountedTester obj = RefCountedTester.make();
+          obj.delete();
+          return 1;
+        }
+      });
+
+      runner.run("gc", params, new BenchmarkRunner.Task() {
+        private final RefCountedTester mObjs[] =
+          new RefCountedTester[REFERENCES_PER_GC];
+        public long run()
+        {
+          for(int i = 0; i < mObjs.length; i++)
+            mObjs[i] = RefCountedTester.make();
+          for(int i = 0; i < mObjs.length; i++)
+            mObjs[i] = null;
+          JNIMemoryManager.getMgr().gc(true);
+          return mObjs.length;
+        }
+      });
+
+      runner.run("IBuffer.put", params, new BufferTask() {
+        public long run()
+        {
+          mBuffer.put(mBytes, 0, 0, mBytes.length);
+          return mBytes.length;
+        }
+      });
+
+      runner.run("IBuffer.get", params, new BufferTask() {
+        public long run()
+        {
+          mBuffer.get(0, mBytes, 0, mBytes.length);
+          return mBytes[0];
+        }
+      });
+
+      runner.run("IBuffer.getByteBuffer", params, new BufferTask() {
+        private final AtomicReference<JNIReference> mRef =
+          new AtomicReference<JNIReference>(null);
+        public long run()
+        {
+          ByteBuffer bytes = mBuffer.getByteBuffer(0, BUFFER_SIZE, mRef);
+          final long retval = bytes.get(BUFFER_SIZE - 1);
+          mRef.get().delete();
+          return retval;
+        }
+      });
+    }
+    runner.writeReport();
+  }
+
+  /**
+   * A task with a buffer, and an array as big as it, to copy between.
+   */
+  private static abstract class BufferTask extends BenchmarkRunner.Task
+  {
+    protected IBuffer mBuffer;
+    protected byte mBytes[];
+
+    @Override
+    public void setUp()
+    {
+      mBuffer = IBuffer.make(null, BUFFER_SIZE);
+      mBytes = new byte[BUFFER_SIZE];
+    }
+
+    @Override
+    public void tearDown()
+    {
+      mBuffer.delete();
+      mBuffer = null;
+    }
+  }
+}
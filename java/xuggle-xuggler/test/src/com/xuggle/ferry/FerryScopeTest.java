@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.IVideoResampler;
+import com.xuggle.xuggler.video.ConverterCache;
+import com.xuggle.xuggler.video.ConverterFactory;
+import com.xuggle.xuggler.video.IConverter;
+
+public class FerryScopeTest
+{
+  @Test
+  public void testCloseDeletesObjects()
+  {
+    RefCountedTester outside = RefCountedTester.make();
+    FerryScope scope = FerryScope.open();
+    try
+    {
+      assertEquals(scope, FerryScope.getCurrentScope());
+      // a native copy holds a native reference to outside, so we can
+      // tell when the scope releases it.
+      RefCountedTester.make(outside);
+      assertEquals(1, scope.getNumReferences());
+      assertEquals(2, outside.getCurrentRefCount());
+    }
+    finally
+    {
+      scope.close();
+    }
+    assertTrue(scope.isClosed());
+    assertNull(FerryScope.getCurrentScope());
+    assertEquals(1, outside.getCurrentRefCount());
+    outside.delete();
+  }
+
+  @Test(expected=NullPointerException.class)
+  public void testUseAfterCloseFailsLikeDelete()
+  {
+    RefCountedTester inside;
+    FerryScope scope = FerryScope.open();
+    try
+    {
+      inside = RefCountedTester.make();
+    }
+    finally
+    {
+      scope.close();
+    }
+    // "underlying native object already deleted"
+    inside.getMyCPtr();
+  }
+
+  @Test
+  public void testEscapedObjectsSurvive()
+  {
+    RefCountedTester kept;
+    FerryScope scope = FerryScope.open();
+    try
+    {
+      kept = scope.escape(RefCountedTester.make());
+      RefCountedTester.make();
+      assertEquals(1, scope.getNumReferences());
+    }
+    finally
+    {
+      scope.close();
+    }
+    assertEquals(1, kept.getCurrentRefCount());
+    kept.delete();
+  }
+
+  @Test
+  public void testObjectsFromOutsideScopeSurvive()
+  {
+    RefCountedTester outside = RefCountedTester.make();
+    FerryScope scope = FerryScope.open();
+    try
+    {
+      RefCountedTester copy = (RefCountedTester) outside.copyReference();
+      assertEquals(2, copy.getCurrentRefCount());
+    }
+    finally
+    {
+      scope.close();
+    }
+    assertEquals(1, outside.getCurrentRefCount());
+    outside.delete();
+  }
+
+  @Test
+  public void testNesting()
+  {
+    FerryScope outer = FerryScope.open();
+    try
+    {
+      RefCountedTester.make();
+      FerryScope inner = FerryScope.open();
+      try
+      {
+        RefCountedTester.make();
+        RefCountedTester.make();
+        assertEquals(2, inner.getNumReferences());
+        try
+        {
+          outer.close();
+          fail("should not close with an inner scope open");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+      }
+      finally
+      {
+        inner.close();
+      }
+      assertEquals(outer, FerryScope.getCurrentScope());
+      assertEquals(1, outer.getNumReferences());
+    }
+    finally
+    {
+      outer.close();
+    }
+    assertNull(FerryScope.getCurrentScope());
+  }
+
+  @Test
+  public void testCachedConverterSurvivesScope()
+  {
+    // the converter re-samples, which needs color space conversion
+    if (!IVideoResampler.isSupported(
+        IVideoResampler.Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    final ConverterCache cache = new ConverterCache();
+    FerryScope scope = FerryScope.open();
+    try
+    {
+      cache.recycle(cache.lease(ConverterFactory.XUGGLER_BGR_24,
+          IPixelFormat.Type.YUV420P, 64, 48));
+    }
+    finally
+    {
+      scope.close();
+    }
+
+    // the cached converter and its re-samplers must still work
+    final IConverter converter = cache.lease(ConverterFactory.XUGGLER_BGR_24,
+        IPixelFormat.Type.YUV420P, 64, 48);
+    assertEquals(1, cache.getNumHits());
+    final IVideoPicture picture = IVideoPicture.make(
+        IPixelFormat.Type.YUV420P, 64, 48);
+    picture.setComplete(true, IPixelFormat.Type.YUV420P, 64, 48, 0);
+    assertNotNull(converter.toImage(picture));
+    final IVideoPicture copy = converter.toPicture(
+        converter.toImage(picture), 0);
+    assertNotNull(copy);
+    copy.delete();
+    picture.delete();
+    cache.recycle(converter);
+    cache.clear();
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void testEscapeAfterClose()
+  {
+    FerryScope scope = FerryScope.open();
+    scope.close();
+    scope.escape(new Object());
+  }
+}
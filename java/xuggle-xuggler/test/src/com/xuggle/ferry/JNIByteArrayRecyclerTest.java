@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class JNIByteArrayRecyclerTest
+{
+  @Test
+  public void testSizeClasses()
+  {
+    for(int size = JNIByteArrayRecycler.MIN_RECYCLED_SIZE;
+      size <= JNIByteArrayRecycler.MAX_RECYCLED_SIZE;
+      size += size / 7 + 1)
+    {
+      final int index = JNIByteArrayRecycler.getClassIndex(size);
+      final int classSize = JNIByteArrayRecycler.getClassSize(index);
+      assertTrue(classSize >= size);
+      // never more than 25% waste
+      assertTrue(classSize <= size + size / 4 + 1);
+      // and a class size maps back to itself
+      assertEquals(index, JNIByteArrayRecycler.getClassIndex(classSize));
+    }
+  }
+
+  @Test
+  public void testRecycle()
+  {
+    final JNIByteArrayRecycler recycler = new JNIByteArrayRecycler();
+    recycler.setMaxRetainedBytes(1024 * 1024);
+    final byte[] mem = recycler.allocate(100000);
+    // misses aren't rounded up
+    assertEquals(100000, mem.length);
+    assertEquals(1, recycler.getNumMisses());
+    recycler.recycle(mem);
+    assertEquals(mem.length, recycler.getRetainedBytes());
+    assertTrue(mem == recycler.allocate(99000));
+    assertEquals(1, recycler.getNumHits());
+    assertEquals(0, recycler.getRetainedBytes());
+  }
+
+  @Test
+  public void testRecycledArrayMustBeBigEnough()
+  {
+    final JNIByteArrayRecycler recycler = new JNIByteArrayRecycler();
+    recycler.setMaxRetainedBytes(1024 * 1024);
+    final byte[] mem = recycler.allocate(100000);
+    recycler.recycle(mem);
+    // same size class, but more than mem holds
+    assertEquals(JNIByteArrayRecycler.getClassIndex(100000),
+        JNIByteArrayRecycler.getClassIndex(110000));
+    assertEquals(110000, recycler.allocate(110000).length);
+    assertEquals(0, recycler.getNumHits());
+    assertTrue(mem == recycler.allocate(100000));
+  }
+
+  @Test
+  public void testNothingHeldStronglyByDefault()
+  {
+    final JNIByteArrayRecycler recycler = new JNIByteArrayRecycler();
+    assertEquals(0, recycler.getMaxRetainedBytes());
+    recycler.recycle(recycler.allocate(50000));
+    assertEquals(0, recycler.getRetainedBytes());
+    // but it's still held softly
+    assertEquals(1, recycler.getNumRecycled());
+  }
+
+  @Test
+  public void testSmallArraysNotRecycled()
+  {
+    final JNIByteArrayRecycler recycler = new JNIByteArrayRecycler();
+    final byte[] mem = recycler.allocate(100);
+    assertEquals(100, mem.length);
+    recycler.recycle(mem);
+    assertEquals(0, recycler.getRetainedBytes());
+    assertEquals(0, recycler.getNumRecycled());
+  }
+
+  @Test
+  public void testOverBudgetFallsBackToSoft()
+  {
+    final JNIByteArrayRecycler recycler = new JNIByteArrayRecycler();
+    recycler.setMaxRetainedBytes(JNIByteArrayRecycler.MIN_RECYCLED_SIZE);
+    final byte[] first = recycler.allocate(JNIByteArrayRecycler.MIN_RECYCLED_SIZE);
+    final byte[] second = recycler.allocate(JNIByteArrayRecycler.MIN_RECYCLED_SIZE);
+    recycler.recycle(first);
+    recycler.recycle(second);
+    assertEquals(first.length, recycler.getRetainedBytes());
+    assertEquals(2, recycler.getNumRecycled());
+    // strong first, then soft if the collector left it alone
+    assertTrue(first == recycler.allocate(first.length));
+    final byte[] third = recycler.allocate(first.length);
+    assertTrue(third == second || recycler.getNumSoftReclaimed() == 1);
+  }
+
+  @Test
+  public void testClear()
+  {
+    final JNIByteArrayRecycler recycler = new JNIByteArrayRecycler();
+    recycler.setMaxRetainedBytes(1024 * 1024);
+    recycler.recycle(recycler.allocate(50000));
+    assertTrue(recycler.getRetainedBytes() > 0);
+    recycler.clear();
+    assertEquals(0, recycler.getRetainedBytes());
+    recycler.allocate(50000);
+    assertEquals(0, recycler.getNumHits());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNegativeBudget()
+  {
+    new JNIByteArrayRecycler().setMaxRetainedBytes(-1);
+  }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JNICollectionServiceTest
+{
+  @After
+  public void tearDown()
+  {
+    final JNICollectionService service =
+      JNIMemoryManager.getMgr().getCollectionService();
+    service.stop();
+    service.setNumWorkers(1);
+    service.setBatchSize(JNICollectionService.DEFAULT_BATCH_SIZE);
+    service.setSweepInterval(JNICollectionService.DEFAULT_SWEEP_INTERVAL);
+  }
+
+  @Test
+  public void testStartTwiceIsHarmless()
+  {
+    JNIMemoryManager.getMgr().startCollectionThread();
+    JNIMemoryManager.getMgr().startCollectionThread();
+    assertTrue(JNIMemoryManager.getMgr().getCollectionService().isRunning());
+    JNIMemoryManager.getMgr().stopCollectionThread();
+    assertFalse(JNIMemoryManager.getMgr().getCollectionService().isRunning());
+    JNIMemoryManager.getMgr().stopCollectionThread();
+  }
+
+  @Test
+  public void testWorkersCollect() throws InterruptedException
+  {
+    final JNICollectionService service =
+      JNIMemoryManager.getMgr().getCollectionService();
+    service.setNumWorkers(2);
+    service.setBatchSize(16);
+    service.setSweepInterval(10);
+    service.start();
+    final long startCollected = service.getNumCollected();
+    for(int i = 0; i < 1000; i++)
+      RefCountedTester.make();
+    for(int i = 0; i < 100 && service.getNumCollected() == startCollected; i++)
+    {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertTrue(service.getNumCollected() > startCollected);
+    assertTrue(service.getNumBatches() > 0);
+    assertTrue(service.getThroughput() > 0);
+    assertTrue(service.getBacklog() >= 0);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNoWorkers()
+  {
+    JNIMemoryManager.getMgr().getCollectionService().setNumWorkers(0);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testBadSweepThreshold()
+  {
+    JNIMemoryManager.getMgr().getCollectionService().setSweepThreshold(1.5);
+  }
+}
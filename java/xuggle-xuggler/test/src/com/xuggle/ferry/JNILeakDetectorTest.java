@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JNILeakDetectorTest
+{
+  @After
+  public void tearDown()
+  {
+    final JNILeakDetector detector = JNIMemoryManager.getMgr().getLeakDetector();
+    detector.stopReporting();
+    detector.setSamplingInterval(0);
+    detector.setMinimumAge(JNILeakDetector.DEFAULT_MINIMUM_AGE);
+  }
+
+  @Test
+  public void testOffByDefault()
+  {
+    final JNILeakDetector detector = new JNILeakDetector();
+    assertEquals(0, detector.getSamplingInterval());
+  }
+
+  @Test
+  public void testPinnedObjectsReported()
+  {
+    final JNILeakDetector detector = JNIMemoryManager.getMgr().getLeakDetector();
+    detector.setSamplingInterval(1);
+    detector.setMinimumAge(0);
+    RefCountedTester leaked = RefCountedTester.make();
+    RefCountedTester released = RefCountedTester.make();
+    released.delete();
+
+    List<JNILeakDetector.AllocationSite> sites = detector.getPinnedSites();
+    assertEquals(1, sites.size());
+    JNILeakDetector.AllocationSite site = sites.get(0);
+    assertEquals(1, site.getNumPinned());
+    assertEquals(RefCountedTester.class.getName(), site.getClassName());
+    // the innermost frame past ferry's own should be the make() call
+    assertEquals("make", site.getStackTrace()[0].getMethodName());
+    assertTrue(site.toString().contains(RefCountedTester.class.getName()));
+
+    leaked.delete();
+    assertTrue(detector.getPinnedSites().isEmpty());
+    assertEquals(0, detector.getNumSamples());
+  }
+
+  @Test
+  public void testSamplingInterval()
+  {
+    final JNILeakDetector detector = JNIMemoryManager.getMgr().getLeakDetector();
+    detector.setSamplingInterval(10);
+    final RefCountedTester objs[] = new RefCountedTester[100];
+    for(int i = 0; i < objs.length; i++)
+      objs[i] = RefCountedTester.make();
+    assertEquals(10, detector.getNumSamples());
+    for(RefCountedTester obj : objs)
+      obj.delete();
+  }
+
+  @Test
+  public void testSamplingIntervalCountsPerThread() throws InterruptedException
+  {
+    final JNILeakDetector detector = JNIMemoryManager.getMgr().getLeakDetector();
+    detector.setSamplingInterval(10);
+    final RefCountedTester objs[] = new RefCountedTester[15];
+    for(int i = 0; i < 5; i++)
+      objs[i] = RefCountedTester.make();
+    final Thread thread = new Thread()
+    {
+      public void run()
+      {
+        for(int i = 5; i < 10; i++)
+          objs[i] = RefCountedTester.make();
+      }
+    };
+    thread.start();
+    thread.join();
+    // neither thread has made ten objects yet
+    assertEquals(0, detector.getNumSamples());
+    for(int i = 10; i < objs.length; i++)
+      objs[i] = RefCountedTester.make();
+    assertEquals(1, detector.getNumSamples());
+    for(RefCountedTester obj : objs)
+      obj.delete();
+  }
+
+  @Test
+  public void testYoungObjectsNotPinned()
+  {
+    final JNILeakDetector detector = JNIMemoryManager.getMgr().getLeakDetector();
+    detector.setSamplingInterval(1);
+    detector.setMinimumAge(60 * 60 * 1000);
+    RefCountedTester obj = RefCountedTester.make();
+    assertTrue(detector.getPinnedSites().isEmpty());
+    obj.delete();
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNegativeInterval()
+  {
+    new JNILeakDetector().setSamplingInterval(-1);
+  }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JNIMemoryBudgetTest
+{
+  @After
+  public void tearDown()
+  {
+    JNIMemoryBudget.setThreadBudget(null);
+  }
+
+  @Test
+  public void testGlobalBudgetUnlimited()
+  {
+    final JNIMemoryBudget budget = JNIMemoryManager.getMgr().getMemoryBudget();
+    assertEquals(Long.MAX_VALUE, budget.getMaxBytes());
+    assertTrue(budget == JNIMemoryBudget.getCurrent());
+    assertFalse(budget.isAbovePauseThreshold());
+    assertTrue(budget.awaitCapacity());
+  }
+
+  @Test
+  public void testThreadBudget()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 1000,
+        JNIMemoryBudget.Policy.FAIL_FAST);
+    JNIMemoryBudget.setThreadBudget(budget);
+    assertTrue(budget == JNIMemoryBudget.getCurrent());
+    JNIMemoryBudget.setThreadBudget(null);
+    assertTrue(JNIMemoryManager.getMgr().getMemoryBudget() ==
+      JNIMemoryBudget.getCurrent());
+  }
+
+  @Test
+  public void testFailFast()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 1000,
+        JNIMemoryBudget.Policy.FAIL_FAST);
+    assertTrue(budget.reserve(800));
+    assertFalse(budget.reserve(400));
+    assertEquals(1, budget.getNumRejected());
+    assertEquals(800, budget.getBytesInUse());
+    budget.release(800);
+    assertTrue(budget.reserve(400));
+    assertEquals(800, budget.getPeakBytesInUse());
+  }
+
+  @Test
+  public void testOversizedAllocationAllowedWhenEmpty()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 1000,
+        JNIMemoryBudget.Policy.FAIL_FAST);
+    assertTrue(budget.reserve(5000));
+    assertFalse(budget.reserve(1));
+  }
+
+  @Test
+  public void testBlockUntilReleased() throws InterruptedException
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 1000,
+        JNIMemoryBudget.Policy.BLOCK);
+    assertTrue(budget.reserve(1000));
+    final Thread releaser = new Thread(new Runnable(){
+      public void run()
+      {
+        try
+        {
+          Thread.sleep(100);
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+        budget.release(1000);
+      }
+    });
+    releaser.start();
+    assertTrue(budget.reserve(500));
+    releaser.join();
+    assertEquals(1, budget.getNumBlocked());
+    assertEquals(500, budget.getBytesInUse());
+  }
+
+  @Test
+  public void testBlockTimesOut()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 1000,
+        JNIMemoryBudget.Policy.BLOCK);
+    budget.setMaxBlockTime(50);
+    assertTrue(budget.reserve(1000));
+    assertFalse(budget.reserve(1));
+    assertEquals(1, budget.getNumRejected());
+  }
+
+  @Test
+  public void testAwaitCapacityGivesUp()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 1000,
+        JNIMemoryBudget.Policy.BLOCK);
+    budget.setMaxPauseTime(20);
+    budget.setPauseThreshold(0.5);
+    assertTrue(budget.reserve(600));
+    assertTrue(budget.isAbovePauseThreshold());
+    assertFalse(budget.awaitCapacity());
+    assertEquals(1, budget.getNumPauses());
+    budget.release(600);
+    assertTrue(budget.awaitCapacity());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNullPolicy()
+  {
+    new JNIMemoryBudget("test", 1000, null);
+  }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JNIMemoryStatisticsTest
+{
+  @After
+  public void tearDown()
+  {
+    JNIMemoryManager.getMgr().getStatistics().unregister();
+  }
+
+  @Test
+  public void testLiveReferencesTracksDeletes()
+  {
+    final JNIMemoryStatistics stats = JNIMemoryManager.getMgr().getStatistics();
+    RefCountedTester obj = RefCountedTester.make();
+    final long live = stats.getNumLiveReferences();
+    assertTrue(live >= 1);
+    obj.delete();
+    assertEquals(live - 1, stats.getNumLiveReferences());
+  }
+
+  @Test
+  public void testSweepsAreCounted()
+  {
+    final JNIMemoryStatistics stats = JNIMemoryManager.getMgr().getStatistics();
+    stats.reset();
+    assertEquals(0, stats.getNumSweeps());
+    JNIMemoryManager.getMgr().gc(true);
+    assertEquals(JNIMemoryManager.getMgr().getNumReferenceSlabs(),
+        stats.getNumSweeps());
+    assertTrue(stats.getTotalSweepTime() >= stats.getMaxSweepTime());
+    assertTrue(stats.getReferenceCapacity() >=
+      stats.getNumReferenceSlotsInUse());
+  }
+
+  @Test
+  public void testBytesByModel()
+  {
+    final JNIMemoryStatistics stats = JNIMemoryManager.getMgr().getStatistics();
+    long total = 0;
+    for(JNIMemoryManager.MemoryModel model :
+      JNIMemoryManager.MemoryModel.values())
+    {
+      assertEquals(stats.getNumBytesAllocated(model),
+          stats.getNumBytesAllocated(model.name()));
+      total += stats.getNumBytesAllocated(model);
+    }
+    assertEquals(total, stats.getNumBytesAllocated());
+  }
+
+  @Test
+  public void testRegister() throws Exception
+  {
+    final JNIMemoryStatistics stats = JNIMemoryManager.getMgr().getStatistics();
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = new ObjectName(JNIMemoryStatistics.OBJECT_NAME);
+    stats.register();
+    // registering twice is harmless
+    stats.register();
+    assertTrue(server.isRegistered(name));
+    assertEquals(JNIMemoryManager.getMemoryModel().name(),
+        server.getAttribute(name, "MemoryModel"));
+    stats.unregister();
+    assertFalse(server.isRegistered(name));
+  }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.ferry;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how {@link JNIMemoryManager#addReference(JNIReference)} scales
+ * as more threads allocate Ferry objects at the same time.
+ * <p>
+ * Each run doubles the number of allocating threads, from one up to
+ * twice the number of available processors, and prints the number of
+ * allocations per second achieved.
+ * </p>
+ */
+public class RefCountedContentionExhaustiveTest
+{
+  private static final int NUM_ITERS=200000;
+
+  @Before
+  public void setUp()
+  {
+    JNIMemoryManager.getMgr().flush();
+  }
+
+  @Test(timeout=10*60*1000)
+  public void testAllocationScaling() throws InterruptedException
+  {
+    final int maxThreads = 2*Runtime.getRuntime().availableProcessors();
+    System.out.println("Reference slabs: " +
+        JNIMemoryManager.getMgr().getNumReferenceSlabs());
+    // warm up the JIT before we start measuring
+    runThreads(1, NUM_ITERS);
+    for(int numThreads = 1; numThreads <= maxThreads; numThreads *= 2)
+    {
+      final long elapsed = runThreads(numThreads, NUM_ITERS);
+      final double allocsPerSecond = 
+        ((double)numThreads*NUM_ITERS)/(elapsed/1e9);
+      System.out.println("Threads: " + numThreads +
+          "; allocations/second: " + (long)allocsPerSecond +
+          "; allocations/second/thread: " + (long)(allocsPerSecond/numThreads));
+    }
+    assertEquals("Looks like we leaked an object",
+        0, JNIMemoryManager.getMgr().getNumPinnedObjects());
+  }
+
+  /**
+   * Starts numThreads threads that each make and delete numIters objects,
+   * and waits for them all to finish.
+   * @return the wall-clock time, in nanoseconds, all threads took.
+   */
+  private long runThreads(final int numThreads, final int numIters)
+    throws InterruptedException
+  {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(numThreads);
+    for(int i = 0; i < numThreads; i++)
+    {
+      Thread thread = new Thread(new Runnable(){
+        public void run()
+        {
+          try
+          {
+            start.await();
+            for(int j = 0; j < numIters; j++)
+            {
+              RefCountedTester obj = RefCountedTester.make();
+              obj.delete();
+            }
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+          finally
+          {
+            done.countDown();
+          }
+        }}, "contention_"+i);
+      thread.start();
+    }
+    final long startTime = System.nanoTime();
+    start.countDown();
+    done.await();
+    return System.nanoTime()-startTime;
+  }
+}
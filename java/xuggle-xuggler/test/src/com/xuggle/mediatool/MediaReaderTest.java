@@ -29,11 +29,15 @@ import com.xuggle.mediatool.MediaReader;
 import com.xuggle.mediatool.MediaViewer;
 import com.xuggle.mediatool.event.IAudioSamplesEvent;
 import com.xuggle.mediatool.event.IVideoPictureEvent;
+import com.xuggle.mediatool.event.VideoPictureEvent;
 import com.xuggle.xuggler.IError;
 import com.xuggle.xuggler.IContainer;
 import com.xuggle.xuggler.IVideoResampler;
+import com.xuggle.xuggler.MediaDataPool;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
 
 import static junit.framework.Assert.*;
 
@@ -131,6 +135,22 @@ public class MediaReaderTest
         TEST_FILE_20_SECONDS_AUDIO_FRAME_COUNT);
   }
 
+  // a pool passed in may be shared, so closing must not empty it
+
+  @Test
+  public void testCloseLeavesSharedPoolAlone()
+  {
+    final MediaDataPool pool = new MediaDataPool();
+    MediaReader mr = new MediaReader(TEST_FILE_20_SECONDS);
+    mr.setMediaDataPool(pool);
+    for(int i = 0; i < 10; i++)
+      assertNull(mr.readPacket());
+    mr.close();
+    assertTrue("shared pool should keep its idle objects",
+        pool.getNumPooled() > 0);
+    pool.clear();
+  }
+
   // test nominal read with buffered image creation
   
   @Test
@@ -172,6 +192,96 @@ public class MediaReaderTest
       ;
   }
   
+  // images are only converted when asked for, and only once
+
+  @Test
+  public void testLazyBufferedImages()
+  {
+    // if color space conversion is not supported, skip this test 
+
+    if (!IVideoResampler.isSupported(
+        IVideoResampler.Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    final int[] counts = new int[2];
+    final List<VideoPictureEvent> ignored = new ArrayList<VideoPictureEvent>();
+
+    MediaReader mr = new MediaReader(TEST_FILE_20_SECONDS);
+    mr.setBufferedImageTypeToGenerate(BufferedImage.TYPE_3BYTE_BGR);
+
+    // only look at every other picture
+
+    mr.addListener(new MediaListenerAdapter()
+      {
+        public void onVideoPicture(IVideoPictureEvent event)
+        {
+          VideoPictureEvent e = (VideoPictureEvent) event;
+          assertTrue("conversion should be deferred", e.isImagePending());
+          if (counts[0]++ % 2 == 0)
+          {
+            BufferedImage image = e.getImage();
+            assertNotNull("buffered image should be created", image);
+            assertFalse("conversion should be done", e.isImagePending());
+            assertSame("image should be memoized", image, e.getImage());
+            assertSame("image should be memoized", image, e.getJavaData());
+            ++counts[1];
+          }
+          else
+            ignored.add(e);
+        }
+      });
+
+    while (mr.readPacket() == null)
+      ;
+
+    assertEquals(TEST_FILE_20_SECONDS_VIDEO_FRAME_COUNT, counts[0]);
+    assertEquals((counts[0] + 1) / 2, counts[1]);
+
+    // once dispatched, events nobody asked for no longer convert
+
+    assertFalse(ignored.isEmpty());
+    for (VideoPictureEvent e : ignored)
+    {
+      assertFalse(e.isImagePending());
+      assertNull(e.getImage());
+    }
+  }
+
+  // a listener that declares interest gets images converted up front
+
+  @Test
+  public void testEagerBufferedImages()
+  {
+    // if color space conversion is not supported, skip this test 
+
+    if (!IVideoResampler.isSupported(
+        IVideoResampler.Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    final int[] counts = new int[1];
+
+    MediaReader mr = new MediaReader(TEST_FILE_20_SECONDS);
+    mr.setBufferedImageTypeToGenerate(BufferedImage.TYPE_3BYTE_BGR);
+
+    class ImageListener extends MediaListenerAdapter
+      implements IBufferedImageListener
+    {
+      public void onVideoPicture(IVideoPictureEvent event)
+      {
+        assertFalse("conversion should be done",
+            ((VideoPictureEvent) event).isImagePending());
+        assertNotNull("buffered image should be created", event.getImage());
+        ++counts[0];
+      }
+    }
+    mr.addListener(new ImageListener());
+
+    while (mr.readPacket() == null)
+      ;
+
+    assertEquals(TEST_FILE_20_SECONDS_VIDEO_FRAME_COUNT, counts[0]);
+  }
+
   // test nominal read with external container
   
   @Test
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+import com.xuggle.mediatool.event.ISceneChangeEvent;
+import com.xuggle.mediatool.event.IVideoPictureEvent;
+import com.xuggle.mediatool.event.VideoPictureEvent;
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.video.VideoPlanes;
+
+import static junit.framework.Assert.*;
+
+public class SceneChangeDetectorTest
+{
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+
+  // one frame every 40 ms
+
+  private static final long FRAME = 40000;
+
+  private SceneChangeDetector mDetector;
+  private final List<ISceneChangeEvent> mChanges =
+    new ArrayList<ISceneChangeEvent>();
+  private final List<Long> mCutTimes = new ArrayList<Long>();
+  private int mNumPictures;
+
+  private class Recorder extends MediaListenerAdapter
+    implements ISceneChangeListener
+  {
+    public void onSceneChange(ISceneChangeEvent event)
+    {
+      mChanges.add(event);
+      mCutTimes.add(event.getTimeStamp());
+    }
+
+    public void onVideoPicture(IVideoPictureEvent event)
+    {
+      ++mNumPictures;
+    }
+  }
+
+  @Before
+  public void setUp()
+  {
+    mDetector = new SceneChangeDetector();
+    mDetector.addListener(new Recorder());
+  }
+
+  @Test
+  public void testStillPicturesHaveNoCuts()
+  {
+    for (int i = 0; i < 10; i++)
+      dispatch(makePicture(IPixelFormat.Type.YUV420P, 0, i * FRAME), 0);
+    assertTrue(mChanges.isEmpty());
+    assertEquals(10, mNumPictures);
+  }
+
+  @Test
+  public void testCut()
+  {
+    for (int i = 0; i < 5; i++)
+      dispatch(makePicture(IPixelFormat.Type.YUV420P, 0, i * FRAME), 0);
+    for (int i = 5; i < 10; i++)
+      dispatch(makePicture(IPixelFormat.Type.YUV420P, 1, i * FRAME), 0);
+    assertEquals(1, mChanges.size());
+    assertEquals(Long.valueOf(5 * FRAME), mCutTimes.get(0));
+    assertEquals(Integer.valueOf(0), mChanges.get(0).getStreamIndex());
+    assertTrue(mChanges.get(0).getHistogramDistance() > 0.9);
+    assertTrue(mChanges.get(0).getDifference() > 0.3);
+    assertEquals(10, mNumPictures);
+  }
+
+  @Test
+  public void testMotionIsNotACut()
+  {
+    // the same pattern, moved a little each frame
+
+    for (int i = 0; i < 10; i++)
+      dispatch(makePicture(IPixelFormat.Type.YUV420P, 2 + i, i * FRAME), 0);
+    assertTrue(mChanges.isEmpty());
+  }
+
+  @Test
+  public void testStreamsAreSeparate()
+  {
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 0, 0), 0);
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 1, 0), 1);
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 0, FRAME), 0);
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 1, FRAME), 1);
+    assertTrue(mChanges.isEmpty());
+  }
+
+  @Test
+  public void testMinSceneDuration()
+  {
+    mDetector.setMinSceneDuration(200, TimeUnit.MILLISECONDS);
+    assertEquals(200, mDetector.getMinSceneDuration(TimeUnit.MILLISECONDS));
+
+    // a flash and the return from it come too soon after the start of
+    // the scene; the real cut comes once the scene is long enough
+
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 0, 0), 0);
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 1, FRAME), 0);
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 0, 2 * FRAME), 0);
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 0, 3 * FRAME), 0);
+    dispatch(makePicture(IPixelFormat.Type.YUV420P, 1, 6 * FRAME), 0);
+    assertEquals(1, mChanges.size());
+    assertEquals(Long.valueOf(6 * FRAME), mCutTimes.get(0));
+  }
+
+  @Test
+  public void testGray()
+  {
+    dispatch(makePicture(IPixelFormat.Type.GRAY8, 0, 0), 0);
+    dispatch(makePicture(IPixelFormat.Type.GRAY8, 1, FRAME), 0);
+    assertEquals(1, mChanges.size());
+  }
+
+  @Test
+  public void testOtherPicturesAreForwarded()
+  {
+    dispatch(makePicture(IPixelFormat.Type.BGR24, -1, 0), 0);
+    dispatch(makePicture(IPixelFormat.Type.BGR24, -1, FRAME), 0);
+    assertTrue(mChanges.isEmpty());
+    assertEquals(2, mNumPictures);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidThreshold()
+  {
+    mDetector.setThresholds(1.5, 0.1);
+  }
+
+  private void dispatch(IVideoPicture picture, int streamIndex)
+  {
+    mDetector.onVideoPicture(new VideoPictureEvent(null, picture,
+        streamIndex));
+  }
+
+  /**
+   * Make a picture.  Pattern 0 is dark, 1 is bright, and 2 and up are
+   * the same vertical stripes shifted by the pattern number.
+   */
+
+  private static IVideoPicture makePicture(IPixelFormat.Type type,
+      int pattern, long timeStamp)
+  {
+    IVideoPicture picture = IVideoPicture.make(type, WIDTH, HEIGHT);
+    picture.setComplete(true, type, WIDTH, HEIGHT, timeStamp);
+    if (pattern < 0)
+      return picture;
+    VideoPlanes planes = VideoPlanes.make(picture);
+    if (pattern < 2)
+      planes.fill(pattern == 0 ? 30 : 220, 128, 128);
+    else
+      for (int y = 0; y < HEIGHT; y++)
+        for (int x = 0; x < WIDTH; x++)
+          planes.getY().set(x, y, ((x + pattern) / 16) % 2 == 0 ? 60 : 180);
+    planes.delete();
+    return picture;
+  }
+}
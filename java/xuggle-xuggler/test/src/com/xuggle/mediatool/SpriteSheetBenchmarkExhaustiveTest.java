@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xuggle.ferry.BenchmarkRunner;
+import com.xuggle.xuggler.ICodec;
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IStreamCoder;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.video.ConverterFactory;
+import com.xuggle.xuggler.video.IConverter;
+
+/**
+ * Throughput of making sprite sheets of a long video, with a {@link
+ * SpriteSheetMaker} using different numbers of workers, compared with
+ * seeking, decoding, converting and drawing one tile after another.
+ * <p>
+ * We generate our own long fixture.  Results go to
+ * <code>SpriteSheetBenchmark.json</code>; see {@link BenchmarkRunner} for
+ * how to tune and read them.
+ * </p>
+ */
+public class SpriteSheetBenchmarkExhaustiveTest
+{
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 360;
+  private static final int FRAME_RATE = 10;
+  private static final int SECONDS = 600;
+
+  private static final int COLUMNS = 10;
+  private static final int ROWS = 10;
+  private static final int TILE_WIDTH = 160;
+  private static final int TILE_HEIGHT = 90;
+
+  private static final int THREADS[] = { 1, 2, 4, 8 };
+
+  private static File mFixture;
+
+  @BeforeClass
+  public static void setUpClass()
+  {
+    mFixture = new File(System.getProperty("java.io.tmpdir"),
+        SpriteSheetBenchmarkExhaustiveTest.class.getName() + ".flv");
+    mFixture.deleteOnExit();
+    final IMediaWriter writer = ToolFactory.makeWriter(mFixture.getPath());
+    writer.addVideoStream(0, 0, WIDTH, HEIGHT);
+    final BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_3BYTE_BGR);
+    final Graphics2D g = image.createGraphics();
+    for(int frame = 0; frame < SECONDS * FRAME_RATE; frame++)
+    {
+      // a new color every second, with a bar moving across it
+
+      g.setColor(Color.getHSBColor(frame / FRAME_RATE / 60f, 0.8f, 0.8f));
+      g.fillRect(0, 0, WIDTH, HEIGHT);
+      g.setColor(Color.WHITE);
+      g.fillRect((frame * 4) % WIDTH, 0, 16, HEIGHT);
+      writer.encodeVideo(0, image, frame * 1000L / FRAME_RATE,
+          TimeUnit.MILLISECONDS);
+    }
+    g.dispose();
+    writer.close();
+  }
+
+  @Test
+  public void testBenchmark() throws Exception
+  {
+    final BenchmarkRunner runner = new BenchmarkRunner("SpriteSheetBenchmark");
+    final String params[] = {
+        "tiles", COLUMNS + "x" + ROWS,
+        "tile", TILE_WIDTH + "x" + TILE_HEIGHT,
+        "threads", "1",
+    };
+    runner.run("seekDecodeConvertDraw", params, new SequentialTask());
+    for(final int threads : THREADS)
+    {
+      params[params.length - 1] = Integer.toString(threads);
+      runner.run("spriteSheetMaker", params, new BenchmarkRunner.Task() {
+        public long run()
+        {
+          final SpriteSheetMaker maker = new SpriteSheetMaker(
+              mFixture.getPath(), COLUMNS, ROWS, TILE_WIDTH, TILE_HEIGHT);
+          maker.setNumThreads(threads);
+          return maker.make().getTimeStamp(COLUMNS * ROWS - 1);
+        }
+      });
+    }
+    runner.writeReport();
+  }
+
+  /**
+   * Seeks to each tile in turn, converts a full size image and scales it
+   * into the sheet with Java2D.
+   */
+  private static class SequentialTask extends BenchmarkRunner.Task
+  {
+    private IContainer mContainer;
+    private IStreamCoder mCoder;
+    private IVideoPicture mPicture;
+    private IPacket mPacket;
+    private IConverter mConverter;
+
+    @Override
+    public void setUp()
+    {
+      mContainer = IContainer.make();
+      if (mContainer.open(mFixture.getPath(), IContainer.Type.READ, null) < 0)
+        throw new RuntimeException("could not open " + mFixture);
+      for(int i = 0; i < mContainer.getNumStreams() && mCoder == null; i++)
+      {
+        final IStreamCoder coder = mContainer.getStream(i).getStreamCoder();
+        if (coder.getCodecType() == ICodec.Type.CODEC_TYPE_VIDEO)
+          mCoder = coder;
+      }
+      if (mCoder == null || mCoder.open() < 0)
+        throw new RuntimeException("could not open video in " + mFixture);
+      mPicture = IVideoPicture.make(mCoder.getPixelType(), mCoder.getWidth(),
+          mCoder.getHeight());
+      mPacket = IPacket.make();
+      mConverter = ConverterFactory.createConverter(
+          ConverterFactory.XUGGLER_BGR_24, mPicture);
+    }
+
+    public long run()
+    {
+      final BufferedImage sheet = new BufferedImage(COLUMNS * TILE_WIDTH,
+          ROWS * TILE_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+      final Graphics2D g = sheet.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      final long duration = mContainer.getDuration();
+      long last = 0;
+      for(int tile = 0; tile < COLUMNS * ROWS; tile++)
+      {
+        final long target = duration * tile / (COLUMNS * ROWS);
+        if (mContainer.seekKeyFrame(-1, 0, target, target, 0) < 0)
+          continue;
+        final IVideoPicture picture = decode();
+        if (picture == null)
+          continue;
+        g.drawImage(mConverter.toImage(picture),
+            (tile % COLUMNS) * TILE_WIDTH, (tile / COLUMNS) * TILE_HEIGHT,
+            TILE_WIDTH, TILE_HEIGHT, null);
+        last = picture.getTimeStamp();
+      }
+      g.dispose();
+      return last;
+    }
+
+    private IVideoPicture decode()
+    {
+      while (mContainer.readNextPacket(mPacket) >= 0)
+      {
+        if (mPacket.getStreamIndex() != mCoder.getStream().getIndex())
+          continue;
+        int offset = 0;
+        while (offset < mPacket.getSize())
+        {
+          final int bytesDecoded = mCoder.decodeVideo(mPicture, mPacket,
+              offset);
+          if (bytesDecoded < 0)
+            throw new RuntimeException("could not decode video");
+          offset += bytesDecoded;
+          if (mPicture.isComplete())
+            return mPicture;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void tearDown()
+    {
+      mConverter.delete();
+      mPacket.delete();
+      mPicture.delete();
+      mCoder.close();
+      mCoder.delete();
+      mContainer.close();
+      mContainer.delete();
+    }
+  }
+}
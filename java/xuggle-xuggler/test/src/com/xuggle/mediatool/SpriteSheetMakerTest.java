@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.mediatool;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.*;
+
+import com.xuggle.xuggler.Global;
+
+import static junit.framework.Assert.*;
+
+public class SpriteSheetMakerTest
+{
+  private static final String TEST_FILE = "fixtures/testfile.flv";
+
+  @Test
+  public void testMake()
+  {
+    SpriteSheetMaker maker = new SpriteSheetMaker(TEST_FILE, 4, 3, 80, 60);
+    maker.setNumThreads(3);
+    SpriteSheet sheet = maker.make();
+    assertEquals(12, sheet.getNumTiles());
+    assertEquals(320, sheet.getImage().getWidth());
+    assertEquals(180, sheet.getImage().getHeight());
+    assertEquals(BufferedImage.TYPE_3BYTE_BGR, sheet.getImage().getType());
+    assertEquals(0, sheet.getStartTime(0));
+    for(int i = 0; i < sheet.getNumTiles(); i++)
+    {
+      assertTrue(sheet.getTimeStamp(i) != Global.NO_PTS);
+      assertTrue(sheet.getStartTime(i) < sheet.getEndTime(i));
+      if (i > 0)
+        assertTrue(sheet.getTimeStamp(i) >= sheet.getTimeStamp(i - 1));
+    }
+    assertEquals(sheet.getDuration(), sheet.getEndTime(11));
+  }
+
+  @Test
+  public void testWorkersMakeTheSameSheet()
+  {
+    SpriteSheetMaker maker = new SpriteSheetMaker(TEST_FILE, 3, 3, 64, 48);
+    maker.setNumThreads(1);
+    SpriteSheet one = maker.make();
+    maker.setNumThreads(4);
+    SpriteSheet four = maker.make();
+    assertTrue(Arrays.equals(getBytes(one.getImage()),
+        getBytes(four.getImage())));
+    for(int i = 0; i < one.getNumTiles(); i++)
+      assertEquals(one.getTimeStamp(i), four.getTimeStamp(i));
+  }
+
+  @Test
+  public void testWrite() throws Exception
+  {
+    SpriteSheet sheet = new SpriteSheetMaker(TEST_FILE, 2, 2, 32, 24).make();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    sheet.write(out, "png");
+    BufferedImage image = ImageIO.read(
+        new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(64, image.getWidth());
+    assertEquals(48, image.getHeight());
+  }
+
+  @Test
+  public void testWriteIndex() throws Exception
+  {
+    SpriteSheet sheet = new SpriteSheet(new BufferedImage(20, 20,
+        BufferedImage.TYPE_3BYTE_BGR), 2, 2, 10, 10,
+        new long[] { 0, 1500000, 61000000, 3723004000L }, 3724000000L,
+        new long[4]);
+    StringWriter index = new StringWriter();
+    sheet.writeIndex(index, "sprites.jpg");
+    assertEquals("WEBVTT\n"
+        + "\n00:00:00.000 --> 00:00:01.500\nsprites.jpg#xywh=0,0,10,10\n"
+        + "\n00:00:01.500 --> 00:01:01.000\nsprites.jpg#xywh=10,0,10,10\n"
+        + "\n00:01:01.000 --> 01:02:03.004\nsprites.jpg#xywh=0,10,10,10\n"
+        + "\n01:02:03.004 --> 01:02:04.000\nsprites.jpg#xywh=10,10,10,10\n",
+        index.toString());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidGrid()
+  {
+    new SpriteSheetMaker(TEST_FILE, 0, 3, 80, 60);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testMissingFile()
+  {
+    new SpriteSheetMaker("fixtures/no-such-file.flv", 2, 2, 80, 60).make();
+  }
+
+  private static byte[] getBytes(BufferedImage image)
+  {
+    return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+  }
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xuggle.ferry.FerryScope;
+import com.xuggle.ferry.JNIMemoryBudget;
+
+public class MediaDataPoolTest
+{
+  private MediaDataPool mPool;
+
+  @Before
+  public void setUp()
+  {
+    mPool = new MediaDataPool(2);
+  }
+
+  @After
+  public void tearDown()
+  {
+    mPool.clear();
+    mPool = null;
+    JNIMemoryBudget.setThreadBudget(null);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNegativeMaxPooled()
+  {
+    new MediaDataPool(-1);
+  }
+
+  @Test
+  public void testPacketReuse()
+  {
+    IPacket packet = mPool.leasePacket();
+    assertNotNull(packet);
+    assertEquals(1, mPool.getNumLeased());
+    assertEquals(1, mPool.getNumMisses());
+    mPool.recycle(packet);
+    assertEquals(0, mPool.getNumLeased());
+    assertEquals(1, mPool.getNumPooled());
+
+    IPacket packet2 = mPool.leasePacket();
+    assertTrue(packet == packet2);
+    assertEquals(1, mPool.getNumHits());
+    assertEquals(0, mPool.getNumPooled());
+    mPool.recycle(packet2);
+  }
+
+  @Test
+  public void testVideoPicturesKeyedByFormat()
+  {
+    IVideoPicture picture = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P,
+        10, 10);
+    mPool.recycle(picture);
+
+    IVideoPicture other = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P,
+        20, 20);
+    assertFalse(picture == other);
+    assertEquals(20, other.getWidth());
+    assertEquals(0, mPool.getNumHits());
+
+    IVideoPicture same = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P,
+        10, 10);
+    assertTrue(picture == same);
+    assertEquals(1, mPool.getNumHits());
+    mPool.recycle(other);
+    mPool.recycle(same);
+  }
+
+  @Test
+  public void testAudioSamplesKeyedByFormat()
+  {
+    IAudioSamples samples = mPool.leaseAudioSamples(1024, 2);
+    assertEquals(2, samples.getChannels());
+    mPool.recycle(samples);
+    IAudioSamples mono = mPool.leaseAudioSamples(1024, 1);
+    assertFalse(samples == mono);
+    mPool.recycle(mono);
+    assertTrue(samples == mPool.leaseAudioSamples(1024, 2));
+  }
+
+  @Test
+  public void testEviction()
+  {
+    IPacket p1 = mPool.leasePacket();
+    IPacket p2 = mPool.leasePacket();
+    IPacket p3 = mPool.leasePacket();
+    mPool.recycle(p1);
+    mPool.recycle(p2);
+    mPool.recycle(p3);
+    assertEquals(2, mPool.getNumPooled());
+    assertEquals(1, mPool.getNumEvictions());
+  }
+
+  @Test
+  public void testSharedObjectsAreDiscarded()
+  {
+    IPacket packet = mPool.leasePacket();
+    IPacket copy = packet.copyReference();
+    mPool.recycle(packet);
+    assertEquals(0, mPool.getNumPooled());
+    assertEquals(1, mPool.getNumDiscards());
+    copy.delete();
+  }
+
+  @Test
+  public void testLeasesChargedToBudget()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 1000,
+        JNIMemoryBudget.Policy.FAIL_FAST);
+    JNIMemoryBudget.setThreadBudget(budget);
+    IVideoPicture picture = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P,
+        10, 10);
+    assertEquals(picture.getSize(), budget.getBytesInUse());
+    IAudioSamples samples = mPool.leaseAudioSamples(100, 2);
+    assertEquals(picture.getSize() + 400, budget.getBytesInUse());
+    mPool.recycle(picture);
+    mPool.recycle(samples);
+    // idle objects stay charged until the pool deletes them
+    assertEquals(picture.getSize() + 400, budget.getBytesInUse());
+    mPool.clear();
+    assertEquals(0, budget.getBytesInUse());
+  }
+
+  @Test
+  public void testLeaseOverBudgetEvictsIdle()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 200,
+        JNIMemoryBudget.Policy.FAIL_FAST);
+    budget.setPauseThreshold(1.0);
+    JNIMemoryBudget.setThreadBudget(budget);
+    IVideoPicture picture = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P,
+        10, 10);
+    mPool.recycle(picture);
+    assertEquals(1, mPool.getNumPooled());
+    picture = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P, 12, 12);
+    assertEquals(0, mPool.getNumPooled());
+    assertEquals(1, mPool.getNumEvictions());
+    assertEquals(picture.getSize(), budget.getBytesInUse());
+    assertEquals(0, budget.getNumRejected());
+    mPool.recycle(picture);
+  }
+
+  @Test
+  public void testLeaseOverBudgetFails()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 200,
+        JNIMemoryBudget.Policy.FAIL_FAST);
+    JNIMemoryBudget.setThreadBudget(budget);
+    IVideoPicture picture = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P,
+        10, 10);
+    try
+    {
+      mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P, 10, 10);
+      fail("should have run out of budget");
+    }
+    catch (OutOfMemoryError e)
+    {
+      // expected
+    }
+    assertEquals(1, mPool.getNumLeased());
+    assertEquals(1, budget.getNumRejected());
+    mPool.recycle(picture);
+  }
+
+  @Test
+  public void testReturnAboveThresholdDeletes()
+  {
+    final JNIMemoryBudget budget = new JNIMemoryBudget("test", 200,
+        JNIMemoryBudget.Policy.FAIL_FAST);
+    JNIMemoryBudget.setThreadBudget(budget);
+    IVideoPicture picture = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P,
+        12, 12);
+    assertTrue(budget.isAbovePauseThreshold());
+    mPool.recycle(picture);
+    assertEquals(0, mPool.getNumPooled());
+    assertEquals(0, budget.getBytesInUse());
+  }
+
+  @Test
+  public void testPooledObjectsSurviveScope()
+  {
+    IVideoPicture picture;
+    FerryScope scope = FerryScope.open();
+    try
+    {
+      picture = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P, 10, 10);
+      mPool.recycle(picture);
+    }
+    finally
+    {
+      scope.close();
+    }
+    IVideoPicture same = mPool.leaseVideoPicture(IPixelFormat.Type.YUV420P,
+        10, 10);
+    assertTrue(picture == same);
+    // would throw if the scope had deleted it
+    assertEquals(10, same.getWidth());
+    mPool.recycle(same);
+  }
+
+  @Test
+  public void testForeignObjectsAreNotPooled()
+  {
+    mPool.recycle(IPacket.make());
+    assertEquals(0, mPool.getNumPooled());
+    assertEquals(0, mPool.getNumDiscards());
+  }
+}
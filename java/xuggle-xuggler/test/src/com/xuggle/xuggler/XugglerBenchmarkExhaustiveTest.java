@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xuggle.ferry.BenchmarkRunner;
+import com.xuggle.mediatool.IMediaWriter;
+import com.xuggle.mediatool.ToolFactory;
+import com.xuggle.xuggler.video.ConverterFactory;
+import com.xuggle.xuggler.video.IConverter;
+
+/**
+ * Throughput of demuxing, decoding and encoding.
+ * <p>
+ * We generate our own fixture, so results don't depend on whatever happens
+ * to be in the fixtures directory.  Results go to
+ * <code>XugglerBenchmark.json</code>; see {@link BenchmarkRunner} for how to
+ * tune and read them.
+ * </p>
+ */
+public class XugglerBenchmarkExhaustiveTest
+{
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  private static final int FRAME_RATE = 25;
+  private static final int SECONDS = 10;
+  private static final int SAMPLE_RATE = 22050;
+
+  private static File mFixture;
+
+  @BeforeClass
+  public static void setUpClass()
+  {
+    mFixture = new File(System.getProperty("java.io.tmpdir"),
+        XugglerBenchmarkExhaustiveTest.class.getName() + ".flv");
+    mFixture.deleteOnExit();
+    final IMediaWriter writer = ToolFactory.makeWriter(mFixture.getPath());
+    writer.addVideoStream(0, 0, WIDTH, HEIGHT);
+    writer.addAudioStream(1, 1, 1, SAMPLE_RATE);
+    final BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_3BYTE_BGR);
+    final short samples[] = new short[SAMPLE_RATE / FRAME_RATE];
+    for(int frame = 0; frame < SECONDS * FRAME_RATE; frame++)
+    {
+      drawFrame(image, frame);
+      final long timeStamp = frame * 1000L / FRAME_RATE;
+      writer.encodeVideo(0, image, timeStamp, TimeUnit.MILLISECONDS);
+      for(int i = 0; i < samples.length; i++)
+        samples[i] = (short) (Math.sin((frame * samples.length + i) * 0.1) * 8000);
+      writer.encodeAudio(1, samples, timeStamp, TimeUnit.MILLISECONDS);
+    }
+    writer.close();
+  }
+
+  @Test
+  public void testBenchmark() throws Exception
+  {
+    final BenchmarkRunner runner = new BenchmarkRunner("XugglerBenchmark");
+    final String params[] = { "size", WIDTH + "x" + HEIGHT };
+
+    runner.run("readNextPacket", params, new ReadingTask() {
+      public long run()
+      {
+        return readPacket().getSize();
+      }
+    });
+
+    runner.run("decodeVideo", params, new ReadingTask() {
+      public long run()
+      {
+        while (true)
+        {
+          final IPacket packet = readPacket();
+          if (packet.getStreamIndex() != mVideoCoder.getStream().getIndex())
+            continue;
+          int offset = 0;
+          while (offset < packet.getSize())
+          {
+            final int bytesDecoded = mVideoCoder.decodeVideo(mPicture, packet,
+                offset);
+            if (bytesDecoded < 0)
+              throw new RuntimeException("could not decode video");
+            offset += bytesDecoded;
+            if (mPicture.isComplete())
+              return mPicture.getPts();
+          }
+        }
+      }
+    });
+
+    runner.run("encodeVideo", params, new BenchmarkRunner.Task() {
+      private IStreamCoder mCoder;
+      private IVideoPicture mPicture;
+      private IPacket mPacket;
+      private long mPts;
+
+      @Override
+      public void setUp()
+      {
+        mCoder = IStreamCoder.make(IStreamCoder.Direction.ENCODING);
+        mCoder.setCodec(ICodec.ID.CODEC_ID_FLV1);
+        mCoder.setWidth(WIDTH);
+        mCoder.setHeight(HEIGHT);
+        mCoder.setPixelType(IPixelFormat.Type.YUV420P);
+        mCoder.setTimeBase(IRational.make(1, FRAME_RATE));
+        mCoder.setNumPicturesInGroupOfPictures(FRAME_RATE);
+        if (mCoder.open() < 0)
+          throw new RuntimeException("could not open encoder");
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+            BufferedImage.TYPE_3BYTE_BGR);
+        drawFrame(image, 0);
+        final IConverter converter = ConverterFactory.createConverter(
+            ConverterFactory.XUGGLER_BGR_24, IPixelFormat.Type.YUV420P,
+            WIDTH, HEIGHT);
+        mPicture = converter.toPicture(image, 0);
+        converter.delete();
+        mPacket = IPacket.make();
+        mPts = 0;
+      }
+
+      public long run()
+      {
+        mPts += 1000000 / FRAME_RATE;
+        mPicture.setPts(mPts);
+        if (mCoder.encodeVideo(mPacket, mPicture, 0) < 0)
+          throw new RuntimeException("could not encode video");
+        return mPacket.getSize();
+      }
+
+      @Override
+      public void tearDown()
+      {
+        mCoder.close();
+        mCoder.delete();
+        mPicture.delete();
+        mPacket.delete();
+      }
+    });
+
+    runner.writeReport();
+  }
+
+  private static void drawFrame(BufferedImage image, int frame)
+  {
+    // a bar moving across a gradient gives the encoder something to do
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final int bar = (frame * 4) % width;
+    for(int y = 0; y < height; y++)
+      for(int x = 0; x < width; x++)
+        image.setRGB(x, y, Math.abs(x - bar) < 8 ? 0xffffff :
+          (x * 255 / width) << 16 | (y * 255 / height) << 8 | frame % 256);
+  }
+
+  /**
+   * Reads the fixture over and over, reopening it at the end.
+   */
+  private static abstract class ReadingTask extends BenchmarkRunner.Task
+  {
+    protected IContainer mContainer;
+    protected IPacket mPacket;
+    protected IStreamCoder mVideoCoder;
+    protected IVideoPicture mPicture;
+
+    @Override
+    public void setUp()
+    {
+      mPacket = IPacket.make();
+      open();
+    }
+
+    private void open()
+    {
+      mContainer = IContainer.make();
+      if (mContainer.open(mFixture.getPath(), IContainer.Type.READ, null) < 0)
+        throw new RuntimeException("could not open " + mFixture);
+      for(int i = 0; i < mContainer.getNumStreams(); i++)
+      {
+        final IStreamCoder coder = mContainer.getStream(i).getStreamCoder();
+        if (coder.getCodecType() == ICodec.Type.CODEC_TYPE_VIDEO)
+        {
+          mVideoCoder = coder;
+          if (mVideoCoder.open() < 0)
+            throw new RuntimeException("could not open decoder");
+          if (mPicture == null)
+            mPicture = IVideoPicture.make(mVideoCoder.getPixelType(),
+                mVideoCoder.getWidth(), mVideoCoder.getHeight());
+        }
+      }
+    }
+
+    private void close()
+    {
+      mVideoCoder.close();
+      mContainer.close();
+      mContainer.delete();
+    }
+
+    protected IPacket readPacket()
+    {
+      if (mContainer.readNextPacket(mPacket) < 0)
+      {
+        close();
+        open();
+        if (mContainer.readNextPacket(mPacket) < 0)
+          throw new RuntimeException("could not read " + mFixture);
+      }
+      return mPacket;
+    }
+
+    @Override
+    public void tearDown()
+    {
+      close();
+      mPacket.delete();
+      mPicture.delete();
+    }
+  }
+}
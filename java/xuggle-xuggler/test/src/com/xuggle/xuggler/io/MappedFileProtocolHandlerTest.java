@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IPacket;
+
+import static org.junit.Assert.*;
+
+public class MappedFileProtocolHandlerTest
+{
+  private static final int SIZE = 10000;
+
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    mFile = File.createTempFile(getClass().getName(), ".dat");
+    RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+    for (int i = 0; i < SIZE; i++)
+      file.write(i * 7);
+    file.close();
+  }
+
+  @After
+  public void tearDown()
+  {
+    mFile.delete();
+  }
+
+  @Test
+  public void testReadAcrossWindows()
+  {
+    MappedFileProtocolHandler handler = new MappedFileProtocolHandler(
+        mFile, 4096, 2);
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[3000];
+    int total = 0;
+    int ret;
+    while ((ret = handler.read(buf, buf.length)) > 0)
+    {
+      for (int i = 0; i < ret; i++)
+        assertEquals((byte) ((total + i) * 7), buf[i]);
+      total += ret;
+    }
+    assertEquals(SIZE, total);
+    assertEquals(-1, handler.read(buf, buf.length));
+
+    // only the last two windows stay mapped
+
+    assertEquals(2, handler.getNumWindows());
+    assertEquals(0, handler.close());
+    assertEquals(0, handler.getNumWindows());
+  }
+
+  @Test
+  public void testSeek()
+  {
+    MappedFileProtocolHandler handler = new MappedFileProtocolHandler(
+        mFile, 1024, 4);
+    assertFalse(handler.isStreamed(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[10];
+
+    assertEquals(SIZE, handler.seek(0, IURLProtocolHandler.SEEK_SIZE));
+    assertEquals(5000, handler.seek(5000, IURLProtocolHandler.SEEK_SET));
+    assertEquals(10, handler.read(buf, 10));
+    assertEquals((byte) (5000 * 7), buf[0]);
+    assertEquals(5020, handler.seek(10, IURLProtocolHandler.SEEK_CUR));
+    assertEquals(10, handler.read(buf, 10));
+    assertEquals((byte) (5020 * 7), buf[0]);
+    assertEquals(SIZE - 4, handler.seek(-4, IURLProtocolHandler.SEEK_END));
+    assertEquals(4, handler.read(buf, 10));
+    assertEquals((byte) ((SIZE - 1) * 7), buf[3]);
+    assertEquals(-1, handler.seek(-1, IURLProtocolHandler.SEEK_SET));
+    assertEquals(-1, handler.seek(0, 42));
+    handler.close();
+  }
+
+  @Test
+  public void testReadsGrowingFile() throws IOException
+  {
+    MappedFileProtocolHandler handler = new MappedFileProtocolHandler(
+        mFile, 1024 * 1024, 1);
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    handler.seek(0, IURLProtocolHandler.SEEK_END);
+    byte[] buf = new byte[10];
+    assertEquals(-1, handler.read(buf, 10));
+
+    FileOutputStream out = new FileOutputStream(mFile, true);
+    out.write(new byte[] { 1, 2, 3 });
+    out.close();
+    assertEquals(3, handler.read(buf, 10));
+    assertEquals(3, buf[2]);
+    handler.close();
+  }
+
+  @Test
+  public void testOnlyReads()
+  {
+    MappedFileProtocolHandler handler = new MappedFileProtocolHandler(
+        mFile.getPath());
+    assertEquals(-1, handler.open(null, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(-1, handler.open(null, IURLProtocolHandler.URL_RDWR));
+    assertEquals(-1, handler.write(new byte[1], 1));
+  }
+
+  @Test
+  public void testMissingFile()
+  {
+    MappedFileProtocolHandler handler = new MappedFileProtocolHandler(
+        "/tmp/garbage-file-k200cski2loiudjhsl2");
+    assertEquals(-1, handler.open(null, IURLProtocolHandler.URL_RDONLY_MODE));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidWindowSize()
+  {
+    new MappedFileProtocolHandler(mFile, 0, 1);
+  }
+
+  @Test
+  public void testFactoryStripsProtocol()
+  {
+    IURLProtocolHandler handler = URLProtocolManager.getManager().getHandler(
+        URLProtocolManager.MAPPED_FILE_PROTOCOL + ":" + mFile.getPath(),
+        IURLProtocolHandler.URL_RDONLY_MODE);
+    assertTrue(handler instanceof MappedFileProtocolHandler);
+    assertEquals(mFile, ((MappedFileProtocolHandler) handler).getFile());
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    assertEquals(SIZE, handler.seek(0, IURLProtocolHandler.SEEK_SIZE));
+    handler.close();
+  }
+
+  @Test
+  public void testDemux()
+  {
+    IContainer container = IContainer.make();
+    assertTrue(container.open(URLProtocolManager.MAPPED_FILE_PROTOCOL
+        + ":fixtures/testfile.flv", IContainer.Type.READ, null) >= 0);
+    IPacket packet = IPacket.make();
+    int packets = 0;
+    while (container.readNextPacket(packet) >= 0)
+      packets++;
+    assertTrue(packets > 0);
+    container.close();
+  }
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PipeProtocolHandlerTest
+{
+  private static final String URL = "xugglerpipe:test";
+
+  @Test
+  public void testConcurrentTransfer() throws InterruptedException
+  {
+    PipeProtocolHandlerFactory factory = new PipeProtocolHandlerFactory(
+        100, 4);
+    final IURLProtocolHandler writer = factory.getHandler("xugglerpipe",
+        URL, IURLProtocolHandler.URL_WRONLY_MODE);
+    IURLProtocolHandler reader = factory.getHandler("xugglerpipe", URL,
+        IURLProtocolHandler.URL_RDONLY_MODE);
+
+    // the reader may open first
+    assertEquals(0, reader.open(URL, IURLProtocolHandler.URL_RDONLY_MODE));
+    assertEquals(0, writer.open(URL, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(1, factory.getNumPipes());
+
+    final int size = 100000;
+    Thread thread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        byte[] buf = new byte[333];
+        for (int i = 0; i < size; i += buf.length)
+        {
+          int length = Math.min(buf.length, size - i);
+          for (int j = 0; j < length; j++)
+            buf[j] = value(i + j);
+          assertEquals(length, writer.write(buf, length));
+        }
+        assertEquals(0, writer.close());
+      }
+    });
+    thread.start();
+
+    byte[] buf = new byte[250];
+    int total = 0;
+    int ret;
+    while ((ret = reader.read(buf, buf.length)) > 0)
+    {
+      for (int i = 0; i < ret; i++)
+        assertEquals(value(total + i), buf[i]);
+      total += ret;
+    }
+    thread.join();
+    assertEquals(size, total);
+    assertEquals(-1, reader.read(buf, buf.length));
+    assertEquals(0, reader.close());
+    assertEquals(0, factory.getNumPipes());
+  }
+
+  @Test
+  public void testWriterWaitsWhenFull() throws InterruptedException
+  {
+    PipeProtocolHandlerFactory factory = new PipeProtocolHandlerFactory(
+        10, 2);
+    final IURLProtocolHandler writer = new PipeProtocolHandler(factory);
+    IURLProtocolHandler reader = new PipeProtocolHandler(factory);
+    assertEquals(0, writer.open(URL, IURLProtocolHandler.URL_WRONLY_MODE));
+
+    // two blocks fit without a reader
+    assertEquals(20, writer.write(new byte[20], 20));
+
+    Thread thread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        writer.write(new byte[10], 10);
+      }
+    });
+    thread.start();
+    thread.join(100);
+    assertTrue(thread.isAlive());
+
+    assertEquals(0, reader.open(URL, IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[5];
+    assertEquals(5, reader.read(buf, buf.length));
+    assertEquals(5, reader.read(buf, buf.length));
+    thread.join(5000);
+    assertFalse(thread.isAlive());
+    writer.close();
+    reader.close();
+  }
+
+  @Test
+  public void testSmallWritesShareBlocks()
+  {
+    PipeProtocolHandlerFactory factory = new PipeProtocolHandlerFactory(
+        10, 2);
+    IURLProtocolHandler writer = new PipeProtocolHandler(factory);
+    IURLProtocolHandler reader = new PipeProtocolHandler(factory);
+    assertEquals(0, writer.open(URL, IURLProtocolHandler.URL_WRONLY_MODE));
+
+    // twenty one byte writes fill both blocks without a reader
+    for (int i = 0; i < 20; i++)
+      assertEquals(1, writer.write(new byte[]{ (byte) i }, 1));
+    assertEquals(0, writer.close());
+
+    assertEquals(0, reader.open(URL, IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[30];
+    int total = 0;
+    int ret;
+    while ((ret = reader.read(buf, buf.length)) > 0)
+    {
+      for (int i = 0; i < ret; i++)
+        assertEquals(total + i, buf[i]);
+      total += ret;
+    }
+    assertEquals(20, total);
+    assertEquals(0, reader.close());
+  }
+
+  @Test
+  public void testReaderSeesDataWrittenBeforeItOpened()
+  {
+    PipeProtocolHandlerFactory factory = new PipeProtocolHandlerFactory();
+    IURLProtocolHandler writer = new PipeProtocolHandler(factory);
+    IURLProtocolHandler reader = new PipeProtocolHandler(factory);
+    assertEquals(0, writer.open(URL, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(3, writer.write(new byte[]{ 1, 2, 3 }, 3));
+    assertEquals(0, writer.close());
+
+    assertEquals(0, reader.open(URL, IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[10];
+    assertEquals(3, reader.read(buf, buf.length));
+    assertEquals(3, buf[2]);
+    assertEquals(-1, reader.read(buf, buf.length));
+    assertEquals(0, reader.close());
+  }
+
+  @Test
+  public void testWriteFailsOnceReaderCloses()
+  {
+    PipeProtocolHandlerFactory factory = new PipeProtocolHandlerFactory(
+        10, 2);
+    IURLProtocolHandler writer = new PipeProtocolHandler(factory);
+    IURLProtocolHandler reader = new PipeProtocolHandler(factory);
+    assertEquals(0, writer.open(URL, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(0, reader.open(URL, IURLProtocolHandler.URL_RDONLY_MODE));
+    assertEquals(0, reader.close());
+    assertEquals(-1, writer.write(new byte[100], 100));
+    assertEquals(0, writer.close());
+    assertEquals(0, factory.getNumPipes());
+  }
+
+  @Test
+  public void testOneHandlerPerEnd()
+  {
+    PipeProtocolHandlerFactory factory = new PipeProtocolHandlerFactory();
+    IURLProtocolHandler first = new PipeProtocolHandler(factory);
+    IURLProtocolHandler second = new PipeProtocolHandler(factory);
+    assertEquals(0, first.open(URL, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(-1, second.open(URL, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(-1, second.open(URL, IURLProtocolHandler.URL_RDWR));
+
+    // other names are other pipes
+    assertEquals(0, second.open("xugglerpipe:other",
+        IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(2, factory.getNumPipes());
+    assertTrue(first.isStreamed(URL, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(-1, first.seek(0, IURLProtocolHandler.SEEK_SET));
+    first.close();
+    second.close();
+  }
+
+  private static byte value(int position)
+  {
+    return (byte) (position * 31);
+  }
+}
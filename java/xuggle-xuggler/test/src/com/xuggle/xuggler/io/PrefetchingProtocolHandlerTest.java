@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IPacket;
+
+import static org.junit.Assert.*;
+
+public class PrefetchingProtocolHandlerTest
+{
+  private static final int SIZE = 100000;
+
+  @Test
+  public void testSequentialRead()
+  {
+    MemoryHandler memory = new MemoryHandler(0);
+    PrefetchingProtocolHandler handler = new PrefetchingProtocolHandler(
+        memory, 1000, 4);
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[777];
+    int total = 0;
+    int ret;
+    while ((ret = handler.read(buf, buf.length)) > 0)
+    {
+      for (int i = 0; i < ret; i++)
+        assertEquals(value(total + i), buf[i]);
+      total += ret;
+    }
+    assertEquals(SIZE, total);
+    assertEquals(-1, handler.read(buf, buf.length));
+    assertEquals(SIZE, handler.getBytesPrefetched());
+    assertEquals(0, handler.close());
+    assertTrue(memory.mClosed);
+  }
+
+  @Test
+  public void testSeek()
+  {
+    PrefetchingProtocolHandler handler = new PrefetchingProtocolHandler(
+        new MemoryHandler(0), 1000, 4);
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[10];
+
+    assertEquals(SIZE, handler.seek(0, IURLProtocolHandler.SEEK_SIZE));
+    assertEquals(50000, handler.seek(50000, IURLProtocolHandler.SEEK_SET));
+    assertEquals(10, handler.read(buf, 10));
+    assertEquals(value(50000), buf[0]);
+
+    // the current position, and back into data already prefetched
+
+    assertEquals(50010, handler.seek(0, IURLProtocolHandler.SEEK_CUR));
+    assertEquals(50005, handler.seek(-5, IURLProtocolHandler.SEEK_CUR));
+    assertEquals(10, handler.read(buf, 10));
+    assertEquals(value(50005), buf[0]);
+    assertEquals(2, handler.getBufferedSeeks());
+
+    assertEquals(SIZE - 3, handler.seek(-3, IURLProtocolHandler.SEEK_END));
+    assertEquals(3, handler.read(buf, 10));
+    assertEquals(value(SIZE - 1), buf[2]);
+    assertEquals(-1, handler.read(buf, 10));
+
+    // and back to the start after hitting the end
+
+    assertEquals(0, handler.seek(0, IURLProtocolHandler.SEEK_SET));
+    assertEquals(10, handler.read(buf, 10));
+    assertEquals(value(0), buf[0]);
+    assertEquals(5, handler.getSeeks());
+    handler.close();
+  }
+
+  @Test
+  public void testReopen()
+  {
+    MemoryHandler memory = new MemoryHandler(1);
+    PrefetchingProtocolHandler handler = new PrefetchingProtocolHandler(
+        memory, 1000, 4);
+    byte[] buf = new byte[100];
+    for (int i = 0; i < 10; i++)
+    {
+      // close while the prefetch thread is part way through the stream
+      // and reopen right away; only the new thread may fill the ring
+
+      assertEquals(0, handler.open("test",
+          IURLProtocolHandler.URL_RDONLY_MODE));
+      assertEquals(100, handler.read(buf, buf.length));
+      assertEquals(value(0), buf[0]);
+      assertEquals(0, handler.close());
+    }
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_RDONLY_MODE));
+    int total = 0;
+    int ret;
+    while ((ret = handler.read(buf, buf.length)) > 0)
+    {
+      for (int i = 0; i < ret; i++)
+        assertEquals(value(total + i), buf[i]);
+      total += ret;
+    }
+    assertEquals(SIZE, total);
+    handler.close();
+  }
+
+  @Test
+  public void testMetrics() throws InterruptedException
+  {
+    PrefetchingProtocolHandler handler = new PrefetchingProtocolHandler(
+        new MemoryHandler(5), 1000, 4);
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[100];
+
+    // the first read has to wait; then let the ring fill
+
+    assertEquals(100, handler.read(buf, buf.length));
+    assertEquals(1, handler.getStalls());
+    assertTrue(handler.getStallTime(TimeUnit.MICROSECONDS) > 0);
+    Thread.sleep(100);
+    for (int i = 0; i < 30; i++)
+      assertEquals(100, handler.read(buf, buf.length));
+    assertEquals(1, handler.getStalls());
+    assertEquals(30, handler.getHits());
+    assertEquals(30.0 / 31, handler.getHitRate(), 0.0001);
+    handler.close();
+  }
+
+  @Test
+  public void testWritePassesThrough()
+  {
+    MemoryHandler memory = new MemoryHandler(0);
+    PrefetchingProtocolHandler handler = new PrefetchingProtocolHandler(
+        memory);
+    assertEquals(0, handler.open("test",
+        IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(3, handler.write(new byte[] { 1, 2, 3 }, 3));
+    assertEquals(3, memory.mWritten);
+    assertEquals(0, handler.close());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidBlockSize()
+  {
+    new PrefetchingProtocolHandler(new MemoryHandler(0), 0, 4);
+  }
+
+  @Test
+  public void testMapPrefetching()
+  {
+    String url = XugglerIO.map(new MemoryHandler(0), true);
+    IURLProtocolHandler handler = XugglerIO.getFactory().getHandler(
+        XugglerIO.DEFAULT_PROTOCOL, url, IURLProtocolHandler.URL_RDONLY_MODE);
+    assertTrue(handler instanceof PrefetchingProtocolHandler);
+  }
+
+  @Test
+  public void testDemux() throws IOException
+  {
+    IContainer container = IContainer.make();
+    assertTrue(container.open(XugglerIO.map(new InputOutputStreamHandler(
+        new FileInputStream("fixtures/testfile.flv")), true),
+        IContainer.Type.READ, null) >= 0);
+    IPacket packet = IPacket.make();
+    int packets = 0;
+    while (container.readNextPacket(packet) >= 0)
+      packets++;
+    assertTrue(packets > 0);
+    container.close();
+  }
+
+  private static byte value(int position)
+  {
+    return (byte) (position * 31 + (position >> 8));
+  }
+
+  /**
+   * Reads {@link #SIZE} bytes of a known pattern, taking a while for each
+   * read if asked.
+   */
+  private static class MemoryHandler implements IURLProtocolHandler
+  {
+    private final long mDelay;
+    private long mPosition;
+    private boolean mClosed;
+    private int mWritten;
+
+    MemoryHandler(long delay)
+    {
+      mDelay = delay;
+    }
+
+    public int open(String url, int flags)
+    {
+      mPosition = 0;
+      return 0;
+    }
+
+    public int read(byte[] buf, int size)
+    {
+      if (mDelay > 0)
+      {
+        try
+        {
+          Thread.sleep(mDelay);
+        }
+        catch (InterruptedException e)
+        {
+          return -1;
+        }
+      }
+      if (mPosition >= SIZE)
+        return -1;
+      int read = (int) Math.min(size, SIZE - mPosition);
+      for (int i = 0; i < read; i++)
+        buf[i] = value((int) mPosition + i);
+      mPosition += read;
+      return read;
+    }
+
+    public long seek(long offset, int whence)
+    {
+      if (whence == SEEK_SIZE)
+        return SIZE;
+      final long seek = whence == SEEK_SET ? offset
+          : whence == SEEK_CUR ? mPosition + offset : SIZE + offset;
+      if (seek < 0)
+        return -1;
+      mPosition = seek;
+      return seek;
+    }
+
+    public int write(byte[] buf, int size)
+    {
+      mWritten += size;
+      return size;
+    }
+
+    public int close()
+    {
+      mClosed = true;
+      return 0;
+    }
+
+    public boolean isStreamed(String url, int flags)
+    {
+      return false;
+    }
+  }
+}
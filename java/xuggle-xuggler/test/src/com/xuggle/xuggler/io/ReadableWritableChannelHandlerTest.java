@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IPacket;
+
+import static org.junit.Assert.*;
+
+public class ReadableWritableChannelHandlerTest
+{
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    mFile = File.createTempFile(getClass().getName(), ".dat");
+    RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+    for (int i = 0; i < 1000; i++)
+      file.write(i);
+    file.close();
+  }
+
+  @After
+  public void tearDown()
+  {
+    mFile.delete();
+  }
+
+  @Test
+  public void testReadStopsAtSize() throws IOException
+  {
+    ReadableWritableChannelHandler handler =
+      new ReadableWritableChannelHandler(
+          new FileInputStream(mFile).getChannel(), null, true);
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[64];
+    int total = 0;
+    int ret;
+    while ((ret = handler.read(buf, 10)) > 0)
+    {
+      assertTrue(ret <= 10);
+      for (int i = 0; i < ret; i++)
+        assertEquals((byte) (total + i), buf[i]);
+      assertEquals(0, buf[10]);
+      total += ret;
+    }
+    assertEquals(1000, total);
+    assertEquals(0, handler.close());
+  }
+
+  @Test
+  public void testSeekFileChannel() throws IOException
+  {
+    ReadableWritableChannelHandler handler =
+      new ReadableWritableChannelHandler(
+          new FileInputStream(mFile).getChannel(), null, true);
+    assertFalse(handler.isStreamed(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    byte[] buf = new byte[1];
+
+    assertEquals(1000, handler.seek(0, IURLProtocolHandler.SEEK_SIZE));
+    assertEquals(100, handler.seek(100, IURLProtocolHandler.SEEK_SET));
+    assertEquals(1, handler.read(buf, 1));
+    assertEquals((byte) 100, buf[0]);
+    assertEquals(111, handler.seek(10, IURLProtocolHandler.SEEK_CUR));
+    assertEquals(1, handler.read(buf, 1));
+    assertEquals((byte) 111, buf[0]);
+    assertEquals(990, handler.seek(-10, IURLProtocolHandler.SEEK_END));
+    assertEquals(1, handler.read(buf, 1));
+    assertEquals((byte) 990, buf[0]);
+    assertEquals(-1, handler.seek(-1, IURLProtocolHandler.SEEK_SET));
+    assertEquals(-1, handler.seek(0, 42));
+    handler.close();
+  }
+
+  @Test
+  public void testStreamedChannelDoesNotSeek()
+  {
+    ReadableWritableChannelHandler handler =
+      new ReadableWritableChannelHandler(Channels.newChannel(
+          new ByteArrayInputStream(new byte[10])));
+    assertTrue(handler.isStreamed(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_RDONLY_MODE));
+    assertEquals(-1, handler.seek(0, IURLProtocolHandler.SEEK_SET));
+    assertEquals(-1, handler.seek(0, IURLProtocolHandler.SEEK_SIZE));
+    handler.close();
+  }
+
+  @Test
+  public void testWriteAndSeekBack() throws IOException
+  {
+    FileChannel channel = new RandomAccessFile(mFile, "rw").getChannel();
+    channel.truncate(0);
+    ReadableWritableChannelHandler handler =
+      new ReadableWritableChannelHandler(null, channel, true);
+    assertFalse(handler.isStreamed(null, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_WRONLY_MODE));
+    byte[] buf = { 1, 2, 3, 4, 5, 6, 7, 8 };
+    assertEquals(8, handler.write(buf, 8));
+    assertEquals(2, handler.seek(2, IURLProtocolHandler.SEEK_SET));
+    buf[0] = 9;
+    assertEquals(1, handler.write(buf, 1));
+    assertEquals(0, handler.close());
+    assertEquals(8, mFile.length());
+
+    FileInputStream in = new FileInputStream(mFile);
+    byte[] read = new byte[8];
+    assertEquals(8, in.read(read));
+    in.close();
+    assertArrayEquals(new byte[] { 1, 2, 9, 4, 5, 6, 7, 8 }, read);
+  }
+
+  @Test
+  public void testWriteFinishesShortWrites()
+  {
+    // a channel that takes at most three bytes at a time
+
+    final ByteBuffer written = ByteBuffer.allocate(100);
+    WritableByteChannel channel = new WritableByteChannel()
+    {
+      public int write(ByteBuffer src)
+      {
+        int n = Math.min(3, src.remaining());
+        for (int i = 0; i < n; i++)
+          written.put(src.get());
+        return n;
+      }
+
+      public boolean isOpen()
+      {
+        return true;
+      }
+
+      public void close()
+      {
+      }
+    };
+    ReadableWritableChannelHandler handler =
+      new ReadableWritableChannelHandler(channel);
+    assertTrue(handler.isStreamed(null, IURLProtocolHandler.URL_WRONLY_MODE));
+    assertEquals(0, handler.open(null, IURLProtocolHandler.URL_WRONLY_MODE));
+    byte[] buf = new byte[20];
+    for (int i = 0; i < buf.length; i++)
+      buf[i] = (byte) i;
+    assertEquals(10, handler.write(buf, 10));
+    assertEquals(10, written.position());
+    for (int i = 0; i < 10; i++)
+      assertEquals((byte) i, written.get(i));
+    handler.close();
+  }
+
+  @Test
+  public void testDemuxMp4FromFileChannel() throws IOException
+  {
+    FileChannel channel = new FileInputStream(
+        "fixtures/ucl_h264_aac.mp4").getChannel();
+    IContainer container = IContainer.make();
+    assertTrue(container.open(XugglerIO.map(channel), IContainer.Type.READ,
+        null) >= 0);
+    IPacket packet = IPacket.make();
+    int packets = 0;
+    while (container.readNextPacket(packet) >= 0)
+      packets++;
+    assertTrue(packets > 0);
+    container.close();
+  }
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.io;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindProtocolHandlerTest
+{
+  @Test
+  public void testCoalescesWrites()
+  {
+    MemoryHandler memory = new MemoryHandler(0);
+    WriteBehindProtocolHandler handler = new WriteBehindProtocolHandler(
+        memory, 1000, 4);
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_WRONLY_MODE));
+    byte[] buf = new byte[7];
+    for (int i = 0; i < 10000; i += buf.length)
+    {
+      for (int j = 0; j < buf.length; j++)
+        buf[j] = value(i + j);
+      assertEquals(buf.length, handler.write(buf, buf.length));
+    }
+    assertEquals(0, handler.close());
+    assertTrue(memory.mClosed);
+
+    byte[] data = memory.toByteArray();
+    assertEquals(10003, data.length);
+    for (int i = 0; i < data.length; i++)
+      assertEquals(value(i), data[i]);
+    assertEquals(data.length, handler.getBytesWritten());
+    assertEquals(11, handler.getWrites());
+    assertEquals(11, memory.mWrites);
+  }
+
+  @Test
+  public void testSeekFlushesFirst()
+  {
+    MemoryHandler memory = new MemoryHandler(0);
+    WriteBehindProtocolHandler handler = new WriteBehindProtocolHandler(
+        memory, 1000, 4);
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_WRONLY_MODE));
+    byte[] buf = new byte[100];
+    for (int i = 0; i < 20; i++)
+      assertEquals(buf.length, handler.write(buf, buf.length));
+
+    // telling the position doesn't wait for the writes
+
+    assertEquals(2000, handler.seek(0, IURLProtocolHandler.SEEK_CUR));
+
+    // rewrite a header, the way the mov muxer does
+    assertEquals(4, handler.seek(4, IURLProtocolHandler.SEEK_SET));
+    assertEquals(2000, memory.size());
+    assertEquals(4, handler.write(new byte[]{ 1, 2, 3, 4 }, 4));
+    assertEquals(2000, handler.seek(2000, IURLProtocolHandler.SEEK_SET));
+    assertEquals(1, handler.write(new byte[]{ 5 }, 1));
+    assertEquals(1998, handler.seek(-3, IURLProtocolHandler.SEEK_CUR));
+    assertEquals(2001, handler.seek(0, IURLProtocolHandler.SEEK_SIZE));
+    assertEquals(0, handler.close());
+
+    byte[] data = memory.toByteArray();
+    assertEquals(2001, data.length);
+    assertEquals(0, data[3]);
+    assertEquals(1, data[4]);
+    assertEquals(4, data[7]);
+    assertEquals(0, data[8]);
+    assertEquals(5, data[2000]);
+  }
+
+  @Test
+  public void testBackpressure()
+  {
+    MemoryHandler memory = new MemoryHandler(5);
+    WriteBehindProtocolHandler handler = new WriteBehindProtocolHandler(
+        memory, 100, 2);
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_WRONLY_MODE));
+    byte[] buf = new byte[100];
+    for (int i = 0; i < 20; i++)
+      assertEquals(buf.length, handler.write(buf, buf.length));
+    assertTrue(handler.getStalls() > 0);
+    assertTrue(handler.getStallTime(TimeUnit.NANOSECONDS) > 0);
+    assertEquals(0, handler.close());
+    assertEquals(2000, memory.size());
+  }
+
+  @Test
+  public void testErrorsAreReported()
+  {
+    MemoryHandler memory = new MemoryHandler(0);
+    memory.mFail = true;
+    WriteBehindProtocolHandler handler = new WriteBehindProtocolHandler(
+        memory, 10, 2);
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_WRONLY_MODE));
+    byte[] buf = new byte[10];
+    int ret = 0;
+    for (int i = 0; i < 100 && ret >= 0; i++)
+      ret = handler.write(buf, buf.length);
+    assertEquals(-1, ret);
+    assertEquals(-1, handler.seek(0, IURLProtocolHandler.SEEK_SET));
+    assertEquals(-1, handler.close());
+    assertTrue(memory.mClosed);
+  }
+
+  @Test
+  public void testReadOnlyPassesThrough()
+  {
+    MemoryHandler memory = new MemoryHandler(0);
+    WriteBehindProtocolHandler handler = new WriteBehindProtocolHandler(
+        memory);
+    assertEquals(0, handler.open("test", IURLProtocolHandler.URL_RDWR));
+    assertEquals(3, handler.write(new byte[]{ 1, 2, 3 }, 3));
+    assertEquals(3, memory.size());
+    assertEquals(1, memory.mWrites);
+    assertEquals(0, handler.getWrites());
+    assertEquals(0, handler.close());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBufferSize()
+  {
+    new WriteBehindProtocolHandler(new MemoryHandler(0), 0, 4);
+  }
+
+  private static byte value(int position)
+  {
+    return (byte) (position * 31);
+  }
+
+  /**
+   * A seekable in-memory file that can be slow or fail.
+   */
+  private static class MemoryHandler implements IURLProtocolHandler
+  {
+    private final long mDelay;
+    private byte[] mData = new byte[0];
+    private int mPosition;
+    private int mWrites;
+    private boolean mFail;
+    private boolean mClosed;
+
+    MemoryHandler(long delay)
+    {
+      mDelay = delay;
+    }
+
+    synchronized int size()
+    {
+      return mData.length;
+    }
+
+    synchronized byte[] toByteArray()
+    {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.write(mData, 0, mData.length);
+      return out.toByteArray();
+    }
+
+    public int open(String url, int flags)
+    {
+      mPosition = 0;
+      return 0;
+    }
+
+    public int read(byte[] buf, int size)
+    {
+      return -1;
+    }
+
+    public synchronized long seek(long offset, int whence)
+    {
+      if (whence == SEEK_SIZE)
+        return mData.length;
+      final long seek = whence == SEEK_SET ? offset
+          : whence == SEEK_CUR ? mPosition + offset : mData.length + offset;
+      if (seek < 0)
+        return -1;
+      mPosition = (int) seek;
+      return seek;
+    }
+
+    public synchronized int write(byte[] buf, int size)
+    {
+      if (mFail)
+        return -1;
+      if (mDelay > 0)
+      {
+        try
+        {
+          Thread.sleep(mDelay);
+        }
+        catch (InterruptedException e)
+        {
+          return -1;
+        }
+      }
+      if (mPosition + size > mData.length)
+      {
+        byte[] data = new byte[mPosition + size];
+        System.arraycopy(mData, 0, data, 0, mData.length);
+        mData = data;
+      }
+      System.arraycopy(buf, 0, mData, mPosition, size);
+      mPosition += size;
+      mWrites++;
+      return size;
+    }
+
+    public int close()
+    {
+      mClosed = true;
+      return 0;
+    }
+
+    public boolean isStreamed(String url, int flags)
+    {
+      return false;
+    }
+  }
+}
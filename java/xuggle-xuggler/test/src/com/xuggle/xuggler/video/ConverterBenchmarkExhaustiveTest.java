@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.xuggle.ferry.BenchmarkRunner;
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * Throughput of every registered {@link IConverter}, in both directions,
+ * at a few common frame sizes, both when the converter has to resample
+ * from YUV420P and when it doesn't, and both when it allocates a new
+ * target for every conversion and when it writes into the same one.
+ * Converters that resample are also measured cutting pictures into
+ * bands, to show how well conversion scales with processors.  The Java
+ * YUV420P converters are included, registered or not, so they can be
+ * compared with the resampling converters.
+ * <p>
+ * Making thumbnails with a {@link ThumbnailMaker} is compared with
+ * converting full size images and scaling them with Java2D.
+ * </p>
+ * <p>
+ * Results go to <code>ConverterBenchmark.json</code> and
+ * <code>ThumbnailBenchmark.json</code>; see
+ * {@link BenchmarkRunner} for how to tune and read them.
+ * </p>
+ */
+public class ConverterBenchmarkExhaustiveTest
+{
+  private static final int SIZES[][] =
+  {
+      { 320, 240 },
+      { 1280, 720 },
+      { 1920, 1080 },
+      { 3840, 2160 },
+  };
+
+  // the size thumbnails are made at
+
+  private static final int THUMBNAIL_WIDTH = 160;
+  private static final int THUMBNAIL_HEIGHT = 90;
+
+  // how many bands to try resampling in, up to the number of processors
+
+  private static final int BANDS[] = { 1, 2, 4, 8 };
+
+  @Test
+  public void testBenchmark() throws Exception
+  {
+    final ConverterFactory.Type javaArgb = new ConverterFactory.Type(
+        ConverterFactory.XUGGLER_YUV420P_ARGB_32, YuvArgbConverter.class,
+        IPixelFormat.Type.ARGB, BufferedImage.TYPE_INT_ARGB);
+    final ConverterFactory.Type displaced =
+      ConverterFactory.registerConverter(javaArgb);
+    try
+    {
+      benchmark(new ArrayList<ConverterFactory.Type>(
+          ConverterFactory.getRegisteredConverters()));
+    }
+    finally
+    {
+      ConverterFactory.unregisterConverter(javaArgb);
+      if (displaced != null)
+        ConverterFactory.registerConverter(displaced);
+    }
+  }
+
+  @Test
+  public void testThumbnailBenchmark() throws Exception
+  {
+    final BenchmarkRunner runner = new BenchmarkRunner("ThumbnailBenchmark");
+    final ConverterFactory.Type type = ConverterFactory.findRegisteredConverter(
+        ConverterFactory.XUGGLER_BGR_24);
+    for(int size[] : SIZES)
+    {
+      final String params[] = {
+          "size", size[0] + "x" + size[1],
+          "thumbnail", THUMBNAIL_WIDTH + "x" + THUMBNAIL_HEIGHT,
+      };
+      try
+      {
+        runner.run("convertAndScale", params,
+            new ScaleTask(type, size[0], size[1]));
+        runner.run("thumbnailNative", params,
+            new ThumbnailTask(type, size[0], size[1],
+                ThumbnailMaker.Filter.NATIVE));
+        runner.run("thumbnailBox", params,
+            new ThumbnailTask(type, size[0], size[1],
+                ThumbnailMaker.Filter.BOX));
+      }
+      catch (UnsupportedOperationException e)
+      {
+        // no color space conversion in this build
+        break;
+      }
+    }
+    runner.writeReport();
+  }
+
+  private void benchmark(List<ConverterFactory.Type> types) throws Exception
+  {
+    final BenchmarkRunner runner = new BenchmarkRunner("ConverterBenchmark");
+    for(ConverterFactory.Type type : types)
+      for(IPixelFormat.Type pictureType : new IPixelFormat.Type[]{
+          type.getPictureType(), IPixelFormat.Type.YUV420P })
+      {
+        final boolean resamples;
+        try
+        {
+          final IConverter converter = ConverterFactory.createConverter(
+              type.getDescriptor(), pictureType, SIZES[0][0], SIZES[0][1]);
+          resamples = converter.willResample();
+          converter.delete();
+        }
+        catch (UnsupportedOperationException e)
+        {
+          // no color space conversion in this build
+          continue;
+        }
+        for(int size[] : SIZES)
+        {
+          final String params[] = {
+              "converter", type.getDescriptor(),
+              "pictureType", pictureType.name(),
+              "size", size[0] + "x" + size[1],
+          };
+          runner.run("toImage", params,
+              new ToImageTask(type, pictureType, size[0], size[1], false));
+          runner.run("toImageReusingTarget", params,
+              new ToImageTask(type, pictureType, size[0], size[1], true));
+          runner.run("toPicture", params,
+              new ToPictureTask(type, pictureType, size[0], size[1], false));
+          runner.run("toPictureReusingTarget", params,
+              new ToPictureTask(type, pictureType, size[0], size[1], true));
+          if (!resamples)
+            continue;
+          for(int bands : BANDS)
+          {
+            if (bands > Runtime.getRuntime().availableProcessors())
+              break;
+            final String bandParams[] = {
+                "converter", type.getDescriptor(),
+                "pictureType", pictureType.name(),
+                "size", size[0] + "x" + size[1],
+                "bands", Integer.toString(bands),
+            };
+            runner.run("toImageBanded", bandParams,
+                new ToImageTask(type, pictureType, size[0], size[1], true,
+                    bands));
+            runner.run("toPictureBanded", bandParams,
+                new ToPictureTask(type, pictureType, size[0], size[1], true,
+                    bands));
+          }
+        }
+      }
+    runner.writeReport();
+  }
+
+  /**
+   * Makes a converter and a striped image to convert.
+   */
+  private static abstract class ConverterTask extends BenchmarkRunner.Task
+  {
+    private final ConverterFactory.Type mType;
+    private final IPixelFormat.Type mPictureType;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mNumBands;
+    protected IConverter mConverter;
+    protected BufferedImage mImage;
+
+    ConverterTask(ConverterFactory.Type type, IPixelFormat.Type pictureType,
+        int width, int height, int numBands)
+    {
+      mType = type;
+      mPictureType = pictureType;
+      mWidth = width;
+      mHeight = height;
+      mNumBands = numBands;
+    }
+
+    @Override
+    public void setUp()
+    {
+      mConverter = ConverterFactory.createConverter(mType.getDescriptor(),
+          mPictureType, mWidth, mHeight);
+      mConverter.setNumBands(mNumBands);
+      mImage = new BufferedImage(mWidth, mHeight, mType.getImageType());
+      for(int y = 0; y < mHeight; y++)
+        for(int x = 0; x < mWidth; x++)
+          mImage.setRGB(x, y, (x * 255 / mWidth) << 16 | (y * 255 / mHeight));
+    }
+
+    @Override
+    public void tearDown()
+    {
+      mConverter.delete();
+    }
+  }
+
+  private static class ToImageTask extends ConverterTask
+  {
+    private final boolean mReuse;
+    private IVideoPicture mPicture;
+
+    ToImageTask(ConverterFactory.Type type, IPixelFormat.Type pictureType,
+        int width, int height, boolean reuse)
+    {
+      this(type, pictureType, width, height, reuse, 1);
+    }
+
+    ToImageTask(ConverterFactory.Type type, IPixelFormat.Type pictureType,
+        int width, int height, boolean reuse, int numBands)
+    {
+      super(type, pictureType, width, height, numBands);
+      mReuse = reuse;
+    }
+
+    @Override
+    public void setUp()
+    {
+      super.setUp();
+      mPicture = mConverter.toPicture(mImage, 0);
+    }
+
+    public long run()
+    {
+      if (mReuse)
+        return mConverter.toImage(mPicture, null).getWidth();
+      return mConverter.toImage(mPicture).getWidth();
+    }
+
+    @Override
+    public void tearDown()
+    {
+      mPicture.delete();
+      super.tearDown();
+    }
+  }
+
+  private static class ToPictureTask extends ConverterTask
+  {
+    private final boolean mReuse;
+    private long mTimestamp = 0;
+    private IVideoPicture mPicture;
+
+    ToPictureTask(ConverterFactory.Type type, IPixelFormat.Type pictureType,
+        int width, int height, boolean reuse)
+    {
+      this(type, pictureType, width, height, reuse, 1);
+    }
+
+    ToPictureTask(ConverterFactory.Type type, IPixelFormat.Type pictureType,
+        int width, int height, boolean reuse, int numBands)
+    {
+      super(type, pictureType, width, height, numBands);
+      mReuse = reuse;
+    }
+
+    @Override
+    public void setUp()
+    {
+      super.setUp();
+      if (mReuse)
+        mPicture = mConverter.toPicture(mImage, mTimestamp++);
+    }
+
+    public long run()
+    {
+      if (mReuse)
+        return mConverter.toPicture(mImage, mTimestamp++, mPicture).getSize();
+      final IVideoPicture picture = mConverter.toPicture(mImage, mTimestamp++);
+      final long retval = picture.getSize();
+      picture.delete();
+      return retval;
+    }
+
+    @Override
+    public void tearDown()
+    {
+      if (mPicture != null)
+        mPicture.delete();
+      mPicture = null;
+      super.tearDown();
+    }
+  }
+
+  /**
+   * Converts a YUV420P picture to a full size image and scales it down.
+   */
+  private static class ScaleTask extends ConverterTask
+  {
+    private IVideoPicture mPicture;
+    private BufferedImage mThumbnail;
+
+    ScaleTask(ConverterFactory.Type type, int width, int height)
+    {
+      super(type, IPixelFormat.Type.YUV420P, width, height, 1);
+    }
+
+    @Override
+    public void setUp()
+    {
+      super.setUp();
+      mPicture = mConverter.toPicture(mImage, 0);
+      mThumbnail = new BufferedImage(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT,
+          BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    public long run()
+    {
+      final Graphics2D g = mThumbnail.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(mConverter.toImage(mPicture, null), 0, 0,
+          THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, null);
+      g.dispose();
+      return mThumbnail.getWidth();
+    }
+
+    @Override
+    public void tearDown()
+    {
+      mPicture.delete();
+      super.tearDown();
+    }
+  }
+
+  /**
+   * Makes thumbnails straight from a YUV420P picture.
+   */
+  private static class ThumbnailTask extends ConverterTask
+  {
+    private final ThumbnailMaker.Filter mFilter;
+    private IVideoPicture mPicture;
+    private ThumbnailMaker mMaker;
+    private BufferedImage mThumbnail;
+
+    ThumbnailTask(ConverterFactory.Type type, int width, int height,
+        ThumbnailMaker.Filter filter)
+    {
+      super(type, IPixelFormat.Type.YUV420P, width, height, 1);
+      mFilter = filter;
+    }
+
+    @Override
+    public void setUp()
+    {
+      super.setUp();
+      mPicture = mConverter.toPicture(mImage, 0);
+      mMaker = new ThumbnailMaker(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT,
+          BufferedImage.TYPE_3BYTE_BGR, mFilter);
+      mThumbnail = new BufferedImage(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT,
+          BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    public long run()
+    {
+      return mMaker.toImage(mPicture, mThumbnail).getWidth();
+    }
+
+    @Override
+    public void tearDown()
+    {
+      mMaker.close();
+      mPicture.delete();
+      super.tearDown();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xuggle.xuggler.IPixelFormat;
+
+public class ConverterCacheTest
+{
+  private static final String BGR = ConverterFactory.XUGGLER_BGR_24;
+  private static final IPixelFormat.Type TYPE = IPixelFormat.Type.BGR24;
+
+  private ConverterCache mCache;
+
+  @Before
+  public void setUp()
+  {
+    mCache = new ConverterCache(2, 1, TimeUnit.HOURS);
+  }
+
+  @After
+  public void tearDown()
+  {
+    mCache.clear();
+    mCache = null;
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNegativeMaxIdle()
+  {
+    new ConverterCache(-1, 1, TimeUnit.SECONDS);
+  }
+
+  @Test(expected=UnsupportedOperationException.class)
+  public void testUnknownDescriptor()
+  {
+    mCache.lease("no-such-converter", TYPE, 16, 16);
+  }
+
+  @Test
+  public void testReuse()
+  {
+    IConverter converter = mCache.lease(BGR, TYPE, 16, 16);
+    assertNotNull(converter);
+    assertEquals(1, mCache.getNumLeased());
+    assertEquals(1, mCache.getNumMisses());
+    mCache.recycle(converter);
+    assertEquals(0, mCache.getNumLeased());
+    assertEquals(1, mCache.getNumIdle());
+
+    IConverter converter2 = mCache.lease(BGR, TYPE, 16, 16);
+    assertSame(converter, converter2);
+    assertEquals(1, mCache.getNumHits());
+    assertEquals(0, mCache.getNumIdle());
+    mCache.recycle(converter2);
+  }
+
+  @Test
+  public void testLeasedConvertersAreNotShared()
+  {
+    IConverter converter1 = mCache.lease(BGR, TYPE, 16, 16);
+    IConverter converter2 = mCache.lease(BGR, TYPE, 16, 16);
+    assertNotSame(converter1, converter2);
+    assertEquals(2, mCache.getNumMisses());
+    mCache.recycle(converter1);
+    mCache.recycle(converter2);
+    assertEquals(2, mCache.getNumIdle());
+  }
+
+  @Test
+  public void testKeyedBySize()
+  {
+    IConverter converter = mCache.lease(BGR, TYPE, 16, 16);
+    mCache.recycle(converter);
+
+    IConverter other = mCache.lease(BGR, TYPE, 32, 32);
+    assertNotSame(converter, other);
+    assertEquals(0, mCache.getNumHits());
+    mCache.recycle(other);
+
+    IConverter resizing = mCache.lease(BGR, TYPE, 16, 16, 32, 32);
+    assertNotSame(converter, resizing);
+    assertEquals(0, mCache.getNumHits());
+    mCache.recycle(resizing);
+  }
+
+  @Test
+  public void testEvictsBeyondMaxIdle()
+  {
+    IConverter c1 = mCache.lease(BGR, TYPE, 16, 16);
+    IConverter c2 = mCache.lease(BGR, TYPE, 32, 32);
+    IConverter c3 = mCache.lease(BGR, TYPE, 48, 48);
+    mCache.recycle(c1);
+    mCache.recycle(c2);
+    mCache.recycle(c3);
+    assertEquals(2, mCache.getNumIdle());
+    assertEquals(1, mCache.getNumEvictions());
+
+    // the least recently used size went first
+
+    assertNotSame(c1, mCache.lease(BGR, TYPE, 16, 16));
+    assertSame(c3, mCache.lease(BGR, TYPE, 48, 48));
+  }
+
+  @Test
+  public void testExpiresIdleConverters() throws InterruptedException
+  {
+    ConverterCache cache = new ConverterCache(4, 1, TimeUnit.MILLISECONDS);
+    IConverter converter = cache.lease(BGR, TYPE, 16, 16);
+    cache.recycle(converter);
+    assertEquals(1, cache.getNumIdle());
+    Thread.sleep(20);
+    cache.evictIdle();
+    assertEquals(0, cache.getNumIdle());
+    assertEquals(1, cache.getNumExpirations());
+    assertNotSame(converter, cache.lease(BGR, TYPE, 16, 16));
+    assertEquals(1, cache.getMaxIdleTime(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testUnknownConverterIsNotCached()
+  {
+    IConverter converter = ConverterFactory.createConverter(BGR, TYPE,
+        16, 16);
+    mCache.recycle(converter);
+    assertEquals(0, mCache.getNumIdle());
+  }
+
+  @Test
+  public void testSharedCache()
+  {
+    assertNotNull(ConverterFactory.getConverterCache());
+    assertSame(ConverterFactory.getConverterCache(),
+        ConverterFactory.getConverterCache());
+  }
+}
@@ -19,6 +19,7 @@
 
 package com.xuggle.xuggler.video;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Vector;
 
@@ -399,6 +400,190 @@ public class ConverterFactoryTest
       }
   }
 
+  @Test
+  public void testImageToImageReusingTargets()
+  {
+    if (!IVideoResampler.isSupported(Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    int w = TEST_WIDTH;
+    int h = TEST_HEIGHT;
+    Random rnd = new Random();
+
+    IConverter converter = ConverterFactory.createConverter(
+      mConverterType.getDescriptor(), mConverterType.getPictureType(),
+      w, h);
+
+    IVideoPicture picture = IVideoPicture.make(
+      converter.getPictureType(), w, h);
+    BufferedImage image2 = new BufferedImage(
+      w, h, mConverterType.getImageType());
+
+    // convert a few different images through the same picture and
+    // image, checking each time that the targets were written into
+
+    for (int i = 0; i < 3; ++i)
+    {
+      BufferedImage image1 = new BufferedImage(
+        w, h, mConverterType.getImageType());
+      for (int x = 0; x < w; ++x)
+        for (int y = 0; y < h; ++y)
+        {
+          Color c = new Color(rnd.nextInt(255), 
+            rnd.nextInt(255), rnd.nextInt(255));
+          image1.setRGB(x, y, c.getRGB());
+        }
+
+      assertSame(picture, converter.toPicture(image1, i, picture));
+      assertEquals(i, picture.getTimeStamp());
+      assertSame(image2, converter.toImage(picture, image2));
+
+      for (int x = 0; x < w; ++x)
+        for (int y = 0; y < h; ++y)
+        {
+          String message = testPixels(true,
+            image1.getRGB(x, y), image2.getRGB(x, y), x, y, 
+            converter.getPictureType());
+          assertNull(message, message);
+        }
+    }
+  }
+
+  @Test
+  public void testVideoPictureToCachedImage()
+  {
+    if (!IVideoResampler.isSupported(Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    IConverter converter = ConverterFactory.createConverter(
+      mConverterType.getDescriptor(), mPixelType, TEST_WIDTH, TEST_HEIGHT);
+
+    BufferedImage image = new BufferedImage(
+      TEST_WIDTH, TEST_HEIGHT, mConverterType.getImageType());
+    IVideoPicture picture = converter.toPicture(image, 0);
+
+    // the converter should hand back the same image every time
+
+    BufferedImage image1 = converter.toImage(picture, null);
+    BufferedImage image2 = converter.toImage(picture, null);
+    assertNotNull(image1);
+    assertSame(image1, image2);
+    assertEquals(mConverterType.getImageType(), image1.getType());
+
+    // but a plain toImage must always return a new image
+
+    assertNotSame(image1, converter.toImage(picture));
+    converter.delete();
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testVideoPictureToImageWrongSizeTarget()
+  {
+    if (!IVideoResampler.isSupported(Feature.FEATURE_COLORSPACECONVERSION))
+      throw new IllegalArgumentException();
+
+    IConverter converter = ConverterFactory.createConverter(
+      mConverterType.getDescriptor(), mConverterType.getPictureType(),
+      TEST_WIDTH, TEST_HEIGHT);
+
+    BufferedImage image = new BufferedImage(
+      TEST_WIDTH, TEST_HEIGHT, mConverterType.getImageType());
+    IVideoPicture picture = converter.toPicture(image, 0);
+    converter.toImage(picture, new BufferedImage(
+      TEST_WIDTH * 2, TEST_HEIGHT, mConverterType.getImageType()));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testVideoPictureToSubimageTarget()
+  {
+    if (!IVideoResampler.isSupported(Feature.FEATURE_COLORSPACECONVERSION))
+      throw new IllegalArgumentException();
+
+    IConverter converter = ConverterFactory.createConverter(
+      mConverterType.getDescriptor(), mConverterType.getPictureType(),
+      TEST_WIDTH, TEST_HEIGHT);
+
+    BufferedImage image = new BufferedImage(
+      TEST_WIDTH, TEST_HEIGHT, mConverterType.getImageType());
+    IVideoPicture picture = converter.toPicture(image, 0);
+    BufferedImage parent = new BufferedImage(
+      TEST_WIDTH * 2, TEST_HEIGHT * 2, mConverterType.getImageType());
+    converter.toImage(picture,
+      parent.getSubimage(TEST_WIDTH, TEST_HEIGHT, TEST_WIDTH, TEST_HEIGHT));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testImageToVideoPictureWrongTypeTarget()
+  {
+    if (!IVideoResampler.isSupported(Feature.FEATURE_COLORSPACECONVERSION))
+      throw new IllegalArgumentException();
+
+    IConverter converter = ConverterFactory.createConverter(
+      mConverterType.getDescriptor(), mConverterType.getPictureType(),
+      TEST_WIDTH, TEST_HEIGHT);
+
+    BufferedImage image = new BufferedImage(
+      TEST_WIDTH, TEST_HEIGHT, mConverterType.getImageType());
+    converter.toPicture(image, 0, IVideoPicture.make(
+      IPixelFormat.Type.GRAY16BE, TEST_WIDTH, TEST_HEIGHT));
+  }
+
+  @Test
+  public void testBandedConversionMatchesSerial()
+  {
+    if (!IVideoResampler.isSupported(Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    // tall enough for four bands
+
+    int w = TEST_WIDTH * 4;
+    int h = TEST_HEIGHT * 6;
+    Random rnd = new Random(1);
+
+    IConverter serial = ConverterFactory.createConverter(
+      mConverterType.getDescriptor(), mPixelType, w, h);
+    IConverter banded = ConverterFactory.createConverter(
+      mConverterType.getDescriptor(), mPixelType, w, h);
+    banded.setNumBands(4);
+    assertEquals(4, banded.getNumBands());
+
+    BufferedImage image = new BufferedImage(
+      w, h, mConverterType.getImageType());
+    for (int x = 0; x < w; ++x)
+      for (int y = 0; y < h; ++y)
+        image.setRGB(x, y, rnd.nextInt());
+
+    // both directions must produce exactly the same bytes
+
+    IVideoPicture picture1 = serial.toPicture(image, 0);
+    IVideoPicture picture2 = banded.toPicture(image, 0);
+    byte[] bytes1 = new byte[picture1.getSize()];
+    byte[] bytes2 = new byte[picture2.getSize()];
+    picture1.getByteBuffer().get(bytes1);
+    picture2.getByteBuffer().get(bytes2);
+    assertTrue("banded picture differs", 
+      Arrays.equals(bytes1, bytes2));
+
+    BufferedImage image1 = serial.toImage(picture1);
+    BufferedImage image2 = banded.toImage(picture1);
+    for (int x = 0; x < w; ++x)
+      for (int y = 0; y < h; ++y)
+        assertEquals("banded image differs at " + x + ", " + y,
+          image1.getRGB(x, y), image2.getRGB(x, y));
+
+    serial.delete();
+    banded.delete();
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testSetNumBandsInvalid()
+  {
+    IConverter converter = ConverterFactory.createConverter(
+      mConverterType.getDescriptor(), mConverterType.getPictureType(),
+      TEST_WIDTH, TEST_HEIGHT);
+    converter.setNumBands(0);
+  }
+
   @Test
   public void testPictureToPictureWithRotate()
   {
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import org.junit.Test;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+import static org.junit.Assert.*;
+
+public class FrameHasherTest
+{
+  private static final int WIDTH = 160;
+  private static final int HEIGHT = 120;
+
+  @Test
+  public void testSamePictureSameHash()
+  {
+    for (FrameHasher.Algorithm algorithm : FrameHasher.Algorithm.values())
+    {
+      FrameHasher hasher = new FrameHasher(algorithm);
+      long hash1 = hasher.hash(makePicture(0, 0));
+      long hash2 = hasher.hash(makePicture(0, 0));
+      assertEquals(algorithm.toString(), hash1, hash2);
+    }
+  }
+
+  @Test
+  public void testDifferenceHashOfGradient()
+  {
+    FrameHasher hasher = new FrameHasher(FrameHasher.Algorithm.DHASH);
+
+    // brighter to the right everywhere sets every bit
+
+    assertEquals(-1L, hasher.hash(makeGradient(false)));
+    assertEquals(0L, hasher.hash(makeGradient(true)));
+  }
+
+  @Test
+  public void testNearDuplicates()
+  {
+    for (FrameHasher.Algorithm algorithm : FrameHasher.Algorithm.values())
+    {
+      FrameHasher hasher = new FrameHasher(algorithm);
+      long original = hasher.hash(makePicture(0, 0));
+      long brighter = hasher.hash(makePicture(0, 20));
+      long other = hasher.hash(makePicture(1, 0));
+      assertTrue(algorithm + " brighter",
+        FrameHasher.distance(original, brighter) <= 4);
+      assertTrue(algorithm + " other",
+        FrameHasher.distance(original, other) > 10);
+    }
+  }
+
+  @Test
+  public void testOddSizesAndGray()
+  {
+    FrameHasher hasher = new FrameHasher(FrameHasher.Algorithm.PHASH);
+    IVideoPicture picture = IVideoPicture.make(IPixelFormat.Type.GRAY8, 33, 37);
+    picture.setComplete(true, IPixelFormat.Type.GRAY8, 33, 37, 0);
+    VideoPlanes planes = VideoPlanes.make(picture);
+    planes.getY().fill(0, 0, 16, 37, 200);
+    planes.delete();
+    long hash = hasher.hash(picture);
+    assertTrue(hash != 0 && hash != -1);
+  }
+
+  @Test
+  public void testStreamingSignature()
+  {
+    FrameHasher hasher = new FrameHasher(FrameHasher.Algorithm.DHASH);
+    for (int i = 0; i < 40; i++)
+    {
+      IVideoPicture picture = makePicture(i % 3, 0);
+      picture.setTimeStamp(i * 1000000L);
+      hasher.add(picture);
+    }
+    FrameSignature signature = hasher.getSignature();
+    assertEquals(40, signature.size());
+    assertEquals(FrameHasher.Algorithm.DHASH, signature.getAlgorithm());
+    assertEquals(39000000L, signature.getTimeStamp(39));
+    assertEquals(signature.getHash(0), signature.getHash(3));
+
+    // the signature does not change as pictures are added
+
+    hasher.add(makePicture(0, 0));
+    assertEquals(40, signature.size());
+    hasher.reset();
+    assertEquals(0, hasher.getSignature().size());
+  }
+
+  @Test
+  public void testSimilarity()
+  {
+    FrameHasher hasher = new FrameHasher(FrameHasher.Algorithm.PHASH);
+    hasher.add(makePicture(0, 0));
+    hasher.add(makePicture(1, 0));
+    FrameSignature a = hasher.getSignature();
+    hasher.reset();
+    hasher.add(makePicture(1, 10));
+    hasher.add(makePicture(2, 0));
+    FrameSignature b = hasher.getSignature();
+
+    assertEquals(1.0, a.similarity(a, 0), 0);
+    assertEquals(0.5, a.similarity(b, 6), 0);
+    assertEquals(0, b.indexOfClosest(a.getHash(1)));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testDifferentAlgorithms()
+  {
+    FrameSignature a = new FrameHasher(FrameHasher.Algorithm.PHASH)
+      .getSignature();
+    FrameSignature b = new FrameHasher(FrameHasher.Algorithm.DHASH)
+      .getSignature();
+    a.similarity(b, 0);
+  }
+
+  @Test
+  public void testSignatureRoundTrip()
+  {
+    FrameHasher hasher = new FrameHasher(FrameHasher.Algorithm.PHASH);
+    long[] timeStamps = { 0, 2002000, 1001000, 5000000000L,
+      com.xuggle.xuggler.Global.NO_PTS };
+    for (long timeStamp : timeStamps)
+    {
+      IVideoPicture picture = makePicture((int) (timeStamp & 3), 0);
+      picture.setTimeStamp(timeStamp);
+      hasher.add(picture);
+    }
+    FrameSignature signature = hasher.getSignature();
+    byte[] bytes = signature.toByteArray();
+    assertTrue(bytes.length < 5 + 5 * 19);
+    FrameSignature copy = FrameSignature.fromByteArray(bytes);
+    assertEquals(signature, copy);
+    for (int i = 0; i < timeStamps.length; i++)
+      assertEquals(timeStamps[i], copy.getTimeStamp(i));
+  }
+
+  @Test
+  public void testLongSignatureRoundTrip()
+  {
+    long[] timeStamps = new long[5000];
+    long[] hashes = new long[timeStamps.length];
+    for (int i = 0; i < timeStamps.length; i++)
+    {
+      timeStamps[i] = i * 33367L;
+      hashes[i] = i * 0x9e3779b97f4a7c15L;
+    }
+    FrameSignature signature = new FrameSignature(
+      FrameHasher.Algorithm.DHASH, timeStamps, hashes);
+    assertEquals(signature,
+      FrameSignature.fromByteArray(signature.toByteArray()));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testTruncatedSignatureWithHugeSize()
+  {
+    // claims Integer.MAX_VALUE entries but holds none; must fail on the
+    // missing data rather than allocating for the claimed size
+    FrameSignature.fromByteArray(new byte[] { 'X', 'F', 'S', 1, 0,
+      (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 });
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testBadSignature()
+  {
+    FrameSignature.fromByteArray(new byte[] { 'X', 'F', 'S', 9, 0, 0 });
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testUnsupportedType()
+  {
+    IVideoPicture picture = IVideoPicture.make(IPixelFormat.Type.BGR24,
+      WIDTH, HEIGHT);
+    picture.setComplete(true, IPixelFormat.Type.BGR24, WIDTH, HEIGHT, 0);
+    new FrameHasher(FrameHasher.Algorithm.DHASH).hash(picture);
+  }
+
+  @Test
+  public void testFingerprintFile()
+  {
+    FrameHasher hasher = new FrameHasher(FrameHasher.Algorithm.PHASH);
+    FrameSignature signature = hasher.fingerprint("fixtures/testfile.flv");
+    assertTrue(signature.size() > 0);
+    assertEquals(signature, hasher.fingerprint("fixtures/testfile.flv"));
+    assertEquals(1.0, signature.similarity(signature, 0), 0);
+  }
+
+  /**
+   * Make a picture.  Pattern 0 is a bright block on the left, 1 one on the
+   * right, and 2 a horizontal band; everything is lifted by brightness.
+   */
+
+  private static IVideoPicture makePicture(int pattern, int brightness)
+  {
+    IVideoPicture picture = IVideoPicture.make(IPixelFormat.Type.YUV420P,
+      WIDTH, HEIGHT);
+    picture.setComplete(true, IPixelFormat.Type.YUV420P, WIDTH, HEIGHT, 0);
+    VideoPlanes planes = VideoPlanes.make(picture);
+    planes.fill(40 + brightness, 128, 128);
+    VideoPlanes.Plane y = planes.getY();
+    switch (pattern)
+    {
+      case 0:
+        y.fill(10, 20, 50, 60, 200 + brightness);
+        y.fill(90, 80, 40, 30, 120 + brightness);
+        break;
+      case 1:
+        y.fill(100, 10, 50, 70, 200 + brightness);
+        y.fill(20, 70, 30, 40, 150 + brightness);
+        break;
+      default:
+        y.fill(0, 40, WIDTH, 40, 200 + brightness);
+    }
+    planes.delete();
+    return picture;
+  }
+
+  private static IVideoPicture makeGradient(boolean reversed)
+  {
+    IVideoPicture picture = IVideoPicture.make(IPixelFormat.Type.YUV420P,
+      WIDTH, HEIGHT);
+    picture.setComplete(true, IPixelFormat.Type.YUV420P, WIDTH, HEIGHT, 0);
+    VideoPlanes planes = VideoPlanes.make(picture);
+    planes.fill(0, 128, 128);
+    for (int x = 0; x < WIDTH; x++)
+      planes.getY().fill(x, 0, 1, HEIGHT, reversed ? 255 - x : x);
+    planes.delete();
+    return picture;
+  }
+}
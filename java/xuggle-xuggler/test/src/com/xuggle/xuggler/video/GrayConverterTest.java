@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+import static org.junit.Assert.*;
+
+public class GrayConverterTest
+{
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  @Test
+  public void testIsRegistered()
+  {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_BYTE_GRAY);
+    assertEquals(ConverterFactory.XUGGLER_GRAY_8,
+        ConverterFactory.findDescriptor(image));
+  }
+
+  @Test
+  public void testPlanarYuvDoesNotResample()
+  {
+    for(IPixelFormat.Type type : new IPixelFormat.Type[]{
+        IPixelFormat.Type.YUV420P, IPixelFormat.Type.YUVJ420P,
+        IPixelFormat.Type.YUV422P, IPixelFormat.Type.YUV444P,
+        IPixelFormat.Type.GRAY8 })
+    {
+      IConverter converter = ConverterFactory.createConverter(
+          ConverterFactory.XUGGLER_GRAY_8, type, WIDTH, HEIGHT);
+      assertTrue(converter instanceof GrayConverter);
+      assertFalse(type.toString(), converter.willResample());
+      converter.delete();
+    }
+  }
+
+  @Test
+  public void testCopiesLuma()
+  {
+    GrayConverter converter = new GrayConverter(IPixelFormat.Type.YUV420P,
+        WIDTH, HEIGHT, WIDTH, HEIGHT);
+    BufferedImage image = makeImage(WIDTH, HEIGHT, new Random(3));
+    IVideoPicture picture = converter.toPicture(image, 7);
+    assertTrue(picture.isComplete());
+    assertEquals(7, picture.getTimeStamp());
+    assertEquals(IPixelFormat.Type.YUV420P, picture.getPixelType());
+
+    // luma is the image, and there's no color
+
+    byte[] bytes = ((DataBufferByte)image.getRaster().getDataBuffer())
+      .getData();
+    for(int y = 0; y < HEIGHT; y++)
+      for(int x = 0; x < WIDTH; x++)
+        assertEquals(bytes[y * WIDTH + x] & 0xff,
+            IPixelFormat.getYUV420PPixel(picture, x, y,
+                IPixelFormat.YUVColorComponent.YUV_Y));
+    assertEquals(128, IPixelFormat.getYUV420PPixel(picture, 0, 0,
+        IPixelFormat.YUVColorComponent.YUV_U));
+    assertEquals(128, IPixelFormat.getYUV420PPixel(picture, WIDTH - 1,
+        HEIGHT - 1, IPixelFormat.YUVColorComponent.YUV_V));
+
+    // and back again, exactly
+
+    BufferedImage image2 = converter.toImage(picture);
+    assertEquals(BufferedImage.TYPE_BYTE_GRAY, image2.getType());
+    assertArrayEquals(bytes,
+        ((DataBufferByte)image2.getRaster().getDataBuffer()).getData());
+    converter.delete();
+  }
+
+  @Test
+  public void testOddSizeAndReusedTargets()
+  {
+    final int w = WIDTH - 1;
+    final int h = HEIGHT - 1;
+    GrayConverter converter = new GrayConverter(IPixelFormat.Type.YUV420P,
+        w, h, w, h);
+    BufferedImage image = makeImage(w, h, new Random(4));
+    IVideoPicture picture = IVideoPicture.make(IPixelFormat.Type.YUV420P,
+        w, h);
+    assertSame(picture, converter.toPicture(image, 0, picture));
+    BufferedImage image2 = new BufferedImage(w, h,
+        BufferedImage.TYPE_BYTE_GRAY);
+    assertSame(image2, converter.toImage(picture, image2));
+    assertArrayEquals(
+        ((DataBufferByte)image.getRaster().getDataBuffer()).getData(),
+        ((DataBufferByte)image2.getRaster().getDataBuffer()).getData());
+    converter.delete();
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testSubimageTarget()
+  {
+    GrayConverter converter = new GrayConverter(IPixelFormat.Type.YUV420P,
+        WIDTH, HEIGHT, WIDTH, HEIGHT);
+    IVideoPicture picture = converter.toPicture(
+        makeImage(WIDTH, HEIGHT, new Random(5)), 0);
+    BufferedImage parent = new BufferedImage(WIDTH * 2, HEIGHT * 2,
+        BufferedImage.TYPE_BYTE_GRAY);
+    converter.toImage(picture,
+        parent.getSubimage(WIDTH, HEIGHT, WIDTH, HEIGHT));
+  }
+
+  private static BufferedImage makeImage(int w, int h, Random random)
+  {
+    BufferedImage image = new BufferedImage(w, h,
+        BufferedImage.TYPE_BYTE_GRAY);
+    random.nextBytes(((DataBufferByte)image.getRaster().getDataBuffer())
+        .getData());
+    return image;
+  }
+}
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.IVideoResampler;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailMakerTest
+{
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidSize()
+  {
+    new ThumbnailMaker(0, 10, BufferedImage.TYPE_3BYTE_BGR,
+        ThumbnailMaker.Filter.BOX);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidImageType()
+  {
+    new ThumbnailMaker(16, 12, BufferedImage.TYPE_BYTE_GRAY,
+        ThumbnailMaker.Filter.BOX);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidFilter()
+  {
+    new ThumbnailMaker(16, 12, BufferedImage.TYPE_3BYTE_BGR, null);
+  }
+
+  @Test
+  public void testBoxOfFlatPicture()
+  {
+    IVideoPicture picture = makePicture(WIDTH, HEIGHT, 0x336699, 0x336699);
+    for(int type : new int[]{ BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_INT_ARGB })
+    {
+      ThumbnailMaker maker = new ThumbnailMaker(16, 12, type,
+          ThumbnailMaker.Filter.BOX);
+      BufferedImage image = maker.toImage(picture);
+      assertEquals(16, image.getWidth());
+      assertEquals(12, image.getHeight());
+      assertEquals(type, image.getType());
+      for(int y = 0; y < image.getHeight(); y++)
+        for(int x = 0; x < image.getWidth(); x++)
+          assertColor(0x336699, image.getRGB(x, y), 4);
+      maker.close();
+    }
+  }
+
+  @Test
+  public void testBoxAverages()
+  {
+    // white on the left, black on the right
+
+    IVideoPicture picture = makePicture(WIDTH, HEIGHT, 0xffffff, 0);
+
+    ThumbnailMaker halves = new ThumbnailMaker(2, 1,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.BOX);
+    BufferedImage image = halves.toImage(picture);
+    assertColor(0xffffff, image.getRGB(0, 0), 2);
+    assertColor(0x000000, image.getRGB(1, 0), 2);
+    halves.close();
+
+    ThumbnailMaker whole = new ThumbnailMaker(1, 1,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.BOX);
+    assertColor(0x808080, whole.toImage(picture).getRGB(0, 0), 4);
+    whole.close();
+  }
+
+  @Test
+  public void testBoxGrowsOddSizes()
+  {
+    IVideoPicture picture = makePicture(7, 5, 0xffffff, 0);
+    ThumbnailMaker maker = new ThumbnailMaker(21, 15,
+        BufferedImage.TYPE_INT_ARGB, ThumbnailMaker.Filter.BOX);
+    BufferedImage image = maker.toImage(picture);
+    assertColor(0xffffff, image.getRGB(0, 0), 2);
+    assertColor(0x000000, image.getRGB(20, 14), 2);
+    maker.close();
+  }
+
+  @Test
+  public void testReusesImage()
+  {
+    IVideoPicture picture = makePicture(WIDTH, HEIGHT, 0xffffff, 0);
+    ThumbnailMaker maker = new ThumbnailMaker(16, 12,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.BOX);
+    BufferedImage image = new BufferedImage(16, 12,
+        BufferedImage.TYPE_3BYTE_BGR);
+    assertSame(image, maker.toImage(picture, image));
+    maker.close();
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testWrongImageSize()
+  {
+    IVideoPicture picture = makePicture(WIDTH, HEIGHT, 0xffffff, 0);
+    ThumbnailMaker maker = new ThumbnailMaker(16, 12,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.BOX);
+    maker.toImage(picture, new BufferedImage(16, 13,
+        BufferedImage.TYPE_3BYTE_BGR));
+  }
+
+  @Test
+  public void testDrawThumbnail()
+  {
+    IVideoPicture picture = makePicture(WIDTH, HEIGHT, 0xffffff, 0);
+    for(int type : new int[]{ BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_INT_ARGB })
+    {
+      ThumbnailMaker maker = new ThumbnailMaker(16, 12, type,
+          ThumbnailMaker.Filter.BOX);
+      BufferedImage thumbnail = maker.toImage(picture);
+      BufferedImage sheet = new BufferedImage(40, 30, type);
+      maker.drawThumbnail(picture, sheet, 20, 10);
+
+      // the thumbnail lands where asked, and nothing else is touched
+
+      for(int y = 0; y < sheet.getHeight(); y++)
+        for(int x = 0; x < sheet.getWidth(); x++)
+          if (x >= 20 && x < 36 && y >= 10 && y < 22)
+            assertEquals(thumbnail.getRGB(x - 20, y - 10), sheet.getRGB(x, y));
+          else
+            assertEquals(sheet.getRGB(0, 0), sheet.getRGB(x, y));
+      maker.close();
+    }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testDrawThumbnailOutside()
+  {
+    IVideoPicture picture = makePicture(WIDTH, HEIGHT, 0xffffff, 0);
+    ThumbnailMaker maker = new ThumbnailMaker(16, 12,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.BOX);
+    maker.drawThumbnail(picture, new BufferedImage(40, 30,
+        BufferedImage.TYPE_3BYTE_BGR), 30, 0);
+  }
+
+  @Test
+  public void testNativeMatchesBox()
+  {
+    if (!IVideoResampler.isSupported(
+        IVideoResampler.Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    IVideoPicture picture = makePicture(WIDTH, HEIGHT, 0x336699, 0x996633);
+    ThumbnailMaker box = new ThumbnailMaker(16, 12,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.BOX);
+    ThumbnailMaker nativeMaker = new ThumbnailMaker(16, 12,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.NATIVE);
+    BufferedImage boxImage = box.toImage(picture);
+    BufferedImage nativeImage = nativeMaker.toImage(picture);
+
+    // compare away from the edge, where the filters differ most
+
+    for(int y = 0; y < 12; y++)
+    {
+      assertColor(boxImage.getRGB(2, y), nativeImage.getRGB(2, y), 8);
+      assertColor(boxImage.getRGB(13, y), nativeImage.getRGB(13, y), 8);
+    }
+    box.close();
+    nativeMaker.close();
+  }
+
+  @Test
+  public void testCachesPerSize()
+  {
+    if (!IVideoResampler.isSupported(
+        IVideoResampler.Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    ThumbnailMaker maker = new ThumbnailMaker(16, 12,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.NATIVE, 2);
+    assertEquals(0, maker.getNumSizes());
+    maker.toImage(makePicture(WIDTH, HEIGHT, 0, 0));
+    maker.toImage(makePicture(WIDTH, HEIGHT, 0, 0));
+    assertEquals(1, maker.getNumSizes());
+    maker.toImage(makePicture(WIDTH * 2, HEIGHT * 2, 0, 0));
+    assertEquals(2, maker.getNumSizes());
+    maker.toImage(makePicture(WIDTH / 2, HEIGHT / 2, 0, 0));
+    assertEquals(2, maker.getNumSizes());
+    maker.close();
+    assertEquals(0, maker.getNumSizes());
+  }
+
+  @Test
+  public void testBoxOfOtherPictureTypes()
+  {
+    if (!IVideoResampler.isSupported(
+        IVideoResampler.Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    BgrConverter converter = new BgrConverter(IPixelFormat.Type.BGR24,
+        WIDTH, HEIGHT, WIDTH, HEIGHT);
+    BufferedImage source = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_3BYTE_BGR);
+    for(int y = 0; y < HEIGHT; y++)
+      for(int x = 0; x < WIDTH; x++)
+        source.setRGB(x, y, 0x336699);
+    IVideoPicture picture = converter.toPicture(source, 0);
+    converter.delete();
+
+    ThumbnailMaker maker = new ThumbnailMaker(8, 6,
+        BufferedImage.TYPE_3BYTE_BGR, ThumbnailMaker.Filter.BOX);
+    assertColor(0x336699, maker.toImage(picture).getRGB(4, 3), 6);
+    assertEquals(1, maker.getNumSizes());
+    maker.close();
+  }
+
+  /**
+   * Make a 4:2:0 picture with one color on the left half and another on
+   * the right.
+   */
+
+  private static IVideoPicture makePicture(int w, int h, int left, int right)
+  {
+    BufferedImage image = new BufferedImage(w, h,
+        BufferedImage.TYPE_3BYTE_BGR);
+    for(int y = 0; y < h; y++)
+      for(int x = 0; x < w; x++)
+        image.setRGB(x, y, x < (w + 1) / 2 ? left : right);
+    YuvBgrConverter converter = new YuvBgrConverter(
+        IPixelFormat.Type.YUV420P, w, h, w, h);
+    IVideoPicture picture = converter.toPicture(image, 0);
+    converter.delete();
+    return picture;
+  }
+
+  private static void assertColor(int expected, int actual, int tolerance)
+  {
+    for(int shift = 0; shift < 24; shift += 8)
+    {
+      int e = (expected >> shift) & 0xff;
+      int a = (actual >> shift) & 0xff;
+      assertTrue("expected " + Integer.toHexString(expected) + " but got "
+          + Integer.toHexString(actual), Math.abs(e - a) <= tolerance);
+    }
+  }
+}
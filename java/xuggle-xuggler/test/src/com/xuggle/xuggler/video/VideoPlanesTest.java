@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+
+import static org.junit.Assert.*;
+
+public class VideoPlanesTest
+{
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  private IVideoPicture mPicture;
+  private VideoPlanes mPlanes;
+
+  @Before
+  public void setUp()
+  {
+    mPicture = makePicture(IPixelFormat.Type.YUV420P, WIDTH, HEIGHT);
+    mPlanes = VideoPlanes.make(mPicture);
+  }
+
+  @After
+  public void tearDown()
+  {
+    mPlanes.delete();
+    mPicture.delete();
+  }
+
+  @Test
+  public void testPlaneSizes()
+  {
+    assertEquals(3, mPlanes.getNumPlanes());
+    assertEquals(WIDTH, mPlanes.getY().getWidth());
+    assertEquals(HEIGHT, mPlanes.getY().getHeight());
+    assertEquals(mPicture.getDataLineSize(0), mPlanes.getY().getStride());
+    assertEquals(WIDTH / 2, mPlanes.getU().getWidth());
+    assertEquals(HEIGHT / 2, mPlanes.getU().getHeight());
+    assertEquals(mPicture.getDataLineSize(1), mPlanes.getU().getStride());
+    assertEquals(WIDTH / 2, mPlanes.getV().getWidth());
+    assertTrue(mPlanes.getY().getBuffer().isDirect());
+  }
+
+  @Test
+  public void testOddSizePlanes()
+  {
+    IVideoPicture picture = makePicture(IPixelFormat.Type.YUV420P, 7, 5);
+    VideoPlanes planes = VideoPlanes.make(picture);
+    assertEquals(4, planes.getU().getWidth());
+    assertEquals(3, planes.getU().getHeight());
+    planes.delete();
+  }
+
+  @Test
+  public void testGray()
+  {
+    IVideoPicture picture = makePicture(IPixelFormat.Type.GRAY8, WIDTH,
+        HEIGHT);
+    VideoPlanes planes = VideoPlanes.make(picture);
+    assertEquals(1, planes.getNumPlanes());
+    planes.fill(200, 0, 0);
+    assertEquals(200, planes.getY().get(WIDTH - 1, HEIGHT - 1));
+    planes.delete();
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testUnsupportedType()
+  {
+    VideoPlanes.make(makePicture(IPixelFormat.Type.BGR24, WIDTH, HEIGHT));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNoChromaPlane()
+  {
+    IVideoPicture picture = makePicture(IPixelFormat.Type.GRAY8, WIDTH,
+        HEIGHT);
+    VideoPlanes.make(picture).getU();
+  }
+
+  @Test
+  public void testMatchesPixelAccessors()
+  {
+    mPlanes.getY().set(3, 4, 17);
+    mPlanes.getU().set(1, 2, 33);
+    mPlanes.getV().set(1, 2, 99);
+    assertEquals(17, IPixelFormat.getYUV420PPixel(mPicture, 3, 4,
+        IPixelFormat.YUVColorComponent.YUV_Y));
+    assertEquals(33, IPixelFormat.getYUV420PPixel(mPicture, 3, 4,
+        IPixelFormat.YUVColorComponent.YUV_U));
+    assertEquals(99, IPixelFormat.getYUV420PPixel(mPicture, 3, 4,
+        IPixelFormat.YUVColorComponent.YUV_V));
+
+    IPixelFormat.setYUV420PPixel(mPicture, 10, 11,
+        IPixelFormat.YUVColorComponent.YUV_Y, (short)250);
+    assertEquals(250, mPlanes.getY().get(10, 11));
+  }
+
+  @Test
+  public void testFillRegion()
+  {
+    mPlanes.fill(16, 128, 128);
+    mPlanes.fill(8, 8, 16, 16, 235, 10, 20);
+    assertEquals(16, mPlanes.getY().get(7, 8));
+    assertEquals(235, mPlanes.getY().get(8, 8));
+    assertEquals(235, mPlanes.getY().get(23, 23));
+    assertEquals(16, mPlanes.getY().get(24, 23));
+    assertEquals(10, mPlanes.getU().get(4, 4));
+    assertEquals(20, mPlanes.getV().get(11, 11));
+    assertEquals(128, mPlanes.getU().get(12, 11));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testFillOutside()
+  {
+    mPlanes.fill(WIDTH - 8, 0, 16, 16, 0, 0, 0);
+  }
+
+  @Test
+  public void testCrop()
+  {
+    ramp(mPlanes);
+    IVideoPicture cropped = VideoPlanes.crop(mPicture, 8, 4, 16, 10, null);
+    assertEquals(16, cropped.getWidth());
+    assertEquals(10, cropped.getHeight());
+    assertTrue(cropped.isComplete());
+    assertEquals(mPicture.getTimeStamp(), cropped.getTimeStamp());
+    VideoPlanes planes = VideoPlanes.make(cropped);
+    for(int y = 0; y < 10; y++)
+      for(int x = 0; x < 16; x++)
+        assertEquals(mPlanes.getY().get(x + 8, y + 4),
+            planes.getY().get(x, y));
+    for(int y = 0; y < 5; y++)
+      for(int x = 0; x < 8; x++)
+        assertEquals(mPlanes.getU().get(x + 4, y + 2),
+            planes.getU().get(x, y));
+    planes.delete();
+
+    // and into an existing picture
+
+    assertSame(cropped, VideoPlanes.crop(mPicture, 0, 0, 16, 10, cropped));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testCropWrongTarget()
+  {
+    VideoPlanes.crop(mPicture, 0, 0, 16, 10,
+        makePicture(IPixelFormat.Type.YUV420P, 16, 12));
+  }
+
+  @Test
+  public void testOverlappingBlit()
+  {
+    ramp(mPlanes);
+    int[] expected = new int[16 * 16];
+    for(int y = 0; y < 16; y++)
+      for(int x = 0; x < 16; x++)
+        expected[y * 16 + x] = mPlanes.getY().get(x, y);
+
+    // copy down and to the right over itself
+
+    mPlanes.blit(mPlanes, 0, 0, 16, 16, 4, 6);
+    for(int y = 0; y < 16; y++)
+      for(int x = 0; x < 16; x++)
+        assertEquals(expected[y * 16 + x], mPlanes.getY().get(x + 4, y + 6));
+  }
+
+  @Test
+  public void testOverlay()
+  {
+    mPlanes.fill(16, 128, 128);
+
+    BufferedImage image = new BufferedImage(8, 8,
+        BufferedImage.TYPE_INT_ARGB);
+    for(int y = 0; y < 8; y++)
+      for(int x = 0; x < 8; x++)
+        image.setRGB(x, y, x < 4 ? 0xffffffff : 0x00ffffff);
+
+    // partly off the top left corner
+
+    mPlanes.overlay(image, -2, -2);
+    assertEquals(235, mPlanes.getY().get(0, 0));
+    assertEquals(235, mPlanes.getY().get(1, 5));
+    assertEquals(16, mPlanes.getY().get(2, 0));
+    assertEquals(16, mPlanes.getY().get(0, 6));
+    assertEquals(128, mPlanes.getU().get(0, 0));
+    assertEquals(128, mPlanes.getV().get(0, 0));
+
+    // half transparent red over black
+
+    mPlanes.fill(16, 128, 128);
+    BufferedImage red = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+    for(int y = 0; y < 2; y++)
+      for(int x = 0; x < 2; x++)
+        red.setRGB(x, y, 0x80ff0000);
+    mPlanes.overlay(red, 10, 10);
+    int luma = mPlanes.getY().get(10, 10);
+    assertTrue("luma " + luma, luma > 40 && luma < 60);
+    int v = mPlanes.getV().get(5, 5);
+    assertTrue("v " + v, v > 180 && v < 200);
+  }
+
+  @Test
+  public void testOverlayBgr()
+  {
+    mPlanes.fill(16, 128, 128);
+    BufferedImage image = new BufferedImage(4, 4,
+        BufferedImage.TYPE_3BYTE_BGR);
+    for(int y = 0; y < 4; y++)
+      for(int x = 0; x < 4; x++)
+        image.setRGB(x, y, 0xffffff);
+    mPlanes.overlay(image, WIDTH - 2, HEIGHT - 2);
+    assertEquals(235, mPlanes.getY().get(WIDTH - 1, HEIGHT - 1));
+    assertEquals(16, mPlanes.getY().get(WIDTH - 3, HEIGHT - 1));
+  }
+
+  private static void ramp(VideoPlanes planes)
+  {
+    for(int i = 0; i < planes.getNumPlanes(); i++)
+    {
+      VideoPlanes.Plane plane = planes.getPlane(i);
+      for(int y = 0; y < plane.getHeight(); y++)
+        for(int x = 0; x < plane.getWidth(); x++)
+          plane.set(x, y, (x * 7 + y * 13 + i * 50) & 0xff);
+    }
+  }
+
+  private static IVideoPicture makePicture(IPixelFormat.Type type, int w,
+      int h)
+  {
+    IVideoPicture picture = IVideoPicture.make(type, w, h);
+    picture.setComplete(true, type, w, h, 42);
+    return picture;
+  }
+}
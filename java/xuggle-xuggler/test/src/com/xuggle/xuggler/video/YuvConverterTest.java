@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 Xuggle Inc.  All rights reserved.
+ *  
+ * This file is part of Xuggle-Xuggler-Main.
+ *
+ * Xuggle-Xuggler-Main is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xuggle-Xuggler-Main is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Xuggle-Xuggler-Main.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package com.xuggle.xuggler.video;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.IVideoResampler;
+
+import static org.junit.Assert.*;
+
+public class YuvConverterTest
+{
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  @Test
+  public void testYuv420PDoesNotResample()
+  {
+    IConverter converter = ConverterFactory.createConverter(
+        ConverterFactory.XUGGLER_YUV420P_BGR_24, IPixelFormat.Type.YUV420P,
+        WIDTH, HEIGHT);
+    assertTrue(converter instanceof YuvBgrConverter);
+    assertFalse(converter.willResample());
+    assertEquals(IPixelFormat.Type.YUV420P, converter.getPictureType());
+    converter.delete();
+  }
+
+  @Test
+  public void testFindDescriptorPrefersResamplingConverter()
+  {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_3BYTE_BGR);
+    assertEquals(ConverterFactory.XUGGLER_BGR_24,
+        ConverterFactory.findDescriptor(image));
+  }
+
+  @Test
+  public void testRoundTrip()
+  {
+    for(YuvMatrix matrix : YuvMatrix.values())
+      for(IPixelFormat.Type type : new IPixelFormat.Type[]{
+          IPixelFormat.Type.YUV420P, IPixelFormat.Type.YUVJ420P })
+      {
+        YuvBgrConverter bgr = new YuvBgrConverter(type, WIDTH, HEIGHT,
+            WIDTH, HEIGHT);
+        bgr.setMatrix(matrix);
+        assertRoundTrip(bgr, WIDTH, HEIGHT, 3);
+        bgr.delete();
+
+        YuvArgbConverter argb = new YuvArgbConverter(type, WIDTH, HEIGHT,
+            WIDTH, HEIGHT);
+        argb.setMatrix(matrix);
+        assertRoundTrip(argb, WIDTH, HEIGHT, 3);
+        argb.delete();
+      }
+  }
+
+  @Test
+  public void testRoundTripOddSize()
+  {
+    final int w = WIDTH - 1;
+    final int h = HEIGHT - 1;
+    YuvBgrConverter converter = new YuvBgrConverter(
+        IPixelFormat.Type.YUV420P, w, h, w, h);
+    assertRoundTrip(converter, w, h, 3);
+    converter.delete();
+  }
+
+  @Test
+  public void testBlackAndWhite()
+  {
+    YuvBgrConverter converter = new YuvBgrConverter(
+        IPixelFormat.Type.YUV420P, WIDTH, HEIGHT, WIDTH, HEIGHT);
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_3BYTE_BGR);
+    for(int y = 0; y < HEIGHT; y++)
+      for(int x = 0; x < WIDTH; x++)
+        image.setRGB(x, y, y < HEIGHT / 2 ? 0xffffff : 0);
+    IVideoPicture picture = converter.toPicture(image, 0);
+
+    // limited range luma for white and black, and no color
+
+    assertEquals(235, IPixelFormat.getYUV420PPixel(picture, 0, 0,
+        IPixelFormat.YUVColorComponent.YUV_Y));
+    assertEquals(16, IPixelFormat.getYUV420PPixel(picture, 0, HEIGHT - 1,
+        IPixelFormat.YUVColorComponent.YUV_Y));
+    assertEquals(128, IPixelFormat.getYUV420PPixel(picture, 0, 0,
+        IPixelFormat.YUVColorComponent.YUV_U));
+    assertEquals(128, IPixelFormat.getYUV420PPixel(picture, 0, 0,
+        IPixelFormat.YUVColorComponent.YUV_V));
+
+    BufferedImage image2 = converter.toImage(picture);
+    assertEquals(0xffffffff, image2.getRGB(0, 0));
+    assertEquals(0xff000000, image2.getRGB(0, HEIGHT - 1));
+    converter.delete();
+  }
+
+  @Test
+  public void testReusesTargets()
+  {
+    YuvBgrConverter converter = new YuvBgrConverter(
+        IPixelFormat.Type.YUV420P, WIDTH, HEIGHT, WIDTH, HEIGHT);
+    BufferedImage image = makeImage(BufferedImage.TYPE_3BYTE_BGR,
+        WIDTH, HEIGHT, new Random(2));
+    IVideoPicture picture = IVideoPicture.make(IPixelFormat.Type.YUV420P,
+        WIDTH, HEIGHT);
+    assertSame(picture, converter.toPicture(image, 5, picture));
+    assertTrue(picture.isComplete());
+    assertEquals(5, picture.getTimeStamp());
+    BufferedImage cached = converter.toImage(picture, null);
+    assertSame(cached, converter.toImage(picture, null));
+    converter.delete();
+  }
+
+  @Test
+  public void testMatchesResampler()
+  {
+    if (!IVideoResampler.isSupported(
+        IVideoResampler.Feature.FEATURE_COLORSPACECONVERSION))
+      return;
+
+    YuvBgrConverter java = new YuvBgrConverter(
+        IPixelFormat.Type.YUV420P, WIDTH, HEIGHT, WIDTH, HEIGHT);
+    BgrConverter resampling = new BgrConverter(
+        IPixelFormat.Type.YUV420P, WIDTH, HEIGHT, WIDTH, HEIGHT);
+    BufferedImage image = makeImage(BufferedImage.TYPE_3BYTE_BGR,
+        WIDTH, HEIGHT, new Random(3));
+
+    // decoding the same picture both ways must agree to within rounding
+
+    IVideoPicture picture = java.toPicture(image, 0);
+    assertSimilar(resampling.toImage(picture), java.toImage(picture), 4);
+    java.delete();
+    resampling.delete();
+  }
+
+  /**
+   * Convert an image of 2x2 blocks of random colors to a picture and
+   * back, and check the colors survive.
+   */
+  private static void assertRoundTrip(IConverter converter, int w, int h,
+      int margin)
+  {
+    BufferedImage image1 = makeImage(converter.getImageType(), w, h,
+        new Random(1));
+    IVideoPicture picture = converter.toPicture(image1, 0);
+    assertEquals(converter.getPictureType(), picture.getPixelType());
+    assertSimilar(image1, converter.toImage(picture), margin);
+    picture.delete();
+  }
+
+  private static BufferedImage makeImage(int type, int w, int h,
+      Random random)
+  {
+    BufferedImage image = new BufferedImage(w, h, type);
+    for(int y = 0; y < h; y += 2)
+      for(int x = 0; x < w; x += 2)
+      {
+        // keep to colors every matrix can represent exactly enough
+
+        final int rgb = (32 + random.nextInt(192)) << 16
+          | (32 + random.nextInt(192)) << 8 | (32 + random.nextInt(192));
+        for(int dy = 0; dy < 2 && y + dy < h; dy++)
+          for(int dx = 0; dx < 2 && x + dx < w; dx++)
+            image.setRGB(x + dx, y + dy, 0xff000000 | rgb);
+      }
+    return image;
+  }
+
+  private static void assertSimilar(BufferedImage image1,
+      BufferedImage image2, int margin)
+  {
+    assertEquals(image1.getWidth(), image2.getWidth());
+    assertEquals(image1.getHeight(), image2.getHeight());
+    for(int y = 0; y < image1.getHeight(); y++)
+      for(int x = 0; x < image1.getWidth(); x++)
+      {
+        final int p1 = image1.getRGB(x, y);
+        final int p2 = image2.getRGB(x, y);
+        for(int shift = 0; shift < 24; shift += 8)
+          assertTrue("pixel (" + x + "," + y + ") is " +
+              Integer.toHexString(p2) + " but should be " +
+              Integer.toHexString(p1),
+              Math.abs(((p1 >> shift) & 0xff) - ((p2 >> shift) & 0xff))
+                <= margin);
+      }
+  }
+}